@@ -28,16 +28,19 @@ public class MapperMethod {
      */
     public Object execute(SqlSession sqlSession, Object[] args) {
         Object result = null;
+        // 获取参数值
+        Object param = method.convertArgsToSqlCommandParam(args);
         switch (command.getType()) {
             case INSERT:
+                result = rowCountResult(sqlSession.insert(command.getName(), param));
                 break;
             case DELETE:
+                result = rowCountResult(sqlSession.delete(command.getName(), param));
                 break;
             case UPDATE:
+                result = rowCountResult(sqlSession.update(command.getName(), param));
                 break;
             case SELECT:
-                // 获取参数值
-                Object param = method.convertArgsToSqlCommandParam(args);
                 result = sqlSession.selectOne(command.getName(), param);
                 break;
             default:
@@ -47,6 +50,26 @@ public class MapperMethod {
         return result;
     }
 
+    /**
+     * 按接口方法的返回类型转换影响行数：void、int/Integer、long/Long、boolean/Boolean
+     */
+    private Object rowCountResult(int rowCount) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class || returnType == Void.class) {
+            return null;
+        }
+        if (returnType == int.class || returnType == Integer.class) {
+            return rowCount;
+        }
+        if (returnType == long.class || returnType == Long.class) {
+            return (long) rowCount;
+        }
+        if (returnType == boolean.class || returnType == Boolean.class) {
+            return rowCount > 0;
+        }
+        throw new RuntimeException("Mapper method '" + command.getName() + "' has an unsupported return type: " + returnType);
+    }
+
     /**
      * sql命令内部类，通过接口方法名获得语句的id（name）就是在这里接口方法名和xml（mapper）中的namespace+id进行映射,以及获取语句类型（type）
      * 最后通过sqlsession用id（映射接口方法名）和入参
@@ -77,12 +100,18 @@ public class MapperMethod {
 
         // 参数位置-java参数类型映射
         private final SortedMap<Integer, String> params;
+        private final Class<?> returnType;
 
         public MethodSignature(Configuration configuration, Method method) {
+            this.returnType = method.getReturnType();
             // 它接受一个 SortedMap 对象作为参数，并返回一个不可修改的 SortedMap 对象。不可修改的意思是，一旦创建了这个不可修改的映射，就不能再对其进行修改，任何对其修改的尝试都会抛出异常。
             this.params = Collections.unmodifiableSortedMap(getParams(method));
         }
 
+        public Class<?> getReturnType() {
+            return returnType;
+        }
+
         /**
          * 无参数返回null
          * 有一个参数返回参数值
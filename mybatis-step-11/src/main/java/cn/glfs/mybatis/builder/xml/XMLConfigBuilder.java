@@ -2,9 +2,18 @@ package cn.glfs.mybatis.builder.xml;
 
 import cn.glfs.mybatis.builder.BaseBuilder;
 import cn.glfs.mybatis.datasource.DataSourceFactory;
+import cn.glfs.mybatis.datasource.pooled.PooledDataSource;
+import cn.glfs.mybatis.datasource.routing.RoutingDataSource;
+import cn.glfs.mybatis.datasource.routing.RoutingTarget;
+import cn.glfs.mybatis.datasource.sharding.ShardingDataSource;
+import cn.glfs.mybatis.datasource.sharding.ShardingRule;
 import cn.glfs.mybatis.io.Resources;
 import cn.glfs.mybatis.mapping.Environment;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.scripting.defaults.RawSqlSource;
 import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.ExecutorType;
+import cn.glfs.mybatis.session.LocalCacheScope;
 import cn.glfs.mybatis.transaction.TransactionFactory;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -15,6 +24,7 @@ import org.xml.sax.InputSource;
 import javax.sql.DataSource;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
@@ -48,15 +58,53 @@ public class XMLConfigBuilder extends BaseBuilder {
      */
     public Configuration parse() {
         try {
+            // 设置
+            settingsElement(root.element("settings"));
             // 环境
             environmentsElement(root.element("environments"));
             // 解析映射器
             mapperElement(root.element("mappers"));
+            // 把静态 SQL 交给连接池，用于新连接预编译
+            preparedStatementWarmup();
         } catch (Exception e) {
             throw new RuntimeException("Error parsing SQL Mapper Configuration. Cause: " + e, e);
         }
         return configuration;
     }
+    /**
+     * <settings>
+     * <setting name="defaultExecutorType" value="REUSE"/>
+     * <setting name="batchSize" value="1000"/>
+     * <setting name="localCacheScope" value="STATEMENT"/>
+     * <setting name="cacheEnabled" value="false"/>
+     * </settings>
+     */
+    private void settingsElement(Element context) {
+        if (context == null) {
+            return;
+        }
+        Properties props = new Properties();
+        for (Element setting : context.elements("setting")) {
+            props.setProperty(setting.attributeValue("name"), setting.attributeValue("value"));
+        }
+        String defaultExecutorType = props.getProperty("defaultExecutorType");
+        if (defaultExecutorType != null) {
+            configuration.setDefaultExecutorType(ExecutorType.valueOf(defaultExecutorType.toUpperCase()));
+        }
+        String batchSize = props.getProperty("batchSize");
+        if (batchSize != null) {
+            configuration.setBatchSize(Integer.parseInt(batchSize));
+        }
+        String localCacheScope = props.getProperty("localCacheScope");
+        if (localCacheScope != null) {
+            configuration.setLocalCacheScope(LocalCacheScope.valueOf(localCacheScope.toUpperCase()));
+        }
+        String cacheEnabled = props.getProperty("cacheEnabled");
+        if (cacheEnabled != null) {
+            configuration.setCacheEnabled(Boolean.parseBoolean(cacheEnabled));
+        }
+    }
+
     /**
      * <environments default="development">
      * <environment id="development">
@@ -69,7 +117,18 @@ public class XMLConfigBuilder extends BaseBuilder {
      * <property name="username" value="${username}"/>
      * <property name="password" value="${password}"/>
      * </dataSource>
+     * <replica name="replica-1" weight="2" type="POOLED">
+     * <property name="url" value="${replicaUrl}"/>
+     * ...
+     * </replica>
      * </environment>
+     * 配置了 replica 时，dataSource 作为主库，和各个从库一起组成 RoutingDataSource 做读写分离，每个库有自己的连接池
+     * 分库时不配 dataSource，改为配置多个 shard，组成 ShardingDataSource，每个 shard 下还可以再配 replica：
+     * <environment id="development" defaultShard="0">
+     * <shard name="shard-0" type="POOLED">
+     * <property name="url" value="${shard0Url}"/>
+     * ...
+     * </shard>
      * </environments>
      */
     private void environmentsElement(Element context) throws Exception {
@@ -82,17 +141,24 @@ public class XMLConfigBuilder extends BaseBuilder {
                 // 事务管理器，这里就使用了别名映射
                 TransactionFactory txFactory = (TransactionFactory) typeAliasRegistry.resolveAlias(e.element("transactionManager").attributeValue("type")).newInstance();
 
-                // 数据源，这里就使用了别名映射
-                Element dataSourceElement = e.element("dataSource");
-                DataSourceFactory dataSourceFactory = (DataSourceFactory) typeAliasRegistry.resolveAlias(dataSourceElement.attributeValue("type")).newInstance();
-
-                List<Element> propertyList = dataSourceElement.elements("property");
-                Properties props = new Properties();
-                for (Element property : propertyList) {
-                    props.setProperty(property.attributeValue("name"), property.attributeValue("value"));
+                // 数据源，这里就使用了别名映射；配置了分片时每个分片是一个数据源
+                DataSource dataSource;
+                List<Element> shardList = e.elements("shard");
+                if (!shardList.isEmpty()) {
+                    ShardingDataSource shardingDataSource = new ShardingDataSource();
+                    for (int i = 0; i < shardList.size(); i++) {
+                        Element shard = shardList.get(i);
+                        String name = shard.attributeValue("name");
+                        shardingDataSource.addShard(name == null ? "shard-" + i : name, withReplicas(dataSourceElement(shard), shard.elements("replica")));
+                    }
+                    String defaultShard = e.attributeValue("defaultShard");
+                    if (defaultShard != null) {
+                        shardingDataSource.setDefaultShard(Integer.parseInt(defaultShard));
+                    }
+                    dataSource = shardingDataSource;
+                } else {
+                    dataSource = withReplicas(dataSourceElement(e.element("dataSource")), e.elements("replica"));
                 }
-                dataSourceFactory.setProperties(props);
-                DataSource dataSource = dataSourceFactory.getDataSource();
 
                 // 构建环境
                 Environment.Builder environmentBuilder = new Environment.Builder(id)
@@ -104,6 +170,33 @@ public class XMLConfigBuilder extends BaseBuilder {
         }
     }
 
+    // 配置了从库时，和主库一起组成 RoutingDataSource
+    private DataSource withReplicas(DataSource dataSource, List<Element> replicaList) throws Exception {
+        if (replicaList.isEmpty()) {
+            return dataSource;
+        }
+        RoutingDataSource routingDataSource = new RoutingDataSource(dataSource);
+        for (int i = 0; i < replicaList.size(); i++) {
+            Element replica = replicaList.get(i);
+            String name = replica.attributeValue("name");
+            String weight = replica.attributeValue("weight");
+            routingDataSource.addReplica(name == null ? "replica-" + (i + 1) : name, dataSourceElement(replica), weight == null ? 1 : Integer.parseInt(weight));
+        }
+        return routingDataSource;
+    }
+
+    private DataSource dataSourceElement(Element dataSourceElement) throws Exception {
+        DataSourceFactory dataSourceFactory = (DataSourceFactory) typeAliasRegistry.resolveAlias(dataSourceElement.attributeValue("type")).newInstance();
+
+        List<Element> propertyList = dataSourceElement.elements("property");
+        Properties props = new Properties();
+        for (Element property : propertyList) {
+            props.setProperty(property.attributeValue("name"), property.attributeValue("value"));
+        }
+        dataSourceFactory.setProperties(props);
+        return dataSourceFactory.getDataSource();
+    }
+
     /**
      * 对总配置文件每个mapper的select语句进行扫描，然后注入到sql语句类中
      * @param mappers
@@ -169,4 +262,46 @@ public class XMLConfigBuilder extends BaseBuilder {
 //            configuration.addMapper(Resources.classForName(namespace));
 //        }
 //    }
-}
\ No newline at end of file
+
+    private void preparedStatementWarmup() {
+        Environment environment = configuration.getEnvironment();
+        if (environment == null) {
+            return;
+        }
+        // 读写分离、分库时每个库的连接池都预热
+        List<PooledDataSource> pooledDataSources = new ArrayList<>();
+        collectPooledDataSources(environment.getDataSource(), pooledDataSources);
+        if (pooledDataSources.isEmpty()) {
+            return;
+        }
+        List<String> sqlList = new ArrayList<>();
+        for (MappedStatement ms : configuration.getMappedStatements()) {
+            // 动态 SQL 执行时才能确定，只预热静态 SQL
+            // 分表的语句执行时才改写表名，也不预热
+            ShardingRule shardingRule = configuration.getShardingRule(ms);
+            if (ms.getSqlSource() instanceof RawSqlSource && (shardingRule == null || shardingRule.getLogicTable() == null)) {
+                sqlList.add(ms.getSqlSource().getBoundSql(null).getSql());
+            }
+        }
+        for (PooledDataSource pooledDataSource : pooledDataSources) {
+            pooledDataSource.setPreparedStatementWarmupSql(sqlList);
+        }
+    }
+
+    private void collectPooledDataSources(DataSource dataSource, List<PooledDataSource> pooledDataSources) {
+        if (dataSource instanceof ShardingDataSource) {
+            for (ShardingDataSource.Shard shard : ((ShardingDataSource) dataSource).getShards()) {
+                collectPooledDataSources(shard.getDataSource(), pooledDataSources);
+            }
+        } else if (dataSource instanceof RoutingDataSource) {
+            RoutingDataSource routingDataSource = (RoutingDataSource) dataSource;
+            collectPooledDataSources(routingDataSource.getPrimary().getDataSource(), pooledDataSources);
+            for (RoutingTarget replica : routingDataSource.getReplicas()) {
+                collectPooledDataSources(replica.getDataSource(), pooledDataSources);
+            }
+        } else if (dataSource instanceof PooledDataSource) {
+            pooledDataSources.add((PooledDataSource) dataSource);
+        }
+    }
+
+}
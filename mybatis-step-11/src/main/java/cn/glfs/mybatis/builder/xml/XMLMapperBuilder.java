@@ -1,7 +1,14 @@
 package cn.glfs.mybatis.builder.xml;
 
 import cn.glfs.mybatis.builder.BaseBuilder;
+import cn.glfs.mybatis.cache.Cache;
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.sharding.HashShardingStrategy;
+import cn.glfs.mybatis.datasource.sharding.RangeShardingStrategy;
+import cn.glfs.mybatis.datasource.sharding.ShardingRule;
+import cn.glfs.mybatis.datasource.sharding.ShardingStrategy;
 import cn.glfs.mybatis.io.Resources;
+import cn.glfs.mybatis.mapping.CacheBuilder;
 import cn.glfs.mybatis.session.Configuration;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -48,10 +55,99 @@ public class XMLMapperBuilder  extends BaseBuilder {
         if(currentNamespace.equals("")){
             throw new RuntimeException("Mapper's namespace cannot be empty");
         }
+        // 命名空间下语句获取连接的优先级，比如批处理用的映射器配置为 LOW
+        String connectionPriority = element.attributeValue("connectionPriority");
+        if (connectionPriority != null && !connectionPriority.isEmpty()) {
+            configuration.setNamespacePriority(currentNamespace, ConnectionPriority.valueOf(connectionPriority.toUpperCase()));
+        }
+
+        // 二级缓存，要在解析语句之前建好
+        Element cache = element.element("cache");
+        if (cache != null) {
+            configuration.addCache(cacheElement(cache));
+        }
+
+        // 分库规则
+        Element sharding = element.element("sharding");
+        if (sharding != null) {
+            configuration.setShardingRule(currentNamespace, shardingElement(sharding));
+        }
 
         // 2.配置select|insert|update|delete
         // 对每个查询类型的sql语句进行解析
         buildStatementFromContext(element.elements("select"));
+        buildStatementFromContext(element.elements("insert"));
+        buildStatementFromContext(element.elements("update"));
+        buildStatementFromContext(element.elements("delete"));
+    }
+
+    /**
+     * <sharding shardKey="id" strategy="range" ranges="1000000,2000000" table="t_user"/>
+     * strategy 为 hash（默认）、range 或者 ShardingStrategy 实现类的全名；table 配置时把 SQL 里的表名改写为 t_user_分片下标
+     */
+    private ShardingRule shardingElement(Element sharding) {
+        String strategy = sharding.attributeValue("strategy");
+        ShardingStrategy shardingStrategy;
+        if (strategy == null || strategy.isEmpty() || "hash".equalsIgnoreCase(strategy)) {
+            shardingStrategy = new HashShardingStrategy();
+        } else if ("range".equalsIgnoreCase(strategy)) {
+            String[] ranges = sharding.attributeValue("ranges", "").split(",");
+            long[] upperBounds = new long[ranges.length];
+            for (int i = 0; i < ranges.length; i++) {
+                upperBounds[i] = Long.parseLong(ranges[i].trim());
+            }
+            shardingStrategy = new RangeShardingStrategy(upperBounds);
+        } else {
+            try {
+                shardingStrategy = (ShardingStrategy) Resources.classForName(strategy).newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException("Error creating sharding strategy " + strategy + ". Cause: " + e, e);
+            }
+        }
+        return new ShardingRule(sharding.attributeValue("shardKey"), shardingStrategy, sharding.attributeValue("table"));
+    }
+
+    /**
+     * <cache eviction="TINYLFU" size="10000" ttl="60000" readOnly="true" stripes="16" offHeapMemory="256m"/>
+     * eviction 为 LRU（默认）、FIFO、SOFT、WEAK、TINYLFU 或者淘汰装饰器的类全名；ttl 为条目存活的毫秒数；
+     * readOnly 为 false（默认）时缓存序列化后的副本，结果对象要实现 Serializable；
+     * offHeapMemory 配置时（支持 k/m/g 后缀）结果编码后放在堆外，不要求 Serializable
+     */
+    private Cache cacheElement(Element cache) {
+        CacheBuilder builder = new CacheBuilder(currentNamespace);
+        String eviction = cache.attributeValue("eviction");
+        if (eviction != null && !eviction.isEmpty()) {
+            builder.eviction(eviction);
+        }
+        String size = cache.attributeValue("size");
+        if (size != null && !size.isEmpty()) {
+            builder.size(Integer.parseInt(size));
+        }
+        String ttl = cache.attributeValue("ttl");
+        if (ttl != null && !ttl.isEmpty()) {
+            builder.ttl(Long.parseLong(ttl));
+        }
+        String stripes = cache.attributeValue("stripes");
+        if (stripes != null && !stripes.isEmpty()) {
+            builder.stripes(Integer.parseInt(stripes));
+        }
+        String offHeapMemory = cache.attributeValue("offHeapMemory");
+        if (offHeapMemory != null && !offHeapMemory.isEmpty()) {
+            builder.offHeapMemory(parseBytes(offHeapMemory));
+        }
+        return builder.readOnly(Boolean.parseBoolean(cache.attributeValue("readOnly"))).build();
+    }
+
+    // 64m、1g 这样的字节数
+    private long parseBytes(String value) {
+        String text = value.trim().toLowerCase();
+        long unit = 1;
+        char suffix = text.charAt(text.length() - 1);
+        if (suffix == 'k' || suffix == 'm' || suffix == 'g') {
+            unit = suffix == 'k' ? 1L << 10 : suffix == 'm' ? 1L << 20 : 1L << 30;
+            text = text.substring(0, text.length() - 1);
+        }
+        return Long.parseLong(text.trim()) * unit;
     }
 
     private void buildStatementFromContext(List<Element> list){
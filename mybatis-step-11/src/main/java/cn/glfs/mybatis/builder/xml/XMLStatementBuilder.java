@@ -1,6 +1,7 @@
 package cn.glfs.mybatis.builder.xml;
 
 import cn.glfs.mybatis.builder.BaseBuilder;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
 import cn.glfs.mybatis.mapping.MappedStatement;
 import cn.glfs.mybatis.mapping.SqlCommandType;
 import cn.glfs.mybatis.mapping.SqlSource;
@@ -43,7 +44,34 @@ public class XMLStatementBuilder extends BaseBuilder {
 
         SqlSource sqlSource = langDriver.createSqlSource(configuration, element, parameterTypeClass);
 
-        MappedStatement mappedStatement = new MappedStatement.Builder(configuration, currentNamespace + "." + id, sqlCommandType, sqlSource, resultTypeClass).build();
+        // 读写分离时强制走主库或从库，比如刚写完就要读到的查询指定 PRIMARY
+        String dataSourceRoute = element.attributeValue("dataSourceRoute");
+
+        // 对冲读只对幂等的查询开启
+        boolean hedged = sqlCommandType == SqlCommandType.SELECT && Boolean.parseBoolean(element.attributeValue("hedged"));
+
+        // 执行前清空缓存，写语句默认为 true
+        String flushCache = element.attributeValue("flushCache");
+
+        // 查询是否使用命名空间的二级缓存，默认使用
+        String useCache = element.attributeValue("useCache");
+
+        // 查询是否使用会话的一级缓存，默认使用
+        String useLocalCache = element.attributeValue("useLocalCache");
+
+        // 分库时没有分片键的查询在所有分片上执行后归并的方式
+        String mergeLimit = element.attributeValue("mergeLimit");
+
+        MappedStatement mappedStatement = new MappedStatement.Builder(configuration, currentNamespace + "." + id, sqlCommandType, sqlSource, resultTypeClass)
+                .dataSourceRoute(dataSourceRoute == null || dataSourceRoute.isEmpty() ? null : DataSourceRoute.valueOf(dataSourceRoute.toUpperCase(Locale.ENGLISH)))
+                .hedged(hedged)
+                .cache(configuration.getCache(currentNamespace))
+                .useCache(useCache == null || useCache.isEmpty() ? sqlCommandType == SqlCommandType.SELECT : Boolean.parseBoolean(useCache))
+                .useLocalCache(useLocalCache == null || useLocalCache.isEmpty() || Boolean.parseBoolean(useLocalCache))
+                .flushCacheRequired(flushCache == null || flushCache.isEmpty() ? sqlCommandType != SqlCommandType.SELECT : Boolean.parseBoolean(flushCache))
+                .mergeOrderBy(element.attributeValue("mergeOrderBy"))
+                .mergeLimit(mergeLimit == null || mergeLimit.isEmpty() ? 0 : Integer.parseInt(mergeLimit))
+                .build();
 
         // 添加解析 SQL
         configuration.addMappedStatement(mappedStatement);
@@ -0,0 +1,24 @@
+package cn.glfs.mybatis.cache;
+
+/**
+ * 缓存接口
+ * 一级缓存每个执行器一个，id 无意义；二级缓存每个命名空间一个，id 为命名空间
+ */
+public interface Cache {
+
+    String getId();
+
+    void putObject(Object key, Object value);
+
+    /**
+     * 没有时返回 null
+     */
+    Object getObject(Object key);
+
+    Object removeObject(Object key);
+
+    void clear();
+
+    int getSize();
+
+}
@@ -0,0 +1,99 @@
+package cn.glfs.mybatis.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 缓存 key，由语句 id、最终 SQL、绑定的参数值、环境 id 依次 update 组成
+ * 哈希值在 update 时就累加好，查找时 hashCode 不再计算；equals 先比哈希、校验和、个数，都相同才逐个比较
+ */
+public class CacheKey {
+
+    private static final int DEFAULT_MULTIPLIER = 37;
+    private static final int DEFAULT_HASHCODE = 17;
+
+    private final int multiplier;
+    private int hashcode;
+    private long checksum;
+    private int count;
+    private final List<Object> updateList;
+
+    public CacheKey() {
+        this.multiplier = DEFAULT_MULTIPLIER;
+        this.hashcode = DEFAULT_HASHCODE;
+        this.updateList = new ArrayList<>();
+    }
+
+    public void update(Object object) {
+        int baseHashCode = hashCode(object);
+        count++;
+        checksum += baseHashCode;
+        baseHashCode *= count;
+        hashcode = multiplier * hashcode + baseHashCode;
+        updateList.add(object);
+    }
+
+    public int getUpdateCount() {
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof CacheKey)) {
+            return false;
+        }
+        final CacheKey cacheKey = (CacheKey) object;
+        if (hashcode != cacheKey.hashcode || checksum != cacheKey.checksum || count != cacheKey.count) {
+            return false;
+        }
+        for (int i = 0; i < updateList.size(); i++) {
+            if (!equals(updateList.get(i), cacheKey.updateList.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashcode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append(hashcode).append(':').append(checksum);
+        for (Object object : updateList) {
+            sb.append(':').append(object instanceof Object[] ? Arrays.deepToString((Object[]) object) : String.valueOf(object));
+        }
+        return sb.toString();
+    }
+
+    // 数组参数按内容比较
+    private static int hashCode(Object object) {
+        if (object == null) {
+            return 1;
+        }
+        if (object instanceof Object[]) {
+            return Arrays.deepHashCode((Object[]) object);
+        }
+        if (object.getClass().isArray()) {
+            return Arrays.deepHashCode(new Object[]{object});
+        }
+        return object.hashCode();
+    }
+
+    private static boolean equals(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.getClass().isArray() || b.getClass().isArray()) {
+            return Arrays.deepEquals(new Object[]{a}, new Object[]{b});
+        }
+        return a.equals(b);
+    }
+
+}
@@ -0,0 +1,43 @@
+package cn.glfs.mybatis.cache;
+
+import cn.glfs.mybatis.cache.decorators.TransactionalCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 会话用到的每个二级缓存对应一个 TransactionalCache，提交、回滚时一起处理
+ */
+public class TransactionalCacheManager {
+
+    private final Map<Cache, TransactionalCache> transactionalCaches = new HashMap<>();
+
+    public void clear(Cache cache) {
+        getTransactionalCache(cache).clear();
+    }
+
+    public Object getObject(Cache cache, CacheKey key) {
+        return getTransactionalCache(cache).getObject(key);
+    }
+
+    public void putObject(Cache cache, CacheKey key, Object value) {
+        getTransactionalCache(cache).putObject(key, value);
+    }
+
+    public void commit() {
+        for (TransactionalCache txCache : transactionalCaches.values()) {
+            txCache.commit();
+        }
+    }
+
+    public void rollback() {
+        for (TransactionalCache txCache : transactionalCaches.values()) {
+            txCache.rollback();
+        }
+    }
+
+    private TransactionalCache getTransactionalCache(Cache cache) {
+        return transactionalCaches.computeIfAbsent(cache, TransactionalCache::new);
+    }
+
+}
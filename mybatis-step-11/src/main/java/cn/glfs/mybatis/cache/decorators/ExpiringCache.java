@@ -0,0 +1,68 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+/**
+ * 按条目过期：放入时记下过期时间，读到过期的条目时删掉并当作没有命中
+ * 不加锁，由外层的 StripedCache 保证线程安全
+ */
+public class ExpiringCache implements Cache {
+
+    private final Cache delegate;
+    private final long ttl;
+
+    public ExpiringCache(Cache delegate, long ttl) {
+        this.delegate = delegate;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        delegate.putObject(key, new ExpiringEntry(value, System.currentTimeMillis() + ttl));
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        ExpiringEntry entry = (ExpiringEntry) delegate.getObject(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expireAt) {
+            delegate.removeObject(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        ExpiringEntry entry = (ExpiringEntry) delegate.removeObject(key);
+        return entry == null ? null : entry.value;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    private static class ExpiringEntry {
+        private final Object value;
+        private final long expireAt;
+
+        ExpiringEntry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+}
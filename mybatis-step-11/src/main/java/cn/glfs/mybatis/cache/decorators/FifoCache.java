@@ -0,0 +1,63 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 先进先出淘汰：超过 size 时淘汰最早放入的 key，读不改变顺序
+ * 不加锁，由外层的 StripedCache 保证线程安全
+ */
+public class FifoCache implements Cache {
+
+    private final Cache delegate;
+    private final Deque<Object> keyList;
+    private final int size;
+
+    public FifoCache(Cache delegate, int size) {
+        this.delegate = delegate;
+        this.size = size;
+        this.keyList = new ArrayDeque<>();
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        // 覆盖已有的 key 不占新位置
+        if (delegate.getObject(key) == null) {
+            keyList.addLast(key);
+            if (keyList.size() > size) {
+                delegate.removeObject(keyList.removeFirst());
+            }
+        }
+        delegate.putObject(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        return delegate.getObject(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        keyList.remove(key);
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+        keyList.clear();
+        delegate.clear();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+}
@@ -0,0 +1,94 @@
+package cn.glfs.mybatis.cache.decorators;
+
+/**
+ * Count-Min Sketch，估计 key 最近被访问的次数，供 TinyLfuCache 做准入判断
+ * 4 行计数器，每个计数器 4 位（一个 long 放 16 个），最大 15，按容量每条约一个 long；
+ * 累计记录次数达到容量的 10 倍时所有计数减半，让旧的热度逐渐衰减
+ */
+public class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    // 每行 rowLength 个 long
+    private final long[] table;
+    private final int rowMask;
+    private final int sampleSize;
+    private int additions;
+
+    public FrequencySketch(int maximumSize) {
+        int capacity = ceilingPowerOfTwo(Math.max(maximumSize, 16));
+        int rowLength = capacity / DEPTH;
+        this.table = new long[rowLength * DEPTH];
+        this.rowMask = rowLength - 1;
+        this.sampleSize = 10 * capacity;
+    }
+
+    /**
+     * 记录一次访问，只给 4 个计数器里最小的加一（保守更新，减少高估）
+     */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int min = frequency(hash);
+        if (min >= 15) {
+            return;
+        }
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            int offset = offsetOf(hash, i);
+            if (((table[index] >>> offset) & 0xfL) == min) {
+                table[index] += 1L << offset;
+            }
+        }
+        if (++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 估计的访问次数，最大 15
+     */
+    public int frequency(Object key) {
+        return frequency(spread(key.hashCode()));
+    }
+
+    private int frequency(int hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int count = (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    // 所有计数减半
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return row * (rowMask + 1) + ((int) h & rowMask);
+    }
+
+    // 在 long 里的第几个 4 位计数器
+    private int offsetOf(int hash, int row) {
+        return ((hash >>> (row << 3)) & 0xf) << 2;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+
+}
@@ -0,0 +1,76 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 最近最少使用淘汰：超过 size 时淘汰最久没有访问的 key
+ * 不加锁，由外层的 StripedCache 保证线程安全
+ */
+public class LruCache implements Cache {
+
+    private final Cache delegate;
+    private final Map<Object, Object> keyMap;
+    private final int size;
+    private Object eldestKey;
+
+    public LruCache(Cache delegate, int size) {
+        this.delegate = delegate;
+        this.size = size;
+        // 按访问顺序排列，超过上限时记下最老的 key，放完之后从被装饰的缓存里删掉
+        this.keyMap = new LinkedHashMap<Object, Object>(size, .75F, true) {
+            private static final long serialVersionUID = 4267176411845948333L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                boolean tooBig = size() > LruCache.this.size;
+                if (tooBig) {
+                    eldestKey = eldest.getKey();
+                }
+                return tooBig;
+            }
+        };
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        delegate.putObject(key, value);
+        keyMap.put(key, key);
+        if (eldestKey != null) {
+            delegate.removeObject(eldestKey);
+            eldestKey = null;
+        }
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        // 刷新访问顺序
+        keyMap.get(key);
+        return delegate.getObject(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        keyMap.remove(key);
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+        keyMap.clear();
+        delegate.clear();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+}
@@ -0,0 +1,87 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+/**
+ * 读写缓存（readOnly="false"）：放入时序列化，取出时反序列化出一份新的对象，
+ * 不同会话拿到的结果互不影响，代价是每次命中都要反序列化，结果对象必须实现 Serializable
+ */
+public class SerializedCache implements Cache {
+
+    private final Cache delegate;
+
+    public SerializedCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        if (value != null && !(value instanceof Serializable)) {
+            throw new RuntimeException("Cache " + getId() + " failed to serialize " + value.getClass().getName()
+                    + ", cached objects must implement Serializable or the cache must be readOnly.");
+        }
+        delegate.putObject(key, serialize((Serializable) value));
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        byte[] bytes = (byte[]) delegate.getObject(key);
+        return bytes == null ? null : deserialize(bytes);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    private byte[] serialize(Serializable value) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(); ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(value);
+            oos.flush();
+            return bos.toByteArray();
+        } catch (Exception e) {
+            throw new RuntimeException("Error serializing object for cache " + getId() + ".  Cause: " + e, e);
+        }
+    }
+
+    private Object deserialize(byte[] bytes) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try {
+                    return Class.forName(desc.getName(), false, Thread.currentThread().getContextClassLoader());
+                } catch (ClassNotFoundException e) {
+                    return super.resolveClass(desc);
+                }
+            }
+        }) {
+            return ois.readObject();
+        } catch (Exception e) {
+            throw new RuntimeException("Error deserializing object from cache " + getId() + ".  Cause: " + e, e);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+
+/**
+ * 软引用缓存：值用 SoftReference 保存，内存紧张时由 GC 回收，被回收的条目在下次访问时清掉
+ * 条数上限由外层的 LruCache 控制
+ */
+public class SoftCache implements Cache {
+
+    private final Cache delegate;
+    private final ReferenceQueue<Object> queueOfGarbageCollectedEntries = new ReferenceQueue<>();
+
+    public SoftCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        removeGarbageCollectedItems();
+        delegate.putObject(key, new SoftEntry(key, value, queueOfGarbageCollectedEntries));
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        SoftEntry softReference = (SoftEntry) delegate.getObject(key);
+        if (softReference == null) {
+            return null;
+        }
+        Object result = softReference.get();
+        if (result == null) {
+            delegate.removeObject(key);
+        }
+        return result;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        removeGarbageCollectedItems();
+        SoftEntry softReference = (SoftEntry) delegate.removeObject(key);
+        return softReference == null ? null : softReference.get();
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        while (queueOfGarbageCollectedEntries.poll() != null) {
+            // 丢掉已经入队的引用
+        }
+    }
+
+    @Override
+    public int getSize() {
+        removeGarbageCollectedItems();
+        return delegate.getSize();
+    }
+
+    private void removeGarbageCollectedItems() {
+        SoftEntry sv;
+        while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
+            // 同一个 key 可能已经放了新值，只删被回收的那一个
+            if (delegate.getObject(sv.key) == sv) {
+                delegate.removeObject(sv.key);
+            }
+        }
+    }
+
+    private static class SoftEntry extends SoftReference<Object> {
+        private final Object key;
+
+        SoftEntry(Object key, Object value, ReferenceQueue<Object> garbageCollectionQueue) {
+            super(value, garbageCollectionQueue);
+            this.key = key;
+        }
+    }
+
+}
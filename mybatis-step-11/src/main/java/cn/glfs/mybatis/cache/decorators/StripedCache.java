@@ -0,0 +1,108 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分段加锁：按 key 的哈希把条目分到 2 的幂个段上，每段是一套独立的淘汰策略和一把锁，
+ * 不同段上的读写互不阻塞；LRU、TinyLFU 这类读也要改顺序的策略不用整个缓存串行。
+ * 每段的容量是总容量按段数均分，淘汰是段内近似的
+ */
+public class StripedCache implements Cache {
+
+    private final String id;
+    private final Cache[] segments;
+    private final ReentrantLock[] locks;
+    private final int segmentMask;
+
+    /**
+     * @param segments 段数必须是 2 的幂
+     */
+    public StripedCache(String id, Cache[] segments) {
+        if (Integer.bitCount(segments.length) != 1) {
+            throw new IllegalArgumentException("StripedCache needs a power-of-two number of segments, got " + segments.length);
+        }
+        this.id = id;
+        this.segments = segments;
+        this.locks = new ReentrantLock[segments.length];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.segmentMask = segments.length - 1;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        int i = segmentFor(key);
+        locks[i].lock();
+        try {
+            segments[i].putObject(key, value);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        int i = segmentFor(key);
+        locks[i].lock();
+        try {
+            return segments[i].getObject(key);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        int i = segmentFor(key);
+        locks[i].lock();
+        try {
+            return segments[i].removeObject(key);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            locks[i].lock();
+            try {
+                segments[i].clear();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            locks[i].lock();
+            try {
+                size += segments[i].getSize();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return size;
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    private int segmentFor(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & segmentMask;
+    }
+
+}
@@ -0,0 +1,123 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * W-TinyLFU 淘汰
+ * 1. 新 key 先进窗口区（1%，LRU），窗口满了把最老的作为候选者
+ * 2. 主区分试用区（20%）和保护区（80%），都是 LRU；试用区里的 key 再次命中时升到保护区，保护区满了降回试用区
+ * 3. 主区满了时候选者和试用区最老的 key 比较 FrequencySketch 估计的访问频率，高的留下；
+ *    一次性的扫描不会把热点挤出去，突发的新热点又能在窗口区里攒够频率
+ * 不加锁，由外层的 StripedCache 保证线程安全
+ */
+public class TinyLfuCache implements Cache {
+
+    private final Cache delegate;
+    private final FrequencySketch sketch;
+    private final int windowCapacity;
+    private final int protectedCapacity;
+    private final int mainCapacity;
+    // 只用来维护顺序，值不用
+    private final LinkedHashMap<Object, Boolean> window = new LinkedHashMap<>(16, .75F, true);
+    private final LinkedHashMap<Object, Boolean> probation = new LinkedHashMap<>(16, .75F, true);
+    private final LinkedHashMap<Object, Boolean> protectedRegion = new LinkedHashMap<>(16, .75F, true);
+
+    public TinyLfuCache(Cache delegate, int size) {
+        this.delegate = delegate;
+        this.sketch = new FrequencySketch(size);
+        this.windowCapacity = Math.max(1, size / 100);
+        this.mainCapacity = Math.max(1, size - windowCapacity);
+        this.protectedCapacity = (int) (mainCapacity * 0.8);
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        sketch.increment(key);
+        delegate.putObject(key, value);
+        if (window.containsKey(key) || probation.containsKey(key) || protectedRegion.containsKey(key)) {
+            onHit(key);
+            return;
+        }
+        window.put(key, Boolean.TRUE);
+        if (window.size() > windowCapacity) {
+            admit(removeEldest(window));
+        }
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        // 没命中时不计频率，接下来查完数据库放入时再计，一次访问只算一次
+        Object value = delegate.getObject(key);
+        if (value != null) {
+            sketch.increment(key);
+            onHit(key);
+        }
+        return value;
+    }
+
+    private void onHit(Object key) {
+        if (window.get(key) != null || protectedRegion.get(key) != null) {
+            return;
+        }
+        if (probation.remove(key) != null) {
+            protectedRegion.put(key, Boolean.TRUE);
+            if (protectedRegion.size() > protectedCapacity) {
+                probation.put(removeEldest(protectedRegion), Boolean.TRUE);
+            }
+        }
+    }
+
+    // 窗口区淘汰出来的候选者：主区没满直接进试用区，满了和试用区最老的比频率
+    private void admit(Object candidate) {
+        if (probation.size() + protectedRegion.size() < mainCapacity) {
+            probation.put(candidate, Boolean.TRUE);
+            return;
+        }
+        LinkedHashMap<Object, Boolean> victimRegion = probation.isEmpty() ? protectedRegion : probation;
+        Object victim = victimRegion.keySet().iterator().next();
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            victimRegion.remove(victim);
+            delegate.removeObject(victim);
+            probation.put(candidate, Boolean.TRUE);
+        } else {
+            delegate.removeObject(candidate);
+        }
+    }
+
+    private static Object removeEldest(LinkedHashMap<Object, Boolean> region) {
+        Iterator<Object> iterator = region.keySet().iterator();
+        Object eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedRegion.remove(key);
+        }
+        return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedRegion.clear();
+        delegate.clear();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+}
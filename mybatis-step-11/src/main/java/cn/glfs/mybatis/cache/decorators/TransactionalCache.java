@@ -0,0 +1,77 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 事务缓存：一个会话对一个二级缓存的暂存区
+ * 查询结果先放在暂存区，提交时才写进共享的缓存，别的会话看不到没提交的数据；
+ * 写语句清空缓存也推迟到提交时，提交之前本会话不再读共享缓存，回滚时全部丢弃
+ */
+public class TransactionalCache implements Cache {
+
+    private final Cache delegate;
+    private boolean clearOnCommit;
+    private final Map<Object, Object> entriesToAddOnCommit = new HashMap<>();
+
+    public TransactionalCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        // 本会话写过，共享缓存里的数据已经过时
+        if (clearOnCommit) {
+            return null;
+        }
+        return delegate.getObject(key);
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        entriesToAddOnCommit.put(key, value);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        clearOnCommit = true;
+        entriesToAddOnCommit.clear();
+    }
+
+    public void commit() {
+        if (clearOnCommit) {
+            delegate.clear();
+        }
+        for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
+            delegate.putObject(entry.getKey(), entry.getValue());
+        }
+        reset();
+    }
+
+    public void rollback() {
+        reset();
+    }
+
+    private void reset() {
+        clearOnCommit = false;
+        entriesToAddOnCommit.clear();
+    }
+
+}
@@ -0,0 +1,85 @@
+package cn.glfs.mybatis.cache.decorators;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * 弱引用缓存：值用 WeakReference 保存，没有别处引用时下次 GC 就回收，被回收的条目在下次访问时清掉
+ * 条数上限由外层的 LruCache 控制
+ */
+public class WeakCache implements Cache {
+
+    private final Cache delegate;
+    private final ReferenceQueue<Object> queueOfGarbageCollectedEntries = new ReferenceQueue<>();
+
+    public WeakCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        removeGarbageCollectedItems();
+        delegate.putObject(key, new WeakEntry(key, value, queueOfGarbageCollectedEntries));
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        WeakEntry weakReference = (WeakEntry) delegate.getObject(key);
+        if (weakReference == null) {
+            return null;
+        }
+        Object result = weakReference.get();
+        if (result == null) {
+            delegate.removeObject(key);
+        }
+        return result;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        removeGarbageCollectedItems();
+        WeakEntry weakReference = (WeakEntry) delegate.removeObject(key);
+        return weakReference == null ? null : weakReference.get();
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        while (queueOfGarbageCollectedEntries.poll() != null) {
+            // 丢掉已经入队的引用
+        }
+    }
+
+    @Override
+    public int getSize() {
+        removeGarbageCollectedItems();
+        return delegate.getSize();
+    }
+
+    private void removeGarbageCollectedItems() {
+        WeakEntry sv;
+        while ((sv = (WeakEntry) queueOfGarbageCollectedEntries.poll()) != null) {
+            // 同一个 key 可能已经放了新值，只删被回收的那一个
+            if (delegate.getObject(sv.key) == sv) {
+                delegate.removeObject(sv.key);
+            }
+        }
+    }
+
+    private static class WeakEntry extends WeakReference<Object> {
+        private final Object key;
+
+        WeakEntry(Object key, Object value, ReferenceQueue<Object> garbageCollectionQueue) {
+            super(value, garbageCollectionQueue);
+            this.key = key;
+        }
+    }
+
+}
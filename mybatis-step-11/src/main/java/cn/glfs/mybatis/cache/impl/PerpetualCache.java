@@ -0,0 +1,51 @@
+package cn.glfs.mybatis.cache.impl;
+
+import cn.glfs.mybatis.cache.Cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 基础缓存，就是一个 HashMap，不淘汰、不加锁，一级缓存直接使用
+ */
+public class PerpetualCache implements Cache {
+
+    private final String id;
+
+    private final Map<Object, Object> cache = new HashMap<>();
+
+    public PerpetualCache(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        cache.put(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        return cache.get(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        return cache.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public int getSize() {
+        return cache.size();
+    }
+
+}
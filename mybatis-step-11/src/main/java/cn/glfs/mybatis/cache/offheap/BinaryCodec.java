@@ -0,0 +1,408 @@
+package cn.glfs.mybatis.cache.offheap;
+
+import cn.glfs.mybatis.reflection.Reflector;
+import cn.glfs.mybatis.reflection.invoker.Invoker;
+
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 紧凑的二进制编解码，用于堆外缓存，不依赖 Java 序列化和 JSON
+ * 1. 每个值以 1 字节类型标记开头，整数用 zigzag 变长编码，字符串为 UTF-8 加长度前缀
+ * 2. 结果对象按类编一个 ClassSchema：用 Reflector 取可读的属性，按名字排序，编码时只写类编号和各属性的值，不写属性名；
+ *    解码时用无参构造器创建对象，再通过 set 方法填回去。可读但没有 set 方法的属性填不回去，整个类不支持，不缓存残缺的副本
+ * 3. List 解码为 ArrayList，Set 解码为 LinkedHashSet（保持编码时的迭代顺序），Map 解码为 HashMap；
+ *    其余集合、数组（byte[] 除外）和枚举不支持
+ * 4. 类编号只在本编解码器内有效，不同的缓存实例之间不通用
+ * 不支持的类型抛 IllegalArgumentException，由调用方放弃缓存这个值
+ */
+public class BinaryCodec {
+
+    private static final byte NULL = 0;
+    private static final byte LIST = 1;
+    private static final byte BEAN = 2;
+    private static final byte STRING = 3;
+    private static final byte LONG = 4;
+    private static final byte INTEGER = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte TRUE = 8;
+    private static final byte FALSE = 9;
+    private static final byte DOUBLE = 10;
+    private static final byte FLOAT = 11;
+    private static final byte CHARACTER = 12;
+    private static final byte DATE = 13;
+    private static final byte TIMESTAMP = 14;
+    private static final byte BIG_DECIMAL = 15;
+    private static final byte BIG_INTEGER = 16;
+    private static final byte BYTES = 17;
+    private static final byte MAP = 18;
+    private static final byte SET = 19;
+
+    private final Map<Class<?>, ClassSchema> schemas = new IdentityHashMap<>();
+    private final List<ClassSchema> schemaList = new ArrayList<>();
+
+    /**
+     * 把 value 编码进 out
+     */
+    public void encode(Object value, Output out) {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeVarLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeVarLong((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeVarLong(((Timestamp) value).getTime());
+            out.writeVarLong(((Timestamp) value).getNanos());
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeVarLong(((Date) value).getTime());
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            out.writeString(value.toString());
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeVarLong(list.size());
+            for (Object element : list) {
+                encode(element, out);
+            }
+        } else if (value instanceof Set) {
+            Set<?> set = (Set<?>) value;
+            out.writeByte(SET);
+            out.writeVarLong(set.size());
+            for (Object element : set) {
+                encode(element, out);
+            }
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeVarLong((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeVarLong((Character) value);
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            out.writeString(value.toString());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeVarLong(((byte[]) value).length);
+            out.writeBytes((byte[]) value);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeVarLong(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                encode(entry.getKey(), out);
+                encode(entry.getValue(), out);
+            }
+        } else if (value instanceof Collection || value instanceof Iterable || value.getClass().isArray() || value instanceof Enum) {
+            throw new IllegalArgumentException(value.getClass().getName() + " is not supported and cannot be stored off-heap");
+        } else {
+            ClassSchema schema = schemaOf(value.getClass());
+            out.writeByte(BEAN);
+            out.writeVarLong(schema.id);
+            for (Invoker getter : schema.getters) {
+                try {
+                    encode(getter.invoke(value, null), out);
+                } catch (IllegalArgumentException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Error reading property of " + schema.type.getName() + ".  Cause: " + e, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从 in 的当前位置解码一个值
+     */
+    public Object decode(Input in) {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case LIST: {
+                int size = (int) in.readVarLong();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(decode(in));
+                }
+                return list;
+            }
+            case BEAN:
+                return decodeBean(schemaList.get((int) in.readVarLong()), in);
+            case STRING:
+                return in.readString();
+            case LONG:
+                return in.readVarLong();
+            case INTEGER:
+                return (int) in.readVarLong();
+            case SHORT:
+                return (short) in.readVarLong();
+            case BYTE:
+                return in.readByte();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case FLOAT:
+                return Float.intBitsToFloat(in.readInt());
+            case CHARACTER:
+                return (char) in.readVarLong();
+            case DATE:
+                return new Date(in.readVarLong());
+            case TIMESTAMP: {
+                Timestamp timestamp = new Timestamp(in.readVarLong());
+                timestamp.setNanos((int) in.readVarLong());
+                return timestamp;
+            }
+            case BIG_DECIMAL:
+                return new BigDecimal(in.readString());
+            case BIG_INTEGER:
+                return new BigInteger(in.readString());
+            case BYTES:
+                return in.readBytes((int) in.readVarLong());
+            case SET: {
+                int size = (int) in.readVarLong();
+                Set<Object> set = new LinkedHashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(decode(in));
+                }
+                return set;
+            }
+            case MAP: {
+                int size = (int) in.readVarLong();
+                Map<Object, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(decode(in), decode(in));
+                }
+                return map;
+            }
+            default:
+                throw new IllegalStateException("Corrupted cache entry, unknown type tag " + tag);
+        }
+    }
+
+    private Object decodeBean(ClassSchema schema, Input in) {
+        try {
+            Object bean = schema.constructor.newInstance();
+            for (Invoker setter : schema.setters) {
+                Object value = decode(in);
+                if (value != null) {
+                    setter.invoke(bean, new Object[]{value});
+                }
+            }
+            return bean;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Error creating " + schema.type.getName() + " from cache entry.  Cause: " + e, e);
+        }
+    }
+
+    private ClassSchema schemaOf(Class<?> type) {
+        ClassSchema schema = schemas.get(type);
+        if (schema == null) {
+            Reflector reflector = Reflector.forClass(type);
+            if (!reflector.hasDefaultConstructor()) {
+                throw new IllegalArgumentException(type.getName() + " has no default constructor and cannot be stored off-heap");
+            }
+            String[] names = reflector.getGetablePropertyNames().clone();
+            Arrays.sort(names);
+            List<Invoker> getters = new ArrayList<>();
+            List<Invoker> setters = new ArrayList<>();
+            for (String name : names) {
+                // getClass 不是数据
+                if ("class".equals(name)) {
+                    continue;
+                }
+                if (!reflector.hasSetter(name)) {
+                    throw new IllegalArgumentException(type.getName() + "." + name + " has no setter and cannot be stored off-heap");
+                }
+                getters.add(reflector.getGetInvoker(name));
+                setters.add(reflector.getSetInvoker(name));
+            }
+            schema = new ClassSchema(schemaList.size(), type, reflector.getDefaultConstructor(),
+                    getters.toArray(new Invoker[0]), setters.toArray(new Invoker[0]));
+            schemas.put(type, schema);
+            schemaList.add(schema);
+        }
+        return schema;
+    }
+
+    private static class ClassSchema {
+        private final int id;
+        private final Class<?> type;
+        private final Constructor<?> constructor;
+        private final Invoker[] getters;
+        private final Invoker[] setters;
+
+        ClassSchema(int id, Class<?> type, Constructor<?> constructor, Invoker[] getters, Invoker[] setters) {
+            this.id = id;
+            this.type = type;
+            this.constructor = constructor;
+            this.getters = getters;
+            this.setters = setters;
+        }
+    }
+
+    /**
+     * 编码缓冲区，堆内的可增长字节数组，缓存实例内复用
+     */
+    public static class Output {
+
+        private byte[] buffer = new byte[256];
+        private int size;
+
+        public void reset() {
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public byte[] buffer() {
+            return buffer;
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            ensureCapacity(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeLong(long v) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        // zigzag 变长编码，小的正负数都只占 1~2 字节
+        void writeVarLong(long v) {
+            ensureCapacity(10);
+            long zigzag = (v << 1) ^ (v >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[size++] = (byte) zigzag;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * 从堆外的 ByteBuffer 按绝对位置读取，不改变 ByteBuffer 自身的 position，多个读者可以共用一个 slab
+     */
+    public static class Input {
+
+        private final ByteBuffer buffer;
+        private int position;
+
+        public Input(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        byte readByte() {
+            return buffer.get(position++);
+        }
+
+        int readInt() {
+            int v = buffer.getInt(position);
+            position += 4;
+            return v;
+        }
+
+        long readLong() {
+            long v = buffer.getLong(position);
+            position += 8;
+            return v;
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        byte[] readBytes(int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            ((Buffer) view).position(position);
+            view.get(bytes);
+            position += length;
+            return bytes;
+        }
+
+        String readString() {
+            return new String(readBytes((int) readVarLong()), StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package cn.glfs.mybatis.cache.offheap;
+
+import cn.glfs.mybatis.cache.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 堆外缓存：查询结果用 BinaryCodec 编码后放在 SlabAllocator 管理的直接内存里，堆上只留 key 和几十字节的索引，
+ * 大量缓存的结果对象不再长期占着老年代，GC 不用扫描它们
+ * 1. 索引为 key -> 地址、块级别、过期时间；每个块级别一条 LRU 链
+ * 2. 内存预算用完时先淘汰同级别最久没用的条目；该级别一个条目都没有时，从占 slab 最多的级别挪一个 slab 过来
+ * 3. 取出时解码出新的对象，各会话拿到的结果互不影响，不需要再套 SerializedCache
+ * 4. 编码不了的值（没有无参构造器的类型等）和超过一个 slab 的值不缓存，计入 rejectedCount
+ * 不加锁，由外层的 StripedCache 保证线程安全
+ */
+public class OffHeapCache implements Cache {
+
+    private final Logger logger = LoggerFactory.getLogger(OffHeapCache.class);
+
+    private final String id;
+    private final long ttl;
+    private final SlabAllocator allocator;
+    private final BinaryCodec codec = new BinaryCodec();
+    private final BinaryCodec.Output output = new BinaryCodec.Output();
+    private final Map<Object, Entry> index = new HashMap<>();
+    private final LinkedHashMap<Object, Entry>[] lruBySizeClass;
+
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param memoryBudget 最多申请的堆外内存字节数
+     * @param slabSize     每次申请的内存块大小，也是单个条目的上限
+     * @param ttl          条目存活的毫秒数，不大于 0 表示不过期
+     */
+    @SuppressWarnings("unchecked")
+    public OffHeapCache(String id, long memoryBudget, int slabSize, long ttl) {
+        this.id = id;
+        this.ttl = ttl;
+        this.allocator = new SlabAllocator(memoryBudget, slabSize);
+        this.lruBySizeClass = new LinkedHashMap[allocator.getSizeClassCount()];
+        for (int i = 0; i < lruBySizeClass.length; i++) {
+            lruBySizeClass[i] = new LinkedHashMap<>(16, .75F, true);
+        }
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        removeObject(key);
+        output.reset();
+        try {
+            codec.encode(value, output);
+        } catch (IllegalArgumentException e) {
+            rejectedCount.increment();
+            logger.debug("OffHeapCache [" + id + "]: value not cached.  Cause: " + e.getMessage());
+            return;
+        }
+        int length = output.size();
+        int sizeClass = allocator.sizeClassOf(length);
+        long address = sizeClass < 0 ? -1 : allocate(sizeClass);
+        if (address < 0) {
+            rejectedCount.increment();
+            return;
+        }
+        ByteBuffer view = allocator.slab(address).duplicate();
+        ((Buffer) view).position(SlabAllocator.offsetOf(address));
+        view.put(output.buffer(), 0, length);
+        Entry entry = new Entry(address, sizeClass, ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+        index.put(key, entry);
+        lruBySizeClass[sizeClass].put(key, entry);
+    }
+
+    private long allocate(int sizeClass) {
+        long address;
+        while ((address = allocator.allocate(sizeClass)) < 0) {
+            LinkedHashMap<Object, Entry> lru = lruBySizeClass[sizeClass];
+            if (!lru.isEmpty()) {
+                evict(lru.keySet().iterator().next());
+                continue;
+            }
+            int slab = allocator.slabToReassign(sizeClass);
+            if (slab < 0) {
+                return -1;
+            }
+            // 先清空这个 slab 上的条目再挪给新的级别
+            List<Object> keys = new ArrayList<>();
+            for (Map.Entry<Object, Entry> e : lruBySizeClass[allocator.sizeClassOfSlab(slab)].entrySet()) {
+                if (SlabAllocator.slabIndexOf(e.getValue().address) == slab) {
+                    keys.add(e.getKey());
+                }
+            }
+            for (Object key : keys) {
+                evict(key);
+            }
+            allocator.reassign(slab, sizeClass);
+        }
+        return address;
+    }
+
+    private void evict(Object key) {
+        removeObject(key);
+        evictionCount.increment();
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt != 0 && System.currentTimeMillis() >= entry.expireAt) {
+            removeObject(key);
+            return null;
+        }
+        // 刷新 LRU 顺序
+        lruBySizeClass[entry.sizeClass].get(key);
+        return codec.decode(new BinaryCodec.Input(allocator.slab(entry.address), SlabAllocator.offsetOf(entry.address)));
+    }
+
+    /**
+     * 释放条目占用的块，不解码，总是返回 null
+     */
+    @Override
+    public Object removeObject(Object key) {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            lruBySizeClass[entry.sizeClass].remove(key);
+            allocator.free(entry.address);
+        }
+        return null;
+    }
+
+    /**
+     * 释放所有块，已经申请的 slab 留着复用
+     */
+    @Override
+    public void clear() {
+        for (Iterator<Entry> it = index.values().iterator(); it.hasNext(); ) {
+            allocator.free(it.next().address);
+            it.remove();
+        }
+        for (LinkedHashMap<Object, Entry> lru : lruBySizeClass) {
+            lru.clear();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return index.size();
+    }
+
+    public long getAllocatedBytes() {
+        return allocator.getAllocatedBytes();
+    }
+
+    public long getUsedBytes() {
+        return allocator.getUsedBytes();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    private static class Entry {
+        private final long address;
+        private final int sizeClass;
+        private final long expireAt;
+
+        Entry(long address, int sizeClass, long expireAt) {
+            this.address = address;
+            this.sizeClass = sizeClass;
+            this.expireAt = expireAt;
+        }
+    }
+
+}
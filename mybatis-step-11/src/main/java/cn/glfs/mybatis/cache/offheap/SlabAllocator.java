@@ -0,0 +1,195 @@
+package cn.glfs.mybatis.cache.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 堆外内存分配器（按 memcached 的 slab 方式）
+ * 1. 内存按 slabSize 一块块用 ByteBuffer.allocateDirect 申请，总量不超过 memoryBudget
+ * 2. 块大小分级：从 64 字节起每级放大 1.25 倍（8 字节对齐），最后一级是整个 slab；
+ *    每个 slab 属于一个级别，切成等大的块，空闲块放在该级别的空闲栈里，分配和释放都是 O(1)
+ * 3. 地址为 long：高 32 位是 slab 下标，低 32 位是 slab 内偏移
+ * 不加锁，由使用方保证线程安全
+ */
+public class SlabAllocator {
+
+    private static final int MINIMUM_CHUNK_SIZE = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+
+    private final int slabSize;
+    private final int maximumSlabs;
+    private final int[] chunkSizes;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final List<Integer> slabClasses = new ArrayList<>();
+    // 每个级别的空闲块地址栈
+    private final long[][] freeChunks;
+    private final int[] freeCounts;
+    private final int[] slabCounts;
+    private long usedBytes;
+
+    public SlabAllocator(long memoryBudget, int slabSize) {
+        if (slabSize < MINIMUM_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Slab size must be at least " + MINIMUM_CHUNK_SIZE + " bytes, got " + slabSize);
+        }
+        this.slabSize = slabSize;
+        this.maximumSlabs = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / slabSize));
+        List<Integer> sizes = new ArrayList<>();
+        for (int size = MINIMUM_CHUNK_SIZE; size < slabSize; size = Math.max(size + 8, (int) (size * GROWTH_FACTOR) + 7 & ~7)) {
+            sizes.add(size);
+        }
+        sizes.add(slabSize);
+        this.chunkSizes = new int[sizes.size()];
+        for (int i = 0; i < chunkSizes.length; i++) {
+            chunkSizes[i] = sizes.get(i);
+        }
+        this.freeChunks = new long[chunkSizes.length][];
+        Arrays.fill(freeChunks, new long[0]);
+        this.freeCounts = new int[chunkSizes.length];
+        this.slabCounts = new int[chunkSizes.length];
+    }
+
+    /**
+     * 放得下 length 字节的最小级别，超过一个 slab 时返回 -1
+     */
+    public int sizeClassOf(int length) {
+        if (length > slabSize) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(chunkSizes, length);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * 从级别的空闲栈取一块，没有空闲块时在预算内新申请一个 slab；预算用完返回 -1，由调用方淘汰后重试
+     */
+    public long allocate(int sizeClass) {
+        if (freeCounts[sizeClass] == 0) {
+            if (slabs.size() >= maximumSlabs) {
+                return -1;
+            }
+            slabs.add(ByteBuffer.allocateDirect(slabSize));
+            slabClasses.add(sizeClass);
+            carve(slabs.size() - 1, sizeClass);
+        }
+        usedBytes += chunkSizes[sizeClass];
+        return freeChunks[sizeClass][--freeCounts[sizeClass]];
+    }
+
+    public void free(long address) {
+        int sizeClass = slabClasses.get(slabIndexOf(address));
+        push(sizeClass, address);
+        usedBytes -= chunkSizes[sizeClass];
+    }
+
+    /**
+     * 预算用完且 sizeClass 自己没有可淘汰的条目时，从占 slab 最多的其他级别挑一个 slab 转给它，返回 slab 下标，没有可挑的返回 -1；
+     * 调用方要先释放这个 slab 上的所有块，再调用 reassign
+     */
+    public int slabToReassign(int sizeClass) {
+        int victimClass = -1;
+        for (int i = 0; i < slabCounts.length; i++) {
+            if (i != sizeClass && slabCounts[i] > 0 && (victimClass < 0 || slabCounts[i] > slabCounts[victimClass])) {
+                victimClass = i;
+            }
+        }
+        if (victimClass < 0) {
+            return -1;
+        }
+        // 优先挑空闲块最多的 slab，要淘汰的条目最少
+        int[] freeInSlab = new int[slabs.size()];
+        for (int i = 0; i < freeCounts[victimClass]; i++) {
+            freeInSlab[slabIndexOf(freeChunks[victimClass][i])]++;
+        }
+        int victim = -1;
+        for (int i = 0; i < slabs.size(); i++) {
+            if (slabClasses.get(i) == victimClass && (victim < 0 || freeInSlab[i] > freeInSlab[victim])) {
+                victim = i;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * 把已经全部空闲的 slab 从原级别的空闲栈里摘掉，重新切成 sizeClass 的块
+     */
+    public void reassign(int slabIndex, int sizeClass) {
+        int previousClass = slabClasses.get(slabIndex);
+        long[] chunks = freeChunks[previousClass];
+        int kept = 0;
+        for (int i = 0; i < freeCounts[previousClass]; i++) {
+            if (slabIndexOf(chunks[i]) != slabIndex) {
+                chunks[kept++] = chunks[i];
+            }
+        }
+        int expectedFree = slabSize / chunkSizes[previousClass];
+        if (freeCounts[previousClass] - kept != expectedFree) {
+            throw new IllegalStateException("Slab " + slabIndex + " still has " + (expectedFree - freeCounts[previousClass] + kept) + " chunk(s) in use");
+        }
+        freeCounts[previousClass] = kept;
+        slabCounts[previousClass]--;
+        slabClasses.set(slabIndex, sizeClass);
+        carve(slabIndex, sizeClass);
+    }
+
+    private void carve(int slabIndex, int sizeClass) {
+        int chunkSize = chunkSizes[sizeClass];
+        // 倒着压栈，先分配 slab 开头的块
+        for (int offset = (slabSize / chunkSize - 1) * chunkSize; offset >= 0; offset -= chunkSize) {
+            push(sizeClass, ((long) slabIndex << 32) | offset);
+        }
+        slabCounts[sizeClass]++;
+    }
+
+    private void push(int sizeClass, long address) {
+        if (freeCounts[sizeClass] == freeChunks[sizeClass].length) {
+            freeChunks[sizeClass] = Arrays.copyOf(freeChunks[sizeClass], Math.max(16, freeCounts[sizeClass] * 2));
+        }
+        freeChunks[sizeClass][freeCounts[sizeClass]++] = address;
+    }
+
+    public ByteBuffer slab(long address) {
+        return slabs.get(slabIndexOf(address));
+    }
+
+    public static int slabIndexOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    public static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    public int sizeClassOfSlab(int slabIndex) {
+        return slabClasses.get(slabIndex);
+    }
+
+    public int getSizeClassCount() {
+        return chunkSizes.length;
+    }
+
+    public int getChunkSize(int sizeClass) {
+        return chunkSizes[sizeClass];
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    /**
+     * 已经申请的堆外内存
+     */
+    public long getAllocatedBytes() {
+        return (long) slabs.size() * slabSize;
+    }
+
+    /**
+     * 已经分配出去的块占用的字节数（按块大小算）
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+}
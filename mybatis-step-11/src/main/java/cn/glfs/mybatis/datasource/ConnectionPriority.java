@@ -0,0 +1,43 @@
+package cn.glfs.mybatis.datasource;
+
+/**
+ * 获取连接的优先级，越靠前越优先
+ * 通过当前线程传给数据源：PooledDataSource 开启 poolPriorityLanesEnabled 时按优先级通道分配连接，其他数据源忽略。
+ * 会话（SqlSessionFactory#openSession(ConnectionPriority)）和映射器命名空间上配置的优先级，由执行器在获取连接时设置
+ */
+public enum ConnectionPriority {
+
+    // 在线请求
+    HIGH,
+    NORMAL,
+    // 批处理等后台任务
+    LOW;
+
+    private static final ThreadLocal<ConnectionPriority> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 当前线程的优先级，没有设置时为 NORMAL
+     */
+    public static ConnectionPriority current() {
+        ConnectionPriority priority = CURRENT.get();
+        return priority == null ? NORMAL : priority;
+    }
+
+    /**
+     * 设置当前线程的优先级，返回原来的设置（可能为 null），用完后交给 restore 恢复
+     */
+    public static ConnectionPriority set(ConnectionPriority priority) {
+        ConnectionPriority previous = CURRENT.get();
+        restore(priority);
+        return previous;
+    }
+
+    public static void restore(ConnectionPriority previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.glfs.mybatis.datasource.pooled.ConcurrentBag.BagEntry.*;
+
+/**
+ * 无锁连接包（参考 HikariCP 的 ConcurrentBag）
+ * 1. 借出时先从当前线程的 ThreadLocal 列表里找上次用过的连接（线程亲和，基本无竞争）
+ * 2. 找不到再遍历共享列表 sharedList，通过 CAS 修改条目状态来抢占
+ * 3. 仍然没有，就在 HandoffQueue 里排队，等归还者把连接直接放进自己的移交槽位
+ * 整个过程不持有任何全局锁，也没有 ArrayList.remove 这种 O(n) 的搬移
+ */
+public class ConcurrentBag<T extends ConcurrentBag.BagEntry> {
+
+    /**
+     * 包内条目，状态只能通过 CAS 修改
+     */
+    public interface BagEntry {
+        // 空闲
+        int STATE_NOT_IN_USE = 0;
+        // 已借出
+        int STATE_IN_USE = 1;
+        // 已移除
+        int STATE_REMOVED = -1;
+        // 被保留（比如后台任务正在检查/关闭它），不能被借出
+        int STATE_RESERVED = -2;
+
+        boolean compareAndSet(int expectState, int newState);
+
+        void setState(int newState);
+
+        int getState();
+    }
+
+    // 线程本地列表的最大长度，超过就不再记录，避免归还大量连接的线程无限增长
+    private static final int THREAD_LIST_MAX_SIZE = 50;
+
+    // 所有条目，写少读多，用写时复制的列表遍历时无需加锁
+    private final CopyOnWriteArrayList<T> sharedList = new CopyOnWriteArrayList<>();
+    // 每个线程最近归还过的条目，用弱引用避免条目被移除后仍被线程持有
+    private final ThreadLocal<List<WeakReference<T>>> threadList = ThreadLocal.withInitial(() -> new ArrayList<>(16));
+    // 正在排队等待的线程数
+    private final AtomicInteger waiters = new AtomicInteger();
+    // 归还者与等待者之间的 FIFO 移交队列，移交时条目保持借出状态，所有权直接转给等待最久的线程
+    private final HandoffQueue<T> handoffQueue = new HandoffQueue<>();
+
+    private volatile boolean closed;
+
+    /**
+     * 借出一个条目，超时返回 null；timeout 不大于 0 时不排队
+     */
+    public T borrow(long timeout, TimeUnit timeUnit) throws InterruptedException, SQLException {
+        // 1. 先从线程本地列表取，从尾部开始取最近归还的
+        final List<WeakReference<T>> list = threadList.get();
+        for (int i = list.size() - 1; i >= 0; i--) {
+            final T bagEntry = list.remove(i).get();
+            if (bagEntry != null && bagEntry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return bagEntry;
+            }
+        }
+
+        // 2. 再从共享列表中偷取
+        T bagEntry = steal();
+        if (bagEntry != null || timeout <= 0) {
+            return bagEntry;
+        }
+
+        // 3. 排队等待移交
+        return await(enqueue(), timeout, timeUnit);
+    }
+
+    /**
+     * 在移交队列里登记一个等待者，之后必须调用 await 或 abandon
+     * 先登记再扫描一次，和 requite 的"先置空闲再看队列"配对，保证不会错过；扫描到的条目直接放进自己的槽位
+     */
+    public HandoffQueue.Waiter<T> enqueue() {
+        waiters.incrementAndGet();
+        HandoffQueue.Waiter<T> waiter = handoffQueue.enqueue();
+        T bagEntry = steal();
+        if (bagEntry != null && !waiter.accept(bagEntry)) {
+            requite(bagEntry);
+        }
+        return waiter;
+    }
+
+    /**
+     * 等待移交，超时返回 null
+     */
+    public T await(HandoffQueue.Waiter<T> waiter, long timeout, TimeUnit timeUnit) throws InterruptedException, SQLException {
+        try {
+            return waiter.await(timeout, timeUnit);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 放弃等待（同步或异步等待者），放弃时已经移交过来的条目还回去，移交来的失败原因忽略
+     */
+    public void abandon(HandoffQueue.Waiter<T> waiter) {
+        if (!waiter.cancel()) {
+            try {
+                T handed = waiter.await(0, TimeUnit.NANOSECONDS);
+                if (handed != null) {
+                    requite(handed);
+                }
+            } catch (InterruptedException | SQLException ignore) {
+            }
+        }
+        // 异步等待者在 future 完成时减计数
+        if (waiter.getFuture() == null) {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 异步排队：调用方用 borrow(0) 确认没有空闲条目后调用，和同步借出的线程在同一个 FIFO 移交队列里登记，
+     * 归还者移交时在归还线程里完成 waiter.getFuture()；超时或放弃由调用方调用 waiter.expire / cancel
+     */
+    public HandoffQueue.Waiter<T> borrowAsync() {
+        waiters.incrementAndGet();
+        HandoffQueue.Waiter<T> waiter = handoffQueue.enqueueAsync();
+        waiter.getFuture().whenComplete((bagEntry, e) -> waiters.decrementAndGet());
+        // 和 borrow 一样登记后再扫描一次，扫描到的条目直接放进自己的槽位
+        T bagEntry = steal();
+        if (bagEntry != null && !waiter.accept(bagEntry)) {
+            requite(bagEntry);
+        }
+        return waiter;
+    }
+
+    private T steal() {
+        for (T bagEntry : sharedList) {
+            if (bagEntry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return bagEntry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 归还一个条目，有线程在等待时直接移交给等待最久的线程，否则记入当前线程的本地列表
+     */
+    public void requite(T bagEntry) {
+        if (handoffOrRelease(bagEntry)) {
+            return;
+        }
+        final List<WeakReference<T>> list = threadList.get();
+        if (list.size() < THREAD_LIST_MAX_SIZE) {
+            list.add(new WeakReference<>(bagEntry));
+        }
+    }
+
+    /**
+     * 加入一个新条目，有线程在等待时直接移交
+     */
+    public void add(T bagEntry) {
+        if (closed) {
+            throw new IllegalStateException("ConcurrentBag has been closed, ignoring add()");
+        }
+        bagEntry.setState(STATE_IN_USE);
+        sharedList.add(bagEntry);
+        handoffOrRelease(bagEntry);
+    }
+
+    /**
+     * 把失败原因交给等待最久的线程
+     */
+    public boolean fail(SQLException failure) {
+        return handoffQueue.fail(failure);
+    }
+
+    // 调用方持有条目（借出状态）：有等待者就移交，否则置为空闲；返回 true 表示已移交
+    private boolean handoffOrRelease(T bagEntry) {
+        if (handoffQueue.offer(bagEntry)) {
+            return true;
+        }
+        bagEntry.setState(STATE_NOT_IN_USE);
+        // 置为空闲后再看一次队列，防止等待者恰好在 offer 之后登记、又在置空闲之前扫描完
+        while (handoffQueue.hasWaiters() && bagEntry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+            if (handoffQueue.offer(bagEntry)) {
+                return true;
+            }
+            bagEntry.setState(STATE_NOT_IN_USE);
+        }
+        return false;
+    }
+
+    /**
+     * 移除一个条目，只有已借出或已保留的条目才能移除
+     */
+    public boolean remove(T bagEntry) {
+        if (!bagEntry.compareAndSet(STATE_IN_USE, STATE_REMOVED) && !bagEntry.compareAndSet(STATE_RESERVED, STATE_REMOVED) && !closed) {
+            return false;
+        }
+        return sharedList.remove(bagEntry);
+    }
+
+    /**
+     * 把一个空闲条目保留下来，保留后不会被借出
+     */
+    public boolean reserve(T bagEntry) {
+        return bagEntry.compareAndSet(STATE_NOT_IN_USE, STATE_RESERVED);
+    }
+
+    /**
+     * 取消保留，条目重新变为空闲（有等待者时直接移交）
+     */
+    public void unreserve(T bagEntry) {
+        if (bagEntry.compareAndSet(STATE_RESERVED, STATE_IN_USE)) {
+            handoffOrRelease(bagEntry);
+        }
+    }
+
+    /**
+     * 清空所有条目（不论状态），返回被移除的条目
+     */
+    public List<T> clear() {
+        List<T> removed = new ArrayList<>();
+        for (T bagEntry : sharedList) {
+            int state = bagEntry.getState();
+            if (state != STATE_REMOVED && bagEntry.compareAndSet(state, STATE_REMOVED) && sharedList.remove(bagEntry)) {
+                removed.add(bagEntry);
+            }
+        }
+        return removed;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * 指定状态的条目快照
+     */
+    public List<T> values(int state) {
+        List<T> list = new ArrayList<>();
+        for (T bagEntry : sharedList) {
+            if (bagEntry.getState() == state) {
+                list.add(bagEntry);
+            }
+        }
+        return list;
+    }
+
+    public List<T> values() {
+        return new ArrayList<>(sharedList);
+    }
+
+    public int getCount(int state) {
+        int count = 0;
+        for (T bagEntry : sharedList) {
+            if (bagEntry.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return sharedList.size();
+    }
+
+    public int getWaitingThreadCount() {
+        return waiters.get();
+    }
+
+    public HandoffQueue<T> getHandoffQueue() {
+        return handoffQueue;
+    }
+
+}
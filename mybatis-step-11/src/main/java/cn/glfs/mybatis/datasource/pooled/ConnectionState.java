@@ -0,0 +1,193 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 物理连接的会话状态缓存：autoCommit、事务隔离级别、只读、catalog，以及当前事务里是否执行过语句（dirty）
+ * 调用方的修改都经过代理连接，缓存的值与驱动一致：读取直接返回缓存，设置相同的值直接跳过；
+ * 没执行过语句的事务，commit、rollback 以及归还连接时的回滚都可以省掉。这些调用对 MySQL 等驱动都是一次网络往返。
+ * 值在第一次用到时才从驱动读取；调用出错时缓存作废，下次重新读取。
+ * 关闭跟踪（poolTrackConnectionState = false）时所有调用直接转给驱动
+ */
+public class ConnectionState {
+
+    private final Connection connection;
+
+    private final boolean tracking;
+
+    private final PoolState poolState;
+
+    // null 表示还不知道，下次用到时从驱动读取
+    private Boolean autoCommit;
+    private Integer transactionIsolation;
+    private Boolean readOnly;
+    private String catalog;
+    private boolean catalogKnown;
+
+    // 上次 commit/rollback 之后是否执行过语句；刚建立的连接没有执行过语句
+    private boolean dirty;
+
+    public ConnectionState(Connection connection, boolean tracking, PoolState poolState) {
+        this.connection = connection;
+        this.tracking = tracking;
+        this.poolState = poolState;
+    }
+
+    public boolean getAutoCommit() throws SQLException {
+        if (!tracking) {
+            return connection.getAutoCommit();
+        }
+        if (autoCommit == null) {
+            autoCommit = connection.getAutoCommit();
+        } else {
+            elided();
+        }
+        return autoCommit;
+    }
+
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (tracking && this.autoCommit != null && this.autoCommit == autoCommit) {
+            elided();
+            return;
+        }
+        this.autoCommit = null;
+        connection.setAutoCommit(autoCommit);
+        if (tracking) {
+            this.autoCommit = autoCommit;
+        }
+        // 打开 autoCommit 会提交当前事务
+        if (autoCommit) {
+            dirty = false;
+        }
+    }
+
+    public int getTransactionIsolation() throws SQLException {
+        if (!tracking) {
+            return connection.getTransactionIsolation();
+        }
+        if (transactionIsolation == null) {
+            transactionIsolation = connection.getTransactionIsolation();
+        } else {
+            elided();
+        }
+        return transactionIsolation;
+    }
+
+    public void setTransactionIsolation(int level) throws SQLException {
+        if (tracking && transactionIsolation != null && transactionIsolation == level) {
+            elided();
+            return;
+        }
+        transactionIsolation = null;
+        connection.setTransactionIsolation(level);
+        if (tracking) {
+            transactionIsolation = level;
+        }
+    }
+
+    public boolean isReadOnly() throws SQLException {
+        if (!tracking) {
+            return connection.isReadOnly();
+        }
+        if (readOnly == null) {
+            readOnly = connection.isReadOnly();
+        } else {
+            elided();
+        }
+        return readOnly;
+    }
+
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        if (tracking && this.readOnly != null && this.readOnly == readOnly) {
+            elided();
+            return;
+        }
+        this.readOnly = null;
+        connection.setReadOnly(readOnly);
+        if (tracking) {
+            this.readOnly = readOnly;
+        }
+    }
+
+    public String getCatalog() throws SQLException {
+        if (!tracking) {
+            return connection.getCatalog();
+        }
+        if (!catalogKnown) {
+            catalog = connection.getCatalog();
+            catalogKnown = true;
+        } else {
+            elided();
+        }
+        return catalog;
+    }
+
+    public void setCatalog(String catalog) throws SQLException {
+        if (tracking && catalogKnown && (catalog == null ? this.catalog == null : catalog.equals(this.catalog))) {
+            elided();
+            return;
+        }
+        catalogKnown = false;
+        connection.setCatalog(catalog);
+        if (tracking) {
+            this.catalog = catalog;
+            catalogKnown = true;
+        }
+    }
+
+    /**
+     * 语句执行前调用；autoCommit 打开时语句自动提交，不算未提交的事务
+     */
+    public void markDirty() {
+        if (!dirty && !Boolean.TRUE.equals(autoCommit)) {
+            dirty = true;
+        }
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void commit() throws SQLException {
+        if (tracking && !dirty) {
+            elided();
+            return;
+        }
+        connection.commit();
+        dirty = false;
+    }
+
+    public void rollback() throws SQLException {
+        if (tracking && !dirty) {
+            elided();
+            return;
+        }
+        connection.rollback();
+        dirty = false;
+    }
+
+    /**
+     * 连接在池中流转（借出、归还、被回收）时调用，回滚调用方没有提交的事务
+     * 跟踪状态时只有 dirty 的连接才回滚，不再每次都 getAutoCommit + rollback
+     */
+    public void rollbackIfNeeded() throws SQLException {
+        if (tracking) {
+            if (!dirty) {
+                elided();
+            } else if (!getAutoCommit()) {
+                connection.rollback();
+            }
+            dirty = false;
+            return;
+        }
+        if (!connection.getAutoCommit()) {
+            connection.rollback();
+        }
+    }
+
+    private void elided() {
+        poolState.elidedRoundTripCount.increment();
+    }
+
+}
@@ -0,0 +1,255 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 公平的 FIFO 移交队列
+ * 每个等待线程在队尾登记一个 Waiter，归还的连接直接放进队头 Waiter 的移交槽位并只唤醒这一个线程，
+ * 取代 state.notifyAll() 唤醒所有等待者再一起抢的做法，避免惊群，也保证先等先得
+ * 异步等待者（enqueueAsync）和同步等待者排在同一个队列里，轮到它时由移交者线程直接完成它的 future
+ */
+public class HandoffQueue<T> {
+
+    private final ConcurrentLinkedQueue<Waiter<T>> waiters = new ConcurrentLinkedQueue<>();
+
+    // 成功移交次数
+    private final LongAdder handoffCount = new LongAdder();
+    // 成功移交前的累计等待时间（纳秒）
+    private final LongAdder accumulatedWaitNanos = new LongAdder();
+    // 单次等待的最长时间（纳秒）
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    // 等待超时次数
+    private final LongAdder timeoutCount = new LongAdder();
+
+    /**
+     * 在队尾登记一个等待者，登记后必须调用 await 或 cancel
+     */
+    public Waiter<T> enqueue() {
+        Waiter<T> waiter = new Waiter<>(this, Thread.currentThread(), null);
+        waiters.offer(waiter);
+        return waiter;
+    }
+
+    /**
+     * 在队尾登记一个异步等待者，不占用线程；移交时在移交者线程里完成 getFuture()，放弃等待用 cancel 或 expire
+     */
+    public Waiter<T> enqueueAsync() {
+        Waiter<T> waiter = new Waiter<>(this, null, new CompletableFuture<>());
+        waiters.offer(waiter);
+        return waiter;
+    }
+
+    /**
+     * 把元素移交给等待最久的线程，没有等待者时返回 false
+     */
+    public boolean offer(T item) {
+        Waiter<T> waiter;
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.complete(item, null)) {
+                recordHandoff(waiter);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把失败原因交给等待最久的线程（比如创建连接失败），没有等待者时返回 false
+     */
+    public boolean fail(SQLException failure) {
+        Waiter<T> waiter;
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.complete(null, failure)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasWaiters() {
+        return !waiters.isEmpty();
+    }
+
+    /**
+     * 队列深度，遍历计数，只用于监控
+     */
+    public int size() {
+        return waiters.size();
+    }
+
+    public long getHandoffCount() {
+        return handoffCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getAverageWaitTime() {
+        long count = handoffCount.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(accumulatedWaitNanos.sum() / count);
+    }
+
+    public long getAccumulatedWaitNanos() {
+        return accumulatedWaitNanos.sum();
+    }
+
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    private void recordHandoff(Waiter<T> waiter) {
+        long waited = System.nanoTime() - waiter.enqueueNanos;
+        handoffCount.increment();
+        accumulatedWaitNanos.add(waited);
+        long max;
+        while (waited > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waited)) {
+            // 重试
+        }
+    }
+
+    /**
+     * 等待者，持有一个移交槽位
+     */
+    public static final class Waiter<T> {
+
+        private static final int WAITING = 0;
+        private static final int COMPLETED = 1;
+        private static final int CANCELLED = 2;
+        // 已被某个完成者抢到、正在写槽位，等待线程看到它时自旋到 COMPLETED
+        private static final int CLAIMING = 3;
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Waiter> STATUS_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Waiter.class, "status");
+
+        private final HandoffQueue<T> queue;
+        private final Thread thread;
+        // 异步等待者的结果，同步等待者为 null
+        private final CompletableFuture<T> future;
+        private final long enqueueNanos = System.nanoTime();
+
+        private volatile int status = WAITING;
+        // 移交槽位
+        private volatile T item;
+        private volatile SQLException failure;
+
+        private Waiter(HandoffQueue<T> queue, Thread thread, CompletableFuture<T> future) {
+            this.queue = queue;
+            this.thread = thread;
+            this.future = future;
+        }
+
+        private boolean complete(T item, SQLException failure) {
+            // 先抢到所有权再写槽位，抢输的完成者不会碰槽位；COMPLETED 的 volatile 写保证等待线程看到槽位
+            if (!STATUS_UPDATER.compareAndSet(this, WAITING, CLAIMING)) {
+                return false;
+            }
+            this.item = item;
+            this.failure = failure;
+            status = COMPLETED;
+            if (future == null) {
+                LockSupport.unpark(thread);
+            } else if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(item);
+            }
+            return true;
+        }
+
+        /**
+         * 等待移交，超时返回 null；超时与移交同时发生时以移交为准
+         */
+        public T await(long timeout, TimeUnit unit) throws InterruptedException, SQLException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            int s;
+            while ((s = status) != COMPLETED) {
+                if (s == CANCELLED) {
+                    return null;
+                }
+                if (s == CLAIMING) {
+                    // 完成者正在写槽位，很快就会变成 COMPLETED
+                    Thread.yield();
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (cancel()) {
+                        queue.timeoutCount.increment();
+                        return null;
+                    }
+                    continue;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    if (cancel()) {
+                        throw new InterruptedException();
+                    }
+                    // 中断与移交同时发生，先收下连接，保留中断标记
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return item;
+        }
+
+        /**
+         * 放弃等待，返回 false 说明已经有元素（或失败原因）移交过来，调用方需要再调用一次 await 取走并负责处理
+         * 异步等待者放弃后 future 被取消；返回 false 时移交过来的元素已经在 future 里
+         */
+        public boolean cancel() {
+            if (STATUS_UPDATER.compareAndSet(this, WAITING, CANCELLED)) {
+                queue.waiters.remove(this);
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 异步等待者超时：放弃等待并计入超时次数，返回 false 说明已经有元素移交过来
+         */
+        public boolean expire() {
+            if (cancel()) {
+                queue.timeoutCount.increment();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 自己把元素放进槽位（比如登记后再扫描时拿到了空闲元素），返回 false 说明已经被移交或已放弃，元素仍归调用方
+         */
+        public boolean accept(T item) {
+            if (complete(item, null)) {
+                queue.waiters.remove(this);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 还在等待，没有被移交也没有放弃
+         */
+        public boolean isWaiting() {
+            return status == WAITING;
+        }
+
+        public CompletableFuture<T> getFuture() {
+            return future;
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图
+ * 按 2 的幂次分桶（单位微秒），每个桶是一个 LongAdder，记录时不加锁，多线程同时记录也不会互相争用；
+ * 分位数按桶的上界估算，误差不超过一倍，用来判断量级足够了
+ */
+public class LatencyHistogram {
+
+    // 第 0 个桶记录不足 1 微秒的，第 i 个桶记录 [2^(i-1), 2^i) 微秒，最后一个桶兜住更长的
+    private static final int BUCKET_COUNT = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        record(unit.toNanos(duration));
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1000;
+        int index = micros == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[index].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // 重试
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 平均耗时（毫秒）
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : toMillis(totalNanos.sum() / n);
+    }
+
+    /**
+     * 最长耗时（毫秒）
+     */
+    public double getMax() {
+        return toMillis(maxNanos.get());
+    }
+
+    /**
+     * 分位数耗时（毫秒），percentile 取值 0~1，返回所在桶的上界，且不超过最长耗时
+     */
+    public double getPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return Math.min(toMillis((1L << i) * 1000), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+}
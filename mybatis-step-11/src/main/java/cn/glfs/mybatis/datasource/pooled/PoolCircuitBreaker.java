@@ -0,0 +1,162 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 建立物理连接的熔断器
+ * 1. CLOSED：正常建连，连续失败达到 poolCircuitBreakerFailureThreshold 次后打开
+ * 2. OPEN：不再建连，拿不到空闲连接的请求直接失败，不再排队等到 poolTimeToWait；
+ *    打开时长按打开次数指数增长（poolCircuitBreakerBackoffBase 起，最长 poolCircuitBreakerBackoffMax），并取其一半到全部之间的随机值，
+ *    数据库重启时各个节点不会在同一时刻一起重连
+ * 3. HALF_OPEN：打开时长到期后只放行一次建连作为探测，成功则关闭，失败则重新打开并加长退避
+ */
+public class PoolCircuitBreaker {
+
+    private final Logger logger = LoggerFactory.getLogger(PoolCircuitBreaker.class);
+
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    private static final String[] STATE_NAMES = {"CLOSED", "OPEN", "HALF_OPEN"};
+
+    private final PooledDataSource dataSource;
+
+    private static final Snapshot CLOSED_SNAPSHOT = new Snapshot(CLOSED, 0, 0);
+
+    // 状态、允许探测的时间点和退避次数一起发布，看到 OPEN 时一定能看到对应的 retryAt
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(CLOSED_SNAPSHOT);
+
+    // 连续失败次数
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile SQLException lastFailure;
+
+    private final LongAdder openCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public PoolCircuitBreaker(PooledDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * 建连前调用：关闭时放行；打开且退避到期时转为半开，只放行这一次作为探测；其余情况拒绝
+     */
+    public boolean tryAcquirePermit() {
+        if (!dataSource.isPoolCircuitBreakerEnabled()) {
+            return true;
+        }
+        Snapshot current = snapshot.get();
+        if (current.state == CLOSED) {
+            return true;
+        }
+        if (current.state == OPEN && System.currentTimeMillis() >= current.retryAt
+                && snapshot.compareAndSet(current, new Snapshot(HALF_OPEN, current.retryAt, current.backoffAttempts))) {
+            logger.info("PooledDataSource: Circuit breaker half-open, probing the database with one connection attempt.");
+            return true;
+        }
+        return false;
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        // 关闭时退避次数清零
+        if (snapshot.getAndSet(CLOSED_SNAPSHOT).state != CLOSED) {
+            logger.info("PooledDataSource: Circuit breaker closed, the database is reachable again.");
+        }
+    }
+
+    public void onFailure(SQLException failure) {
+        lastFailure = failure;
+        int failures = consecutiveFailures.incrementAndGet();
+        if (!dataSource.isPoolCircuitBreakerEnabled()) {
+            return;
+        }
+        // 探测失败直接重新打开；关闭状态下连续失败到阈值才打开。先算好 retryAt，和 OPEN 一起 CAS 发布
+        Snapshot current;
+        while ((current = snapshot.get()).state == HALF_OPEN
+                || (current.state == CLOSED && failures >= dataSource.getPoolCircuitBreakerFailureThreshold())) {
+            long backoff = nextBackoff(current.backoffAttempts);
+            if (snapshot.compareAndSet(current, new Snapshot(OPEN, System.currentTimeMillis() + backoff, current.backoffAttempts + 1))) {
+                openCount.increment();
+                logger.warn("PooledDataSource: Circuit breaker open after " + failures + " consecutive connection failure(s), next attempt in " + backoff + " ms. Cause: " + failure.getMessage());
+                return;
+            }
+        }
+    }
+
+    // 指数退避，取 [d/2, d] 之间的随机值
+    private long nextBackoff(int backoffAttempts) {
+        int attempt = Math.min(backoffAttempts, 30);
+        long ceiling = Math.min(dataSource.getPoolCircuitBreakerBackoffMax(), dataSource.getPoolCircuitBreakerBackoffBase() << attempt);
+        long half = Math.max(1, ceiling / 2);
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * 打开或半开（探测还没有结果）时为 true
+     */
+    public boolean isOpen() {
+        return dataSource.isPoolCircuitBreakerEnabled() && snapshot.get().state != CLOSED;
+    }
+
+    /**
+     * 拒绝一个请求（计数），返回给调用方的异常
+     */
+    public SQLException reject() {
+        rejectedCount.increment();
+        return newOpenException();
+    }
+
+    public void recordRejected() {
+        rejectedCount.increment();
+    }
+
+    /**
+     * 熔断打开时给调用方的异常，原因是最近一次建连失败
+     */
+    public SQLException newOpenException() {
+        long retryIn = Math.max(0, snapshot.get().retryAt - System.currentTimeMillis());
+        return new SQLException("PooledDataSource: Circuit breaker is " + getStateName() + " after " + consecutiveFailures.get()
+                + " consecutive connection failure(s), failing fast (next attempt in " + retryIn + " ms).", lastFailure);
+    }
+
+    public String getStateName() {
+        return STATE_NAMES[snapshot.get().state];
+    }
+
+    public long getOpenCount() {
+        return openCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 熔断器状态的不可变快照
+     */
+    private static final class Snapshot {
+
+        private final int state;
+        // 允许探测的时间点
+        private final long retryAt;
+        // 本轮故障中已经打开的次数，决定退避时长
+        private final int backoffAttempts;
+
+        private Snapshot(int state, long retryAt, int backoffAttempts) {
+            this.state = state;
+            this.retryAt = retryAt;
+            this.backoffAttempts = backoffAttempts;
+        }
+
+    }
+
+}
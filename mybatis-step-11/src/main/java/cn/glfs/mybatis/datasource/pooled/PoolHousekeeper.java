@@ -0,0 +1,124 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 连接池后台管家
+ * 原来连接池只在调用方 pop/push 时才有动作，这里用一个后台线程定期：
+ * 1. 回收空闲过久的连接（至少保留 poolMinimumIdleConnections 个）
+ * 2. 回收超过最大寿命的空闲连接，寿命带随机抖动，避免同一批连接同时过期
+ * 3. 在后台补足最小空闲连接，高峰到来时不用在请求路径上建连
+ * 4. 按单独的间隔验证空闲连接，借出时不用再做网络验证
+ * 5. 开启泄漏检测时，定期检查借出过久的连接
+ * 6. 开启自适应大小时，定期按等待和利用率调整池大小
+ */
+public class PoolHousekeeper implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(PoolHousekeeper.class);
+
+    private final PooledDataSource dataSource;
+
+    private volatile ScheduledExecutorService scheduler;
+
+    // 启停互斥；用 ReentrantLock 而不是 synchronized，启停在虚拟线程上调用时不会钉住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public PoolHousekeeper(PooledDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * 启动定时任务，首次执行立即开始（即预热），重复调用无副作用
+     * validationPeriod、leakDetectionPeriod、sizingPeriod 不大于 0 时不做后台验证、泄漏检测、自适应调整
+     */
+    public void start(long period, long validationPeriod, long leakDetectionPeriod, long sizingPeriod) {
+        lock.lock();
+        try {
+            if (scheduler != null) {
+                return;
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "PooledDataSource-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this, 0, period, TimeUnit.MILLISECONDS);
+            if (validationPeriod > 0) {
+                scheduler.scheduleWithFixedDelay(this::validate, validationPeriod, validationPeriod, TimeUnit.MILLISECONDS);
+            }
+            if (leakDetectionPeriod > 0) {
+                scheduler.scheduleWithFixedDelay(this::detectLeaks, leakDetectionPeriod, leakDetectionPeriod, TimeUnit.MILLISECONDS);
+            }
+            if (sizingPeriod > 0) {
+                // 首次执行只记录统计基线
+                scheduler.scheduleWithFixedDelay(this::adjustSize, 0, sizingPeriod, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void stop() {
+        lock.lock();
+        try {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isRunning() {
+        return scheduler != null;
+    }
+
+    @Override
+    public void run() {
+        // 任务抛异常会导致后续调度被取消，这里兜住
+        try {
+            int retired = dataSource.retireIdleConnections();
+            int created = dataSource.fillMinimumIdleConnections();
+            if (retired > 0 || created > 0) {
+                logger.info("Housekeeper retired " + retired + " idle connection(s), requested " + created + " new connection(s).");
+            }
+        } catch (Exception e) {
+            logger.warn("Housekeeper run failed. Cause: " + e);
+        }
+    }
+
+    private void validate() {
+        try {
+            int validated = dataSource.validateIdleConnections();
+            if (validated > 0) {
+                logger.debug("Housekeeper validated " + validated + " idle connection(s).");
+            }
+        } catch (Exception e) {
+            logger.warn("Housekeeper validation failed. Cause: " + e);
+        }
+    }
+
+    private void detectLeaks() {
+        try {
+            dataSource.detectLeakedConnections();
+        } catch (Exception e) {
+            logger.warn("Housekeeper leak detection failed. Cause: " + e);
+        }
+    }
+
+    private void adjustSize() {
+        try {
+            dataSource.adjustPoolSize();
+        } catch (Exception e) {
+            logger.warn("Housekeeper adaptive sizing failed. Cause: " + e);
+        }
+    }
+
+}
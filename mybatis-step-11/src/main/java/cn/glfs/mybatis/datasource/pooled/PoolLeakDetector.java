@@ -0,0 +1,161 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接泄漏检测
+ * 1. 借出时按采样率记录借出线程的调用栈，没采中的连接不做任何额外工作
+ * 2. 后台定期扫描借出中的连接，持有时间超过阈值的报警一次（采中的带上借出时的调用栈）
+ * 3. 按调用点（借出栈中第一个不属于框架的栈帧）汇总泄漏次数，方便定位是哪段代码没有归还连接
+ */
+public class PoolLeakDetector {
+
+    private final Logger logger = LoggerFactory.getLogger(PoolLeakDetector.class);
+
+    // 未采样的连接无法定位调用点，统一记在这里
+    public static final String UNKNOWN_CALL_SITE = "<not sampled>";
+
+    // 定位调用点时跳过的栈帧前缀：框架自身、JDK 以及动态代理
+    private static final String[] FRAMEWORK_PREFIXES = {
+            "cn.glfs.mybatis.binding.", "cn.glfs.mybatis.builder.", "cn.glfs.mybatis.datasource.", "cn.glfs.mybatis.executor.",
+            "cn.glfs.mybatis.io.", "cn.glfs.mybatis.mapping.", "cn.glfs.mybatis.parsing.", "cn.glfs.mybatis.reflection.",
+            "cn.glfs.mybatis.scripting.", "cn.glfs.mybatis.session.", "cn.glfs.mybatis.transaction.", "cn.glfs.mybatis.type.",
+            "java.", "javax.", "jdk.", "sun.", "com.sun."};
+
+    // 调用点 -> 泄漏次数
+    private final Map<String, LeakSite> leakSites = new ConcurrentHashMap<>();
+    private final LongAdder leakCount = new LongAdder();
+
+    /**
+     * 借出时调用，sampleRate 不大于 0 时只有一次比较
+     */
+    public void onCheckout(PooledConnection conn, long threshold, double sampleRate) {
+        if (threshold <= 0 || sampleRate <= 0) {
+            return;
+        }
+        if (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            conn.setCheckoutTrace(new Throwable("Connection checked out by thread " + Thread.currentThread().getName()));
+        }
+    }
+
+    /**
+     * 归还时调用，清理借出记录；已经报过泄漏的连接补一条日志
+     */
+    public void onReturn(PooledConnection conn) {
+        if (conn.isLeakReported()) {
+            logger.info("Previously reported leaked connection " + conn.getRealHashCode() + " was returned to the pool (held " + conn.getCheckoutTime() + " ms).");
+            conn.setLeakReported(false);
+        }
+        conn.setCheckoutTrace(null);
+    }
+
+    /**
+     * 检查借出中的连接，持有时间超过阈值且还没报过的报警一次，返回本次发现的数量（由后台管家调用）
+     */
+    public int detect(List<PooledConnection> checkedOut, long threshold) {
+        if (threshold <= 0) {
+            return 0;
+        }
+        int detected = 0;
+        for (PooledConnection conn : checkedOut) {
+            long held = conn.getCheckoutTime();
+            if (held <= threshold || conn.isLeakReported()) {
+                continue;
+            }
+            conn.setLeakReported(true);
+            detected++;
+            leakCount.increment();
+            Throwable trace = conn.getCheckoutTrace();
+            String callSite = trace == null ? UNKNOWN_CALL_SITE : callSite(trace);
+            leakSites.computeIfAbsent(callSite, k -> new LeakSite(trace)).count.increment();
+            if (trace != null) {
+                logger.warn("Connection leak detection triggered for connection " + conn.getRealHashCode() + ", held " + held + " ms (threshold " + threshold + " ms), checked out at " + callSite, trace);
+            } else {
+                logger.warn("Connection leak detection triggered for connection " + conn.getRealHashCode() + ", held " + held + " ms (threshold " + threshold + " ms). Checkout stack was not sampled.");
+            }
+        }
+        return detected;
+    }
+
+    // 取借出栈中第一个业务栈帧作为调用点，全在框架内时取第一个不属于连接池的栈帧
+    private static String callSite(Throwable trace) {
+        StackTraceElement fallback = null;
+        for (StackTraceElement element : trace.getStackTrace()) {
+            String className = element.getClassName();
+            if (!isFrameworkFrame(className)) {
+                return element.toString();
+            }
+            if (fallback == null && !className.startsWith("cn.glfs.mybatis.datasource.")) {
+                fallback = element;
+            }
+        }
+        return fallback != null ? fallback.toString() : UNKNOWN_CALL_SITE;
+    }
+
+    private static boolean isFrameworkFrame(String className) {
+        for (String prefix : FRAMEWORK_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
+
+    /**
+     * 按调用点汇总的泄漏次数，次数多的在前
+     */
+    public Map<String, Long> getLeakReport() {
+        List<Map.Entry<String, LeakSite>> entries = new ArrayList<>(leakSites.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().count.sum(), a.getValue().count.sum()));
+        Map<String, Long> report = new LinkedHashMap<>();
+        for (Map.Entry<String, LeakSite> entry : entries) {
+            report.put(entry.getKey(), entry.getValue().count.sum());
+        }
+        return report;
+    }
+
+    /**
+     * 可读的泄漏报告，每个调用点附带一份借出时的调用栈样本
+     */
+    public String formatLeakReport() {
+        StringBuilder builder = new StringBuilder("Connection leak report (").append(getLeakCount()).append(" leak(s)):\n");
+        for (Map.Entry<String, Long> entry : getLeakReport().entrySet()) {
+            builder.append(entry.getValue()).append(" x ").append(entry.getKey()).append('\n');
+            Throwable sample = leakSites.get(entry.getKey()).sample;
+            if (sample != null) {
+                for (StackTraceElement element : sample.getStackTrace()) {
+                    builder.append("\tat ").append(element).append('\n');
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    public void reset() {
+        leakSites.clear();
+        leakCount.reset();
+    }
+
+    private static final class LeakSite {
+        private final Throwable sample;
+        private final LongAdder count = new LongAdder();
+
+        private LeakSite(Throwable sample) {
+            this.sample = sample;
+        }
+    }
+
+}
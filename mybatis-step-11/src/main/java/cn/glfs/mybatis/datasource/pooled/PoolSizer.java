@@ -0,0 +1,153 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应池大小（poolAdaptiveSizingEnabled）
+ * 由后台管家按 poolAdaptiveSizingPeriod 定期调用，根据 PoolState 已有的统计计算这个窗口内的情况：
+ * 1. 平均等待时间超过 poolAdaptiveWaitThreshold，或者排队线程数达到 poolAdaptiveQueueThreshold 时，
+ *    把 poolMaximumActiveConnections 扩大 1/4（至少 1 个），最多到 poolAdaptiveMaximumConnections，空闲上限按原比例跟着扩大
+ * 2. 利用率（借出总时长 / 窗口时长 / 最大连接数）连续 SHRINK_AFTER_WINDOWS 个窗口低于 poolAdaptiveLowUtilization 且没人等待时，
+ *    按同样的步长缩小，最少缩回配置时的大小，并关闭超出空闲上限的连接
+ * 每次调整都记录日志，最近的调整记录可通过 PoolState#getSizingDecisions 查看
+ */
+public class PoolSizer {
+
+    private final Logger logger = LoggerFactory.getLogger(PoolSizer.class);
+
+    // 连续多少个低利用率窗口后才缩小，避免在流量间隙里来回抖动
+    static final int SHRINK_AFTER_WINDOWS = 5;
+
+    // 保留的调整记录条数
+    private static final int MAX_DECISIONS = 50;
+
+    private final PooledDataSource dataSource;
+
+    // 配置时的大小，缩小不会低于它
+    private int baseMaximumActive = -1;
+    private int baseMaximumIdle;
+
+    // 上个窗口结束时的统计值
+    private long lastTimestamp;
+    private long lastHadToWaitCount;
+    private long lastWaitTime;
+    private long lastCheckoutTime;
+
+    private int lowUtilizationWindows;
+
+    private final Deque<String> decisions = new ArrayDeque<>();
+
+    // 保护上面的统计基线和调整记录；调整时会关闭多余的空闲连接，用 ReentrantLock 不钉住虚拟线程的载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public PoolSizer(PooledDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * 按这个窗口的统计调整一次池大小，返回是否调整（由后台管家调用）
+     */
+    public boolean adjust() {
+        lock.lock();
+        try {
+            return doAdjust();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean doAdjust() {
+        PoolState state = dataSource.getPoolState();
+        long now = System.currentTimeMillis();
+        long hadToWaitCount = state.hadToWaitCount.sum();
+        long waitTime = state.accumulatedWaitTime.sum();
+        long checkoutTime = state.accumulatedCheckoutTime.sum();
+        if (baseMaximumActive < 0) {
+            baseMaximumActive = dataSource.poolMaximumActiveConnections;
+            baseMaximumIdle = dataSource.poolMaximumIdleConnections;
+            remember(now, hadToWaitCount, waitTime, checkoutTime);
+            return false;
+        }
+        long window = Math.max(1, now - lastTimestamp);
+        long waits = hadToWaitCount - lastHadToWaitCount;
+        long averageWait = waits == 0 ? 0 : (waitTime - lastWaitTime) / waits;
+        int waiting = state.getWaitingThreadCount();
+        int maxActive = dataSource.poolMaximumActiveConnections;
+        int maxIdle = dataSource.poolMaximumIdleConnections;
+        double utilization = (checkoutTime - lastCheckoutTime) / (double) window / maxActive;
+        remember(now, hadToWaitCount, waitTime, checkoutTime);
+
+        int step = Math.max(1, maxActive / 4);
+        boolean pressure = averageWait > dataSource.poolAdaptiveWaitThreshold || waiting >= dataSource.poolAdaptiveQueueThreshold;
+        if (pressure) {
+            lowUtilizationWindows = 0;
+            int hardMax = dataSource.poolAdaptiveMaximumConnections;
+            if (maxActive >= hardMax) {
+                return false;
+            }
+            int newMaxActive = Math.min(hardMax, maxActive + step);
+            resize(maxActive, maxIdle, newMaxActive, "grow", String.format("avg wait %d ms (threshold %d ms), %d waiting (threshold %d), utilization %.2f",
+                    averageWait, dataSource.poolAdaptiveWaitThreshold, waiting, dataSource.poolAdaptiveQueueThreshold, utilization));
+            return true;
+        }
+        if (waits > 0 || utilization >= dataSource.poolAdaptiveLowUtilization) {
+            lowUtilizationWindows = 0;
+            return false;
+        }
+        if (++lowUtilizationWindows < SHRINK_AFTER_WINDOWS || (maxActive <= baseMaximumActive && maxIdle <= baseMaximumIdle)) {
+            return false;
+        }
+        lowUtilizationWindows = 0;
+        int newMaxActive = Math.max(baseMaximumActive, maxActive - step);
+        resize(maxActive, maxIdle, newMaxActive, "shrink", String.format("utilization %.2f below %.2f for %d windows",
+                utilization, dataSource.poolAdaptiveLowUtilization, SHRINK_AFTER_WINDOWS));
+        int trimmed = dataSource.trimIdleConnections();
+        if (trimmed > 0) {
+            logger.info("Adaptive sizing closed " + trimmed + " idle connection(s) above the new idle limit.");
+        }
+        return true;
+    }
+
+    // 空闲上限按配置时的比例跟着最大连接数变化
+    private void resize(int maxActive, int maxIdle, int newMaxActive, String action, String reason) {
+        int newMaxIdle = Math.max(baseMaximumIdle, (int) Math.round(newMaxActive * (double) baseMaximumIdle / baseMaximumActive));
+        dataSource.poolMaximumActiveConnections = newMaxActive;
+        dataSource.poolMaximumIdleConnections = newMaxIdle;
+        String decision = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()) + " " + action
+                + " maxActive " + maxActive + " -> " + newMaxActive + ", maxIdle " + maxIdle + " -> " + newMaxIdle + ": " + reason;
+        logger.info("Adaptive sizing: " + decision);
+        decisions.addLast(decision);
+        if (decisions.size() > MAX_DECISIONS) {
+            decisions.removeFirst();
+        }
+    }
+
+    private void remember(long now, long hadToWaitCount, long waitTime, long checkoutTime) {
+        lastTimestamp = now;
+        lastHadToWaitCount = hadToWaitCount;
+        lastWaitTime = waitTime;
+        lastCheckoutTime = checkoutTime;
+    }
+
+    /**
+     * 最近的调整记录，旧的在前
+     */
+    public List<String> getDecisions() {
+        lock.lock();
+        try {
+            return new ArrayList<>(decisions);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
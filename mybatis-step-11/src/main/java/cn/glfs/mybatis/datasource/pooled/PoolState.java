@@ -1,82 +1,407 @@
 package cn.glfs.mybatis.datasource.pooled;
 
 
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 池状态
  */
-public class PoolState {
+public class PoolState implements PoolStateMXBean {
 
     protected PooledDataSource dataSource;
 
-    //空闲链接
+    // 经典模式的池锁，保护下面的空闲、活跃列表
+    // 用 ReentrantLock 而不是 synchronized：调用方跑在虚拟线程上时，持有监视器期间阻塞会把载体线程钉住（pinning）
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    //空闲链接（经典模式）
     protected final List<PooledConnection> idleConnections = new ArrayList<>();
-    //活跃链接
+    //活跃链接（经典模式）
     protected final List<PooledConnection> activeConnections = new ArrayList<>();
+    // 等待连接的线程（经典模式），归还的连接直接移交给队头
+    protected final HandoffQueue<PooledConnection> waiterQueue = new HandoffQueue<>();
+
+    // 按凭证划分的子池（ConcurrentBag 模式），key 为连接类型码；每个子池的空闲和活跃连接都在自己的连接包里，通过条目状态区分
+    protected final ConcurrentHashMap<Integer, SubPool> subPools = new ConcurrentHashMap<>();
+    // ConcurrentBag 模式下所有子池的连接总数，创建前先占位，保证不超过 poolMaximumActiveConnections
+    protected final AtomicInteger totalConnections = new AtomicInteger();
+    // 已登记、正在由创建线程建立的物理连接数（两种模式共用）
+    protected final AtomicInteger pendingConnections = new AtomicInteger();
+    // 最近一次创建物理连接失败的异常和时间，等待超时的线程据此给出失败原因
+    protected volatile SQLException lastConnectionCreateFailure;
+    protected volatile long lastConnectionCreateFailureTimestamp;
 
+    // 以下计数器用 LongAdder 记录，ConcurrentBag 模式在无锁路径上也能统计，不会重新引入竞争
     //请求次数
-    protected long requestCount = 0;
+    protected final LongAdder requestCount = new LongAdder();
     //总请求时间
-    protected long accumulatedRequestTime = 0;
+    protected final LongAdder accumulatedRequestTime = new LongAdder();
     // 获取连接的总时间
-    protected long accumulatedCheckoutTime = 0;
+    protected final LongAdder accumulatedCheckoutTime = new LongAdder();
     // 超时的连接总数
-    protected long claimedOverdueConnectionCount = 0;
+    protected final LongAdder claimedOverdueConnectionCount = new LongAdder();
     // 超时连接的总时间
-    protected long accumulatedCheckoutTimeOfOverdueConnections = 0;
+    protected final LongAdder accumulatedCheckoutTimeOfOverdueConnections = new LongAdder();
 
     //总等待时间
-    protected long accumulatedWaitTime = 0;
+    protected final LongAdder accumulatedWaitTime = new LongAdder();
     // 要等待的次数
-    protected long hadToWaitCount = 0;
+    protected final LongAdder hadToWaitCount = new LongAdder();
     // 失败连接次数
-    protected long badConnectionCount = 0;
+    protected final LongAdder badConnectionCount = new LongAdder();
+    // 借出路径上做网络验证的次数
+    protected final LongAdder checkoutValidationCount = new LongAdder();
+    // 后台验证线程做网络验证的次数
+    protected final LongAdder backgroundValidationCount = new LongAdder();
+    // PreparedStatement 缓存命中、未命中、淘汰的次数（所有物理连接合计）
+    protected final LongAdder statementCacheHitCount = new LongAdder();
+    protected final LongAdder statementCacheMissCount = new LongAdder();
+    protected final LongAdder statementCacheEvictionCount = new LongAdder();
+    // 连接状态缓存省掉的驱动调用次数（重复的 autoCommit/隔离级别等设置和读取、干净事务的 commit/rollback）
+    protected final LongAdder elidedRoundTripCount = new LongAdder();
+    // 连接总数到上限时为别的凭证腾出名额而关闭的空闲连接数
+    protected final LongAdder subPoolEvictionCount = new LongAdder();
+    // 创建物理连接失败的次数
+    protected final LongAdder connectionCreateFailureCount = new LongAdder();
+
+    // 获取连接耗时（含排队）、连接持有时长、建立物理连接耗时的直方图
+    protected final LatencyHistogram acquireTimeHistogram = new LatencyHistogram();
+    protected final LatencyHistogram checkoutTimeHistogram = new LatencyHistogram();
+    protected final LatencyHistogram connectionCreateTimeHistogram = new LatencyHistogram();
 
     public PoolState(PooledDataSource dataSource) {
         this.dataSource = dataSource;
     }
 
-    public synchronized long getRequestCount() {
-        return requestCount;
+    @Override
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    public long getAverageRequestTime() {
+        long requests = requestCount.sum();
+        return requests == 0 ? 0 : accumulatedRequestTime.sum() / requests;
+    }
+
+    public long getAverageWaitTime() {
+        long waits = hadToWaitCount.sum();
+        return waits == 0 ? 0 : accumulatedWaitTime.sum() / waits;
+    }
+
+    @Override
+    public long getHadToWaitCount() {
+        return hadToWaitCount.sum();
+    }
+
+    @Override
+    public long getBadConnectionCount() {
+        return badConnectionCount.sum();
+    }
+
+    public long getCheckoutValidationCount() {
+        return checkoutValidationCount.sum();
+    }
+
+    public long getBackgroundValidationCount() {
+        return backgroundValidationCount.sum();
+    }
+
+    @Override
+    public long getConnectionCreateFailureCount() {
+        return connectionCreateFailureCount.sum();
+    }
+
+    @Override
+    public long getStatementCacheHitCount() {
+        return statementCacheHitCount.sum();
+    }
+
+    @Override
+    public long getStatementCacheMissCount() {
+        return statementCacheMissCount.sum();
+    }
+
+    @Override
+    public long getStatementCacheEvictionCount() {
+        return statementCacheEvictionCount.sum();
+    }
+
+    @Override
+    public long getLeakedConnectionCount() {
+        return dataSource.getLeakDetector().getLeakCount();
+    }
+
+    @Override
+    public Map<String, Long> getLeakReport() {
+        return dataSource.getLeakDetector().getLeakReport();
+    }
+
+    @Override
+    public Map<String, Integer> getPriorityLaneActiveCounts() {
+        return dataSource.getPriorityLanes().getActiveCounts();
+    }
+
+    @Override
+    public Map<String, Integer> getPriorityLaneWaitingCounts() {
+        return dataSource.getPriorityLanes().getWaitingCounts();
+    }
+
+    @Override
+    public long getClaimedOverdueConnectionCount() {
+        return claimedOverdueConnectionCount.sum();
+    }
+
+    public long getAverageOverdueCheckoutTime() {
+        long claimed = claimedOverdueConnectionCount.sum();
+        return claimed == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.sum() / claimed;
+    }
+
+    public long getAverageCheckoutTime() {
+        long requests = requestCount.sum();
+        return requests == 0 ? 0 : accumulatedCheckoutTime.sum() / requests;
+    }
+
+    /**
+     * 当前排队等待连接的线程数
+     */
+    @Override
+    public int getWaitingThreadCount() {
+        if (!dataSource.isPoolConcurrentBagEnabled()) {
+            return waiterQueue.size();
+        }
+        int waiting = 0;
+        for (SubPool subPool : subPools.values()) {
+            waiting += subPool.getBag().getHandoffQueue().size();
+        }
+        return waiting;
+    }
+
+    /**
+     * 直接移交的次数，以及这些请求在队列中的平均/最长等待时间（毫秒），ConcurrentBag 模式下为所有子池合计
+     */
+    public long getHandoffCount() {
+        long count = 0;
+        for (HandoffQueue<PooledConnection> queue : handoffQueues()) {
+            count += queue.getHandoffCount();
+        }
+        return count;
+    }
+
+    public long getAverageHandoffWaitTime() {
+        long count = 0;
+        long waitNanos = 0;
+        for (HandoffQueue<PooledConnection> queue : handoffQueues()) {
+            count += queue.getHandoffCount();
+            waitNanos += queue.getAccumulatedWaitNanos();
+        }
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos / count);
     }
 
-    public synchronized long getAverageRequestTime() {
-        return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+    public long getMaxHandoffWaitTime() {
+        long max = 0;
+        for (HandoffQueue<PooledConnection> queue : handoffQueues()) {
+            max = Math.max(max, queue.getMaxWaitTime());
+        }
+        return max;
     }
 
-    public synchronized long getAverageWaitTime() {
-        return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+    @Override
+    public long getWaitTimeoutCount() {
+        long count = 0;
+        for (HandoffQueue<PooledConnection> queue : handoffQueues()) {
+            count += queue.getTimeoutCount();
+        }
+        return count;
     }
 
-    public synchronized long getHadToWaitCount() {
-        return hadToWaitCount;
+    private List<HandoffQueue<PooledConnection>> handoffQueues() {
+        List<HandoffQueue<PooledConnection>> queues = new ArrayList<>();
+        if (dataSource.isPoolConcurrentBagEnabled()) {
+            for (SubPool subPool : subPools.values()) {
+                queues.add(subPool.getBag().getHandoffQueue());
+            }
+        } else {
+            queues.add(waiterQueue);
+        }
+        return queues;
     }
 
-    public synchronized long getBadConnectionCount() {
-        return badConnectionCount;
+    @Override
+    public int getTotalConnectionCount() {
+        if (dataSource.isPoolConcurrentBagEnabled()) {
+            int total = 0;
+            for (SubPool subPool : subPools.values()) {
+                total += subPool.getBag().size();
+            }
+            return total;
+        }
+        lock.lock();
+        try {
+            return idleConnections.size() + activeConnections.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized long getClaimedOverdueConnectionCount() {
-        return claimedOverdueConnectionCount;
+    public LatencyHistogram getAcquireTimeHistogram() {
+        return acquireTimeHistogram;
     }
 
-    public synchronized long getAverageOverdueCheckoutTime() {
-        return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+    public LatencyHistogram getCheckoutTimeHistogram() {
+        return checkoutTimeHistogram;
     }
 
-    public synchronized long getAverageCheckoutTime() {
-        return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+    public LatencyHistogram getConnectionCreateTimeHistogram() {
+        return connectionCreateTimeHistogram;
     }
 
-    public synchronized int getIdleConnectionCount() {
-        return idleConnections.size();
+    @Override
+    public double getAcquireTimeMean() {
+        return acquireTimeHistogram.getMean();
     }
 
-    public synchronized int getActiveConnectionCount() {
-        return activeConnections.size();
+    @Override
+    public double getAcquireTimeP50() {
+        return acquireTimeHistogram.getPercentile(0.5);
     }
 
+    @Override
+    public double getAcquireTimeP99() {
+        return acquireTimeHistogram.getPercentile(0.99);
+    }
+
+    @Override
+    public double getAcquireTimeMax() {
+        return acquireTimeHistogram.getMax();
+    }
+
+    @Override
+    public double getCheckoutTimeP50() {
+        return checkoutTimeHistogram.getPercentile(0.5);
+    }
+
+    @Override
+    public double getCheckoutTimeP99() {
+        return checkoutTimeHistogram.getPercentile(0.99);
+    }
+
+    @Override
+    public double getCheckoutTimeMax() {
+        return checkoutTimeHistogram.getMax();
+    }
+
+    @Override
+    public double getConnectionCreateTimeP50() {
+        return connectionCreateTimeHistogram.getPercentile(0.5);
+    }
+
+    @Override
+    public double getConnectionCreateTimeP99() {
+        return connectionCreateTimeHistogram.getPercentile(0.99);
+    }
+
+    @Override
+    public double getConnectionCreateTimeMax() {
+        return connectionCreateTimeHistogram.getMax();
+    }
+
+    @Override
+    public void resetHistograms() {
+        acquireTimeHistogram.reset();
+        checkoutTimeHistogram.reset();
+        connectionCreateTimeHistogram.reset();
+    }
+
+    @Override
+    public int getPendingConnectionCount() {
+        return pendingConnections.get();
+    }
+
+    @Override
+    public int getIdleConnectionCount() {
+        if (dataSource.isPoolConcurrentBagEnabled()) {
+            return countInSubPools(ConcurrentBag.BagEntry.STATE_NOT_IN_USE);
+        }
+        lock.lock();
+        try {
+            return idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getActiveConnectionCount() {
+        if (dataSource.isPoolConcurrentBagEnabled()) {
+            return countInSubPools(ConcurrentBag.BagEntry.STATE_IN_USE);
+        }
+        lock.lock();
+        try {
+            return activeConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int countInSubPools(int entryState) {
+        int count = 0;
+        for (SubPool subPool : subPools.values()) {
+            count += subPool.getBag().getCount(entryState);
+        }
+        return count;
+    }
+
+    @Override
+    public String getCircuitBreakerState() {
+        return dataSource.getCircuitBreaker().getStateName();
+    }
+
+    @Override
+    public long getCircuitBreakerOpenCount() {
+        return dataSource.getCircuitBreaker().getOpenCount();
+    }
+
+    @Override
+    public long getCircuitBreakerRejectedCount() {
+        return dataSource.getCircuitBreaker().getRejectedCount();
+    }
+
+    @Override
+    public int getMaximumActiveConnections() {
+        return dataSource.getPoolMaximumActiveConnections();
+    }
+
+    @Override
+    public int getMaximumIdleConnections() {
+        return dataSource.getPoolMaximumIdleConnections();
+    }
+
+    @Override
+    public List<String> getSizingDecisions() {
+        return dataSource.getSizer().getDecisions();
+    }
+
+    @Override
+    public long getElidedRoundTripCount() {
+        return elidedRoundTripCount.sum();
+    }
+
+    @Override
+    public long getSubPoolEvictionCount() {
+        return subPoolEvictionCount.sum();
+    }
+
+    @Override
+    public int getSubPoolCount() {
+        return subPools.size();
+    }
 
 }
@@ -0,0 +1,104 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 连接池监控指标，通过 JMX 发布（PooledDataSource#registerMBean）
+ * 耗时类指标单位均为毫秒
+ */
+public interface PoolStateMXBean {
+
+    // 仪表：当前连接数
+    int getActiveConnectionCount();
+
+    int getIdleConnectionCount();
+
+    int getPendingConnectionCount();
+
+    int getTotalConnectionCount();
+
+    int getWaitingThreadCount();
+
+    // 当前的池大小上限，开启自适应大小时会变化
+    int getMaximumActiveConnections();
+
+    int getMaximumIdleConnections();
+
+    // 计数器
+    long getRequestCount();
+
+    long getHadToWaitCount();
+
+    long getWaitTimeoutCount();
+
+    long getBadConnectionCount();
+
+    long getClaimedOverdueConnectionCount();
+
+    long getConnectionCreateFailureCount();
+
+    long getLeakedConnectionCount();
+
+    // PreparedStatement 缓存
+    long getStatementCacheHitCount();
+
+    long getStatementCacheMissCount();
+
+    long getStatementCacheEvictionCount();
+
+    // 建连熔断：当前状态（CLOSED/OPEN/HALF_OPEN）、打开次数、快速失败的请求数
+    String getCircuitBreakerState();
+
+    long getCircuitBreakerOpenCount();
+
+    long getCircuitBreakerRejectedCount();
+
+    // 连接状态缓存省掉的驱动调用次数
+    long getElidedRoundTripCount();
+
+    // 按凭证划分的子池数，以及为别的凭证腾出名额而关闭的空闲连接数
+    int getSubPoolCount();
+
+    long getSubPoolEvictionCount();
+
+    // 最近的自适应大小调整记录（时间、调整前后的大小和原因）
+    List<String> getSizingDecisions();
+
+    // 优先级通道：各通道已借出的连接数、排队等待许可的请求数
+    Map<String, Integer> getPriorityLaneActiveCounts();
+
+    Map<String, Integer> getPriorityLaneWaitingCounts();
+
+    // 泄漏报告：调用点 -> 泄漏次数
+    Map<String, Long> getLeakReport();
+
+    // 获取连接耗时（含排队）
+    double getAcquireTimeMean();
+
+    double getAcquireTimeP50();
+
+    double getAcquireTimeP99();
+
+    double getAcquireTimeMax();
+
+    // 连接被借出后的持有时长
+    double getCheckoutTimeP50();
+
+    double getCheckoutTimeP99();
+
+    double getCheckoutTimeMax();
+
+    // 建立物理连接的耗时
+    double getConnectionCreateTimeP50();
+
+    double getConnectionCreateTimeP99();
+
+    double getConnectionCreateTimeMax();
+
+    /**
+     * 清空直方图，便于按时间窗口观察
+     */
+    void resetHistograms();
+
+}
@@ -1,18 +1,18 @@
 package cn.glfs.mybatis.datasource.pooled;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 连接池对象
  */
-public class PooledConnection implements InvocationHandler {
+public class PooledConnection implements ConcurrentBag.BagEntry {
 
-    private static final String CLOSE = "close";
-    private static final Class<?>[] IFACES = new Class<?>[]{Connection.class};
+    private static final AtomicIntegerFieldUpdater<PooledConnection> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "state");
 
     // 存储连接的哈希码，用于标识连接对象
     private int hashCode = 0;
@@ -23,17 +23,21 @@ public class PooledConnection implements InvocationHandler {
     // 实际的 JDBC 连接对象，代表从数据库获取的真实连接
     private Connection realConnection;
 
-    // 一个动态代理对象，拦截对 realConnection 的方法调用，以便在必要时将连接返回给连接池。
-    private Connection proxyConnection;
+    // 借给调用方的代理连接，直接委托给 realConnection，close 时将连接返回给连接池。
+    // ConcurrentBag 模式下同一个 PooledConnection 会被反复借出，每次归还都会换一个新代理，旧代理随之作废
+    private volatile ProxyConnection proxyConnection;
 
     // 表示此连接从池中检出的时间戳，用于计算连接的使用时长
-    private long checkoutTimestamp;
+    private volatile long checkoutTimestamp;
 
     // 表示此连接创建的时间戳，用于计算连接的年龄。
     private long createdTimestamp;
 
     // 表示此连接上次使用的时间戳，用于计算连接的空闲时长
-    private long lastUsedTimestamp;
+    private volatile long lastUsedTimestamp;
+
+    // 上次通过网络验证（ping 查询或 isValid）的时间戳，后台验证线程也会读写
+    private volatile long lastValidatedTimestamp;
 
     // 表示连接类型的代码，可能用于标识不同类型的连接
     private int connectionTypeCode;
@@ -41,6 +45,22 @@ public class PooledConnection implements InvocationHandler {
     // 布尔标志，指示连接是否有效，如果连接失效，则需要从连接池中移除
     private boolean valid;
 
+    // 泄漏检测：借出时采样到的调用栈（未采样为 null），以及是否已经报过泄漏
+    private volatile Throwable checkoutTrace;
+    private volatile boolean leakReported;
+
+    // 物理连接上的 PreparedStatement 缓存，未开启时为 null
+    private PreparedStatementCache statementCache;
+
+    // 物理连接的会话状态缓存（autoCommit、隔离级别等）和未提交语句的跟踪
+    private ConnectionState connectionState;
+
+    // 借出时领取的优先级通道许可（开启 poolPriorityLanesEnabled 时），归还时交还；可能被归还者和回收者同时交还，用原子引用保证只交还一次
+    private final AtomicReference<ConnectionPriority> priority = new AtomicReference<>();
+
+    // 在 ConcurrentBag 中的状态，见 ConcurrentBag.BagEntry
+    private volatile int state;
+
 
     public PooledConnection(Connection connection, PooledDataSource dataSource) {
         this.hashCode = connection.hashCode();
@@ -48,31 +68,27 @@ public class PooledConnection implements InvocationHandler {
         this.dataSource = dataSource;
         this.createdTimestamp = System.currentTimeMillis();
         this.lastUsedTimestamp = System.currentTimeMillis();
+        // 刚建立的连接已经完成了握手，视为刚验证过
+        this.lastValidatedTimestamp = this.createdTimestamp;
         this.valid = true;
-        //这里的IFACES实际上是Connection接口数组
-        this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+        if (dataSource.getPoolPreparedStatementCacheSize() > 0) {
+            this.statementCache = new PreparedStatementCache(dataSource.getPoolPreparedStatementCacheSize(), dataSource.getPoolState());
+        }
+        this.connectionState = new ConnectionState(connection, dataSource.isPoolTrackConnectionState(), dataSource.getPoolState());
+        this.proxyConnection = new ProxyConnection(this);
     }
 
-    // 实现了 InvocationHandler 接口的方法，用于拦截代理对象上的方法调用
-    @Override
-    public Object invoke(Object o, Method method, Object[] args) throws Throwable {
-        String methodName = method.getName();
-        // 如果是调用 CLOSE 关闭链接方法，则将链接推送回连接池中，并返回null
-        if(CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)){
-            dataSource.pushConnection(this);
-            return null;
-        } else {
-            // method.getDeclaringClass返回定义了方法的类的 Class 对象
-            if(!Object.class.equals(method.getDeclaringClass())){
-                // 除了toString()方法，其他方法调用之前要检查connection是否还是合法的,不合法要抛出SQLException
-                checkConnection();
-            }
-            return method.invoke(realConnection,args);
-        }
+    /**
+     * 换一个新的代理对象，之前借出的代理再调用就会被当作无效连接
+     */
+    public void refreshProxy() {
+        ProxyConnection stale = this.proxyConnection;
+        this.proxyConnection = new ProxyConnection(this);
+        stale.markClosed();
     }
 
     // 检查连接是否有效。如果无效，则抛出 SQLException
-    private void checkConnection() throws SQLException {
+    void checkConnection() throws SQLException {
         if (!valid) {
             throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
         }
@@ -88,8 +104,28 @@ public class PooledConnection implements InvocationHandler {
         return valid && realConnection != null && dataSource.pingConnection(this);
     }
 
+    // 只做本地检查，不做网络验证，归还连接时使用；连接下次借出时再按需验证
+    public boolean isUsable() {
+        return valid && realConnection != null && dataSource.isConnectionOpen(this);
+    }
+
 
 
+    @Override
+    public boolean compareAndSet(int expectState, int newState) {
+        return STATE_UPDATER.compareAndSet(this, expectState, newState);
+    }
+
+    @Override
+    public void setState(int newState) {
+        STATE_UPDATER.set(this, newState);
+    }
+
+    @Override
+    public int getState() {
+        return state;
+    }
+
     public Connection getRealConnection() {
         return realConnection;
     }
@@ -98,6 +134,48 @@ public class PooledConnection implements InvocationHandler {
         return proxyConnection;
     }
 
+    public PreparedStatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    // 经典模式归还时会用同一个物理连接实例化新的 PooledConnection，缓存跟着物理连接走
+    public void setStatementCache(PreparedStatementCache statementCache) {
+        this.statementCache = statementCache;
+    }
+
+    public ConnectionState getConnectionState() {
+        return connectionState;
+    }
+
+    // 经典模式重新实例化 PooledConnection 时，会话状态同样跟着物理连接走
+    public void setConnectionState(ConnectionState connectionState) {
+        this.connectionState = connectionState;
+    }
+
+    public void setPriority(ConnectionPriority priority) {
+        this.priority.set(priority);
+    }
+
+    /**
+     * 取走连接持有的通道许可，没有时返回 null
+     */
+    public ConnectionPriority takePriority() {
+        return priority.getAndSet(null);
+    }
+
+    /**
+     * 关闭缓存的全部 PreparedStatement，物理连接关闭前调用
+     */
+    public void closeStatementCache() {
+        if (statementCache != null) {
+            statementCache.closeAll();
+        }
+    }
+
+    public PooledDataSource getDataSource() {
+        return dataSource;
+    }
+
     public int getRealHashCode() {
         return realConnection == null ? 0 : realConnection.hashCode();
     }
@@ -126,6 +204,18 @@ public class PooledConnection implements InvocationHandler {
         this.lastUsedTimestamp = lastUsedTimestamp;
     }
 
+    public long getLastValidatedTimestamp() {
+        return lastValidatedTimestamp;
+    }
+
+    public void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+        this.lastValidatedTimestamp = lastValidatedTimestamp;
+    }
+
+    public long getTimeElapsedSinceLastValidation() {
+        return System.currentTimeMillis() - lastValidatedTimestamp;
+    }
+
     public long getTimeElapsedSinceLastUse() {
         return System.currentTimeMillis() - lastUsedTimestamp;
     }
@@ -142,6 +232,22 @@ public class PooledConnection implements InvocationHandler {
         this.checkoutTimestamp = timestamp;
     }
 
+    public Throwable getCheckoutTrace() {
+        return checkoutTrace;
+    }
+
+    public void setCheckoutTrace(Throwable checkoutTrace) {
+        this.checkoutTrace = checkoutTrace;
+    }
+
+    public boolean isLeakReported() {
+        return leakReported;
+    }
+
+    public void setLeakReported(boolean leakReported) {
+        this.leakReported = leakReported;
+    }
+
     public long getCheckoutTime() {
         return System.currentTimeMillis() - checkoutTimestamp;
     }
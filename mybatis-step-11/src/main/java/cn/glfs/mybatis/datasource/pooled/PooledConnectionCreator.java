@@ -0,0 +1,62 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 物理连接创建器
+ * 建立物理连接要经过 TCP + 认证握手，可能很慢，这里放到池锁之外的独立线程中执行，并且并发创建数有上限，
+ * 数据库冷启动或主备切换时，借用已有空闲连接的线程不会被握手阻塞
+ */
+public class PooledConnectionCreator {
+
+    private static final AtomicInteger POOL_SEQ = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+
+    public PooledConnectionCreator(int maximumCreators) {
+        final String prefix = "PooledDataSource-creator-" + POOL_SEQ.incrementAndGet() + "-";
+        final AtomicInteger threadSeq = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, prefix + threadSeq.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(maximumCreators, maximumCreators, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        // 空闲的创建线程会自动退出，不需要显式关闭
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交一个创建任务，任务自己负责把结果交给等待者
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 排队中尚未开始的创建任务数
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getMaximumCreators() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public void setMaximumCreators(int maximumCreators) {
+        // 先调大的一端，保证任意时刻 core <= max
+        if (maximumCreators > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maximumCreators);
+            executor.setCorePoolSize(maximumCreators);
+        } else {
+            executor.setCorePoolSize(maximumCreators);
+            executor.setMaximumPoolSize(maximumCreators);
+        }
+    }
+
+}
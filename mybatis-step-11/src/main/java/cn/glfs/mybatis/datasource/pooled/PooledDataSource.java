@@ -1,19 +1,37 @@
 package cn.glfs.mybatis.datasource.pooled;
 
+import cn.glfs.mybatis.datasource.ConnectionPriority;
 import cn.glfs.mybatis.datasource.unpooled.UnpooledDataSource;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
+import java.lang.management.ManagementFactory;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 /**
  * 有连接池的数据源
  */
-public class PooledDataSource implements DataSource {
+public class PooledDataSource implements DataSource, AutoCloseable {
 
     // 用于记录日志的 Logger 对象。
     private org.slf4j.Logger logger = LoggerFactory.getLogger(PooledDataSource.class);
@@ -24,10 +42,10 @@ public class PooledDataSource implements DataSource {
     // 管理连接池的基本数据源
     private final UnpooledDataSource dataSource;
 
-    // 活跃连接数
-    protected int poolMaximumActiveConnections = 10;
-    // 空闲连接数
-    protected int poolMaximumIdleConnections = 5;
+    // 活跃连接数（开启自适应大小时由 PoolSizer 调整）
+    protected volatile int poolMaximumActiveConnections = 10;
+    // 空闲连接数（开启自适应大小时由 PoolSizer 调整）
+    protected volatile int poolMaximumIdleConnections = 5;
 
     // 连接从池中被借出后的最大允许活跃时间
     // 参数定义了连接在从池中被借出后，被允许处于活跃状态的最长时间。在这段时间内，连接被认为是有效的，可以被使用。当这个时间到期时，
@@ -53,49 +71,210 @@ public class PooledDataSource implements DataSource {
     // 用来配置 poolPingQuery 多次时间被用一次
     protected int poolPingConnectionsNotUsedFor = 0;
 
+    // 网络验证的超时时间（秒），用于 Connection.isValid(timeout) 和 ping 查询的查询超时
+    // 没有设置 poolPingQuery 时使用 JDBC4 的 Connection.isValid(timeout) 验证，不用再写侦测 SQL
+    protected int poolValidationTimeout = 5;
+
+    // 最近验证通过或刚用过的连接，在该窗口（毫秒）内借出时不再验证，避免热连接被反复 ping
+    protected long poolValidationWindow = 500;
+
+    // 后台验证空闲连接的间隔（毫秒），空闲连接在被借出前就已验证过，借出路径基本不用再做网络交互
+    // 只在开启 poolPingEnabled 时生效，0 表示关闭后台验证
+    protected long poolValidationPeriod = 5000;
+
     // 期望的连接类型码,实际上就是url，username，password字符串的hashcode
     //这个变量的作用是用于标识期望的连接类型码。
     // 在连接池中，当从连接池中获取连接时，会检查连接的类型码是否与期望的连接类型码一致，如果不一致，则会重新创建新的连接。实际上就是url，username，password字符串的hashcode
     private int expectedConnectionTypeCode;
 
+    // 是否使用 ConcurrentBag 无锁连接包作为池核心，关闭后回退到由 state.lock 保护的经典模式
+    // 按凭证划分的子池只在 ConcurrentBag 模式下存在；经典模式只有一个空闲列表，只接受配置的用户名和密码
+    protected boolean poolConcurrentBagEnabled = true;
+
+    // 同时建立物理连接的最大线程数
+    protected int poolMaximumConnectionCreators = 2;
+
+    // 物理连接创建器，握手在池锁之外进行
+    private final PooledConnectionCreator connectionCreator = new PooledConnectionCreator(poolMaximumConnectionCreators);
+
+    // 空闲超过该时间（毫秒）的连接会被后台回收，0 表示不回收
+    protected long poolIdleTimeout = 600000;
+
+    // 连接的最大寿命（毫秒），到期后空闲时被回收、借出中的在归还时关闭，0 表示不限制
+    // 实际寿命会减去最多 2.5% 的随机抖动，避免同一批创建的连接同时到期
+    protected long poolMaxLifetime = 1800000;
+
+    // 后台保持的最小空闲连接数，不足时在后台补建，0 表示不预热
+    protected int poolMinimumIdleConnections = 0;
+
+    // 后台管家的执行间隔（毫秒）
+    protected long poolHousekeepingPeriod = 30000;
+
+    // 后台管家：空闲回收、寿命回收、最小空闲补足
+    private final PoolHousekeeper housekeeper = new PoolHousekeeper(this);
+
+    // 调用 close 之后不再借出连接，归还的连接直接关闭
+    private volatile boolean closed;
+
+    // 是否根据等待和利用率自动调整 poolMaximumActiveConnections / poolMaximumIdleConnections，见 PoolSizer
+    protected boolean poolAdaptiveSizingEnabled = false;
+
+    // 自适应扩大的硬上限
+    protected int poolAdaptiveMaximumConnections = 50;
+
+    // 窗口内平均等待时间（毫秒）超过该值时扩大
+    protected long poolAdaptiveWaitThreshold = 10;
+
+    // 排队等待的线程数达到该值时扩大
+    protected int poolAdaptiveQueueThreshold = 1;
+
+    // 利用率连续低于该值时缩小，最少缩回配置时的大小
+    protected double poolAdaptiveLowUtilization = 0.3;
+
+    // 自适应调整的间隔（毫秒）
+    protected long poolAdaptiveSizingPeriod = 1000;
+
+    // 自适应池大小
+    private final PoolSizer sizer = new PoolSizer(this);
+
+    // 建连熔断：连续失败后快速失败，并按指数退避加随机抖动探测数据库是否恢复，见 PoolCircuitBreaker
+    protected boolean poolCircuitBreakerEnabled = true;
+
+    // 连续建连失败多少次后打开熔断
+    protected int poolCircuitBreakerFailureThreshold = 5;
+
+    // 熔断第一次打开的时长（毫秒），之后每次翻倍
+    protected long poolCircuitBreakerBackoffBase = 1000;
+
+    // 熔断打开时长的上限（毫秒）
+    protected long poolCircuitBreakerBackoffMax = 30000;
+
+    private final PoolCircuitBreaker circuitBreaker = new PoolCircuitBreaker(this);
+
+    // 异步获取连接（getConnectionAsync）的超时定时器，线程在第一次用到时才创建，空闲后自动退出
+    private final ScheduledThreadPoolExecutor asyncTimeoutScheduler = newAsyncTimeoutScheduler();
+
+    // 是否按调用方的优先级（ConnectionPriority）划分借出通道，见 PriorityLanes
+    protected boolean poolPriorityLanesEnabled = false;
+
+    // 各优先级通道的预留连接数：其他通道借出后剩下的名额不能少于这个通道还没用满的预留
+    protected int poolHighPriorityReservedConnections = 0;
+    protected int poolNormalPriorityReservedConnections = 0;
+    protected int poolLowPriorityReservedConnections = 0;
+
+    // 各优先级通道同时借出的连接数上限，0 表示不限
+    protected int poolHighPriorityMaximumConnections = 0;
+    protected int poolNormalPriorityMaximumConnections = 0;
+    protected int poolLowPriorityMaximumConnections = 0;
+
+    private final PriorityLanes priorityLanes = new PriorityLanes(this);
+
+    // 连接被借出超过该时间（毫秒）视为可能泄漏并报警，0 表示关闭泄漏检测
+    protected long poolLeakDetectionThreshold = 0;
+
+    // 借出时记录调用栈的采样率（0~1），调用栈用于定位泄漏的调用点；0 表示不记录，只报警
+    protected double poolLeakDetectionSampleRate = 1.0;
+
+    // 泄漏检测
+    private final PoolLeakDetector leakDetector = new PoolLeakDetector();
+
+    // 每个物理连接缓存的 PreparedStatement 数量上限，0 表示不缓存
+    protected int poolPreparedStatementCacheSize = 0;
+
+    // 是否在连接上缓存 autoCommit、事务隔离级别、只读、catalog 并跟踪未提交的语句，省掉重复设置和归还时多余的回滚
+    protected boolean poolTrackConnectionState = true;
+
+    // 新建物理连接时是否预编译全部映射语句的 SQL 放入缓存
+    protected boolean poolPreparedStatementCacheWarmup = false;
+
+    // 预热用的 SQL，由解析完映射文件的 XMLConfigBuilder 设置
+    private volatile Collection<String> preparedStatementWarmupSql = Collections.emptyList();
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    // 连接池名称，用于 JMX 的 ObjectName
+    protected String poolName = "PooledDataSource-" + POOL_NUMBER.incrementAndGet();
+
+    // 是否把连接池指标注册为 JMX MBean
+    protected boolean poolRegisterMbeans = false;
+
+    // 已注册的 MBean 名称，未注册时为 null
+    private ObjectName registeredMBeanName;
+    // 注册、注销 MBean 互斥；JMX 注册期间可能阻塞，用 ReentrantLock 不钉住虚拟线程的载体线程
+    private final ReentrantLock mbeanLock = new ReentrantLock();
+
     public PooledDataSource() {
         this.dataSource = new UnpooledDataSource();
     }
 
+    private static ScheduledThreadPoolExecutor newAsyncTimeoutScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "PooledDataSource-async-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 拿到连接后取消的超时任务立即移出队列
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.setKeepAliveTime(60, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        return scheduler;
+    }
+
 
     // pushConnection方法用于将连接推送回连接池
     protected void pushConnection(PooledConnection connection) throws SQLException {
-        synchronized (state) {
+        try {
+            if (poolConcurrentBagEnabled) {
+                pushConnectionToBag(connection);
+            } else {
+                pushConnectionToIdleList(connection);
+            }
+        } finally {
+            // 连接放回池中之后再交还通道许可，被放行的等待者可以直接拿到这个连接
+            releaseLane(connection);
+        }
+    }
+
+    // 经典模式：归还连接到空闲列表
+    private void pushConnectionToIdleList(PooledConnection connection) throws SQLException {
+        state.checkoutTimeHistogram.record(connection.getCheckoutTime(), TimeUnit.MILLISECONDS);
+        leakDetector.onReturn(connection);
+        // 归还时只做本地检查，放在锁外
+        boolean usable = connection.isUsable();
+        state.lock.lock();
+        try {
             // 从活动连接中移除当前连接
             state.activeConnections.remove(connection);
 
             // 判断连接是否有效
-            if (connection.isValid()) {
-                // 如果空闲连接数小于最大允许空闲连接数，并且连接类型与预期连接类型一致
-                if (state.idleConnections.size() < poolMaximumIdleConnections && connection.getConnectionTypeCode() == expectedConnectionTypeCode) {
+            if (usable) {
+                // 有线程在等待，或者空闲连接数小于最大允许空闲连接数，并且连接类型与预期连接类型一致
+                // 超过最大寿命的连接直接关闭，不再放回池中
+                if (!closed && (state.waiterQueue.hasWaiters() || state.idleConnections.size() < poolMaximumIdleConnections) && connection.getConnectionTypeCode() == expectedConnectionTypeCode && !isExpired(connection)) {
                     // 累加连接被借出的时间
-                    state.accumulatedCheckoutTime += connection.getCheckoutTime();
-                    if (!connection.getRealConnection().getAutoCommit()) {
-                        // 如果连接未自动提交，则回滚事务
-                        connection.getRealConnection().rollback();
-                    }
-                    // 实例化一个新的连接，加入到空闲连接列表中
+                    state.accumulatedCheckoutTime.add(connection.getCheckoutTime());
+                    // 如果连接有未提交的事务，则回滚
+                    connection.getConnectionState().rollbackIfNeeded();
+                    // 实例化一个新的连接
                     PooledConnection newConnection = new PooledConnection(connection.getRealConnection(), this);
-                    state.idleConnections.add(newConnection);
                     newConnection.setCreatedTimestamp(connection.getCreatedTimestamp());
-                    newConnection.setLastUsedTimestamp(connection.getLastUsedTimestamp());
+                    newConnection.setLastUsedTimestamp(System.currentTimeMillis());
+                    newConnection.setStatementCache(connection.getStatementCache());
+                    newConnection.setConnectionState(connection.getConnectionState());
                     connection.invalidate();
-                    logger.info("Returned connection " + newConnection.getRealHashCode() + " to pool.");
-
-                    // 通知其他线程可以来抢占连接
-                    state.notifyAll();
+                    // 直接移交给等待最久的线程（只唤醒它一个），没有等待者才放回空闲列表
+                    if (handoffToWaiter(newConnection)) {
+                        logger.info("Handed off connection " + newConnection.getRealHashCode() + " to a waiting thread.");
+                    } else {
+                        state.idleConnections.add(newConnection);
+                        logger.info("Returned connection " + newConnection.getRealHashCode() + " to pool.");
+                    }
                 } else {
                     // 否则，空闲连接充足，关闭当前连接
-                    state.accumulatedCheckoutTime += connection.getCheckoutTime();
-                    if (!connection.getRealConnection().getAutoCommit()) {
-                        connection.getRealConnection().rollback();
-                    }
+                    state.accumulatedCheckoutTime.add(connection.getCheckoutTime());
+                    connection.getConnectionState().rollbackIfNeeded();
                     // 关闭连接
+                    connection.closeStatementCache();
                     connection.getRealConnection().close();
                     logger.info("Closed connection " + connection.getRealHashCode() + ".");
                     connection.invalidate();
@@ -103,109 +282,1117 @@ public class PooledDataSource implements DataSource {
             } else {
                 // 如果连接无效，则丢弃连接
                 logger.info("A bad connection (" + connection.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
-                state.badConnectionCount++;
+                state.badConnectionCount.increment();
+            }
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+
+    // popConnection方法用于从连接池中获取连接
+    private PooledConnection popConnection(String username, String password) throws SQLException {
+        if (closed) {
+            throw newClosedException();
+        }
+        if (!housekeeper.isRunning()) {
+            startHousekeeper();
+        }
+        if (poolConcurrentBagEnabled) {
+            return popConnectionFromBag(username, password);
+        }
+        boolean countedWait = false; // 标记是否已经计数等待时间
+        PooledConnection conn = null; // 初始化连接为null
+        long t = System.currentTimeMillis(); // 记录方法开始时间
+        long startNanos = System.nanoTime(); // 用于获取连接耗时直方图
+        int localBadConnectionCount = 0; // 本地失败连接计数
+        boolean creationRegistered = false; // 本轮是否已经登记过待创建的连接
+
+        while (conn == null) { // 当连接为null时，继续循环
+            HandoffQueue.Waiter<PooledConnection> waiter = null;
+            state.lock.lock(); // 加池锁，保证线程安全
+            try {
+                // 如果有空闲连接，则直接从空闲连接中取出
+                if (!state.idleConnections.isEmpty()) {
+                    conn = state.idleConnections.remove(0); // 移除空闲连接列表的第一个连接
+                    logger.info("Checked out connection " + conn.getRealHashCode() + " from pool."); // 记录连接被取出的日志
+                } else { // 如果没有空闲连接，则创建新连接或等待可用连接
+                    // 如果活跃连接数（含创建中的）未达到最大限制，则登记一个待创建的连接，由创建线程在锁外完成握手
+                    if (!creationRegistered && state.activeConnections.size() + state.pendingConnections.get() < poolMaximumActiveConnections
+                            && createConnectionAsync()) {
+                        creationRegistered = true;
+                    } else {
+                        // 如果最老连接的检出时间超过最大检出时间，则认为连接过期，回收给当前线程
+                        conn = claimOverdueConnection();
+                    }
+
+                    // 没拿到连接则在 FIFO 队列中登记，出了同步块再等待，归还者或创建线程会把连接直接交到本线程手里
+                    if (conn == null) {
+                        // 熔断打开期间，没有为自己登记新连接的请求不再排队，直接失败
+                        if (!creationRegistered && circuitBreaker.isOpen()) {
+                            throw circuitBreaker.reject();
+                        }
+                        if (!countedWait) { // 如果未计数等待时间，则计数
+                            state.hadToWaitCount.increment(); // 统计等待次数
+                            countedWait = true; // 标记已计数等待时间
+                        }
+                        logger.info("Waiting as long as " + poolTimeToWait + " milliseconds for connection."); // 记录等待连接的日志
+                        waiter = state.waiterQueue.enqueue();
+                    }
+                }
+            } finally {
+                state.lock.unlock();
+            }
+
+            if (waiter != null) {
+                long wt = System.currentTimeMillis();
+                try {
+                    // 创建连接失败时，失败原因会交给队头的等待者，这里直接抛给调用方
+                    conn = waiter.await(poolTimeToWait, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.", e);
+                } finally {
+                    state.accumulatedWaitTime.add(System.currentTimeMillis() - wt); // 统计累计等待时间
+                }
+                creationRegistered = false;
+            }
+
+            // 如果获取到连接，则进行相关处理；移交过来的连接在移交时已经计入活跃连接
+            if (conn != null && !checkOut(conn, waiter != null, username, password, t, startNanos)) {
+                localBadConnectionCount++; // 本地统计无效连接的数量
+                conn = null; // 将连接置为null
+                // 如果本地统计的无效连接数量超过限制，则抛出异常
+                if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+                    logger.debug("PooledDataSource: Could not get a good connection to the database.");
+                    throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+                }
+            }
+        }
+        return conn; // 返回获取到的连接
+    }
+
+
+    // 经典模式：验证拿到的连接并登记借出，无效连接计入 badConnectionCount 并返回 false
+    private boolean checkOut(PooledConnection conn, boolean handedOff, String username, String password, long t, long startNanos) throws SQLException {
+        // 验证和回滚可能涉及网络交互，放在锁外，此时连接只被当前线程持有
+        boolean valid = conn.isValid();
+        if (valid) {
+            conn.getConnectionState().rollbackIfNeeded(); // 回滚未提交的事务
+        }
+        state.lock.lock();
+        try {
+            if (valid) { // 如果连接有效
+                conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password)); // 设置连接类型码
+                if (!handedOff) {
+                    state.activeConnections.add(conn); // 将连接添加到活跃连接列表
+                }
+                recordCheckout(conn, t, startNanos);
+                return true;
+            }
+            // 如果连接无效
+            logger.info("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection."); // 记录无效连接的日志
+            if (handedOff) {
+                state.activeConnections.remove(conn);
+            }
+            state.badConnectionCount.increment(); // 统计无效连接的数量
+            return false;
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    // ConcurrentBag 模式：验证拿到的连接并登记借出，无效连接从子池移除、关闭并返回 false
+    private boolean checkOutFromBag(ConcurrentBag<PooledConnection> bag, PooledConnection conn, long t, long startNanos) throws SQLException {
+        if (conn.isValid()) {
+            conn.getConnectionState().rollbackIfNeeded();
+            recordCheckout(conn, t, startNanos);
+            return true;
+        }
+        logger.info("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+        state.badConnectionCount.increment();
+        if (bag.remove(conn)) {
+            state.totalConnections.decrementAndGet();
+        }
+        closeQuietly(conn);
+        return false;
+    }
+
+    // 借出成功：记录检出时间、请求统计和获取耗时，开启泄漏检测时开始跟踪
+    private void recordCheckout(PooledConnection conn, long t, long startNanos) {
+        conn.setCheckoutTimestamp(System.currentTimeMillis()); // 记录连接的检出时间
+        conn.setLastUsedTimestamp(System.currentTimeMillis()); // 记录连接的最后使用时间
+        state.requestCount.increment(); // 统计连接请求次数
+        state.accumulatedRequestTime.add(System.currentTimeMillis() - t); // 统计累计请求时间
+        state.acquireTimeHistogram.record(System.nanoTime() - startNanos);
+        leakDetector.onCheckout(conn, poolLeakDetectionThreshold, poolLeakDetectionSampleRate);
+    }
+
+
+    // ConcurrentBag 模式：归还连接到所属子池，整个过程不持有全局锁
+    private void pushConnectionToBag(PooledConnection connection) throws SQLException {
+        SubPool subPool = state.subPools.get(connection.getConnectionTypeCode());
+        if (subPool == null || connection.getState() != ConcurrentBag.BagEntry.STATE_IN_USE) {
+            return;
+        }
+        ConcurrentBag<PooledConnection> bag = subPool.getBag();
+        long checkoutTime = connection.getCheckoutTime();
+        state.accumulatedCheckoutTime.add(checkoutTime);
+        state.checkoutTimeHistogram.record(checkoutTime, TimeUnit.MILLISECONDS);
+        leakDetector.onReturn(connection);
+
+        if (connection.isUsable()) {
+            // 本子池的空闲连接已经够多且没有线程在等，或者连接已经过期，则直接关闭
+            boolean tooManyIdle = bag.getWaitingThreadCount() == 0 && bag.getCount(ConcurrentBag.BagEntry.STATE_NOT_IN_USE) >= poolMaximumIdleConnections;
+            // 连接总数已到上限、本子池没人等而别的子池有线程在等：关掉这个连接，把名额让给等待的子池
+            SubPool starving = bag.getWaitingThreadCount() == 0 && state.totalConnections.get() >= poolMaximumActiveConnections ? findStarvingSubPool(subPool) : null;
+            if (tooManyIdle || starving != null || isExpired(connection)) {
+                if (bag.remove(connection)) {
+                    state.totalConnections.decrementAndGet();
+                }
+                closeQuietly(connection);
+                logger.info("Closed connection " + connection.getRealHashCode() + ".");
+                if (starving != null) {
+                    createConnectionInBagAsync(starving);
+                }
+                return;
+            }
+            connection.getConnectionState().rollbackIfNeeded();
+            // 换新代理，调用方手里的旧代理随即作废
+            connection.refreshProxy();
+            connection.setLastUsedTimestamp(System.currentTimeMillis());
+            markHandoff(connection);
+            bag.requite(connection);
+            logger.info("Returned connection " + connection.getRealHashCode() + " to pool.");
+        } else {
+            logger.info("A bad connection (" + connection.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+            state.badConnectionCount.increment();
+            if (bag.remove(connection)) {
+                state.totalConnections.decrementAndGet();
+            }
+        }
+    }
+
+    // ConcurrentBag 模式：从凭证对应的子池借出连接，先走线程本地/共享列表，再创建新连接，最后等待归还者移交
+    private PooledConnection popConnectionFromBag(String username, String password) throws SQLException {
+        SubPool subPool = subPool(username, password);
+        ConcurrentBag<PooledConnection> bag = subPool.getBag();
+        boolean countedWait = false;
+        long t = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        int localBadConnectionCount = 0;
+
+        while (true) {
+            PooledConnection conn;
+            try {
+                conn = bag.borrow(0, TimeUnit.MILLISECONDS);
+                if (conn == null) {
+                    // 先登记等待再登记新连接，建连失败时失败原因一定能交到等待者手里（建连很快失败时也不会白等到超时）
+                    HandoffQueue.Waiter<PooledConnection> waiter = bag.enqueue();
+                    if (waiter.isWaiting()) {
+                        // 没有空闲连接：能登记新连接就登记后等移交；连接总数已到上限时先关掉别的子池的一个空闲连接腾出名额，
+                        // 都不行再尝试回收本子池超时未还的连接
+                        boolean creating = createConnectionInBagAsync(subPool)
+                                || (!circuitBreaker.isOpen() && evictIdleConnection(subPool) && createConnectionInBagAsync(subPool));
+                        if (!creating) {
+                            conn = claimOverdueConnectionInBag(subPool);
+                            // 熔断打开期间，没有为自己登记新连接的请求不再排队，直接失败
+                            if (conn != null || circuitBreaker.isOpen()) {
+                                bag.abandon(waiter);
+                                if (conn == null) {
+                                    throw circuitBreaker.reject();
+                                }
+                            }
+                        }
+                    }
+                    if (conn == null) {
+                        if (!countedWait) {
+                            state.hadToWaitCount.increment();
+                            countedWait = true;
+                        }
+                        logger.info("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+                        long wt = System.currentTimeMillis();
+                        conn = bag.await(waiter, poolTimeToWait, TimeUnit.MILLISECONDS);
+                        state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+                        if (conn == null) {
+                            continue;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.", e);
+            }
+
+            if (checkOutFromBag(bag, conn, t, startNanos)) {
+                return conn;
+            }
+            localBadConnectionCount++;
+            if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+                logger.debug("PooledDataSource: Could not get a good connection to the database.");
+                throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+            }
+        }
+    }
+
+    // 经典模式（调用方持有 state 锁）：最老连接的检出时间超过最大检出时间时，认为连接过期，回滚后换一个新的 PooledConnection 据为己有
+    private PooledConnection claimOverdueConnection() throws SQLException {
+        if (state.activeConnections.isEmpty() || state.activeConnections.get(0).getCheckoutTime() <= poolMaximumCheckoutTime) {
+            return null;
+        }
+        PooledConnection oldestActiveConnection = state.activeConnections.get(0); // 获取最老的活跃连接
+        long longestCheckoutTime = oldestActiveConnection.getCheckoutTime(); // 获取最老连接的检出时间
+        state.claimedOverdueConnectionCount.increment(); // 统计过期连接的数量
+        state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime); // 统计过期连接的累计检出时间
+        state.accumulatedCheckoutTime.add(longestCheckoutTime); // 统计总的累计检出时间
+        state.activeConnections.remove(oldestActiveConnection); // 移除最老的活跃连接
+        leakDetector.onReturn(oldestActiveConnection);
+        releaseLane(oldestActiveConnection);
+
+        // 回滚并重新实例化一个新连接
+        // 在连接池中，当一个连接被重新实例化为一个新连接时，需要确保这个新连接处于一个干净的状态，即没有未提交的事务
+        oldestActiveConnection.getConnectionState().rollbackIfNeeded();
+        PooledConnection conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this); // 创建新连接
+        conn.setStatementCache(oldestActiveConnection.getStatementCache());
+        conn.setConnectionState(oldestActiveConnection.getConnectionState());
+        oldestActiveConnection.invalidate(); // 标记最老连接为失效
+        logger.info("Claimed overdue connection " + conn.getRealHashCode() + "."); // 记录过期连接被取出的日志
+        return conn;
+    }
+
+    // 一次异步获取：调用方拿到的 future，以及无效连接重试时要沿用的统计起点
+    private static final class AsyncAcquire {
+        final CompletableFuture<Connection> future = new CompletableFuture<>();
+        final String username;
+        final String password;
+        final long t = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        // 截止时间（纳秒），0 表示不限时
+        final long deadlineNanos;
+        // 开启优先级通道时的优先级；许可领到后由请求持有，借出成功时转给连接，请求失败或取消时交还
+        final ConnectionPriority priority;
+        final AtomicBoolean permitOwned = new AtomicBoolean();
+        boolean countedWait;
+        int localBadConnectionCount;
+        volatile HandoffQueue.Waiter<PooledConnection> waiter;
+
+        AsyncAcquire(String username, String password, long timeoutNanos, ConnectionPriority priority) {
+            this.username = username;
+            this.password = password;
+            this.deadlineNanos = timeoutNanos > 0 ? startNanos + timeoutNanos : 0;
+            this.priority = priority;
+        }
+    }
+
+    // 异步获取：先按同步路径的顺序尝试空闲连接、登记新连接、回收超时连接，都拿不到时在同一个 FIFO 队列里登记异步等待者后立即返回
+    private void acquireAsync(AsyncAcquire request) {
+        try {
+            while (!request.future.isDone()) {
+                PooledConnection conn;
+                HandoffQueue.Waiter<PooledConnection> waiter = null;
+                ConcurrentBag<PooledConnection> bag = null;
+                if (poolConcurrentBagEnabled) {
+                    SubPool subPool = subPool(request.username, request.password);
+                    bag = subPool.getBag();
+                    conn = bag.borrow(0, TimeUnit.MILLISECONDS);
+                    if (conn == null) {
+                        // 和同步借出一样先登记等待再登记新连接
+                        waiter = bag.borrowAsync();
+                        if (waiter.isWaiting()) {
+                            boolean creating = createConnectionInBagAsync(subPool)
+                                    || (!circuitBreaker.isOpen() && evictIdleConnection(subPool) && createConnectionInBagAsync(subPool));
+                            if (!creating) {
+                                conn = claimOverdueConnectionInBag(subPool);
+                                if (conn != null || circuitBreaker.isOpen()) {
+                                    bag.abandon(waiter);
+                                    waiter = null;
+                                    if (conn == null) {
+                                        throw circuitBreaker.reject();
+                                    }
+                                }
+                            }
+                        }
+                        if (waiter != null) {
+                            countWait(request);
+                        }
+                    }
+                } else {
+                    state.lock.lock();
+                    try {
+                        if (!state.idleConnections.isEmpty()) {
+                            conn = state.idleConnections.remove(0);
+                        } else {
+                            boolean creating = state.activeConnections.size() + state.pendingConnections.get() < poolMaximumActiveConnections
+                                    && createConnectionAsync();
+                            conn = creating ? null : claimOverdueConnection();
+                            if (conn == null) {
+                                if (!creating && circuitBreaker.isOpen()) {
+                                    throw circuitBreaker.reject();
+                                }
+                                countWait(request);
+                                waiter = state.waiterQueue.enqueueAsync();
+                            }
+                        }
+                    } finally {
+                        state.lock.unlock();
+                    }
+                }
+                if (waiter != null) {
+                    awaitAsync(request, waiter, bag);
+                    return;
+                }
+                if (completeAsync(request, conn, false, bag)) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            request.future.completeExceptionally(toSQLException(e));
+        }
+    }
+
+    // 异步领取通道许可，领到后（可能在释放许可的线程里）再去池中借出；截止时间前没领到则超时失败
+    private void acquireLaneAsync(AsyncAcquire request) {
+        CompletableFuture<Void> permit = priorityLanes.acquire(request.priority);
+        ScheduledFuture<?> timeoutTask = null;
+        if (!permit.isDone()) {
+            countWait(request);
+            long wt = System.currentTimeMillis();
+            permit.whenComplete((v, e) -> state.accumulatedWaitTime.add(System.currentTimeMillis() - wt));
+            if (request.deadlineNanos != 0) {
+                timeoutTask = asyncTimeoutScheduler.schedule(() -> {
+                    if (priorityLanes.cancel(request.priority, permit)) {
+                        request.future.completeExceptionally(new SQLTimeoutException("PooledDataSource: Timed out waiting for a " + request.priority + " priority lane."));
+                    }
+                }, Math.max(0, request.deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            // 调用方取消时撤销排队
+            request.future.whenComplete((conn, failure) -> {
+                if (request.future.isCancelled()) {
+                    priorityLanes.cancel(request.priority, permit);
+                }
+            });
+        }
+        final ScheduledFuture<?> scheduledTimeout = timeoutTask;
+        permit.whenComplete((v, failure) -> {
+            if (failure != null) {
+                return;
+            }
+            if (scheduledTimeout != null) {
+                scheduledTimeout.cancel(false);
+            }
+            request.permitOwned.set(true);
+            // 放行前调用方已经取消或超时
+            if (request.future.isDone()) {
+                if (request.permitOwned.compareAndSet(true, false)) {
+                    priorityLanes.release(request.priority);
+                }
+                return;
+            }
+            acquireAsync(request);
+        });
+    }
+
+    private void countWait(AsyncAcquire request) {
+        if (!request.countedWait) {
+            state.hadToWaitCount.increment();
+            request.countedWait = true;
+        }
+    }
+
+    // 异步等待者登记后：移交过来时在移交者线程里完成借出；到截止时间还没轮到则超时失败；调用方取消 future 时撤销排队
+    private void awaitAsync(AsyncAcquire request, HandoffQueue.Waiter<PooledConnection> waiter, ConcurrentBag<PooledConnection> bag) {
+        long wt = System.currentTimeMillis();
+        request.waiter = waiter;
+        ScheduledFuture<?> timeoutTask = null;
+        if (request.deadlineNanos != 0) {
+            timeoutTask = asyncTimeoutScheduler.schedule(() -> {
+                if (waiter.expire()) {
+                    request.future.completeExceptionally(new SQLTimeoutException("PooledDataSource: Timed out waiting for a connection."));
+                }
+            }, Math.max(0, request.deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        final ScheduledFuture<?> scheduledTimeout = timeoutTask;
+        waiter.getFuture().whenComplete((conn, failure) -> {
+            if (scheduledTimeout != null) {
+                scheduledTimeout.cancel(false);
+            }
+            if (failure instanceof CancellationException) {
+                // 超时或调用方取消，结果已经在调用方的 future 里
+                return;
+            }
+            state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+            if (failure != null) {
+                request.future.completeExceptionally(toSQLException(failure));
+                return;
+            }
+            try {
+                if (!completeAsync(request, conn, true, bag)) {
+                    acquireAsync(request);
+                }
+            } catch (Exception e) {
+                request.future.completeExceptionally(toSQLException(e));
+            }
+        });
+        // 登记之前调用方就已经取消
+        if (request.future.isDone()) {
+            waiter.cancel();
+        }
+    }
+
+    // 验证并登记借出后完成调用方的 future；调用方已经取消或超时的，连接直接归还。连接无效时返回 false，由调用方重新获取
+    private boolean completeAsync(AsyncAcquire request, PooledConnection conn, boolean handedOff, ConcurrentBag<PooledConnection> bag) throws SQLException {
+        boolean valid = bag != null ? checkOutFromBag(bag, conn, request.t, request.startNanos)
+                : checkOut(conn, handedOff, request.username, request.password, request.t, request.startNanos);
+        if (!valid) {
+            if (++request.localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+                logger.debug("PooledDataSource: Could not get a good connection to the database.");
+                throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+            }
+            return false;
+        }
+        if (request.permitOwned.compareAndSet(true, false)) {
+            conn.setPriority(request.priority);
+        }
+        Connection proxy = conn.getProxyConnection();
+        if (!request.future.complete(proxy)) {
+            proxy.close();
+        }
+        return true;
+    }
+
+    // 经典模式：登记一个待创建的连接（调用方持有 state 锁），握手在创建线程中完成，建好后直接移交给等待最久的线程
+    // 熔断打开时不登记，返回 false
+    private boolean createConnectionAsync() {
+        if (!circuitBreaker.tryAcquirePermit()) {
+            return false;
+        }
+        state.pendingConnections.incrementAndGet();
+        connectionCreator.execute(() -> {
+            PooledConnection conn = null;
+            SQLException failure = null;
+            try {
+                conn = newPooledConnection();
+            } catch (Exception e) {
+                failure = toSQLException(e);
+            }
+            state.lock.lock();
+            try {
+                state.pendingConnections.decrementAndGet();
+                if (conn != null && closed) {
+                    // 建连期间连接池被关闭了
+                    closeQuietly(conn);
+                } else if (conn != null) {
+                    logger.info("Created connection " + conn.getRealHashCode() + ".");
+                    if (!handoffToWaiter(conn)) {
+                        state.idleConnections.add(conn);
+                    }
+                } else {
+                    recordCreateFailure(failure);
+                    state.waiterQueue.fail(failure);
+                    // 熔断打开后，其余等待者也立即失败，不再等到 poolTimeToWait
+                    if (circuitBreaker.isOpen()) {
+                        SQLException open = circuitBreaker.newOpenException();
+                        while (state.waiterQueue.fail(open)) {
+                            circuitBreaker.recordRejected();
+                        }
+                    }
+                }
+            } finally {
+                state.lock.unlock();
+            }
+        });
+        return true;
+    }
+
+    // 经典模式（调用方持有 state 锁）：移交给等待者的连接立即计入活跃连接，避免移交途中被当成空位多建连接
+    private boolean handoffToWaiter(PooledConnection conn) {
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+        if (state.waiterQueue.offer(conn)) {
+            state.activeConnections.add(conn);
+            return true;
+        }
+        return false;
+    }
+
+    // ConcurrentBag 模式：连接总数未达上限时先 CAS 占位，再交给创建线程用子池的凭证建立连接，建好后加入子池并移交给最早的等待者
+    // 熔断打开时不登记，返回 false
+    private boolean createConnectionInBagAsync(SubPool subPool) {
+        int total;
+        do {
+            total = state.totalConnections.get();
+            if (total >= poolMaximumActiveConnections) {
+                return false;
+            }
+        } while (!state.totalConnections.compareAndSet(total, total + 1));
+        if (!circuitBreaker.tryAcquirePermit()) {
+            state.totalConnections.decrementAndGet();
+            return false;
+        }
+
+        state.pendingConnections.incrementAndGet();
+        connectionCreator.execute(() -> {
+            try {
+                PooledConnection conn = newPooledConnection(subPool.getUsername(), subPool.getPassword());
+                conn.setConnectionTypeCode(subPool.getTypeCode());
+                state.pendingConnections.decrementAndGet();
+                markHandoff(conn);
+                try {
+                    subPool.getBag().add(conn);
+                } catch (IllegalStateException bagClosed) {
+                    // 建连期间连接池被关闭了
+                    state.totalConnections.decrementAndGet();
+                    closeQuietly(conn);
+                    return;
+                }
+                logger.info("Created connection " + conn.getRealHashCode() + ".");
+            } catch (Exception e) {
+                state.pendingConnections.decrementAndGet();
+                state.totalConnections.decrementAndGet();
+                SQLException failure = toSQLException(e);
+                recordCreateFailure(failure);
+                // 失败原因交给等待最久的线程，让它立即失败而不是等到超时
+                subPool.getBag().fail(failure);
+                // 熔断打开后，其余等待者也立即失败
+                if (circuitBreaker.isOpen()) {
+                    SQLException open = circuitBreaker.newOpenException();
+                    while (subPool.getBag().fail(open)) {
+                        circuitBreaker.recordRejected();
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    // ConcurrentBag 模式：取凭证对应的子池，第一次出现的凭证新建一个
+    private SubPool subPool(String username, String password) {
+        int typeCode = assembleConnectionTypeCode(dataSource.getUrl(), username, password);
+        return state.subPools.computeIfAbsent(typeCode, code -> new SubPool(code, username, password));
+    }
+
+    // ConcurrentBag 模式：默认凭证的子池，最小空闲连接只在这个子池中保持
+    private SubPool defaultSubPool() {
+        return subPool(dataSource.getUsername(), dataSource.getPassword());
+    }
+
+    // ConcurrentBag 模式：除 requester 外有线程在等待的子池中等待最多的一个，没有则返回 null
+    private SubPool findStarvingSubPool(SubPool requester) {
+        SubPool starving = null;
+        int maxWaiting = 0;
+        for (SubPool subPool : state.subPools.values()) {
+            int waiting = subPool.getBag().getWaitingThreadCount();
+            if (subPool != requester && waiting > maxWaiting) {
+                starving = subPool;
+                maxWaiting = waiting;
+            }
+        }
+        return starving;
+    }
+
+    // ConcurrentBag 模式：连接总数到达上限时，从空闲连接最多的其他子池关掉最久未用的一个空闲连接，给 requester 腾出名额
+    // 按空闲数挑选子池，空闲连接多的凭证先让出名额，不会让某个凭证的空闲连接长期占满整个池
+    private boolean evictIdleConnection(SubPool requester) {
+        SubPool victim = null;
+        int maxIdle = 0;
+        for (SubPool subPool : state.subPools.values()) {
+            int idle = subPool.getIdleCount();
+            if (subPool != requester && idle > maxIdle) {
+                victim = subPool;
+                maxIdle = idle;
+            }
+        }
+        if (victim == null) {
+            return false;
+        }
+        ConcurrentBag<PooledConnection> bag = victim.getBag();
+        List<PooledConnection> idle = bag.values(ConcurrentBag.BagEntry.STATE_NOT_IN_USE);
+        idle.sort(Comparator.comparingLong(PooledConnection::getLastUsedTimestamp));
+        for (PooledConnection conn : idle) {
+            if (bag.reserve(conn)) {
+                if (bag.remove(conn)) {
+                    state.totalConnections.decrementAndGet();
+                }
+                closeQuietly(conn);
+                state.subPoolEvictionCount.increment();
+                logger.info("Evicted idle connection " + conn.getRealHashCode() + " to make room for another credential.");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ConcurrentBag 模式：条目可能以借出状态直接移交给等待者，先刷新检出时间，防止移交途中被当成超时连接回收
+    private void markHandoff(PooledConnection conn) {
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+    }
+
+    // 建立物理连接（在创建线程中执行），记录耗时
+    private PooledConnection newPooledConnection() throws SQLException {
+        return newPooledConnection(dataSource.getUsername(), dataSource.getPassword());
+    }
+
+    private PooledConnection newPooledConnection(String username, String password) throws SQLException {
+        long begin = System.nanoTime();
+        PooledConnection conn = new PooledConnection(dataSource.getConnection(username, password), this);
+        state.connectionCreateTimeHistogram.record(System.nanoTime() - begin);
+        circuitBreaker.onSuccess();
+        warmUpStatementCache(conn);
+        return conn;
+    }
+
+    // 预编译映射语句的 SQL 放入新连接的缓存，预编译失败（比如表还不存在）的跳过
+    private void warmUpStatementCache(PooledConnection conn) {
+        PreparedStatementCache cache = conn.getStatementCache();
+        if (!poolPreparedStatementCacheWarmup || cache == null) {
+            return;
+        }
+        for (String sql : preparedStatementWarmupSql) {
+            if (cache.size() >= cache.getMaxSize()) {
+                break;
+            }
+            try {
+                PreparedStatement statement = conn.getRealConnection().prepareStatement(sql);
+                if (!cache.put(new PreparedStatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY), statement, false)) {
+                    statement.close();
+                }
+            } catch (SQLException e) {
+                logger.debug("Skipped warming up statement '" + sql + "'. Cause: " + e.getMessage());
+            }
+        }
+    }
+
+    private void recordCreateFailure(SQLException failure) {
+        state.connectionCreateFailureCount.increment();
+        circuitBreaker.onFailure(failure);
+        logger.warn("PooledDataSource: Failed to create connection. Cause: " + failure.getMessage());
+        state.lastConnectionCreateFailure = failure;
+        state.lastConnectionCreateFailureTimestamp = System.currentTimeMillis();
+    }
+
+    private static SQLException toSQLException(Throwable e) {
+        return e instanceof SQLException ? (SQLException) e : new SQLException("PooledDataSource: Could not create a connection to the database.", e);
+    }
+
+    // 在子池中找到借出时间超过 poolMaximumCheckoutTime 的连接，换代理后据为己有（原持有者的代理作废）
+    private PooledConnection claimOverdueConnectionInBag(SubPool subPool) throws SQLException {
+        for (PooledConnection oldest : subPool.getBag().values(ConcurrentBag.BagEntry.STATE_IN_USE)) {
+            long longestCheckoutTime = oldest.getCheckoutTime();
+            if (longestCheckoutTime <= poolMaximumCheckoutTime || !oldest.compareAndSet(ConcurrentBag.BagEntry.STATE_IN_USE, ConcurrentBag.BagEntry.STATE_RESERVED)) {
+                continue;
+            }
+            state.claimedOverdueConnectionCount.increment();
+            state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+            state.accumulatedCheckoutTime.add(longestCheckoutTime);
+            leakDetector.onReturn(oldest);
+            releaseLane(oldest);
+            oldest.refreshProxy();
+            oldest.getConnectionState().rollbackIfNeeded();
+            oldest.setState(ConcurrentBag.BagEntry.STATE_IN_USE);
+            logger.info("Claimed overdue connection " + oldest.getRealHashCode() + ".");
+            return oldest;
+        }
+        return null;
+    }
+
+    // 开启优先级通道时，先按当前线程的优先级领取许可（可能排队），再从池中借出连接，许可随连接走
+    private PooledConnection acquireConnection(String username, String password) throws SQLException {
+        if (!poolPriorityLanesEnabled) {
+            return popConnection(username, password);
+        }
+        ConnectionPriority priority = ConnectionPriority.current();
+        awaitLane(priority);
+        PooledConnection conn;
+        try {
+            conn = popConnection(username, password);
+        } catch (SQLException | RuntimeException e) {
+            priorityLanes.release(priority);
+            throw e;
+        }
+        conn.setPriority(priority);
+        return conn;
+    }
+
+    // 领取通道许可，最多等待 poolTimeToWait
+    private void awaitLane(ConnectionPriority priority) throws SQLException {
+        CompletableFuture<Void> permit = priorityLanes.acquire(priority);
+        if (permit.isDone()) {
+            return;
+        }
+        state.hadToWaitCount.increment();
+        long wt = System.currentTimeMillis();
+        try {
+            permit.get(poolTimeToWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (priorityLanes.cancel(priority, permit)) {
+                throw new SQLTimeoutException("PooledDataSource: Timed out after " + poolTimeToWait + " ms waiting for a " + priority + " priority lane.");
+            }
+        } catch (InterruptedException e) {
+            if (priorityLanes.cancel(priority, permit)) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.", e);
+            }
+            // 中断与放行同时发生，先收下许可，保留中断标记
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw toSQLException(e.getCause());
+        } finally {
+            state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+        }
+    }
+
+    // 交还连接持有的通道许可
+    private void releaseLane(PooledConnection conn) {
+        ConnectionPriority priority = conn.takePriority();
+        if (priority != null) {
+            priorityLanes.release(priority);
+        }
+    }
+
+    public PriorityLanes getPriorityLanes() {
+        return priorityLanes;
+    }
+
+    private void closeQuietly(PooledConnection conn) {
+        releaseLane(conn);
+        conn.invalidate();
+        conn.closeStatementCache();
+        try {
+            conn.getConnectionState().rollbackIfNeeded();
+            conn.getRealConnection().close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+
+    /**
+     * 启动后台管家，首次执行会立即按 poolMinimumIdleConnections 预热连接
+     */
+    public void startHousekeeper() {
+        // 泄漏检测的扫描间隔取阈值的一半，最长 1 秒
+        long leakDetectionPeriod = poolLeakDetectionThreshold > 0 ? Math.max(10, Math.min(1000, poolLeakDetectionThreshold / 2)) : 0;
+        housekeeper.start(poolHousekeepingPeriod, poolValidationPeriod, leakDetectionPeriod, poolAdaptiveSizingEnabled ? poolAdaptiveSizingPeriod : 0);
+    }
+
+    /**
+     * 把连接池指标（PoolStateMXBean）注册到平台 MBeanServer，名称为 cn.glfs.mybatis:type=PooledDataSource,name=poolName，重复调用无副作用
+     */
+    public void registerMBean() {
+        mbeanLock.lock();
+        try {
+            if (registeredMBeanName != null) {
+                return;
+            }
+            try {
+                ObjectName name = new ObjectName("cn.glfs.mybatis:type=PooledDataSource,name=" + ObjectName.quote(poolName));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(state, name);
+                registeredMBeanName = name;
+            } catch (Exception e) {
+                logger.warn("PooledDataSource: Failed to register MBean for pool " + poolName + ". Cause: " + e);
+            }
+        } finally {
+            mbeanLock.unlock();
+        }
+    }
+
+    public void unregisterMBean() {
+        mbeanLock.lock();
+        try {
+            if (registeredMBeanName == null) {
+                return;
+            }
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredMBeanName);
+            } catch (Exception ignore) {
+            }
+            registeredMBeanName = null;
+        } finally {
+            mbeanLock.unlock();
+        }
+    }
+
+    /**
+     * 回收空闲过久或超过最大寿命的空闲连接，返回回收数量（由后台管家调用）
+     */
+    protected int retireIdleConnections() {
+        List<PooledConnection> retired = new ArrayList<>();
+        if (poolConcurrentBagEnabled) {
+            SubPool defaultSubPool = defaultSubPool();
+            for (SubPool subPool : state.subPools.values()) {
+                ConcurrentBag<PooledConnection> bag = subPool.getBag();
+                // 最小空闲连接只在默认凭证的子池中保持，其他子池的空闲连接到时间都回收
+                int minimumIdle = subPool == defaultSubPool ? poolMinimumIdleConnections : 0;
+                int idleCount = bag.getCount(ConcurrentBag.BagEntry.STATE_NOT_IN_USE);
+                for (PooledConnection conn : bag.values(ConcurrentBag.BagEntry.STATE_NOT_IN_USE)) {
+                    // 先保留下来，保证检查期间不会被借出
+                    if (!bag.reserve(conn)) {
+                        continue;
+                    }
+                    boolean idleTooLong = idleCount > minimumIdle && isIdleTooLong(conn);
+                    if ((idleTooLong || isExpired(conn)) && bag.remove(conn)) {
+                        state.totalConnections.decrementAndGet();
+                        idleCount--;
+                        retired.add(conn);
+                    } else {
+                        markHandoff(conn);
+                        bag.unreserve(conn);
+                    }
+                }
+            }
+        } else {
+            state.lock.lock();
+            try {
+                Iterator<PooledConnection> iterator = state.idleConnections.iterator();
+                while (iterator.hasNext()) {
+                    PooledConnection conn = iterator.next();
+                    boolean idleTooLong = state.idleConnections.size() > poolMinimumIdleConnections && isIdleTooLong(conn);
+                    if (idleTooLong || isExpired(conn)) {
+                        iterator.remove();
+                        retired.add(conn);
+                    }
+                }
+            } finally {
+                state.lock.unlock();
+            }
+        }
+        // 关闭物理连接可能涉及网络交互，放在锁外
+        for (PooledConnection conn : retired) {
+            closeQuietly(conn);
+            logger.info("Retired connection " + conn.getRealHashCode() + " (idle " + conn.getTimeElapsedSinceLastUse() + " ms, age " + conn.getAge() + " ms).");
+        }
+        return retired.size();
+    }
+
+    /**
+     * 关闭超出 poolMaximumIdleConnections 的空闲连接，最久未用的先关，返回关闭数量（自适应缩小后调用）
+     */
+    protected int trimIdleConnections() {
+        List<PooledConnection> trimmed = new ArrayList<>();
+        if (poolConcurrentBagEnabled) {
+            for (SubPool subPool : state.subPools.values()) {
+                ConcurrentBag<PooledConnection> bag = subPool.getBag();
+                List<PooledConnection> idle = bag.values(ConcurrentBag.BagEntry.STATE_NOT_IN_USE);
+                idle.sort(Comparator.comparingLong(PooledConnection::getLastUsedTimestamp));
+                int excess = idle.size() - poolMaximumIdleConnections;
+                for (int i = 0; i < idle.size() && trimmed.size() < excess; i++) {
+                    PooledConnection conn = idle.get(i);
+                    if (bag.reserve(conn) && bag.remove(conn)) {
+                        state.totalConnections.decrementAndGet();
+                        trimmed.add(conn);
+                    }
+                }
+            }
+        } else {
+            state.lock.lock();
+            try {
+                // 空闲列表尾部是最近归还的，从头部开始关
+                while (state.idleConnections.size() > poolMaximumIdleConnections) {
+                    trimmed.add(state.idleConnections.remove(0));
+                }
+            } finally {
+                state.lock.unlock();
+            }
+        }
+        for (PooledConnection conn : trimmed) {
+            closeQuietly(conn);
+        }
+        return trimmed.size();
+    }
+
+    /**
+     * 按等待和利用率调整一次池大小（由后台管家调用），扩大后立即为排队的线程补建连接，不用等它们超时重试
+     */
+    protected boolean adjustPoolSize() {
+        boolean resized = sizer.adjust();
+        if (resized) {
+            createConnectionsForWaiters();
+            priorityLanes.signal();
+        }
+        return resized;
+    }
+
+    private void createConnectionsForWaiters() {
+        if (poolConcurrentBagEnabled) {
+            for (SubPool subPool : state.subPools.values()) {
+                int waiting = subPool.getBag().getWaitingThreadCount();
+                for (int i = 0; i < waiting && createConnectionInBagAsync(subPool); i++) {
+                    logger.debug("Requested a connection for a waiting thread after the pool grew.");
+                }
+            }
+        } else {
+            state.lock.lock();
+            try {
+                while (state.waiterQueue.size() > state.pendingConnections.get()
+                        && state.activeConnections.size() + state.idleConnections.size() + state.pendingConnections.get() < poolMaximumActiveConnections
+                        && createConnectionAsync()) {
+                    logger.debug("Requested a connection for a waiting thread after the pool grew.");
+                }
+            } finally {
+                state.lock.unlock();
+            }
+        }
+    }
+
+    public PoolSizer getSizer() {
+        return sizer;
+    }
+
+    /**
+     * 空闲连接（含创建中的）不足 poolMinimumIdleConnections 时在后台补建，返回登记的数量（由后台管家调用）
+     */
+    protected int fillMinimumIdleConnections() {
+        int requested = 0;
+        if (poolConcurrentBagEnabled) {
+            SubPool subPool = defaultSubPool();
+            while (subPool.getIdleCount() + state.pendingConnections.get() < poolMinimumIdleConnections
+                    && createConnectionInBagAsync(subPool)) {
+                requested++;
+            }
+        } else {
+            state.lock.lock();
+            try {
+                while (state.idleConnections.size() + state.pendingConnections.get() < poolMinimumIdleConnections
+                        && state.activeConnections.size() + state.idleConnections.size() + state.pendingConnections.get() < poolMaximumActiveConnections
+                        && createConnectionAsync()) {
+                    requested++;
+                }
+            } finally {
+                state.lock.unlock();
             }
         }
+        return requested;
     }
 
-
-    // popConnection方法用于从连接池中获取连接
-    private PooledConnection popConnection(String username, String password) throws SQLException {
-        boolean countedWait = false; // 标记是否已经计数等待时间
-        PooledConnection conn = null; // 初始化连接为null
-        long t = System.currentTimeMillis(); // 记录方法开始时间
-        int localBadConnectionCount = 0; // 本地失败连接计数
-
-        while (conn == null) { // 当连接为null时，继续循环
-            synchronized (state) { // 使用同步块，保证线程安全
-                // 如果有空闲连接，则直接从空闲连接中取出
-                if (!state.idleConnections.isEmpty()) {
-                    conn = state.idleConnections.remove(0); // 移除空闲连接列表的第一个连接
-                    logger.info("Checked out connection " + conn.getRealHashCode() + " from pool."); // 记录连接被取出的日志
-                } else { // 如果没有空闲连接，则创建新连接或等待可用连接
-                    // 如果活跃连接数未达到最大限制，则创建新连接
-                    if (state.activeConnections.size() < poolMaximumActiveConnections) {
-                        // 通过驱动创建一个新的连接
-                        conn = new PooledConnection(dataSource.getConnection(), this); // 创建新连接
-                        logger.info("Created connection " + conn.getRealHashCode() + "."); // 记录新连接被创建的日志
-                    } else { // 如果活跃连接数已达到最大限制，则考虑等待或关闭空闲连接
-                        PooledConnection oldestActiveConnection = state.activeConnections.get(0); // 获取最老的活跃连接
-                        long longestCheckoutTime = oldestActiveConnection.getCheckoutTime(); // 获取最老连接的检出时间
-
-                        // 如果最老连接的检出时间超过最大检出时间，则认为连接过期
-                        if (longestCheckoutTime > poolMaximumCheckoutTime) {
-                            state.claimedOverdueConnectionCount++; // 统计过期连接的数量
-                            state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime; // 统计过期连接的累计检出时间
-                            state.accumulatedCheckoutTime += longestCheckoutTime; // 统计总的累计检出时间
-                            state.activeConnections.remove(oldestActiveConnection); // 移除最老的活跃连接
-
-                            // 回滚并重新实例化一个新连接
-                            if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                                // 在连接池中，当一个连接被重新实例化为一个新连接时，需要确保这个新连接处于一个干净的状态，即没有未提交的事务
-                                oldestActiveConnection.getRealConnection().rollback();
-                            }
-                            conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this); // 创建新连接
-                            oldestActiveConnection.invalidate(); // 标记最老连接为失效
-                            logger.info("Claimed overdue connection " + conn.getRealHashCode() + "."); // 记录过期连接被取出的日志
-                        } else { // 如果最老连接的检出时间未超过最大检出时间，则等待可用连接
-                            try {
-                                if (!countedWait) { // 如果未计数等待时间，则计数
-                                    state.hadToWaitCount++; // 统计等待次数
-                                    countedWait = true; // 标记已计数等待时间
-                                }
-                                logger.info("Waiting as long as " + poolTimeToWait + " milliseconds for connection."); // 记录等待连接的日志
-                                long wt = System.currentTimeMillis();
-                                state.wait(poolTimeToWait); // 等待指定的时间
-                                state.accumulatedWaitTime += System.currentTimeMillis() - wt; // 统计累计等待时间
-                            } catch (InterruptedException e) {
-                                break; // 捕获中断异常，结束等待
-                            }
-                        }
+    /**
+     * 在后台验证一段时间内没有验证过的空闲连接，返回验证的数量（由后台管家调用）
+     * 验证期间连接不会被借出，验证失败的连接直接关闭，有线程在等待时补建一个
+     */
+    protected int validateIdleConnections() {
+        if (!poolPingEnabled) {
+            return 0;
+        }
+        int validated = 0;
+        if (poolConcurrentBagEnabled) {
+            for (SubPool subPool : state.subPools.values()) {
+                ConcurrentBag<PooledConnection> bag = subPool.getBag();
+                for (PooledConnection conn : bag.values(ConcurrentBag.BagEntry.STATE_NOT_IN_USE)) {
+                    if (isValidatedRecently(conn) || !bag.reserve(conn)) {
+                        continue;
                     }
-
-                    // 如果获取到连接，则进行相关处理
-                    if (conn != null) {
-                        if (conn.isValid()) { // 如果连接有效
-                            if (!conn.getRealConnection().getAutoCommit()) {
-                                conn.getRealConnection().rollback(); // 回滚未提交的事务
-                            }
-                            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password)); // 设置连接类型码
-                            conn.setCheckoutTimestamp(System.currentTimeMillis()); // 记录连接的检出时间
-                            conn.setLastUsedTimestamp(System.currentTimeMillis()); // 记录连接的最后使用时间
-                            state.activeConnections.add(conn); // 将连接添加到活跃连接列表
-                            state.requestCount++; // 统计连接请求次数
-                            state.accumulatedRequestTime += System.currentTimeMillis() - t; // 统计累计请求时间
-                        } else { // 如果连接无效
-                            logger.info("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection."); // 记录无效连接的日志
-                            state.badConnectionCount++; // 统计无效连接的数量
-                            localBadConnectionCount++; // 本地统计无效连接的数量
-                            conn = null; // 将连接置为null
-                            // 如果本地统计的无效连接数量超过限制，则抛出异常
-                            if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
-                                logger.debug("PooledDataSource: Could not get a good connection to the database.");
-                                throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
-                            }
+                    validated++;
+                    state.backgroundValidationCount.increment();
+                    if (isConnectionOpen(conn) && validateConnection(conn)) {
+                        markHandoff(conn);
+                        bag.unreserve(conn);
+                        continue;
+                    }
+                    state.badConnectionCount.increment();
+                    if (bag.remove(conn)) {
+                        state.totalConnections.decrementAndGet();
+                    }
+                    closeQuietly(conn);
+                    if (bag.getWaitingThreadCount() > 0) {
+                        createConnectionInBagAsync(subPool);
+                    }
+                }
+            }
+        } else {
+            // 先把待验证的连接从空闲列表取出并计入创建中的连接，锁外验证完再放回，期间不会被借出，也不会多建连接
+            List<PooledConnection> candidates = new ArrayList<>();
+            state.lock.lock();
+            try {
+                Iterator<PooledConnection> iterator = state.idleConnections.iterator();
+                while (iterator.hasNext()) {
+                    PooledConnection conn = iterator.next();
+                    if (!isValidatedRecently(conn)) {
+                        iterator.remove();
+                        state.pendingConnections.incrementAndGet();
+                        candidates.add(conn);
+                    }
+                }
+            } finally {
+                state.lock.unlock();
+            }
+            for (PooledConnection conn : candidates) {
+                validated++;
+                state.backgroundValidationCount.increment();
+                boolean valid = isConnectionOpen(conn) && validateConnection(conn);
+                if (!valid) {
+                    closeQuietly(conn);
+                }
+                state.lock.lock();
+                try {
+                    state.pendingConnections.decrementAndGet();
+                    if (valid) {
+                        if (!handoffToWaiter(conn)) {
+                            state.idleConnections.add(conn);
+                        }
+                    } else {
+                        state.badConnectionCount.increment();
+                        if (state.waiterQueue.hasWaiters() && state.activeConnections.size() + state.pendingConnections.get() < poolMaximumActiveConnections) {
+                            createConnectionAsync();
                         }
                     }
-
+                } finally {
+                    state.lock.unlock();
                 }
             }
         }
-        return conn; // 返回获取到的连接
+        return validated;
+    }
+
+    /**
+     * 检查借出过久的连接，返回本次发现的疑似泄漏数量（由后台管家调用）
+     */
+    protected int detectLeakedConnections() {
+        List<PooledConnection> checkedOut;
+        if (poolConcurrentBagEnabled) {
+            checkedOut = new ArrayList<>();
+            for (SubPool subPool : state.subPools.values()) {
+                checkedOut.addAll(subPool.getBag().values(ConcurrentBag.BagEntry.STATE_IN_USE));
+            }
+        } else {
+            state.lock.lock();
+            try {
+                checkedOut = new ArrayList<>(state.activeConnections);
+            } finally {
+                state.lock.unlock();
+            }
+        }
+        return leakDetector.detect(checkedOut, poolLeakDetectionThreshold);
+    }
+
+    public PoolLeakDetector getLeakDetector() {
+        return leakDetector;
     }
 
+    private boolean isIdleTooLong(PooledConnection conn) {
+        return poolIdleTimeout > 0 && conn.getTimeElapsedSinceLastUse() > poolIdleTimeout;
+    }
+
+    // 是否超过最大寿命，抖动由物理连接的哈希值决定，同一个物理连接每次算出的结果一致
+    private boolean isExpired(PooledConnection conn) {
+        if (poolMaxLifetime <= 0) {
+            return false;
+        }
+        long variance = poolMaxLifetime / 40;
+        long jitter = variance > 0 ? Math.floorMod(conn.getRealHashCode() * 2654435761L, variance) : 0;
+        return conn.getAge() > poolMaxLifetime - jitter;
+    }
 
     /**
      * 强制关闭所有连接
      */
     public void forceCloseAll() {
-        synchronized (state) {
+        state.lock.lock();
+        try {
             expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
             // 关闭活跃链接
             for (int i = state.activeConnections.size(); i > 0; i--) {
                 try {
                     PooledConnection conn = state.activeConnections.remove(i - 1);
+                    releaseLane(conn);
                     conn.invalidate();
+                    conn.closeStatementCache();
 
                     Connection realConn = conn.getRealConnection();
                     if (!realConn.getAutoCommit()) {
@@ -221,16 +1408,28 @@ public class PooledDataSource implements DataSource {
                 try {
                     PooledConnection conn = state.idleConnections.remove(i - 1);
                     conn.invalidate();
+                    conn.closeStatementCache();
 
                     Connection realConn = conn.getRealConnection();
                     if (!realConn.getAutoCommit()) {
                         realConn.rollback();
                     }
+                    realConn.close();
                 } catch (Exception ignore) {
 
                 }
             }
+            // 关闭各子池连接包中的连接，子池本身保留，正在等待的线程继续在原子池上等待
+            for (SubPool subPool : state.subPools.values()) {
+                List<PooledConnection> removed = subPool.getBag().clear();
+                state.totalConnections.addAndGet(-removed.size());
+                for (PooledConnection conn : removed) {
+                    closeQuietly(conn);
+                }
+            }
             logger.info("PooledDataSource forcefully closed/removed all connections.");
+        } finally {
+            state.lock.unlock();
         }
     }
 
@@ -240,52 +1439,75 @@ public class PooledDataSource implements DataSource {
      * @return
      */
     protected boolean pingConnection(PooledConnection conn) {
-        boolean result = true;
+        boolean result = isConnectionOpen(conn);
 
+        // 最近验证过或刚用过的连接直接放行，空闲连接由后台验证线程提前验证，借出路径基本不做网络交互
+        if (result && poolPingEnabled && poolPingConnectionsNotUsedFor >= 0
+                && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor && !isValidatedRecently(conn)) {
+            state.checkoutValidationCount.increment();
+            result = validateConnection(conn);
+        }
+
+        return result;
+    }
+
+    /**
+     * 本地检查连接是否已关闭，不做网络交互
+     */
+    protected boolean isConnectionOpen(PooledConnection conn) {
         try {
-            result = !conn.getRealConnection().isClosed();
+            return !conn.getRealConnection().isClosed();
         } catch (SQLException e) {
             logger.info("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-            result = false;
+            return false;
         }
+    }
 
-        if (result) {
-            if (poolPingEnabled) {
-                if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
-                    try {
-                        logger.info("Testing connection " + conn.getRealHashCode() + " ...");
-                        Connection realConn = conn.getRealConnection();
-                        Statement statement = realConn.createStatement();
-                        ResultSet resultSet = statement.executeQuery(poolPingQuery);
-                        resultSet.close();
-                        if (!realConn.getAutoCommit()) {
-                            realConn.rollback();
-                        }
-                        result = true;
-                        logger.info("Connection " + conn.getRealHashCode() + " is GOOD!");
-                    } catch (Exception e) {
-                        logger.info("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
-                        try {
-                            conn.getRealConnection().close();
-                        } catch (SQLException ignore) {
-                        }
-                        result = false;
-                        logger.info("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-                    }
+    // 验证窗口内验证通过过或使用过的连接，认为仍然可用
+    private boolean isValidatedRecently(PooledConnection conn) {
+        return conn.getTimeElapsedSinceLastValidation() < poolValidationWindow || conn.getTimeElapsedSinceLastUse() < poolValidationWindow;
+    }
+
+    /**
+     * 对连接做一次网络验证：设置了 poolPingQuery 时执行侦测查询，否则使用 JDBC4 的 Connection.isValid(timeout)
+     */
+    protected boolean validateConnection(PooledConnection conn) {
+        Connection realConn = conn.getRealConnection();
+        try {
+            logger.info("Testing connection " + conn.getRealHashCode() + " ...");
+            if (isPingQuerySet()) {
+                try (Statement statement = realConn.createStatement()) {
+                    statement.setQueryTimeout(poolValidationTimeout);
+                    statement.executeQuery(poolPingQuery).close();
+                }
+                if (!realConn.getAutoCommit()) {
+                    realConn.rollback();
                 }
+            } else if (!realConn.isValid(poolValidationTimeout)) {
+                throw new SQLException("Connection.isValid(" + poolValidationTimeout + ") returned false.");
             }
+            conn.setLastValidatedTimestamp(System.currentTimeMillis());
+            logger.info("Connection " + conn.getRealHashCode() + " is GOOD!");
+            return true;
+        } catch (Exception e) {
+            logger.info("Validation of connection " + conn.getRealHashCode() + " failed: " + e.getMessage());
+            try {
+                realConn.close();
+            } catch (SQLException ignore) {
+            }
+            logger.info("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
+            return false;
         }
+    }
 
-        return result;
+    private boolean isPingQuerySet() {
+        return poolPingQuery != null && !poolPingQuery.trim().isEmpty() && !"NO PING QUERY SET".equals(poolPingQuery);
     }
 
     // 如果连接是代理对象，则返回其真实连接
     public static Connection unwrapConnection(Connection conn) {
-        if (Proxy.isProxyClass(conn.getClass())) {
-            InvocationHandler handler = Proxy.getInvocationHandler(conn);
-            if (handler instanceof PooledConnection) {
-                return ((PooledConnection) handler).getRealConnection();
-            }
+        if (conn instanceof ProxyConnection) {
+            return ((ProxyConnection) conn).getPooledConnection().getRealConnection();
         }
         return conn;
     }
@@ -298,19 +1520,115 @@ public class PooledDataSource implements DataSource {
     // 获取连接
     @Override
     public Connection getConnection() throws SQLException {
-        return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+        return acquireConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
     }
 
     // 获取连接
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
-        return popConnection(username, password).getProxyConnection();
+        checkClassicModeCredentials(username, password);
+        return acquireConnection(username, password).getProxyConnection();
+    }
+
+    // 经典模式的空闲列表不区分凭证：别的凭证借到的可能是配置账号的连接，归还时又因类型码不一致被直接关闭，所以直接拒绝
+    private void checkClassicModeCredentials(String username, String password) throws SQLException {
+        if (!poolConcurrentBagEnabled && (!Objects.equals(username, dataSource.getUsername()) || !Objects.equals(password, dataSource.getPassword()))) {
+            throw new SQLException("PooledDataSource: Credentials other than the configured username/password require poolConcurrentBagEnabled=true.");
+        }
+    }
+
+    /**
+     * 异步获取连接，等待时间上限为 poolTimeToWait
+     */
+    public CompletableFuture<Connection> getConnectionAsync() {
+        return getConnectionAsync(dataSource.getUsername(), dataSource.getPassword(), poolTimeToWait, TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync(long timeout, TimeUnit unit) {
+        return getConnectionAsync(dataSource.getUsername(), dataSource.getPassword(), timeout, unit);
+    }
+
+    /**
+     * 异步获取连接，不阻塞调用线程
+     * 有空闲连接时返回已完成的 future；否则和同步调用方在同一个 FIFO 队列里按先来后到排队，由归还（或建好）连接的线程完成 future。
+     * 超过 timeout 仍未拿到时以 SQLTimeoutException 失败，timeout 不大于 0 表示不限时；
+     * 调用方取消 future 会撤销排队，取消时已经移交过来的连接自动归还。
+     * future 的后续回调可能在归还连接的线程里执行，耗时的处理请用 thenXxxAsync 放到自己的线程池
+     */
+    public CompletableFuture<Connection> getConnectionAsync(String username, String password, long timeout, TimeUnit unit) {
+        if (closed) {
+            CompletableFuture<Connection> future = new CompletableFuture<>();
+            future.completeExceptionally(newClosedException());
+            return future;
+        }
+        try {
+            checkClassicModeCredentials(username, password);
+        } catch (SQLException e) {
+            CompletableFuture<Connection> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (!housekeeper.isRunning()) {
+            startHousekeeper();
+        }
+        AsyncAcquire request = new AsyncAcquire(username, password, unit.toNanos(timeout), poolPriorityLanesEnabled ? ConnectionPriority.current() : null);
+        request.future.whenComplete((conn, failure) -> {
+            HandoffQueue.Waiter<PooledConnection> waiter = request.waiter;
+            if (request.future.isCancelled() && waiter != null) {
+                waiter.cancel();
+            }
+            // 没有借出成功，交还还没转给连接的许可
+            if (failure != null && request.permitOwned.compareAndSet(true, false)) {
+                priorityLanes.release(request.priority);
+            }
+        });
+        if (request.priority == null) {
+            acquireAsync(request);
+        } else {
+            acquireLaneAsync(request);
+        }
+        return request.future;
     }
 
-    // 在对象被垃圾回收之前，强制关闭所有连接
-    protected void finalize() throws Throwable {
+    /**
+     * 关闭连接池：停止后台管家、注销 MBean、关闭全部连接，正在排队的请求立即失败；重复调用无副作用
+     * 后台管家线程一直引用着连接池，不调用 close 的话连接池和它的最小空闲连接永远不会被回收
+     * 关闭后不能再获取连接，借出中的连接归还时直接关闭
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        housekeeper.stop();
+        unregisterMBean();
+        SQLException failure = newClosedException();
+        state.lock.lock();
+        try {
+            while (state.waiterQueue.fail(failure)) {
+                // 唤醒全部经典模式的等待者
+            }
+        } finally {
+            state.lock.unlock();
+        }
+        for (SubPool subPool : state.subPools.values()) {
+            ConcurrentBag<PooledConnection> bag = subPool.getBag();
+            bag.close();
+            while (bag.fail(failure)) {
+                // 唤醒全部等待者
+            }
+        }
         forceCloseAll();
-        super.finalize();
+        logger.info("PooledDataSource " + poolName + " closed.");
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private SQLException newClosedException() {
+        return new SQLException("PooledDataSource " + poolName + " has been closed.");
     }
 
     // 抛出异常，该类不是包装器
@@ -381,6 +1699,10 @@ public class PooledDataSource implements DataSource {
         forceCloseAll();
     }
 
+    public PoolState getPoolState() {
+        return state;
+    }
+
     public int getPoolMaximumActiveConnections() {
         return poolMaximumActiveConnections;
     }
@@ -437,6 +1759,286 @@ public class PooledDataSource implements DataSource {
         this.poolPingConnectionsNotUsedFor = poolPingConnectionsNotUsedFor;
     }
 
+    public int getPoolValidationTimeout() {
+        return poolValidationTimeout;
+    }
+
+    public void setPoolValidationTimeout(int poolValidationTimeout) {
+        this.poolValidationTimeout = poolValidationTimeout;
+    }
+
+    public long getPoolValidationWindow() {
+        return poolValidationWindow;
+    }
+
+    public void setPoolValidationWindow(long poolValidationWindow) {
+        this.poolValidationWindow = poolValidationWindow;
+    }
+
+    public long getPoolValidationPeriod() {
+        return poolValidationPeriod;
+    }
+
+    public void setPoolValidationPeriod(long poolValidationPeriod) {
+        this.poolValidationPeriod = poolValidationPeriod;
+    }
+
+    public boolean isPoolConcurrentBagEnabled() {
+        return poolConcurrentBagEnabled;
+    }
+
+    public void setPoolConcurrentBagEnabled(boolean poolConcurrentBagEnabled) {
+        this.poolConcurrentBagEnabled = poolConcurrentBagEnabled;
+        forceCloseAll();
+    }
+
+    public int getPoolMaximumConnectionCreators() {
+        return poolMaximumConnectionCreators;
+    }
+
+    public void setPoolMaximumConnectionCreators(int poolMaximumConnectionCreators) {
+        this.poolMaximumConnectionCreators = poolMaximumConnectionCreators;
+        connectionCreator.setMaximumCreators(poolMaximumConnectionCreators);
+    }
+
+    public long getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    public void setPoolIdleTimeout(long poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    public long getPoolMaxLifetime() {
+        return poolMaxLifetime;
+    }
+
+    public void setPoolMaxLifetime(long poolMaxLifetime) {
+        this.poolMaxLifetime = poolMaxLifetime;
+    }
+
+    public int getPoolMinimumIdleConnections() {
+        return poolMinimumIdleConnections;
+    }
+
+    public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+        this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    }
+
+    public long getPoolHousekeepingPeriod() {
+        return poolHousekeepingPeriod;
+    }
+
+    public void setPoolHousekeepingPeriod(long poolHousekeepingPeriod) {
+        this.poolHousekeepingPeriod = poolHousekeepingPeriod;
+    }
+
+    public long getPoolLeakDetectionThreshold() {
+        return poolLeakDetectionThreshold;
+    }
+
+    public void setPoolLeakDetectionThreshold(long poolLeakDetectionThreshold) {
+        this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+    }
+
+    public double getPoolLeakDetectionSampleRate() {
+        return poolLeakDetectionSampleRate;
+    }
+
+    public void setPoolLeakDetectionSampleRate(double poolLeakDetectionSampleRate) {
+        this.poolLeakDetectionSampleRate = poolLeakDetectionSampleRate;
+    }
+
+    public int getPoolPreparedStatementCacheSize() {
+        return poolPreparedStatementCacheSize;
+    }
+
+    public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+        this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+        forceCloseAll();
+    }
+
+    public PoolCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public boolean isPoolCircuitBreakerEnabled() {
+        return poolCircuitBreakerEnabled;
+    }
+
+    public void setPoolCircuitBreakerEnabled(boolean poolCircuitBreakerEnabled) {
+        this.poolCircuitBreakerEnabled = poolCircuitBreakerEnabled;
+    }
+
+    public int getPoolCircuitBreakerFailureThreshold() {
+        return poolCircuitBreakerFailureThreshold;
+    }
+
+    public void setPoolCircuitBreakerFailureThreshold(int poolCircuitBreakerFailureThreshold) {
+        this.poolCircuitBreakerFailureThreshold = poolCircuitBreakerFailureThreshold;
+    }
+
+    public long getPoolCircuitBreakerBackoffBase() {
+        return poolCircuitBreakerBackoffBase;
+    }
+
+    public void setPoolCircuitBreakerBackoffBase(long poolCircuitBreakerBackoffBase) {
+        this.poolCircuitBreakerBackoffBase = poolCircuitBreakerBackoffBase;
+    }
+
+    public long getPoolCircuitBreakerBackoffMax() {
+        return poolCircuitBreakerBackoffMax;
+    }
+
+    public void setPoolCircuitBreakerBackoffMax(long poolCircuitBreakerBackoffMax) {
+        this.poolCircuitBreakerBackoffMax = poolCircuitBreakerBackoffMax;
+    }
+
+    public boolean isPoolPriorityLanesEnabled() {
+        return poolPriorityLanesEnabled;
+    }
+
+    public void setPoolPriorityLanesEnabled(boolean poolPriorityLanesEnabled) {
+        this.poolPriorityLanesEnabled = poolPriorityLanesEnabled;
+    }
+
+    public int getPoolHighPriorityReservedConnections() {
+        return poolHighPriorityReservedConnections;
+    }
+
+    public void setPoolHighPriorityReservedConnections(int poolHighPriorityReservedConnections) {
+        this.poolHighPriorityReservedConnections = poolHighPriorityReservedConnections;
+    }
+
+    public int getPoolHighPriorityMaximumConnections() {
+        return poolHighPriorityMaximumConnections;
+    }
+
+    public void setPoolHighPriorityMaximumConnections(int poolHighPriorityMaximumConnections) {
+        this.poolHighPriorityMaximumConnections = poolHighPriorityMaximumConnections;
+    }
+
+    public int getPoolNormalPriorityReservedConnections() {
+        return poolNormalPriorityReservedConnections;
+    }
+
+    public void setPoolNormalPriorityReservedConnections(int poolNormalPriorityReservedConnections) {
+        this.poolNormalPriorityReservedConnections = poolNormalPriorityReservedConnections;
+    }
+
+    public int getPoolNormalPriorityMaximumConnections() {
+        return poolNormalPriorityMaximumConnections;
+    }
+
+    public void setPoolNormalPriorityMaximumConnections(int poolNormalPriorityMaximumConnections) {
+        this.poolNormalPriorityMaximumConnections = poolNormalPriorityMaximumConnections;
+    }
+
+    public int getPoolLowPriorityReservedConnections() {
+        return poolLowPriorityReservedConnections;
+    }
+
+    public void setPoolLowPriorityReservedConnections(int poolLowPriorityReservedConnections) {
+        this.poolLowPriorityReservedConnections = poolLowPriorityReservedConnections;
+    }
+
+    public int getPoolLowPriorityMaximumConnections() {
+        return poolLowPriorityMaximumConnections;
+    }
+
+    public void setPoolLowPriorityMaximumConnections(int poolLowPriorityMaximumConnections) {
+        this.poolLowPriorityMaximumConnections = poolLowPriorityMaximumConnections;
+    }
+
+    public boolean isPoolAdaptiveSizingEnabled() {
+        return poolAdaptiveSizingEnabled;
+    }
+
+    public void setPoolAdaptiveSizingEnabled(boolean poolAdaptiveSizingEnabled) {
+        this.poolAdaptiveSizingEnabled = poolAdaptiveSizingEnabled;
+    }
+
+    public int getPoolAdaptiveMaximumConnections() {
+        return poolAdaptiveMaximumConnections;
+    }
+
+    public void setPoolAdaptiveMaximumConnections(int poolAdaptiveMaximumConnections) {
+        this.poolAdaptiveMaximumConnections = poolAdaptiveMaximumConnections;
+    }
+
+    public long getPoolAdaptiveWaitThreshold() {
+        return poolAdaptiveWaitThreshold;
+    }
+
+    public void setPoolAdaptiveWaitThreshold(long poolAdaptiveWaitThreshold) {
+        this.poolAdaptiveWaitThreshold = poolAdaptiveWaitThreshold;
+    }
+
+    public int getPoolAdaptiveQueueThreshold() {
+        return poolAdaptiveQueueThreshold;
+    }
+
+    public void setPoolAdaptiveQueueThreshold(int poolAdaptiveQueueThreshold) {
+        this.poolAdaptiveQueueThreshold = poolAdaptiveQueueThreshold;
+    }
+
+    public double getPoolAdaptiveLowUtilization() {
+        return poolAdaptiveLowUtilization;
+    }
+
+    public void setPoolAdaptiveLowUtilization(double poolAdaptiveLowUtilization) {
+        this.poolAdaptiveLowUtilization = poolAdaptiveLowUtilization;
+    }
+
+    public long getPoolAdaptiveSizingPeriod() {
+        return poolAdaptiveSizingPeriod;
+    }
+
+    public void setPoolAdaptiveSizingPeriod(long poolAdaptiveSizingPeriod) {
+        this.poolAdaptiveSizingPeriod = poolAdaptiveSizingPeriod;
+    }
+
+    public boolean isPoolTrackConnectionState() {
+        return poolTrackConnectionState;
+    }
+
+    public void setPoolTrackConnectionState(boolean poolTrackConnectionState) {
+        this.poolTrackConnectionState = poolTrackConnectionState;
+        forceCloseAll();
+    }
+
+    public boolean isPoolPreparedStatementCacheWarmup() {
+        return poolPreparedStatementCacheWarmup;
+    }
+
+    public void setPoolPreparedStatementCacheWarmup(boolean poolPreparedStatementCacheWarmup) {
+        this.poolPreparedStatementCacheWarmup = poolPreparedStatementCacheWarmup;
+    }
+
+    public Collection<String> getPreparedStatementWarmupSql() {
+        return preparedStatementWarmupSql;
+    }
+
+    public void setPreparedStatementWarmupSql(Collection<String> preparedStatementWarmupSql) {
+        this.preparedStatementWarmupSql = preparedStatementWarmupSql;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public boolean isPoolRegisterMbeans() {
+        return poolRegisterMbeans;
+    }
+
+    public void setPoolRegisterMbeans(boolean poolRegisterMbeans) {
+        this.poolRegisterMbeans = poolRegisterMbeans;
+    }
+
     public int getExpectedConnectionTypeCode() {
         return expectedConnectionTypeCode;
     }
@@ -3,6 +3,8 @@ package cn.glfs.mybatis.datasource.pooled;
 
 import cn.glfs.mybatis.datasource.unpooled.UnpooledDataSourceFactory;
 
+import java.util.Properties;
+
 /**
  * 有连接池的数据源工厂
  */
@@ -11,4 +13,15 @@ public class PooledDataSourceFactory extends UnpooledDataSourceFactory {
     public PooledDataSourceFactory() {
         this.dataSource = new PooledDataSource();
     }
+
+    @Override
+    public void setProperties(Properties props) {
+        super.setProperties(props);
+        PooledDataSource pooledDataSource = (PooledDataSource) dataSource;
+        // 属性设置完成后启动后台管家，按 poolMinimumIdleConnections 预热连接；不再使用时调用 PooledDataSource.close 停止
+        pooledDataSource.startHousekeeper();
+        if (pooledDataSource.isPoolRegisterMbeans()) {
+            pooledDataSource.registerMBean();
+        }
+    }
 }
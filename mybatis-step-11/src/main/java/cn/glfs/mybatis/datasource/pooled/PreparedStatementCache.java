@@ -0,0 +1,232 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个物理连接上的 PreparedStatement 缓存（LRU）
+ * 调用方 close 的 PreparedStatement 不真正关闭，而是清空参数和未执行的批量后放回缓存，同样的 SQL 再次 prepare 时直接复用，省掉预编译；
+ * 缓存满时淘汰最久未用且没有被借出的语句并关闭，物理连接关闭时关闭全部缓存的语句
+ */
+public class PreparedStatementCache {
+
+    private final int maxSize;
+
+    private final PoolState state;
+
+    // 访问顺序的 LinkedHashMap，迭代顺序即从最久未用到最近使用
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 不用 synchronized：release 在锁内会调用驱动的 clearParameters，虚拟线程持有监视器时阻塞会钉住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public PreparedStatementCache(int maxSize, PoolState state) {
+        this.maxSize = maxSize;
+        this.state = state;
+    }
+
+    /**
+     * 取出缓存的语句并标记为借出；没有缓存或者已被借出（同一条 SQL 嵌套使用）时返回 null
+     */
+    public PreparedStatement take(Key key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.inUse) {
+                missCount++;
+                state.statementCacheMissCount.increment();
+                return null;
+            }
+            entry.inUse = true;
+            hitCount++;
+            state.statementCacheHitCount.increment();
+            return entry.statement;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 放入新预编译的语句（标记为借出），同一个 key 已有缓存时不放入，返回是否放入
+     */
+    public boolean put(Key key, PreparedStatement statement, boolean inUse) {
+        lock.lock();
+        try {
+            if (entries.containsKey(key)) {
+                return false;
+            }
+            Entry entry = new Entry(statement);
+            entry.inUse = inUse;
+            entries.put(key, entry);
+            evict();
+            return entries.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用方关闭语句时调用，仍在缓存中的清空参数后放回，已被淘汰或不在缓存中的直接关闭
+     * 没执行的 addBatch 也要清掉，否则会在下一个借到这条语句的会话里被执行
+     */
+    public void release(Key key, PreparedStatement statement) throws SQLException {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.statement == statement) {
+                try {
+                    statement.clearParameters();
+                    statement.clearBatch();
+                    statement.clearWarnings();
+                    entry.inUse = false;
+                    return;
+                } catch (SQLException e) {
+                    // 语句已经不可用，从缓存中去掉
+                    entries.remove(key);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        statement.close();
+    }
+
+    // 超过上限时从最久未用的开始淘汰没有被借出的语句
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.inUse) {
+                continue;
+            }
+            iterator.remove();
+            evictionCount++;
+            state.statementCacheEvictionCount.increment();
+            closeQuietly(entry.statement);
+        }
+    }
+
+    /**
+     * 关闭全部缓存的语句（物理连接关闭时调用）
+     */
+    public void closeAll() {
+        List<Entry> closed;
+        lock.lock();
+        try {
+            closed = new ArrayList<>(entries.values());
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Entry entry : closed) {
+            closeQuietly(entry.statement);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        lock.lock();
+        try {
+            return hitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMissCount() {
+        lock.lock();
+        try {
+            return missCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEvictionCount() {
+        lock.lock();
+        try {
+            return evictionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 缓存 key：SQL 文本 + 结果集类型 + 结果集并发模式
+     */
+    public static final class Key {
+        private final String sql;
+        private final int resultSetType;
+        private final int resultSetConcurrency;
+        private final int hashCode;
+
+        public Key(String sql, int resultSetType, int resultSetConcurrency) {
+            this.sql = sql;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+            this.hashCode = Objects.hash(sql, resultSetType, resultSetConcurrency);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return resultSetType == key.resultSetType && resultSetConcurrency == key.resultSetConcurrency && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return sql;
+        }
+    }
+
+    private static final class Entry {
+        private final PreparedStatement statement;
+        private boolean inUse;
+
+        private Entry(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+}
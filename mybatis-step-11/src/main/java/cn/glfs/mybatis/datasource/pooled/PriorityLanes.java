@@ -0,0 +1,203 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按优先级划分的借出通道（poolPriorityLanesEnabled）
+ * 借出连接前先按当前线程的 ConnectionPriority 领取一个通道许可，许可总数就是 poolMaximumActiveConnections：
+ * 1. 每个通道有预留数（pool*PriorityReservedConnections）：一个通道借出后，剩下的名额不能少于其他通道还没用满的预留，
+ *    批处理占满连接时，在线请求仍然拿得到预留给它的连接
+ * 2. 每个通道有上限（pool*PriorityMaximumConnections，0 表示不限）
+ * 3. 拿不到许可时在本通道的 FIFO 队列里等待；连接归还释放许可时按 HIGH、NORMAL、LOW 的顺序放行，高优先级的等待者先拿到连接
+ * 许可随连接走，连接归还、被当作超时连接回收或被强制关闭时释放
+ */
+public class PriorityLanes {
+
+    private static final ConnectionPriority[] PRIORITIES = ConnectionPriority.values();
+
+    private final PooledDataSource dataSource;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 各通道已借出的连接数
+    private final int[] active = new int[PRIORITIES.length];
+
+    // 各通道的等待者，许可放行时在释放者线程里完成
+    private final List<ArrayDeque<CompletableFuture<Void>>> waiters = new ArrayList<>(PRIORITIES.length);
+
+    public PriorityLanes(PooledDataSource dataSource) {
+        this.dataSource = dataSource;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            waiters.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * 领取许可：能领取时返回已完成的 future，否则在本通道队尾排队，放行时完成
+     * 返回的 future 不再需要时调用 cancel；cancel 返回 false 说明已经放行，调用方持有许可，需要 release
+     */
+    public CompletableFuture<Void> acquire(ConnectionPriority priority) {
+        int lane = priority.ordinal();
+        lock.lock();
+        try {
+            // 本通道有人排队时不插队
+            if (waiters.get(lane).isEmpty() && admissible(lane)) {
+                active[lane]++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.get(lane).addLast(waiter);
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean cancel(ConnectionPriority priority, CompletableFuture<Void> waiter) {
+        boolean removed;
+        lock.lock();
+        try {
+            removed = waiters.get(priority.ordinal()).remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+        if (removed) {
+            waiter.cancel(false);
+        }
+        return removed;
+    }
+
+    /**
+     * 归还许可，并按优先级放行等待者
+     */
+    public void release(ConnectionPriority priority) {
+        List<CompletableFuture<Void>> granted;
+        lock.lock();
+        try {
+            active[priority.ordinal()]--;
+            granted = grant();
+        } finally {
+            lock.unlock();
+        }
+        complete(granted);
+    }
+
+    /**
+     * 池大小变化后重新检查等待者
+     */
+    public void signal() {
+        List<CompletableFuture<Void>> granted;
+        lock.lock();
+        try {
+            granted = grant();
+        } finally {
+            lock.unlock();
+        }
+        complete(granted);
+    }
+
+    // 调用方持有锁：从高优先级通道开始，放行所有能放行的等待者；某个通道到了上限不影响后面的通道
+    private List<CompletableFuture<Void>> grant() {
+        List<CompletableFuture<Void>> granted = null;
+        for (int lane = 0; lane < PRIORITIES.length; lane++) {
+            ArrayDeque<CompletableFuture<Void>> queue = waiters.get(lane);
+            while (!queue.isEmpty() && admissible(lane)) {
+                active[lane]++;
+                if (granted == null) {
+                    granted = new ArrayList<>();
+                }
+                granted.add(queue.pollFirst());
+            }
+        }
+        return granted;
+    }
+
+    // 完成 future 会执行等待者的回调，放在锁外
+    private void complete(List<CompletableFuture<Void>> granted) {
+        if (granted != null) {
+            for (CompletableFuture<Void> waiter : granted) {
+                waiter.complete(null);
+            }
+        }
+    }
+
+    // 调用方持有锁：通道没到上限，并且借出后剩下的名额还够其他通道没用满的预留
+    private boolean admissible(int lane) {
+        int maximum = maximumConnections(PRIORITIES[lane]);
+        if (maximum > 0 && active[lane] >= maximum) {
+            return false;
+        }
+        int inUse = 0;
+        int reservedForOthers = 0;
+        for (int other = 0; other < PRIORITIES.length; other++) {
+            inUse += active[other];
+            if (other != lane) {
+                reservedForOthers += Math.max(0, reservedConnections(PRIORITIES[other]) - active[other]);
+            }
+        }
+        return inUse + 1 + reservedForOthers <= dataSource.poolMaximumActiveConnections;
+    }
+
+    private int reservedConnections(ConnectionPriority priority) {
+        switch (priority) {
+            case HIGH:
+                return dataSource.getPoolHighPriorityReservedConnections();
+            case LOW:
+                return dataSource.getPoolLowPriorityReservedConnections();
+            default:
+                return dataSource.getPoolNormalPriorityReservedConnections();
+        }
+    }
+
+    private int maximumConnections(ConnectionPriority priority) {
+        switch (priority) {
+            case HIGH:
+                return dataSource.getPoolHighPriorityMaximumConnections();
+            case LOW:
+                return dataSource.getPoolLowPriorityMaximumConnections();
+            default:
+                return dataSource.getPoolNormalPriorityMaximumConnections();
+        }
+    }
+
+    /**
+     * 各通道已借出的连接数
+     */
+    public Map<String, Integer> getActiveCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            for (ConnectionPriority priority : PRIORITIES) {
+                counts.put(priority.name(), active[priority.ordinal()]);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * 各通道排队等待许可的请求数
+     */
+    public Map<String, Integer> getWaitingCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            for (ConnectionPriority priority : PRIORITIES) {
+                counts.put(priority.name(), waiters.get(priority.ordinal()).size());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return counts;
+    }
+
+}
@@ -0,0 +1,463 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 借给调用方的连接代理
+ * 原来用 java.lang.reflect.Proxy 拦截，每次调用都要经过反射分派、方法名比较和 Method.invoke；
+ * 这里直接实现 Connection，每个方法检查一下代理是否还能用，再委托给真实连接，就是普通的虚方法调用。
+ * 通过它创建的 Statement 也会被包装并记录下来，连接归还时关闭调用方忘记关闭的 Statement。
+ * 开启 PreparedStatement 缓存时，prepareStatement 先从物理连接的缓存中取，调用方关闭时放回缓存。
+ * autoCommit、事务隔离级别、只读、catalog 以及 commit/rollback 经过 ConnectionState，值没变的设置不再发给驱动
+ */
+public class ProxyConnection implements Connection {
+
+    private final PooledConnection pooledConnection;
+
+    private final Connection delegate;
+
+    // 调用方已经 close，或者连接被别的线程当作超时连接回收，这个代理就作废了；用 CAS 保证只归还一次
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // 通过这个代理创建、还没关闭的 Statement；连接同一时间只归一个调用方使用，不加锁
+    private final List<Statement> openStatements = new ArrayList<>(16);
+
+    public ProxyConnection(PooledConnection pooledConnection) {
+        this.pooledConnection = pooledConnection;
+        this.delegate = pooledConnection.getRealConnection();
+    }
+
+    // 检查代理是否作废、连接是否有效，不合法要抛出 SQLException
+    private void checkOpen() throws SQLException {
+        if (closed.get()) {
+            throw new SQLException("Error accessing PooledConnection. Connection has been returned to the pool.");
+        }
+        pooledConnection.checkConnection();
+    }
+
+    /**
+     * 作废这个代理，之后再调用就会抛出异常，close 则被忽略
+     */
+    void markClosed() {
+        closed.set(true);
+    }
+
+    private <T extends Statement> T trackStatement(T statement) {
+        openStatements.add(statement);
+        return statement;
+    }
+
+    // Statement 关闭时调用，一般是最后创建的先关闭，从尾部开始找
+    void untrackStatement(Statement statement) {
+        for (int i = openStatements.size() - 1; i >= 0; i--) {
+            if (openStatements.get(i) == statement) {
+                openStatements.remove(i);
+                return;
+            }
+        }
+    }
+
+    // 关闭调用方忘记关闭的 Statement，避免在真实连接上越积越多
+    private void closeStatements() {
+        if (openStatements.isEmpty()) {
+            return;
+        }
+        for (Statement statement : openStatements.toArray(new Statement[0])) {
+            try {
+                statement.close();
+            } catch (SQLException ignore) {
+            }
+        }
+        openStatements.clear();
+    }
+
+    // 走 PreparedStatement 缓存：命中直接复用，未命中预编译后放入缓存；同一条 SQL 正被使用时预编译一个不缓存的
+    private PreparedStatement prepareCached(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        PreparedStatementCache cache = pooledConnection.getStatementCache();
+        PreparedStatementCache.Key key = new PreparedStatementCache.Key(sql, resultSetType, resultSetConcurrency);
+        PreparedStatement statement = cache.take(key);
+        if (statement == null) {
+            statement = delegate.prepareStatement(sql, resultSetType, resultSetConcurrency);
+            if (!cache.put(key, statement, true)) {
+                key = null;
+            }
+        }
+        return trackStatement(new ProxyPreparedStatement(this, statement, key));
+    }
+
+    // 语句执行前由 ProxyStatement 调用，记录连接上有未提交的语句
+    void markDirty() {
+        pooledConnection.getConnectionState().markDirty();
+    }
+
+    public PooledConnection getPooledConnection() {
+        return pooledConnection;
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyStatement(this, delegate.createStatement()));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        checkOpen();
+        if (pooledConnection.getStatementCache() != null) {
+            return prepareCached(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+        return trackStatement(new ProxyPreparedStatement(this, delegate.prepareStatement(sql)));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyCallableStatement(this, delegate.prepareCall(sql)));
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        checkOpen();
+        return delegate.nativeSQL(sql);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        checkOpen();
+        pooledConnection.getConnectionState().setAutoCommit(autoCommit);
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        checkOpen();
+        return pooledConnection.getConnectionState().getAutoCommit();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        checkOpen();
+        pooledConnection.getConnectionState().commit();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        checkOpen();
+        pooledConnection.getConnectionState().rollback();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        // 重复关闭、并发关闭、或者代理已经作废（连接被当作超时连接回收）时直接忽略，只有抢到的线程归还连接
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        closeStatements();
+        pooledConnection.getDataSource().pushConnection(pooledConnection);
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed.get() || delegate.isClosed();
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        checkOpen();
+        return delegate.getMetaData();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        checkOpen();
+        pooledConnection.getConnectionState().setReadOnly(readOnly);
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        checkOpen();
+        return pooledConnection.getConnectionState().isReadOnly();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        checkOpen();
+        pooledConnection.getConnectionState().setCatalog(catalog);
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        checkOpen();
+        return pooledConnection.getConnectionState().getCatalog();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        checkOpen();
+        pooledConnection.getConnectionState().setTransactionIsolation(level);
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        checkOpen();
+        return pooledConnection.getConnectionState().getTransactionIsolation();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        checkOpen();
+        return delegate.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        checkOpen();
+        delegate.clearWarnings();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyStatement(this, delegate.createStatement(resultSetType, resultSetConcurrency)));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        checkOpen();
+        if (pooledConnection.getStatementCache() != null) {
+            return prepareCached(sql, resultSetType, resultSetConcurrency);
+        }
+        return trackStatement(new ProxyPreparedStatement(this, delegate.prepareStatement(sql, resultSetType, resultSetConcurrency)));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyCallableStatement(this, delegate.prepareCall(sql, resultSetType, resultSetConcurrency)));
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        checkOpen();
+        return delegate.getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        checkOpen();
+        delegate.setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        checkOpen();
+        delegate.setHoldability(holdability);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        checkOpen();
+        return delegate.getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        checkOpen();
+        return delegate.setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        checkOpen();
+        return delegate.setSavepoint(name);
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        checkOpen();
+        delegate.rollback(savepoint);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        checkOpen();
+        delegate.releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyStatement(this, delegate.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability)));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyPreparedStatement(this, delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyCallableStatement(this, delegate.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyPreparedStatement(this, delegate.prepareStatement(sql, autoGeneratedKeys)));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyPreparedStatement(this, delegate.prepareStatement(sql, columnIndexes)));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        checkOpen();
+        return trackStatement(new ProxyPreparedStatement(this, delegate.prepareStatement(sql, columnNames)));
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        checkOpen();
+        return delegate.createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        checkOpen();
+        return delegate.createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        checkOpen();
+        return delegate.createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        checkOpen();
+        return delegate.createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        checkOpen();
+        return delegate.isValid(timeout);
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        try {
+            checkOpen();
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), null, e);
+        }
+        delegate.setClientInfo(name, value);
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        try {
+            checkOpen();
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), null, e);
+        }
+        delegate.setClientInfo(properties);
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        checkOpen();
+        return delegate.getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        checkOpen();
+        return delegate.getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        checkOpen();
+        return delegate.createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        checkOpen();
+        return delegate.createStruct(typeName, attributes);
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        checkOpen();
+        delegate.setSchema(schema);
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        checkOpen();
+        return delegate.getSchema();
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        checkOpen();
+        delegate.abort(executor);
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        checkOpen();
+        delegate.setNetworkTimeout(executor, milliseconds);
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        checkOpen();
+        return delegate.getNetworkTimeout();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        checkOpen();
+        if (iface.isInstance(delegate)) {
+            return (T) delegate;
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        checkOpen();
+        return iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+    }
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || delegate.equals(obj);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+}
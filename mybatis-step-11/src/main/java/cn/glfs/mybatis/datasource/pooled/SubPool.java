@@ -0,0 +1,45 @@
+package cn.glfs.mybatis.datasource.pooled;
+
+/**
+ * 按凭证（url + 用户名 + 密码，即连接类型码）划分的子池
+ * ConcurrentBag 模式下每个子池有自己的连接包和等待队列，空闲连接数按子池分别限制，
+ * 物理连接总数仍由 poolMaximumActiveConnections 统一限制
+ */
+public class SubPool {
+
+    // 连接类型码
+    private final int typeCode;
+
+    // 建立该子池物理连接使用的凭证
+    private final String username;
+    private final String password;
+
+    private final ConcurrentBag<PooledConnection> bag = new ConcurrentBag<>();
+
+    public SubPool(int typeCode, String username, String password) {
+        this.typeCode = typeCode;
+        this.username = username;
+        this.password = password;
+    }
+
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public ConcurrentBag<PooledConnection> getBag() {
+        return bag;
+    }
+
+    public int getIdleCount() {
+        return bag.getCount(ConcurrentBag.BagEntry.STATE_NOT_IN_USE);
+    }
+
+}
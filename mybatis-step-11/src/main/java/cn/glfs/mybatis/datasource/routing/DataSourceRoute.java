@@ -0,0 +1,40 @@
+package cn.glfs.mybatis.datasource.routing;
+
+/**
+ * 读写分离的路由：主库或从库
+ * 通过当前线程传给 RoutingDataSource，没有设置时走主库；其他数据源忽略。
+ * 执行器在获取连接时按 会话指定 > 语句（<select dataSourceRoute="PRIMARY">）指定 > 自动判断 的顺序设置：
+ * 写事务之外的 SELECT 走从库，写语句和写事务中的读走主库
+ */
+public enum DataSourceRoute {
+
+    PRIMARY,
+    REPLICA;
+
+    private static final ThreadLocal<DataSourceRoute> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 当前线程的路由，没有设置时为 null
+     */
+    public static DataSourceRoute current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 设置当前线程的路由，返回原来的设置（可能为 null），用完后交给 restore 恢复
+     */
+    public static DataSourceRoute set(DataSourceRoute route) {
+        DataSourceRoute previous = CURRENT.get();
+        restore(route);
+        return previous;
+    }
+
+    public static void restore(DataSourceRoute previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+}
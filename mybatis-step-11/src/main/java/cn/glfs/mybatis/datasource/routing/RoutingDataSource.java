@@ -0,0 +1,211 @@
+package cn.glfs.mybatis.datasource.routing;
+
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * 读写分离的路由数据源
+ * 按当前线程的 DataSourceRoute 选择目标：REPLICA 在可用的从库中按权重随机选一个，其余情况走主库。
+ * 从库获取连接失败时标记为不可用并换下一个从库，全部不可用时回退到主库（fallbackToPrimary = false 时直接失败）。
+ * 每个目标有自己的连接池和健康状态，见 RoutingTarget
+ */
+public class RoutingDataSource implements DataSource, AutoCloseable {
+
+    private org.slf4j.Logger logger = LoggerFactory.getLogger(RoutingDataSource.class);
+
+    private final RoutingTarget primary;
+
+    private final List<RoutingTarget> replicas = new CopyOnWriteArrayList<>();
+
+    // 从库不可用后多久（毫秒）再试探，连续失败时翻倍
+    protected long replicaRetryInterval = 5000;
+
+    // 从库全部不可用时是否回退到主库
+    protected boolean fallbackToPrimary = true;
+
+    public RoutingDataSource(DataSource primary) {
+        this.primary = new RoutingTarget("primary", primary, 1);
+    }
+
+    public void addReplica(String name, DataSource dataSource, int weight) {
+        replicas.add(new RoutingTarget(name, dataSource, weight));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (DataSourceRoute.current() != DataSourceRoute.REPLICA || replicas.isEmpty()) {
+            return connect(primary, username, password);
+        }
+        List<RoutingTarget> candidates = new ArrayList<>(replicas.size());
+        for (RoutingTarget replica : replicas) {
+            if (replica.isAvailable()) {
+                candidates.add(replica);
+            }
+        }
+        SQLException failure = null;
+        while (!candidates.isEmpty()) {
+            RoutingTarget replica = select(candidates);
+            try {
+                return connect(replica, username, password);
+            } catch (SQLException e) {
+                replica.onFailure(e, replicaRetryInterval);
+                logger.warn("RoutingDataSource: Replica '" + replica.getName() + "' is unavailable, trying another target. Cause: " + e.getMessage());
+                candidates.remove(replica);
+                failure = e;
+            }
+        }
+        if (!fallbackToPrimary) {
+            throw new SQLException("RoutingDataSource: No replica is available.", failure);
+        }
+        return connect(primary, username, password);
+    }
+
+    /**
+     * 在可用的从库中按权重随机选一个，跳过 excluded 中的；没有可选的从库时返回 null
+     * 对冲读用它为第二次请求挑一个不同的从库
+     */
+    public RoutingTarget selectReplica(Collection<RoutingTarget> excluded) {
+        List<RoutingTarget> candidates = new ArrayList<>(replicas.size());
+        for (RoutingTarget replica : replicas) {
+            if (replica.isAvailable() && !excluded.contains(replica)) {
+                candidates.add(replica);
+            }
+        }
+        return candidates.isEmpty() ? null : select(candidates);
+    }
+
+    /**
+     * 从指定目标获取连接，失败时和路由一样标记目标不可用
+     */
+    public Connection getConnection(RoutingTarget target) throws SQLException {
+        try {
+            return connect(target, null, null);
+        } catch (SQLException e) {
+            if (target != primary) {
+                target.onFailure(e, replicaRetryInterval);
+            }
+            throw e;
+        }
+    }
+
+    private Connection connect(RoutingTarget target, String username, String password) throws SQLException {
+        DataSource dataSource = target.getDataSource();
+        Connection connection = username == null && password == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+        target.onSuccess();
+        return connection;
+    }
+
+    // 按权重随机选择
+    private RoutingTarget select(List<RoutingTarget> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        int totalWeight = 0;
+        for (RoutingTarget candidate : candidates) {
+            totalWeight += candidate.getWeight();
+        }
+        int random = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (RoutingTarget candidate : candidates) {
+            random -= candidate.getWeight();
+            if (random < 0) {
+                return candidate;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    /**
+     * 关闭主库和全部从库的数据源（实现了 AutoCloseable 的，比如 PooledDataSource），某个关闭失败时继续关闭其余的
+     */
+    @Override
+    public void close() {
+        List<RoutingTarget> targets = new ArrayList<>(replicas);
+        targets.add(0, primary);
+        for (RoutingTarget target : targets) {
+            if (target.getDataSource() instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) target.getDataSource()).close();
+                } catch (Exception e) {
+                    logger.warn("RoutingDataSource: Failed to close data source of '" + target.getName() + "'. Cause: " + e);
+                }
+            }
+        }
+    }
+
+    public RoutingTarget getPrimary() {
+        return primary;
+    }
+
+    public List<RoutingTarget> getReplicas() {
+        return Collections.unmodifiableList(replicas);
+    }
+
+    public long getReplicaRetryInterval() {
+        return replicaRetryInterval;
+    }
+
+    public void setReplicaRetryInterval(long replicaRetryInterval) {
+        this.replicaRetryInterval = replicaRetryInterval;
+    }
+
+    public boolean isFallbackToPrimary() {
+        return fallbackToPrimary;
+    }
+
+    public void setFallbackToPrimary(boolean fallbackToPrimary) {
+        this.fallbackToPrimary = fallbackToPrimary;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException(getClass().getName() + " is not a wrapper.");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getDataSource().getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter logWriter) throws SQLException {
+        primary.getDataSource().setLogWriter(logWriter);
+    }
+
+    @Override
+    public void setLoginTimeout(int loginTimeout) throws SQLException {
+        primary.getDataSource().setLoginTimeout(loginTimeout);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getDataSource().getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    }
+
+}
@@ -0,0 +1,86 @@
+package cn.glfs.mybatis.datasource.routing;
+
+import cn.glfs.mybatis.datasource.pooled.PooledDataSource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 路由目标：一个库（主库或某个从库）自己的数据源（通常是独立的 PooledDataSource 连接池）、权重和健康状态
+ * 获取连接失败时标记为不可用，retryInterval 之后再放行请求试探；连续失败时间隔翻倍，最长 16 倍。
+ * 数据源是 PooledDataSource 且建连熔断打开时也视为不可用，不用等请求失败
+ */
+public class RoutingTarget {
+
+    private final String name;
+
+    private final DataSource dataSource;
+
+    private final int weight;
+
+    // 连续获取连接失败的次数，成功后清零
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    // 不可用的截止时间
+    private volatile long downUntil;
+
+    private volatile SQLException lastFailure;
+
+    private final LongAdder routedCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+
+    public RoutingTarget(String name, DataSource dataSource, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight of routing target '" + name + "' must be positive, but was " + weight);
+        }
+        this.name = name;
+        this.dataSource = dataSource;
+        this.weight = weight;
+    }
+
+    public boolean isAvailable() {
+        if (System.currentTimeMillis() < downUntil) {
+            return false;
+        }
+        return !(dataSource instanceof PooledDataSource) || !((PooledDataSource) dataSource).getCircuitBreaker().isOpen();
+    }
+
+    void onSuccess() {
+        routedCount.increment();
+        consecutiveFailures.set(0);
+    }
+
+    void onFailure(SQLException failure, long retryInterval) {
+        failureCount.increment();
+        lastFailure = failure;
+        int failures = consecutiveFailures.incrementAndGet();
+        downUntil = System.currentTimeMillis() + (retryInterval << Math.min(failures - 1, 4));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public long getRoutedCount() {
+        return routedCount.sum();
+    }
+
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    public SQLException getLastFailure() {
+        return lastFailure;
+    }
+
+}
@@ -0,0 +1,16 @@
+package cn.glfs.mybatis.datasource.sharding;
+
+/**
+ * 哈希分片：整数键按值取模（id % N，便于人工定位数据），其余按 hashCode 取模
+ */
+public class HashShardingStrategy implements ShardingStrategy {
+
+    @Override
+    public int shardOf(Object shardKey, int shardCount) {
+        if (shardKey instanceof Long || shardKey instanceof Integer || shardKey instanceof Short || shardKey instanceof Byte) {
+            return (int) Math.floorMod(((Number) shardKey).longValue(), (long) shardCount);
+        }
+        return Math.floorMod(shardKey.hashCode(), shardCount);
+    }
+
+}
@@ -0,0 +1,34 @@
+package cn.glfs.mybatis.datasource.sharding;
+
+import java.util.Arrays;
+
+/**
+ * 范围分片：按递增的上界（不含）划分，键小于 upperBounds[i] 时落在第 i 个分片，不小于最后一个上界的落在最后一个分片
+ * N 个分片配置 N - 1 个上界，比如 ranges="1000000,2000000" 对应 3 个分片
+ */
+public class RangeShardingStrategy implements ShardingStrategy {
+
+    private final long[] upperBounds;
+
+    public RangeShardingStrategy(long... upperBounds) {
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (upperBounds[i] <= upperBounds[i - 1]) {
+                throw new IllegalArgumentException("Range sharding bounds must be increasing, but were " + Arrays.toString(upperBounds));
+            }
+        }
+        this.upperBounds = upperBounds.clone();
+    }
+
+    @Override
+    public int shardOf(Object shardKey, int shardCount) {
+        if (upperBounds.length != shardCount - 1) {
+            throw new IllegalStateException("Range sharding with bounds " + Arrays.toString(upperBounds) + " needs " + (upperBounds.length + 1)
+                    + " shards, but the data source has " + shardCount);
+        }
+        long key = shardKey instanceof Number ? ((Number) shardKey).longValue() : Long.parseLong(shardKey.toString());
+        int shard = Arrays.binarySearch(upperBounds, key);
+        // 命中上界时属于下一个分片；没命中时 binarySearch 返回 -(插入点) - 1
+        return shard >= 0 ? shard + 1 : -shard - 1;
+    }
+
+}
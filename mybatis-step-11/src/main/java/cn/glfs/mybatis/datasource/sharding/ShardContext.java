@@ -0,0 +1,38 @@
+package cn.glfs.mybatis.datasource.sharding;
+
+/**
+ * 当前线程要访问的分片下标，通过当前线程传给 ShardingDataSource
+ * 执行器按语句的分片规则（ShardingRule）算出分片后设置，执行完恢复
+ */
+public final class ShardContext {
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    /**
+     * 当前线程的分片，没有设置时为 null
+     */
+    public static Integer current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 设置当前线程的分片，返回原来的设置（可能为 null），用完后交给 restore 恢复
+     */
+    public static Integer set(Integer shard) {
+        Integer previous = CURRENT.get();
+        restore(shard);
+        return previous;
+    }
+
+    public static void restore(Integer previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package cn.glfs.mybatis.datasource.sharding;
+
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * 分库的数据源：按当前线程的 ShardContext 把连接请求转给对应分片的数据源
+ * 每个分片有自己的数据源（通常是独立的 PooledDataSource 连接池，也可以是带从库的 RoutingDataSource）。
+ * 没有设置分片的请求（语句所在命名空间没有分片规则）走 defaultShard，defaultShard 小于 0 时直接失败
+ */
+public class ShardingDataSource implements DataSource, AutoCloseable {
+
+    private org.slf4j.Logger logger = LoggerFactory.getLogger(ShardingDataSource.class);
+
+    private final List<Shard> shards = new CopyOnWriteArrayList<>();
+
+    // 不分片的语句使用的分片，-1 表示不允许
+    protected int defaultShard = -1;
+
+    public void addShard(String name, DataSource dataSource) {
+        shards.add(new Shard(name, dataSource));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Shard shard = shard(ShardContext.current());
+        DataSource dataSource = shard.getDataSource();
+        Connection connection = username == null && password == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+        shard.routedCount.increment();
+        return connection;
+    }
+
+    private Shard shard(Integer index) throws SQLException {
+        if (shards.isEmpty()) {
+            throw new SQLException("ShardingDataSource: No shard is configured.");
+        }
+        if (index == null) {
+            if (defaultShard < 0) {
+                throw new SQLException("ShardingDataSource: No shard selected for the current statement and no default shard is configured.");
+            }
+            index = defaultShard;
+        }
+        if (index < 0 || index >= shards.size()) {
+            throw new SQLException("ShardingDataSource: Shard " + index + " does not exist, there are " + shards.size() + " shards.");
+        }
+        return shards.get(index);
+    }
+
+    /**
+     * 关闭全部分片的数据源（实现了 AutoCloseable 的，比如 PooledDataSource、RoutingDataSource），某个关闭失败时继续关闭其余的
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            if (shard.getDataSource() instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) shard.getDataSource()).close();
+                } catch (Exception e) {
+                    logger.warn("ShardingDataSource: Failed to close data source of shard '" + shard.getName() + "'. Cause: " + e);
+                }
+            }
+        }
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public List<Shard> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    public int getDefaultShard() {
+        return defaultShard;
+    }
+
+    public void setDefaultShard(int defaultShard) {
+        this.defaultShard = defaultShard;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException(getClass().getName() + " is not a wrapper.");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return shard(0).getDataSource().getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter logWriter) throws SQLException {
+        for (Shard shard : shards) {
+            shard.getDataSource().setLogWriter(logWriter);
+        }
+    }
+
+    @Override
+    public void setLoginTimeout(int loginTimeout) throws SQLException {
+        for (Shard shard : shards) {
+            shard.getDataSource().setLoginTimeout(loginTimeout);
+        }
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return shard(0).getDataSource().getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+    }
+
+    /**
+     * 一个分片：名字、数据源和路由到它的连接数
+     */
+    public static class Shard {
+
+        private final String name;
+
+        private final DataSource dataSource;
+
+        private final LongAdder routedCount = new LongAdder();
+
+        Shard(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        public long getRoutedCount() {
+            return routedCount.sum();
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package cn.glfs.mybatis.datasource.sharding;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 一个映射器命名空间的分片规则（<sharding shardKey="id" strategy="hash" table="t_user"/>）
+ * 1. shardKey：参数对象上的属性路径，参数本身是简单类型时直接用参数值
+ * 2. strategy：由分片键的值算出分片下标
+ * 3. logicTable：配置时把 SQL 里的逻辑表名改写为 逻辑表名_分片下标，用于每个分片里的物理表带后缀的场景；
+ *    按整词匹配，不区分大小写，与逻辑表同名的列也会被改写，表名要避开列名
+ */
+public class ShardingRule {
+
+    private final String shardKey;
+
+    private final ShardingStrategy strategy;
+
+    private final String logicTable;
+
+    private final Pattern tablePattern;
+
+    public ShardingRule(String shardKey, ShardingStrategy strategy, String logicTable) {
+        if (shardKey == null || shardKey.isEmpty()) {
+            throw new IllegalArgumentException("Shard key of a sharding rule cannot be empty");
+        }
+        this.shardKey = shardKey;
+        this.strategy = strategy;
+        this.logicTable = logicTable == null || logicTable.isEmpty() ? null : logicTable;
+        this.tablePattern = this.logicTable == null ? null : Pattern.compile("\\b" + Pattern.quote(this.logicTable) + "\\b", Pattern.CASE_INSENSITIVE);
+    }
+
+    public int shardOf(Object shardKeyValue, int shardCount) {
+        int shard = strategy.shardOf(shardKeyValue, shardCount);
+        if (shard < 0 || shard >= shardCount) {
+            throw new IllegalStateException("Sharding strategy " + strategy.getClass().getName() + " returned shard " + shard
+                    + " for key " + shardKeyValue + ", but there are " + shardCount + " shards");
+        }
+        return shard;
+    }
+
+    /**
+     * 把逻辑表名改写为分片的物理表名，没有配置逻辑表时原样返回
+     */
+    public String rewriteSql(String sql, int shard) {
+        if (tablePattern == null) {
+            return sql;
+        }
+        return tablePattern.matcher(sql).replaceAll(Matcher.quoteReplacement(logicTable + "_" + shard));
+    }
+
+    public String getShardKey() {
+        return shardKey;
+    }
+
+    public ShardingStrategy getStrategy() {
+        return strategy;
+    }
+
+    public String getLogicTable() {
+        return logicTable;
+    }
+
+}
@@ -0,0 +1,15 @@
+package cn.glfs.mybatis.datasource.sharding;
+
+/**
+ * 分片策略：由分片键的值算出落在哪个分片
+ */
+public interface ShardingStrategy {
+
+    /**
+     * @param shardKey   分片键的值，不为 null
+     * @param shardCount 分片数
+     * @return 分片下标，0 ~ shardCount - 1
+     */
+    int shardOf(Object shardKey, int shardCount);
+
+}
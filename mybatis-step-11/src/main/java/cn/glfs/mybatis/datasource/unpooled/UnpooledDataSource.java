@@ -7,6 +7,7 @@ import java.util.Enumeration;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 /**
@@ -19,8 +20,10 @@ public class UnpooledDataSource implements DataSource {
     private Properties driverProperties;
     // 驱动注册器，一个静态的 Map，用于保存已注册的数据库驱动。
     private static Map<String, Driver> registeredDrivers = new ConcurrentHashMap<>();
+    // 注册驱动时用的锁
+    private final ReentrantLock driverLock = new ReentrantLock();
     // 数据库连接所需的驱动类名、连接地址、用户名和密码。
-    private String driver;
+    private volatile String driver;
     private String url;
     private String username;
     private String password;
@@ -88,9 +91,17 @@ public class UnpooledDataSource implements DataSource {
 
     /**
      * 初始化数据库驱动。如果尚未注册指定的驱动，则通过反射加载驱动类并注册到 DriverManager 中。
+     * 已注册时直接返回，不加锁；注册用 ReentrantLock 而不是 synchronized，虚拟线程在这里阻塞时不会钉住载体线程
      */
-    private synchronized void initializerDriver() throws SQLException {
-        if (!registeredDrivers.containsKey(driver)) {
+    private void initializerDriver() throws SQLException {
+        if (registeredDrivers.containsKey(driver)) {
+            return;
+        }
+        driverLock.lock();
+        try {
+            if (registeredDrivers.containsKey(driver)) {
+                return;
+            }
             try {
                 // 返回通过指定的类加载器加载的指定名称的类或接口的类对象。
                 Class<?> driverType = Class.forName(driver, true, driverClassLoader);
@@ -102,6 +113,8 @@ public class UnpooledDataSource implements DataSource {
             } catch (Exception e) {
                 throw new SQLException("Error setting driver on UnpooledDataSource. Cause: " + e);
             }
+        } finally {
+            driverLock.unlock();
         }
     }
 
@@ -215,8 +228,14 @@ public class UnpooledDataSource implements DataSource {
         return driver;
     }
 
-    public synchronized void setDriver(String driver) {
-        this.driver = driver;
+    // 和驱动注册用同一把锁，注册过程中不会换驱动
+    public void setDriver(String driver) {
+        driverLock.lock();
+        try {
+            this.driver = driver;
+        } finally {
+            driverLock.unlock();
+        }
     }
 
     public String getUrl() {
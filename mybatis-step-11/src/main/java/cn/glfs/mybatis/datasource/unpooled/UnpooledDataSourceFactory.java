@@ -58,6 +58,8 @@ public class UnpooledDataSourceFactory implements DataSourceFactory {
             convertedValue = Long.valueOf(value);
         } else if (targetType == Boolean.class || targetType == boolean.class) {
             convertedValue = Boolean.valueOf(value);
+        } else if (targetType == Double.class || targetType == double.class) {
+            convertedValue = Double.valueOf(value);
         }
         // 返回转换后的值
         return convertedValue;
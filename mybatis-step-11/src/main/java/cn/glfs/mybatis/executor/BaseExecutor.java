@@ -1,14 +1,30 @@
 package cn.glfs.mybatis.executor;
 
 
+import cn.glfs.mybatis.cache.Cache;
+import cn.glfs.mybatis.cache.CacheKey;
+import cn.glfs.mybatis.cache.impl.PerpetualCache;
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
+import cn.glfs.mybatis.datasource.sharding.ShardContext;
+import cn.glfs.mybatis.datasource.sharding.ShardingDataSource;
+import cn.glfs.mybatis.datasource.sharding.ShardingRule;
 import cn.glfs.mybatis.mapping.BoundSql;
 import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.mapping.ParameterMapping;
+import cn.glfs.mybatis.reflection.MetaObject;
+import cn.glfs.mybatis.mapping.SqlCommandType;
 import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.LocalCacheScope;
 import cn.glfs.mybatis.session.ResultHandler;
 import cn.glfs.mybatis.transaction.Transaction;
+import cn.glfs.mybatis.type.TypeHandlerRegistry;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 
 /**
@@ -22,26 +38,203 @@ public abstract class BaseExecutor implements Executor {
     protected Transaction transaction;
     protected Executor wrapper;
     protected boolean closed;
+    // 会话指定的获取连接优先级
+    protected ConnectionPriority connectionPriority;
+    // 会话指定的读写分离路由
+    protected DataSourceRoute dataSourceRoute;
+    // 上次提交/回滚之后是否执行过写语句，写事务中的读也要走主库
+    protected boolean dirty;
+    // 一级缓存：会话内相同的查询直接返回上次的结果
+    protected Cache localCache;
 
     protected BaseExecutor(Configuration configuration,Transaction transaction){
         this.configuration = configuration;
         this.transaction = transaction;
         this.wrapper = this;
+        this.localCache = new PerpetualCache("LocalCache");
     }
 
     /**
-     * 执行查询操作
+     * 执行查询操作，先查一级缓存
+     * 语句配置了 flushCache 时先清空再查；语句配置 useLocalCache="false"、范围为 STATEMENT 或者传了 ResultHandler 时不读也不写缓存
      */
     @Override
+    @SuppressWarnings("unchecked")
     public <E> List<E> query(MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql) {
         if(closed){
             throw new RuntimeException("Executor was closed.");
         }
-        return doQuery(ms, parameter, resultHandler, boundSql);
+        if (ms.isFlushCacheRequired()) {
+            clearLocalCache();
+        }
+        if (resultHandler != null || !ms.isUseLocalCache() || configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
+            return queryFromDatabase(ms, parameter, resultHandler, boundSql);
+        }
+        CacheKey key = createCacheKey(ms, parameter, boundSql);
+        List<E> list = (List<E>) localCache.getObject(key);
+        if (list == null) {
+            list = queryFromDatabase(ms, parameter, resultHandler, boundSql);
+            if (list != null) {
+                localCache.putObject(key, list);
+            }
+        }
+        return list;
+    }
+
+    private <E> List<E> queryFromDatabase(MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql) {
+        // 分库：按分片键选分片，配置了逻辑表时改写表名；没有分片键的查询在所有分片上执行后归并
+        Integer shard = null;
+        ShardingRule shardingRule = configuration.getShardingRule(ms);
+        ShardingDataSource shardingDataSource = shardingDataSource();
+        if (shardingRule != null && shardingDataSource != null) {
+            Object shardKeyValue = shardKeyValue(ms, shardingRule, parameter);
+            if (shardKeyValue == null) {
+                try {
+                    // 写事务中的扇出查询走事务里的各分片连接，才能看到本事务还没提交的写
+                    return configuration.getScatterGather().query(this, ms, parameter, boundSql, shardingDataSource, shardingRule, route(ms), priority(ms),
+                            dirty ? transaction : null);
+                } catch (SQLException e) {
+                    throw new RuntimeException("Error querying database.  Cause: " + e, e);
+                }
+            }
+            shard = shardingRule.shardOf(shardKeyValue, shardingDataSource.getShardCount());
+            boundSql = boundSql.withSql(shardingRule.rewriteSql(boundSql.getSql(), shard));
+        }
+        Integer previousShard = shard != null ? ShardContext.set(shard) : null;
+        try {
+            // 开启对冲读的查询走从库时交给 QueryHedger，不适用时照常执行
+            if (ms.isHedged() && route(ms) == DataSourceRoute.REPLICA) {
+                try {
+                    List<E> list = configuration.getQueryHedger().query(this, ms, parameter, resultHandler, boundSql, priority(ms));
+                    if (list != null) {
+                        return list;
+                    }
+                } catch (SQLException e) {
+                    throw new RuntimeException("Error querying database.  Cause: " + e, e);
+                }
+            }
+            return doQuery(ms, parameter, resultHandler, boundSql);
+        } finally {
+            if (shard != null) {
+                ShardContext.restore(previousShard);
+            }
+        }
+    }
+
+    /**
+     * 执行 INSERT/UPDATE/DELETE，分库时必须带分片键
+     */
+    @Override
+    public int update(MappedStatement ms, Object parameter) throws SQLException {
+        if (closed) {
+            throw new RuntimeException("Executor was closed.");
+        }
+        clearLocalCache();
+        BoundSql boundSql = ms.getSqlSource().getBoundSql(parameter);
+        Integer shard = null;
+        ShardingRule shardingRule = configuration.getShardingRule(ms);
+        ShardingDataSource shardingDataSource = shardingDataSource();
+        if (shardingRule != null && shardingDataSource != null) {
+            shard = shardingRule.shardOf(shardKeyValue(ms, shardingRule, parameter), shardingDataSource.getShardCount());
+            boundSql = boundSql.withSql(shardingRule.rewriteSql(boundSql.getSql(), shard));
+        }
+        Integer previousShard = shard != null ? ShardContext.set(shard) : null;
+        try {
+            return doUpdate(ms, parameter, boundSql);
+        } finally {
+            if (shard != null) {
+                ShardContext.restore(previousShard);
+            }
+        }
+    }
+
+    /**
+     * 一级缓存的 key：语句 id、最终 SQL、每个参数的值、环境 id
+     * 分库改写表名之前的 SQL 加上参数值已经能确定分片，不需要再放分片下标
+     */
+    @Override
+    public CacheKey createCacheKey(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+        if (closed) {
+            throw new RuntimeException("Executor was closed.");
+        }
+        CacheKey cacheKey = new CacheKey();
+        cacheKey.update(ms.getId());
+        cacheKey.update(boundSql.getSql());
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        if (parameterMappings != null) {
+            TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+            MetaObject metaObject = null;
+            for (ParameterMapping parameterMapping : parameterMappings) {
+                // 和 DefaultParameterHandler 设置参数时取值的方式一致
+                String propertyName = parameterMapping.getProperty();
+                Object value;
+                if (boundSql.hasAdditionalParameter(propertyName)) {
+                    value = boundSql.getAdditionalParameter(propertyName);
+                } else if (parameterObject == null) {
+                    value = null;
+                } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+                    value = parameterObject;
+                } else {
+                    if (metaObject == null) {
+                        metaObject = configuration.newMetaObject(parameterObject);
+                    }
+                    value = metaObject.getValue(propertyName);
+                }
+                cacheKey.update(value);
+            }
+        }
+        if (configuration.getEnvironment() != null) {
+            cacheKey.update(configuration.getEnvironment().getId());
+        }
+        return cacheKey;
+    }
+
+    @Override
+    public void clearLocalCache() {
+        if (!closed) {
+            localCache.clear();
+        }
+    }
+
+    private ShardingDataSource shardingDataSource() {
+        DataSource dataSource = configuration.getEnvironment() == null ? null : configuration.getEnvironment().getDataSource();
+        return dataSource instanceof ShardingDataSource ? (ShardingDataSource) dataSource : null;
+    }
+
+    // 参数本身是简单类型时就是分片键的值，否则通过 MetaObject 读取参数对象上的属性；只有查询可以没有分片键
+    private Object shardKeyValue(MappedStatement ms, ShardingRule shardingRule, Object parameter) {
+        Object value = null;
+        if (parameter != null) {
+            value = configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())
+                    ? parameter : configuration.newMetaObject(parameter).getValue(shardingRule.getShardKey());
+        }
+        if (value == null && ms.getSqlCommandType() != SqlCommandType.SELECT) {
+            throw new RuntimeException("Shard key '" + shardingRule.getShardKey() + "' of statement " + ms.getId() + " is null.");
+        }
+        return value;
     }
 
     protected abstract <E> List<E> doQuery(MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql);
 
+    protected abstract int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException;
+
+    @Override
+    public List<BatchResult> flushStatements() throws SQLException {
+        return flushStatements(false);
+    }
+
+    /**
+     * 处理执行器缓存的语句，提交、回滚和关闭前调用；回滚时攒下的批直接丢弃
+     */
+    protected List<BatchResult> flushStatements(boolean isRollback) throws SQLException {
+        if (closed) {
+            throw new RuntimeException("Executor was closed.");
+        }
+        return doFlushStatements(isRollback);
+    }
+
+    protected abstract List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException;
+
     @Override
     public Transaction getTransaction(){
         if (closed) {
@@ -55,16 +248,80 @@ public abstract class BaseExecutor implements Executor {
         if(closed){
             throw new RuntimeException("Cannot commit, transaction is already closed");
         }
+        clearLocalCache();
+        flushStatements(false);
         if(required){
             transaction.commit();
         }
+        dirty = false;
     }
 
     @Override
     public void rollback(boolean required) throws SQLException {
         if (!closed) {
-            if (required) {
-                transaction.rollback();
+            try {
+                clearLocalCache();
+                flushStatements(true);
+            } finally {
+                if (required) {
+                    transaction.rollback();
+                }
+                dirty = false;
+            }
+        }
+    }
+
+    @Override
+    public void setConnectionPriority(ConnectionPriority connectionPriority) {
+        this.connectionPriority = connectionPriority;
+    }
+
+    @Override
+    public void setDataSourceRoute(DataSourceRoute dataSourceRoute) {
+        this.dataSourceRoute = dataSourceRoute;
+    }
+
+    /**
+     * 按优先级和读写分离路由获取连接
+     * 优先级：会话指定的优先，其次是语句所在命名空间上配置的，都没有时沿用当前线程的设置
+     * 路由：会话指定的优先，其次是语句上指定的，都没有时写事务之外的 SELECT 走从库，其余走主库
+     */
+    protected Connection getConnection(MappedStatement ms) throws SQLException {
+        if (ms.getSqlCommandType() != SqlCommandType.SELECT) {
+            dirty = true;
+        }
+        ConnectionPriority priority = priority(ms);
+        ConnectionPriority previousPriority = priority != null ? ConnectionPriority.set(priority) : null;
+        DataSourceRoute previousRoute = DataSourceRoute.set(route(ms));
+        try {
+            return transaction.getConnection();
+        } finally {
+            DataSourceRoute.restore(previousRoute);
+            if (priority != null) {
+                ConnectionPriority.restore(previousPriority);
+            }
+        }
+    }
+
+    private ConnectionPriority priority(MappedStatement ms) {
+        return connectionPriority != null ? connectionPriority : configuration.getConnectionPriority(ms);
+    }
+
+    private DataSourceRoute route(MappedStatement ms) {
+        if (dataSourceRoute != null) {
+            return dataSourceRoute;
+        }
+        if (ms.getDataSourceRoute() != null) {
+            return ms.getDataSourceRoute();
+        }
+        return ms.getSqlCommandType() == SqlCommandType.SELECT && !dirty ? DataSourceRoute.REPLICA : DataSourceRoute.PRIMARY;
+    }
+
+    protected void closeStatement(Statement statement) {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException ignore) {
             }
         }
     }
@@ -80,6 +337,7 @@ public abstract class BaseExecutor implements Executor {
             logger.warn("Unexpected exception on closing transaction.  Cause: " + e);
         } finally {
             transaction = null;
+            localCache = null;
             closed = true;
         }
     }
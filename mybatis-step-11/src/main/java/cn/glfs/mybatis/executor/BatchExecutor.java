@@ -0,0 +1,141 @@
+package cn.glfs.mybatis.executor;
+
+import cn.glfs.mybatis.executor.statement.StatementHandler;
+import cn.glfs.mybatis.mapping.BoundSql;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.ResultHandler;
+import cn.glfs.mybatis.transaction.Transaction;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批处理执行器
+ * 连续执行同一条 SQL（同一语句、同一连接）时只 addBatch，不立即发给数据库；
+ * 换了 SQL 就新开一个 Statement 继续攒，之前的按顺序保留。
+ * 攒下的批在提交、查询之前、累计条数达到 batchSize 时按顺序 executeBatch，
+ * 每个 Statement 对应一个 BatchResult，由 flushStatements 返回每一行的影响行数
+ */
+public class BatchExecutor extends BaseExecutor {
+
+    // 批处理模式下 update 的返回值，真正的影响行数在 flushStatements 返回的 BatchResult 里
+    public static final int BATCH_UPDATE_RETURN_VALUE = Integer.MIN_VALUE + 1002;
+
+    // 还没执行的 Statement 和对应的结果，一一对应
+    private final List<Statement> statementList = new ArrayList<>();
+    private final List<BatchResult> batchResultList = new ArrayList<>();
+    // 因为达到 batchSize 或者查询前已经执行过的结果，下次 flushStatements 时一起返回
+    private final List<BatchResult> executedResultList = new ArrayList<>();
+    private String currentSql;
+    private MappedStatement currentStatement;
+    // 还没执行的行数
+    private int batchedCount;
+
+    public BatchExecutor(Configuration configuration, Transaction transaction) {
+        super(configuration, transaction);
+    }
+
+    @Override
+    protected int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException {
+        StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, Executor.NO_RESULT_HANDLER, boundSql);
+        Connection connection = getConnection(ms);
+        String sql = boundSql.getSql();
+        Statement stmt;
+        int last = statementList.size() - 1;
+        if (last >= 0 && sql.equals(currentSql) && ms == currentStatement && statementList.get(last).getConnection() == connection) {
+            stmt = statementList.get(last);
+        } else {
+            stmt = handler.prepare(connection);
+            statementList.add(stmt);
+            batchResultList.add(new BatchResult(ms, sql));
+            currentSql = sql;
+            currentStatement = ms;
+        }
+        handler.parameterize(stmt);
+        handler.batch(stmt);
+        int batchSize = configuration.getBatchSize();
+        if (batchSize > 0 && ++batchedCount >= batchSize) {
+            executedResultList.addAll(executeBatches());
+        }
+        return BATCH_UPDATE_RETURN_VALUE;
+    }
+
+    @Override
+    protected <E> List<E> doQuery(MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql) {
+        Statement stmt = null;
+        try {
+            // 先把攒下的写发出去，查询才能看到
+            executedResultList.addAll(executeBatches());
+            StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, resultHandler, boundSql);
+            stmt = handler.prepare(getConnection(ms));
+            handler.parameterize(stmt);
+            return handler.query(stmt, resultHandler);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error querying database.  Cause: " + e, e);
+        } finally {
+            closeStatement(stmt);
+        }
+    }
+
+    @Override
+    protected List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
+        try {
+            if (isRollback) {
+                return Collections.emptyList();
+            }
+            List<BatchResult> results = new ArrayList<>(executedResultList);
+            results.addAll(executeBatches());
+            return results;
+        } finally {
+            executedResultList.clear();
+            closeStatements();
+        }
+    }
+
+    // 按加入顺序执行攒下的批并关闭 Statement，某一批失败时后面的不再执行，
+    // 抛出的异常带上上次 flushStatements 之后已经执行成功的批
+    private List<BatchResult> executeBatches() throws SQLException {
+        List<BatchResult> results = new ArrayList<>(batchResultList.size());
+        try {
+            for (int i = 0; i < statementList.size(); i++) {
+                BatchResult batchResult = batchResultList.get(i);
+                try {
+                    batchResult.setUpdateCounts(statementList.get(i).executeBatch());
+                } catch (BatchUpdateException e) {
+                    List<BatchResult> successful = new ArrayList<>(executedResultList);
+                    successful.addAll(results);
+                    executedResultList.clear();
+                    throw new BatchExecutorException("Error executing batch of " + batchResult.getMappedStatement().getId()
+                            + " (batch #" + (i + 1) + ", " + successful.size() + " earlier batch(es) executed).", e, successful, batchResult);
+                }
+                results.add(batchResult);
+            }
+            return results;
+        } finally {
+            closeStatements();
+        }
+    }
+
+    // 关闭前清掉没执行的批：回滚、中途失败时留下的行不能跟着语句缓存到下一个会话里去执行
+    private void closeStatements() {
+        for (Statement stmt : statementList) {
+            try {
+                stmt.clearBatch();
+            } catch (SQLException ignore) {
+            }
+            closeStatement(stmt);
+        }
+        statementList.clear();
+        batchResultList.clear();
+        currentSql = null;
+        currentStatement = null;
+        batchedCount = 0;
+    }
+
+}
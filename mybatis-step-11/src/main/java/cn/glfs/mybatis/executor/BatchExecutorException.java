@@ -0,0 +1,48 @@
+package cn.glfs.mybatis.executor;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 攒下的批中途执行失败
+ * 带上失败前已经执行成功的批（上次 flushStatements 之后的），调用方据此判断哪些写已经发给了数据库
+ */
+public class BatchExecutorException extends SQLException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<BatchResult> successfulBatchResults;
+    private final BatchUpdateException batchUpdateException;
+    private final BatchResult batchResult;
+
+    public BatchExecutorException(String message, BatchUpdateException cause, List<BatchResult> successfulBatchResults, BatchResult batchResult) {
+        super(message + "  Cause: " + cause, cause.getSQLState(), cause.getErrorCode(), cause);
+        this.batchUpdateException = cause;
+        this.successfulBatchResults = successfulBatchResults;
+        this.batchResult = batchResult;
+    }
+
+    /**
+     * 驱动抛出的异常，getUpdateCounts 是失败这一批里已经执行的行
+     */
+    public BatchUpdateException getBatchUpdateException() {
+        return batchUpdateException;
+    }
+
+    /**
+     * 失败之前已经执行成功的批，按执行顺序
+     */
+    public List<BatchResult> getSuccessfulBatchResults() {
+        return successfulBatchResults;
+    }
+
+    public String getFailingStatementId() {
+        return batchResult.getMappedStatement().getId();
+    }
+
+    public String getFailingSqlStatement() {
+        return batchResult.getSql();
+    }
+
+}
@@ -0,0 +1,36 @@
+package cn.glfs.mybatis.executor;
+
+import cn.glfs.mybatis.mapping.MappedStatement;
+
+/**
+ * 一次 executeBatch 的结果：哪条语句、哪段 SQL，以及批里每一行的影响行数
+ * 驱动不返回行数时对应位置为 Statement.SUCCESS_NO_INFO
+ */
+public class BatchResult {
+
+    private final MappedStatement mappedStatement;
+    private final String sql;
+    private int[] updateCounts;
+
+    public BatchResult(MappedStatement mappedStatement, String sql) {
+        this.mappedStatement = mappedStatement;
+        this.sql = sql;
+    }
+
+    public MappedStatement getMappedStatement() {
+        return mappedStatement;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int[] getUpdateCounts() {
+        return updateCounts;
+    }
+
+    public void setUpdateCounts(int[] updateCounts) {
+        this.updateCounts = updateCounts;
+    }
+
+}
@@ -0,0 +1,127 @@
+package cn.glfs.mybatis.executor;
+
+import cn.glfs.mybatis.cache.Cache;
+import cn.glfs.mybatis.cache.CacheKey;
+import cn.glfs.mybatis.cache.TransactionalCacheManager;
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
+import cn.glfs.mybatis.mapping.BoundSql;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.session.ResultHandler;
+import cn.glfs.mybatis.transaction.Transaction;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 二级缓存执行器，装饰实际的执行器
+ * 语句所在命名空间配置了 <cache> 时先查命名空间的缓存，查到的结果经会话的 TransactionalCache 暂存，提交后别的会话才能看到；
+ * 写语句（flushCache）清空命名空间的缓存，同样在提交时生效
+ */
+public class CachingExecutor implements Executor {
+
+    private final Executor delegate;
+    private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+
+    public CachingExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E> List<E> query(MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql) {
+        Cache cache = ms.getCache();
+        if (cache != null) {
+            flushCacheIfRequired(ms);
+            if (ms.isUseCache() && resultHandler == null) {
+                CacheKey key = delegate.createCacheKey(ms, parameter, boundSql);
+                List<E> list = (List<E>) tcm.getObject(cache, key);
+                if (list == null) {
+                    list = delegate.query(ms, parameter, resultHandler, boundSql);
+                    if (list != null) {
+                        tcm.putObject(cache, key, list);
+                    }
+                }
+                return list;
+            }
+        }
+        return delegate.query(ms, parameter, resultHandler, boundSql);
+    }
+
+    @Override
+    public int update(MappedStatement ms, Object parameter) throws SQLException {
+        flushCacheIfRequired(ms);
+        return delegate.update(ms, parameter);
+    }
+
+    @Override
+    public List<BatchResult> flushStatements() throws SQLException {
+        return delegate.flushStatements();
+    }
+
+    @Override
+    public CacheKey createCacheKey(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+        return delegate.createCacheKey(ms, parameterObject, boundSql);
+    }
+
+    @Override
+    public void clearLocalCache() {
+        delegate.clearLocalCache();
+    }
+
+    @Override
+    public Transaction getTransaction() {
+        return delegate.getTransaction();
+    }
+
+    @Override
+    public void commit(boolean required) throws SQLException {
+        delegate.commit(required);
+        tcm.commit();
+    }
+
+    @Override
+    public void rollback(boolean required) throws SQLException {
+        try {
+            delegate.rollback(required);
+        } finally {
+            if (required) {
+                tcm.rollback();
+            }
+        }
+    }
+
+    /**
+     * 强制回滚时丢弃暂存的结果，否则（只读的会话）把查到的结果放进共享缓存
+     */
+    @Override
+    public void close(boolean forceRollback) {
+        try {
+            if (forceRollback) {
+                tcm.rollback();
+            } else {
+                tcm.commit();
+            }
+        } finally {
+            delegate.close(forceRollback);
+        }
+    }
+
+    @Override
+    public void setConnectionPriority(ConnectionPriority connectionPriority) {
+        delegate.setConnectionPriority(connectionPriority);
+    }
+
+    @Override
+    public void setDataSourceRoute(DataSourceRoute dataSourceRoute) {
+        delegate.setDataSourceRoute(dataSourceRoute);
+    }
+
+    private void flushCacheIfRequired(MappedStatement ms) {
+        Cache cache = ms.getCache();
+        if (cache != null && ms.isFlushCacheRequired()) {
+            tcm.clear(cache);
+        }
+    }
+
+}
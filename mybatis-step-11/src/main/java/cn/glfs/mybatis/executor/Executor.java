@@ -1,6 +1,9 @@
 package cn.glfs.mybatis.executor;
 
 
+import cn.glfs.mybatis.cache.CacheKey;
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
 import cn.glfs.mybatis.mapping.BoundSql;
 import cn.glfs.mybatis.mapping.MappedStatement;
 import cn.glfs.mybatis.session.ResultHandler;
@@ -17,6 +20,26 @@ public interface Executor {
     //使用 <T> 作为泛型类型的占位符，表示 "Type"。但是，如果方法的用途和参数类型与某种特定的实体类型或者元素类型相关，
     // 那么选择一个更有意义的标识符，比如 <E> (代表 "Element")，可能会更清晰地表达方法的意图，提高代码的可读性和可维护性。
     <E> List<E> query(MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql);
+    /**
+     * 执行 INSERT/UPDATE/DELETE，返回影响行数；批处理执行器返回 BatchExecutor.BATCH_UPDATE_RETURN_VALUE
+     */
+    int update(MappedStatement ms, Object parameter) throws SQLException;
+
+    /**
+     * 执行攒下的批处理，返回每条语句每一行的影响行数
+     */
+    List<BatchResult> flushStatements() throws SQLException;
+
+    /**
+     * 查询结果缓存用的 key
+     */
+    CacheKey createCacheKey(MappedStatement ms, Object parameterObject, BoundSql boundSql);
+
+    /**
+     * 清空一级缓存
+     */
+    void clearLocalCache();
+
     Transaction getTransaction();
     void commit(boolean required) throws SQLException;
 
@@ -24,5 +47,15 @@ public interface Executor {
 
     void close(boolean forceRollback);
 
+    /**
+     * 会话指定的获取连接优先级，优先于映射器命名空间上的配置，null 表示不指定
+     */
+    void setConnectionPriority(ConnectionPriority connectionPriority);
+
+    /**
+     * 会话指定的读写分离路由，优先于语句上的配置和自动判断，null 表示不指定
+     */
+    void setDataSourceRoute(DataSourceRoute dataSourceRoute);
+
 
 }
\ No newline at end of file
@@ -0,0 +1,405 @@
+package cn.glfs.mybatis.executor;
+
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.pooled.LatencyHistogram;
+import cn.glfs.mybatis.datasource.routing.RoutingDataSource;
+import cn.glfs.mybatis.datasource.routing.RoutingTarget;
+import cn.glfs.mybatis.executor.statement.StatementHandler;
+import cn.glfs.mybatis.mapping.BoundSql;
+import cn.glfs.mybatis.mapping.Environment;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.ResultHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 对冲读（MappedStatement#isHedged）
+ * 数据源是 RoutingDataSource 且语句走从库时，先在一个从库上执行；超过这条语句历史耗时的 hedgeDelayPercentile 分位数还没返回，
+ * 就在另一个从库上再执行一次，取先返回的结果，另一个用 Statement#cancel 取消。
+ * 对冲会增加从库负载，用令牌桶限制：每个请求存入 hedgeBudgetRatio 个令牌，对冲一次花掉一个，最多攒 hedgeBudgetBurst 个，
+ * 长期看对冲数不超过请求数的 hedgeBudgetRatio 倍，从库整体变慢时不会把负载翻倍。
+ * 样本不足 hedgeMinimumSamples 时不对冲，只记录耗时。
+ * 两次执行都在后台线程里用各自从库的连接，不占用会话事务的连接
+ */
+public class QueryHedger {
+
+    private final Logger logger = LoggerFactory.getLogger(QueryHedger.class);
+
+    // 令牌的最小单位，1 个令牌 = TOKEN 个单位
+    private static final long TOKEN = 1000;
+
+    private final Configuration configuration;
+
+    // 语句 id -> 单次执行耗时
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    // 剩余的对冲预算，单位 1/TOKEN 个令牌
+    private final AtomicLong budget = new AtomicLong();
+
+    private volatile ThreadPoolExecutor executor;
+    private final ReentrantLock executorLock = new ReentrantLock();
+
+    // 超过这个分位数的耗时才对冲
+    protected double hedgeDelayPercentile = 0.95;
+    // 统计出分位数需要的最少样本数
+    protected int hedgeMinimumSamples = 20;
+    // 对冲数占请求数的比例上限
+    protected double hedgeBudgetRatio = 0.1;
+    // 预算最多攒多少次对冲，应对突发
+    protected int hedgeBudgetBurst = 10;
+    // 执行查询的后台线程数上限，满了就不再对冲，直接在调用线程执行
+    protected int hedgeMaximumThreads = 64;
+
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder hedgedCount = new LongAdder();
+    private final LongAdder hedgeWinCount = new LongAdder();
+    private final LongAdder budgetExhaustedCount = new LongAdder();
+
+    public QueryHedger(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * 执行对冲读；环境里不是 RoutingDataSource、没有可用的从库或者后台线程已满时返回 null，由调用方照常执行
+     */
+    public <E> List<E> query(Executor executor, MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql,
+                             ConnectionPriority priority) throws SQLException {
+        RoutingDataSource dataSource = routingDataSource();
+        if (dataSource == null) {
+            return null;
+        }
+        RoutingTarget first = dataSource.selectReplica(Collections.<RoutingTarget>emptySet());
+        if (first == null) {
+            return null;
+        }
+        LatencyHistogram histogram = latencies.computeIfAbsent(ms.getId(), id -> new LatencyHistogram());
+        Race<E> race = new Race<>();
+        Attempt<E> primary = new Attempt<>(race, dataSource, first, executor, ms, parameter, resultHandler, boundSql, priority, histogram);
+        if (!submit(primary)) {
+            return null;
+        }
+        requestCount.increment();
+        deposit();
+        try {
+            long delay = delayNanos(histogram);
+            if (delay >= 0) {
+                try {
+                    return race.result.get(delay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    hedge(race, primary, dataSource, first);
+                }
+            }
+            return race.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            race.cancelAll(null);
+            throw new SQLException("Interrupted while waiting for hedged query " + ms.getId(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof SQLException ? (SQLException) cause : new SQLException("Error querying database. Cause: " + cause, cause);
+        }
+    }
+
+    // 第一次执行超时：有预算且有别的从库可选时再发一次
+    private <E> void hedge(Race<E> race, Attempt<E> primary, RoutingDataSource dataSource, RoutingTarget first) {
+        if (race.result.isDone()) {
+            return;
+        }
+        if (!withdraw()) {
+            budgetExhaustedCount.increment();
+            return;
+        }
+        RoutingTarget second = dataSource.selectReplica(Collections.singleton(first));
+        Attempt<E> attempt = second == null ? null : new Attempt<>(race, dataSource, second, primary.executor, primary.ms,
+                primary.parameter, primary.resultHandler, primary.boundSql, primary.priority, primary.histogram);
+        if (attempt == null || !submit(attempt)) {
+            budget.addAndGet(TOKEN);
+            return;
+        }
+        hedgedCount.increment();
+        logger.debug("Hedging query " + primary.ms.getId() + " on replica '" + second.getName() + "', replica '" + first.getName() + "' has not answered yet.");
+    }
+
+    private boolean submit(Attempt<?> attempt) {
+        attempt.race.pending.incrementAndGet();
+        try {
+            executor().execute(attempt);
+            return true;
+        } catch (RejectedExecutionException e) {
+            attempt.race.pending.decrementAndGet();
+            return false;
+        }
+    }
+
+    private long delayNanos(LatencyHistogram histogram) {
+        if (histogram.getCount() < hedgeMinimumSamples) {
+            return -1;
+        }
+        return (long) (histogram.getPercentile(hedgeDelayPercentile) * 1_000_000);
+    }
+
+    private void deposit() {
+        long limit = hedgeBudgetBurst * TOKEN;
+        long amount = (long) (hedgeBudgetRatio * TOKEN);
+        long current;
+        while ((current = budget.get()) < limit && !budget.compareAndSet(current, Math.min(limit, current + amount))) {
+            // 重试
+        }
+    }
+
+    private boolean withdraw() {
+        long current;
+        while ((current = budget.get()) >= TOKEN) {
+            if (budget.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private RoutingDataSource routingDataSource() {
+        Environment environment = configuration.getEnvironment();
+        DataSource dataSource = environment == null ? null : environment.getDataSource();
+        return dataSource instanceof RoutingDataSource ? (RoutingDataSource) dataSource : null;
+    }
+
+    private ThreadPoolExecutor executor() {
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            executorLock.lock();
+            try {
+                current = executor;
+                if (current == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    current = new ThreadPoolExecutor(0, hedgeMaximumThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                        Thread thread = new Thread(r, "mybatis-hedged-query-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor = current;
+                }
+            } finally {
+                executorLock.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 一次查询的两次执行共享的结果，先成功的赢
+     */
+    private static class Race<E> {
+
+        final CompletableFuture<List<E>> result = new CompletableFuture<>();
+
+        final AtomicBoolean won = new AtomicBoolean();
+
+        // 已提交还没结束的执行数，全部失败时结果才失败
+        final AtomicInteger pending = new AtomicInteger();
+
+        final List<Attempt<E>> attempts = new CopyOnWriteArrayList<>();
+
+        void cancelAll(Attempt<E> winner) {
+            for (Attempt<E> attempt : attempts) {
+                if (attempt != winner) {
+                    attempt.cancel();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 在一个从库上执行一次
+     */
+    private class Attempt<E> implements Runnable {
+
+        final Race<E> race;
+        final RoutingDataSource dataSource;
+        final RoutingTarget target;
+        final Executor executor;
+        final MappedStatement ms;
+        final Object parameter;
+        final ResultHandler resultHandler;
+        final BoundSql boundSql;
+        final ConnectionPriority priority;
+        final LatencyHistogram histogram;
+
+        // 先登记语句再检查 cancelled，取消方先置 cancelled 再取语句，两边至少有一方能看到对方
+        private volatile Statement statement;
+        private volatile boolean cancelled;
+
+        Attempt(Race<E> race, RoutingDataSource dataSource, RoutingTarget target, Executor executor, MappedStatement ms, Object parameter,
+                ResultHandler resultHandler, BoundSql boundSql, ConnectionPriority priority, LatencyHistogram histogram) {
+            this.race = race;
+            this.dataSource = dataSource;
+            this.target = target;
+            this.executor = executor;
+            this.ms = ms;
+            this.parameter = parameter;
+            this.resultHandler = resultHandler;
+            this.boundSql = boundSql;
+            this.priority = priority;
+            this.histogram = histogram;
+            race.attempts.add(this);
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            ConnectionPriority previous = priority != null ? ConnectionPriority.set(priority) : null;
+            try {
+                List<E> list = execute();
+                histogram.record(System.nanoTime() - start);
+                // 先定胜负、记好计数再交出结果，调用方拿到结果时计数已经是最新的
+                if (race.won.compareAndSet(false, true)) {
+                    if (race.attempts.get(0) != this) {
+                        hedgeWinCount.increment();
+                    }
+                    race.result.complete(list);
+                    race.cancelAll(this);
+                }
+                race.pending.decrementAndGet();
+            } catch (Throwable e) {
+                // 被取消的输家抛出的异常不算失败
+                if (race.pending.decrementAndGet() == 0 && !cancelled) {
+                    race.result.completeExceptionally(e);
+                } else if (!cancelled) {
+                    logger.debug("Hedged query " + ms.getId() + " failed on replica '" + target.getName() + "', waiting for the other one. Cause: " + e);
+                }
+            } finally {
+                if (priority != null) {
+                    ConnectionPriority.restore(previous);
+                }
+            }
+        }
+
+        private List<E> execute() throws SQLException {
+            try (Connection connection = dataSource.getConnection(target)) {
+                StatementHandler handler = configuration.newStatementHandler(executor, ms, parameter, resultHandler, boundSql);
+                Statement stmt = handler.prepare(connection);
+                statement = stmt;
+                try {
+                    if (cancelled) {
+                        throw new SQLException("Hedged query " + ms.getId() + " on replica '" + target.getName() + "' was cancelled.");
+                    }
+                    handler.parameterize(stmt);
+                    return handler.query(stmt, resultHandler);
+                } finally {
+                    statement = null;
+                    stmt.close();
+                }
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Statement stmt = statement;
+            if (stmt != null) {
+                try {
+                    stmt.cancel();
+                } catch (SQLException e) {
+                    logger.debug("Failed to cancel the losing hedged query on replica '" + target.getName() + "'. Cause: " + e);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 语句单次执行耗时的分位数（毫秒），还没有执行过时为 0
+     */
+    public double getLatencyPercentile(String statementId, double percentile) {
+        LatencyHistogram histogram = latencies.get(statementId);
+        return histogram == null ? 0 : histogram.getPercentile(percentile);
+    }
+
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    public long getHedgedCount() {
+        return hedgedCount.sum();
+    }
+
+    // 对冲的那次先返回的次数
+    public long getHedgeWinCount() {
+        return hedgeWinCount.sum();
+    }
+
+    // 该对冲但预算用完的次数
+    public long getBudgetExhaustedCount() {
+        return budgetExhaustedCount.sum();
+    }
+
+    public double getHedgeDelayPercentile() {
+        return hedgeDelayPercentile;
+    }
+
+    public void setHedgeDelayPercentile(double hedgeDelayPercentile) {
+        this.hedgeDelayPercentile = hedgeDelayPercentile;
+    }
+
+    public int getHedgeMinimumSamples() {
+        return hedgeMinimumSamples;
+    }
+
+    public void setHedgeMinimumSamples(int hedgeMinimumSamples) {
+        this.hedgeMinimumSamples = hedgeMinimumSamples;
+    }
+
+    public double getHedgeBudgetRatio() {
+        return hedgeBudgetRatio;
+    }
+
+    public void setHedgeBudgetRatio(double hedgeBudgetRatio) {
+        this.hedgeBudgetRatio = hedgeBudgetRatio;
+    }
+
+    public int getHedgeBudgetBurst() {
+        return hedgeBudgetBurst;
+    }
+
+    public void setHedgeBudgetBurst(int hedgeBudgetBurst) {
+        this.hedgeBudgetBurst = hedgeBudgetBurst;
+    }
+
+    public int getHedgeMaximumThreads() {
+        return hedgeMaximumThreads;
+    }
+
+    public void setHedgeMaximumThreads(int hedgeMaximumThreads) {
+        this.hedgeMaximumThreads = hedgeMaximumThreads;
+        ThreadPoolExecutor current = executor;
+        if (current != null) {
+            if (hedgeMaximumThreads < current.getCorePoolSize()) {
+                current.setCorePoolSize(hedgeMaximumThreads);
+            }
+            current.setMaximumPoolSize(hedgeMaximumThreads);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package cn.glfs.mybatis.executor;
+
+import cn.glfs.mybatis.executor.statement.StatementHandler;
+import cn.glfs.mybatis.mapping.BoundSql;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.ResultHandler;
+import cn.glfs.mybatis.transaction.Transaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 复用执行器
+ * 会话内按连接、SQL 缓存 Statement，循环里反复执行同一条查询时只预编译一次；
+ * 事务在读写分离、分库时会持有多个连接，同一条 SQL 在不同连接上各缓存一个，来回切换时不用关闭重新预编译。
+ * 缓存的 Statement 属于事务内的连接，提交、回滚、关闭会话时全部关闭
+ */
+public class ReuseExecutor extends BaseExecutor {
+
+    // 连接 -> (SQL -> 缓存的 Statement)
+    private final Map<Connection, Map<String, Statement>> statementMap = new IdentityHashMap<>();
+
+    public ReuseExecutor(Configuration configuration, Transaction transaction) {
+        super(configuration, transaction);
+    }
+
+    @Override
+    protected <E> List<E> doQuery(MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql) {
+        try {
+            Configuration configuration = ms.getConfiguration();
+            StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, resultHandler, boundSql);
+            Statement stmt = prepareStatement(handler, ms, boundSql.getSql());
+            return handler.query(stmt, resultHandler);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error querying database.  Cause: " + e, e);
+        }
+    }
+
+    @Override
+    protected int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException {
+        StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, Executor.NO_RESULT_HANDLER, boundSql);
+        Statement stmt = prepareStatement(handler, ms, boundSql.getSql());
+        return handler.update(stmt);
+    }
+
+    private Statement prepareStatement(StatementHandler handler, MappedStatement ms, String sql) throws SQLException {
+        Connection connection = getConnection(ms);
+        Map<String, Statement> statements = statementMap.computeIfAbsent(connection, c -> new HashMap<>());
+        Statement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = handler.prepare(connection);
+            statements.put(sql, stmt);
+        }
+        handler.parameterize(stmt);
+        return stmt;
+    }
+
+    @Override
+    protected List<BatchResult> doFlushStatements(boolean isRollback) {
+        for (Map<String, Statement> statements : statementMap.values()) {
+            for (Statement stmt : statements.values()) {
+                closeStatement(stmt);
+            }
+        }
+        statementMap.clear();
+        return Collections.emptyList();
+    }
+
+}
@@ -0,0 +1,561 @@
+package cn.glfs.mybatis.executor;
+
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
+import cn.glfs.mybatis.datasource.sharding.ShardContext;
+import cn.glfs.mybatis.datasource.sharding.ShardingDataSource;
+import cn.glfs.mybatis.datasource.sharding.ShardingRule;
+import cn.glfs.mybatis.executor.resultset.ResultSetHandler;
+import cn.glfs.mybatis.executor.statement.StatementHandler;
+import cn.glfs.mybatis.mapping.BoundSql;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.transaction.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分库时没有分片键的查询：在所有分片上并行执行同一条 SELECT，再把结果归并
+ * 1. 扇出：每个分片一个后台任务，获取连接、执行查询，拿到还没读取的结果集；
+ *    每个分片同时执行的扇出查询不超过 scatterMaximumConcurrencyPerShard 个，多个报表同时跑时不会把某个分片压垮
+ * 2. 归并：语句没有配置 mergeOrderBy 时按分片顺序拼接；配置了时按这些列做 k 路归并（各分片的 SQL 要按同样的顺序 ORDER BY），
+ *    每次只看各分片结果集的当前行，逐行映射为结果对象；配置了 mergeLimit 时取够就停，剩下的分片查询直接取消
+ * 3. 整个查询（排队、执行、读取）不超过 scatterTimeout 毫秒，超时后取消所有分片上的语句，抛出 SQLTimeoutException
+ * 4. 会话有未提交的写时（写事务中），各分片用事务里的连接执行，能看到本事务自己的写；否则从分片的连接池各借一个连接
+ * 结果集边读边归并。结果行是否留在数据库那边取决于驱动：MySQL Connector/J 默认在 executeQuery 时把整个结果集读进内存，
+ * 这里对 MySQL 连接默认把分片语句的 fetchSize 设为 Integer.MIN_VALUE 逐行流式读取；
+ * 其他驱动沿用语句上的 fetchSize，连接串开了 useCursorFetch=true 等游标模式时可以用 scatterFetchSize 指定一个正数
+ */
+public class ScatterGather {
+
+    private final Logger logger = LoggerFactory.getLogger(ScatterGather.class);
+
+    private final Configuration configuration;
+
+    // 分片 -> 扇出查询的许可
+    private final ConcurrentMap<ShardingDataSource.Shard, Semaphore> shardPermits = new ConcurrentHashMap<>();
+
+    private volatile ThreadPoolExecutor executor;
+    private final ReentrantLock executorLock = new ReentrantLock();
+
+    // 每个分片同时执行的扇出查询数上限，分片第一次被扇出查询时生效
+    protected int scatterMaximumConcurrencyPerShard = 8;
+    // 整个扇出查询的超时时间（毫秒）
+    protected long scatterTimeout = 30000;
+    // 执行分片查询的后台线程数
+    protected int scatterMaximumThreads = 64;
+    // 分片语句的 fetchSize，null 表示自动：MySQL 用 Integer.MIN_VALUE 流式读取，其他驱动不改
+    protected Integer scatterFetchSize;
+
+    private final LongAdder queryCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+
+    public ScatterGather(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * transaction 不为 null 时（写事务中）各分片用事务里的连接执行，连接由事务管理，查询结束后不关闭
+     */
+    public <E> List<E> query(Executor executor, MappedStatement ms, Object parameter, BoundSql boundSql, ShardingDataSource dataSource,
+                             ShardingRule rule, DataSourceRoute route, ConnectionPriority priority, Transaction transaction) throws SQLException {
+        queryCount.increment();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(scatterTimeout);
+        List<ShardingDataSource.Shard> shards = dataSource.getShards();
+        List<ShardQuery> queries = new ArrayList<>(shards.size());
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                ShardingDataSource.Shard shard = shards.get(i);
+                // 事务不是线程安全的，事务里的连接在调用线程里取好再交给后台任务
+                Connection transactionConnection = transaction != null ? transactionConnection(transaction, i, route, priority) : null;
+                ShardQuery query = new ShardQuery(i, shard, permits(shard), executor, ms, parameter,
+                        boundSql.withSql(rule.rewriteSql(boundSql.getSql(), i)), route, priority, deadline, transactionConnection);
+                queries.add(query);
+                executor().execute(query);
+            }
+            ResultSetHandler resultSetHandler = configuration.newResultSetHandler(executor, ms, boundSql);
+            return ms.getMergeOrderColumns().length == 0
+                    ? concat(ms, queries, resultSetHandler, deadline)
+                    : merge(ms, queries, resultSetHandler, deadline);
+        } finally {
+            for (ShardQuery query : queries) {
+                query.close();
+            }
+            // 事务里的连接马上还要给会话用，等后台任务放开它再返回
+            if (transaction != null) {
+                for (ShardQuery query : queries) {
+                    query.awaitReleased();
+                }
+            }
+        }
+    }
+
+    // 按分片顺序拼接，读完一个分片就关闭，尽早归还连接
+    private <E> List<E> concat(MappedStatement ms, List<ShardQuery> queries, ResultSetHandler resultSetHandler, long deadline) throws SQLException {
+        int limit = ms.getMergeLimit();
+        List<E> list = new ArrayList<>();
+        for (ShardQuery query : queries) {
+            ResultSet resultSet = await(query, deadline);
+            while (resultSet.next()) {
+                checkDeadline(query, deadline);
+                list.add(resultSetHandler.<E>handleRow(resultSet));
+                if (limit > 0 && list.size() >= limit) {
+                    return list;
+                }
+            }
+            query.close();
+        }
+        return list;
+    }
+
+    // k 路归并：堆里是各分片的当前行，每次取出最小的一行，再把该分片的下一行放回堆里
+    private <E> List<E> merge(MappedStatement ms, List<ShardQuery> queries, ResultSetHandler resultSetHandler, long deadline) throws SQLException {
+        String[] columns = ms.getMergeOrderColumns();
+        boolean[] descending = ms.getMergeOrderDescending();
+        PriorityQueue<ShardQuery> heap = new PriorityQueue<>(queries.size(), orderBy(descending));
+        for (ShardQuery query : queries) {
+            await(query, deadline);
+            if (query.advance(columns)) {
+                heap.add(query);
+            } else {
+                query.close();
+            }
+        }
+        int limit = ms.getMergeLimit();
+        List<E> list = new ArrayList<>();
+        while (!heap.isEmpty()) {
+            ShardQuery query = heap.poll();
+            checkDeadline(query, deadline);
+            list.add(resultSetHandler.<E>handleRow(query.resultSet));
+            if (limit > 0 && list.size() >= limit) {
+                break;
+            }
+            if (query.advance(columns)) {
+                heap.add(query);
+            } else {
+                query.close();
+            }
+        }
+        return list;
+    }
+
+    // 按排序列依次比较，null 排在最前（与 MySQL 升序一致），都相等时按分片顺序
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<ShardQuery> orderBy(boolean[] descending) {
+        return (a, b) -> {
+            for (int i = 0; i < descending.length; i++) {
+                Object x = a.keys[i];
+                Object y = b.keys[i];
+                int result = x == null ? (y == null ? 0 : -1) : (y == null ? 1 : ((Comparable) x).compareTo(y));
+                if (result != 0) {
+                    return descending[i] ? -result : result;
+                }
+            }
+            return Integer.compare(a.index, b.index);
+        };
+    }
+
+    private ResultSet await(ShardQuery query, long deadline) throws SQLException {
+        try {
+            query.ready.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return query.resultSet;
+        } catch (TimeoutException e) {
+            throw timeout(query);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for shard '" + query.shard.getName() + "'", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLTimeoutException) {
+                timeoutCount.increment();
+                throw new SQLTimeoutException("Scatter query " + query.ms.getId() + " timed out on shard '" + query.shard.getName() + "'. Cause: " + cause, cause);
+            }
+            throw new SQLException("Scatter query " + query.ms.getId() + " failed on shard '" + query.shard.getName() + "'. Cause: " + cause, cause);
+        }
+    }
+
+    private void checkDeadline(ShardQuery query, long deadline) throws SQLException {
+        if (System.nanoTime() - deadline > 0) {
+            throw timeout(query);
+        }
+    }
+
+    private SQLException timeout(ShardQuery query) {
+        timeoutCount.increment();
+        return new SQLTimeoutException("Scatter query " + query.ms.getId() + " timed out after " + scatterTimeout + " ms on shard '" + query.shard.getName() + "'");
+    }
+
+    // 按分片和路由从事务里取连接，和单分片查询取到的是同一个连接
+    private Connection transactionConnection(Transaction transaction, int shard, DataSourceRoute route, ConnectionPriority priority) throws SQLException {
+        Integer previousShard = ShardContext.set(shard);
+        DataSourceRoute previousRoute = DataSourceRoute.set(route);
+        ConnectionPriority previousPriority = priority != null ? ConnectionPriority.set(priority) : null;
+        try {
+            return transaction.getConnection();
+        } finally {
+            if (priority != null) {
+                ConnectionPriority.restore(previousPriority);
+            }
+            DataSourceRoute.restore(previousRoute);
+            ShardContext.restore(previousShard);
+        }
+    }
+
+    // MySQL Connector/J 只有 fetchSize 为 Integer.MIN_VALUE（只进、只读的结果集）时才逐行流式读取，
+    // 否则 executeQuery 就把整个结果集读进内存，归并开始前每个分片的结果都已经在堆上了
+    private void applyFetchSize(Connection conn, Statement stmt) throws SQLException {
+        Integer fetchSize = scatterFetchSize;
+        if (fetchSize == null) {
+            if (!"MySQL".equals(conn.getMetaData().getDatabaseProductName())) {
+                return;
+            }
+            fetchSize = Integer.MIN_VALUE;
+        }
+        stmt.setFetchSize(fetchSize);
+    }
+
+    private Semaphore permits(ShardingDataSource.Shard shard) {
+        return shardPermits.computeIfAbsent(shard, s -> new Semaphore(scatterMaximumConcurrencyPerShard, true));
+    }
+
+    private ThreadPoolExecutor executor() {
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            executorLock.lock();
+            try {
+                current = executor;
+                if (current == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    current = new ThreadPoolExecutor(scatterMaximumThreads, scatterMaximumThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, "mybatis-scatter-query-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    current.allowCoreThreadTimeOut(true);
+                    executor = current;
+                }
+            } finally {
+                executorLock.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 一个分片上的查询，在后台线程里执行到拿到结果集为止，结果集由调用线程读取
+     * 调用方关闭时查询还在执行的，取消语句，由后台线程收尾释放连接和许可
+     */
+    private class ShardQuery implements Runnable {
+
+        final int index;
+        final ShardingDataSource.Shard shard;
+        final Semaphore permits;
+        final Executor executor;
+        final MappedStatement ms;
+        final Object parameter;
+        final BoundSql boundSql;
+        final DataSourceRoute route;
+        final ConnectionPriority priority;
+        final long deadline;
+        // 事务里的连接，由事务关闭；为 null 时从分片的数据源借一个，查询结束后归还
+        final Connection transactionConnection;
+
+        final CompletableFuture<Void> ready = new CompletableFuture<>();
+        // 连接、语句、许可全部释放后完成
+        final CompletableFuture<Void> released = new CompletableFuture<>();
+
+        // 以下字段的交接都在 lock 里；锁内只改状态、取走引用，取消和关闭语句、归还连接都在锁外，
+        // 不用 synchronized，虚拟线程等待或持锁时不会钉住载体线程
+        private final ReentrantLock lock = new ReentrantLock();
+        private Connection connection;
+        private Statement statement;
+        private ResultSet resultSet;
+        private boolean permitted;
+        // 已经开始使用连接
+        private boolean started;
+        private boolean running = true;
+        private boolean closed;
+        private boolean cleanedUp;
+
+        // 当前行的排序列的值，以及排序列在结果集里的下标
+        Object[] keys;
+        private int[] columnIndexes;
+
+        ShardQuery(int index, ShardingDataSource.Shard shard, Semaphore permits, Executor executor, MappedStatement ms, Object parameter,
+                   BoundSql boundSql, DataSourceRoute route, ConnectionPriority priority, long deadline, Connection transactionConnection) {
+            this.index = index;
+            this.shard = shard;
+            this.permits = permits;
+            this.executor = executor;
+            this.ms = ms;
+            this.parameter = parameter;
+            this.boundSql = boundSql;
+            this.route = route;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.transactionConnection = transactionConnection;
+        }
+
+        @Override
+        public void run() {
+            DataSourceRoute previousRoute = DataSourceRoute.set(route);
+            ConnectionPriority previousPriority = priority != null ? ConnectionPriority.set(priority) : null;
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !permits.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                    throw new SQLTimeoutException("Timed out waiting for a scatter query slot on shard '" + shard.getName() + "'");
+                }
+                lock.lock();
+                try {
+                    permitted = true;
+                    checkClosed();
+                    started = true;
+                } finally {
+                    lock.unlock();
+                }
+                Connection conn = transactionConnection != null ? transactionConnection : shard.getDataSource().getConnection();
+                lock.lock();
+                try {
+                    connection = conn;
+                    checkClosed();
+                } finally {
+                    lock.unlock();
+                }
+                StatementHandler handler = configuration.newStatementHandler(executor, ms, parameter, null, boundSql);
+                Statement stmt = handler.prepare(conn);
+                lock.lock();
+                try {
+                    statement = stmt;
+                    checkClosed();
+                } finally {
+                    lock.unlock();
+                }
+                applyFetchSize(conn, stmt);
+                handler.parameterize(stmt);
+                ResultSet rs = handler.queryCursor(stmt);
+                boolean cancelled;
+                lock.lock();
+                try {
+                    resultSet = rs;
+                    running = false;
+                    cancelled = closed;
+                } finally {
+                    lock.unlock();
+                }
+                if (cancelled) {
+                    closeResources();
+                    return;
+                }
+                ready.complete(null);
+            } catch (Throwable e) {
+                lock.lock();
+                try {
+                    running = false;
+                } finally {
+                    lock.unlock();
+                }
+                closeResources();
+                ready.completeExceptionally(e);
+            } finally {
+                DataSourceRoute.restore(previousRoute);
+                if (priority != null) {
+                    ConnectionPriority.restore(previousPriority);
+                }
+            }
+        }
+
+        private void checkClosed() throws SQLException {
+            if (closed) {
+                throw new SQLException("Scatter query on shard '" + shard.getName() + "' was cancelled.");
+            }
+        }
+
+        /**
+         * 移到下一行并取出排序列的值，没有下一行时返回 false
+         */
+        boolean advance(String[] columns) throws SQLException {
+            if (!resultSet.next()) {
+                return false;
+            }
+            if (columnIndexes == null) {
+                columnIndexes = new int[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    columnIndexes[i] = resultSet.findColumn(columns[i]);
+                }
+                keys = new Object[columns.length];
+            }
+            for (int i = 0; i < columnIndexes.length; i++) {
+                keys[i] = resultSet.getObject(columnIndexes[i]);
+            }
+            return true;
+        }
+
+        void close() {
+            Statement runningStatement;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (!running) {
+                    runningStatement = null;
+                } else if (statement == null) {
+                    // 还没有语句可取消，后台线程下一次检查时发现已关闭，自己收尾
+                    return;
+                } else {
+                    runningStatement = statement;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (runningStatement == null) {
+                closeResources();
+                return;
+            }
+            // 后台线程收到取消后自己收尾；语句可能已经被它关闭，取消失败只记日志
+            try {
+                runningStatement.cancel();
+            } catch (SQLException e) {
+                logger.debug("Failed to cancel scatter query on shard '" + shard.getName() + "'. Cause: " + e);
+            }
+        }
+
+        // 只收尾一次：锁内取走资源，锁外关闭
+        private void closeResources() {
+            ResultSet rs;
+            Statement stmt;
+            Connection conn;
+            boolean release;
+            lock.lock();
+            try {
+                if (cleanedUp) {
+                    return;
+                }
+                cleanedUp = true;
+                rs = resultSet;
+                stmt = statement;
+                conn = connection;
+                release = permitted;
+                resultSet = null;
+                statement = null;
+                connection = null;
+                permitted = false;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+            } catch (SQLException ignore) {
+            }
+            try {
+                if (stmt != null) {
+                    stmt.close();
+                }
+            } catch (SQLException ignore) {
+            }
+            try {
+                if (conn != null && conn != transactionConnection) {
+                    conn.close();
+                }
+            } catch (SQLException ignore) {
+            }
+            if (release) {
+                permits.release();
+            }
+            released.complete(null);
+        }
+
+        /**
+         * 等到后台任务不再使用连接（调用前先 close），还没开始使用连接的任务不会再碰它
+         */
+        void awaitReleased() {
+            boolean mustWait;
+            lock.lock();
+            try {
+                mustWait = started;
+            } finally {
+                lock.unlock();
+            }
+            if (mustWait) {
+                released.join();
+            }
+        }
+
+    }
+
+    public long getQueryCount() {
+        return queryCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public int getScatterMaximumConcurrencyPerShard() {
+        return scatterMaximumConcurrencyPerShard;
+    }
+
+    public void setScatterMaximumConcurrencyPerShard(int scatterMaximumConcurrencyPerShard) {
+        this.scatterMaximumConcurrencyPerShard = scatterMaximumConcurrencyPerShard;
+    }
+
+    public long getScatterTimeout() {
+        return scatterTimeout;
+    }
+
+    public void setScatterTimeout(long scatterTimeout) {
+        this.scatterTimeout = scatterTimeout;
+    }
+
+    public Integer getScatterFetchSize() {
+        return scatterFetchSize;
+    }
+
+    public void setScatterFetchSize(Integer scatterFetchSize) {
+        this.scatterFetchSize = scatterFetchSize;
+    }
+
+    public int getScatterMaximumThreads() {
+        return scatterMaximumThreads;
+    }
+
+    public void setScatterMaximumThreads(int scatterMaximumThreads) {
+        this.scatterMaximumThreads = scatterMaximumThreads;
+        ThreadPoolExecutor current = executor;
+        if (current != null) {
+            if (scatterMaximumThreads > current.getMaximumPoolSize()) {
+                current.setMaximumPoolSize(scatterMaximumThreads);
+                current.setCorePoolSize(scatterMaximumThreads);
+            } else {
+                current.setCorePoolSize(scatterMaximumThreads);
+                current.setMaximumPoolSize(scatterMaximumThreads);
+            }
+        }
+    }
+
+}
@@ -10,6 +10,7 @@ import cn.glfs.mybatis.transaction.Transaction;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -31,20 +32,42 @@ public class SimpleExecutor extends BaseExecutor {
      */
     @Override
     protected <E> List<E> doQuery(MappedStatement ms, Object parameter, ResultHandler resultHandler, BoundSql boundSql) {
+        Statement stmt = null;
         try{
             Configuration configuration = ms.getConfiguration();
             // 语句预处理
             StatementHandler handler =configuration.newStatementHandler(this,ms,parameter,resultHandler,boundSql);
-            Connection connection = transaction.getConnection();
+            Connection connection = getConnection(ms);
             // 实例化statement对象prepare-》instantiateStatement
-            Statement stmt = handler.prepare(connection);
+            stmt = handler.prepare(connection);
             // 将参数列表装填在语句中
             handler.parameterize(stmt);
             // query
             return handler.query(stmt, resultHandler);
-        }catch (SQLException e){
-            e.printStackTrace();
-            return null;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error querying database.  Cause: " + e, e);
+        } finally {
+            // 结果已经全部读出，关闭语句；连接池开启了 PreparedStatement 缓存时会放回缓存
+            closeStatement(stmt);
         }
     }
+
+    @Override
+    protected int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException {
+        Statement stmt = null;
+        try {
+            StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, Executor.NO_RESULT_HANDLER, boundSql);
+            stmt = handler.prepare(getConnection(ms));
+            handler.parameterize(stmt);
+            return handler.update(stmt);
+        } finally {
+            closeStatement(stmt);
+        }
+    }
+
+    @Override
+    protected List<BatchResult> doFlushStatements(boolean isRollback) {
+        // 每次执行完就关闭了 Statement，没有需要处理的
+        return Collections.emptyList();
+    }
 }
@@ -30,31 +30,46 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return resultSet2Obj(resultSet, mappedStatement.getResultType());
     }
 
+    @Override
+    public <E> E handleRow(ResultSet resultSet) throws SQLException {
+        try {
+            return mapRow(resultSet, resultSet.getMetaData(), mappedStatement.getResultType());
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error mapping row to " + mappedStatement.getResultType() + ". Cause: " + e, e);
+        }
+    }
+
     private <T> List<T> resultSet2Obj(ResultSet resultSet, Class<?> clazz) {
         List<T> list = new ArrayList<>();
         try {
             ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
             // 每次遍历行值
             while (resultSet.next()) {
-                T obj = (T) clazz.newInstance();
-                for (int i = 1; i <= columnCount; i++) {
-                    Object value = resultSet.getObject(i);
-                    String columnName = metaData.getColumnName(i);
-                    String setMethod = "set" + columnName.substring(0, 1).toUpperCase() + columnName.substring(1);
-                    Method method;
-                    if (value instanceof Timestamp) {
-                        method = clazz.getMethod(setMethod, Date.class);
-                    } else {
-                        method = clazz.getMethod(setMethod, value.getClass());
-                    }
-                    method.invoke(obj, value);
-                }
-                list.add(obj);
+                list.add(mapRow(resultSet, metaData, clazz));
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
         return list;
     }
+
+    private <T> T mapRow(ResultSet resultSet, ResultSetMetaData metaData, Class<?> clazz) throws Exception {
+        int columnCount = metaData.getColumnCount();
+        T obj = (T) clazz.newInstance();
+        for (int i = 1; i <= columnCount; i++) {
+            Object value = resultSet.getObject(i);
+            String columnName = metaData.getColumnName(i);
+            String setMethod = "set" + columnName.substring(0, 1).toUpperCase() + columnName.substring(1);
+            Method method;
+            if (value instanceof Timestamp) {
+                method = clazz.getMethod(setMethod, Date.class);
+            } else {
+                method = clazz.getMethod(setMethod, value.getClass());
+            }
+            method.invoke(obj, value);
+        }
+        return obj;
+    }
 }
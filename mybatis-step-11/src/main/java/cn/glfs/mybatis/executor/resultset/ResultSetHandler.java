@@ -1,5 +1,6 @@
 package cn.glfs.mybatis.executor.resultset;
 
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
@@ -10,4 +11,7 @@ import java.util.List;
 public interface ResultSetHandler {
     // 结果处理
     <E> List<E> handleResultSets(Statement statement) throws SQLException;
+
+    // 把结果集的当前行映射为一个结果对象，不移动游标
+    <E> E handleRow(ResultSet resultSet) throws SQLException;
 }
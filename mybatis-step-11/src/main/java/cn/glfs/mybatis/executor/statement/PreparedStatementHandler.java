@@ -8,6 +8,7 @@ import cn.glfs.mybatis.session.ResultHandler;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
@@ -46,6 +47,18 @@ public class PreparedStatementHandler extends BaseStatementHandler {
         parameterHandler.setParameters((PreparedStatement) statement);
     }
 
+    @Override
+    public int update(Statement statement) throws SQLException {
+        PreparedStatement ps = (PreparedStatement) statement;
+        ps.execute();
+        return ps.getUpdateCount();
+    }
+
+    @Override
+    public void batch(Statement statement) throws SQLException {
+        ((PreparedStatement) statement).addBatch();
+    }
+
     /**
      * 执行查询并封装结果集返回
      * @param statement
@@ -60,4 +73,9 @@ public class PreparedStatementHandler extends BaseStatementHandler {
         ps.execute();
         return resultSetHandler.<E>handleResultSets(ps);
     }
+
+    @Override
+    public ResultSet queryCursor(Statement statement) throws SQLException {
+        return ((PreparedStatement) statement).executeQuery();
+    }
 }
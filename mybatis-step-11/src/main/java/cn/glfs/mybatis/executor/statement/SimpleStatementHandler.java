@@ -8,6 +8,7 @@ import cn.glfs.mybatis.mapping.MappedStatement;
 import cn.glfs.mybatis.session.ResultHandler;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
@@ -31,10 +32,26 @@ public class SimpleStatementHandler extends BaseStatementHandler {
 
     }
 
+    @Override
+    public int update(Statement statement) throws SQLException {
+        statement.execute(boundSql.getSql());
+        return statement.getUpdateCount();
+    }
+
+    @Override
+    public void batch(Statement statement) throws SQLException {
+        statement.addBatch(boundSql.getSql());
+    }
+
     @Override
     public <E> List<E> query(Statement statement, ResultHandler resultHandler) throws SQLException {
         String sql = boundSql.getSql();
         statement.execute(sql);
         return resultSetHandler.handleResultSets(statement);
     }
+
+    @Override
+    public ResultSet queryCursor(Statement statement) throws SQLException {
+        return statement.executeQuery(boundSql.getSql());
+    }
 }
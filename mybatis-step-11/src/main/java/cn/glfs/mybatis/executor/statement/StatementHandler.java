@@ -4,6 +4,7 @@ package cn.glfs.mybatis.executor.statement;
 import cn.glfs.mybatis.session.ResultHandler;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
@@ -24,8 +25,23 @@ public interface StatementHandler {
      */
     void parameterize(Statement statement) throws SQLException;
 
+    /**
+     * 执行 INSERT/UPDATE/DELETE，返回影响行数
+     */
+    int update(Statement statement) throws SQLException;
+
+    /**
+     * 把当前参数加入批处理，由执行器统一 executeBatch
+     */
+    void batch(Statement statement) throws SQLException;
+
     /**
      * 执行查询
      */
     <E> List<E> query(Statement statement, ResultHandler resultHandler) throws SQLException;
+
+    /**
+     * 执行查询，返回还没读取的结果集，由调用方逐行读取（跨分片归并时用）
+     */
+    ResultSet queryCursor(Statement statement) throws SQLException;
 }
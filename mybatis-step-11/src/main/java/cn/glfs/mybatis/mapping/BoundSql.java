@@ -31,6 +31,21 @@ public class BoundSql {
         this.metaParameters = configuration.newMetaObject(additionalParameters);
     }
 
+    private BoundSql(BoundSql source, String sql) {
+        this.sql = sql;
+        this.parameterMappings = source.parameterMappings;
+        this.parameterObject = source.parameterObject;
+        this.additionalParameters = source.additionalParameters;
+        this.metaParameters = source.metaParameters;
+    }
+
+    /**
+     * 换一条 SQL（比如分表时改写了表名），参数映射和附加参数不变
+     */
+    public BoundSql withSql(String sql) {
+        return sql.equals(this.sql) ? this : new BoundSql(this, sql);
+    }
+
     public String getSql() {
         return sql;
     }
@@ -0,0 +1,142 @@
+package cn.glfs.mybatis.mapping;
+
+import cn.glfs.mybatis.cache.Cache;
+import cn.glfs.mybatis.cache.decorators.ExpiringCache;
+import cn.glfs.mybatis.cache.decorators.FifoCache;
+import cn.glfs.mybatis.cache.decorators.LoggingCache;
+import cn.glfs.mybatis.cache.decorators.LruCache;
+import cn.glfs.mybatis.cache.decorators.SerializedCache;
+import cn.glfs.mybatis.cache.decorators.SoftCache;
+import cn.glfs.mybatis.cache.decorators.StripedCache;
+import cn.glfs.mybatis.cache.decorators.TinyLfuCache;
+import cn.glfs.mybatis.cache.decorators.WeakCache;
+import cn.glfs.mybatis.cache.impl.PerpetualCache;
+import cn.glfs.mybatis.cache.offheap.OffHeapCache;
+import cn.glfs.mybatis.io.Resources;
+
+import java.util.Locale;
+
+/**
+ * 二级缓存建造者，由内到外组装：
+ * 每段 PerpetualCache -> [SoftCache/WeakCache] -> 淘汰策略 -> [ExpiringCache]，
+ * 多段合成 StripedCache -> [SerializedCache] -> LoggingCache；
+ * 配置了堆外内存时每段的底层换成 OffHeapCache，过期和复制都由它处理
+ */
+public class CacheBuilder {
+
+    // 每段至少这么多条，容量小的缓存段数相应减少，段内淘汰才有意义
+    private static final int MINIMUM_SEGMENT_SIZE = 64;
+    // 堆外缓存每段至少 1MB，slab 最大 1MB、最小 4KB
+    private static final long MINIMUM_SEGMENT_MEMORY = 1 << 20;
+    private static final int MAXIMUM_SLAB_SIZE = 1 << 20;
+    private static final int MINIMUM_SLAB_SIZE = 4096;
+
+    private final String id;
+    private String eviction = "LRU";
+    private int size = 1024;
+    private long ttl;
+    private boolean readOnly;
+    private int stripes = 16;
+    private long offHeapMemory;
+
+    public CacheBuilder(String id) {
+        this.id = id;
+    }
+
+    /**
+     * LRU（默认）、FIFO、SOFT、WEAK、TINYLFU，或者淘汰装饰器的类全名（构造方法为 (Cache delegate, int size)）
+     */
+    public CacheBuilder eviction(String eviction) {
+        this.eviction = eviction;
+        return this;
+    }
+
+    public CacheBuilder size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * 条目存活的毫秒数，不大于 0 表示不过期
+     */
+    public CacheBuilder ttl(long ttl) {
+        this.ttl = ttl;
+        return this;
+    }
+
+    public CacheBuilder readOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    public CacheBuilder stripes(int stripes) {
+        this.stripes = stripes;
+        return this;
+    }
+
+    /**
+     * 结果放在堆外的直接内存里，总共最多这么多字节，不大于 0 表示放在堆上
+     */
+    public CacheBuilder offHeapMemory(long offHeapMemory) {
+        this.offHeapMemory = offHeapMemory;
+        return this;
+    }
+
+    public Cache build() {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Cache " + id + " needs a positive size, got " + size);
+        }
+        boolean offHeap = offHeapMemory > 0;
+        String policy = eviction.toUpperCase(Locale.ENGLISH);
+        if (offHeap && ("SOFT".equals(policy) || "WEAK".equals(policy))) {
+            throw new IllegalArgumentException("Cache " + id + " stores values off-heap, " + policy + " references do not apply");
+        }
+        int segmentCount = Math.max(1, Math.min(Integer.highestOneBit(Math.max(1, stripes)), Integer.highestOneBit(Math.max(1, size / MINIMUM_SEGMENT_SIZE))));
+        if (offHeap) {
+            segmentCount = Math.min(segmentCount, (int) Math.max(1, Long.highestOneBit(Math.max(1, offHeapMemory / MINIMUM_SEGMENT_MEMORY))));
+        }
+        int segmentSize = (size + segmentCount - 1) / segmentCount;
+        long segmentMemory = offHeapMemory / segmentCount;
+        int slabSize = (int) Math.min(MAXIMUM_SLAB_SIZE, Math.max(MINIMUM_SLAB_SIZE, Long.highestOneBit(Math.max(1, segmentMemory / 8))));
+        Cache[] segments = new Cache[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = newSegment(policy, segmentSize, offHeap ? new OffHeapCache(id, segmentMemory, slabSize, ttl) : new PerpetualCache(id));
+        }
+        Cache cache = new StripedCache(id, segments);
+        if (!readOnly && !offHeap) {
+            cache = new SerializedCache(cache);
+        }
+        return new LoggingCache(cache);
+    }
+
+    private Cache newSegment(String policy, int segmentSize, Cache cache) {
+        switch (policy) {
+            case "LRU":
+                cache = new LruCache(cache, segmentSize);
+                break;
+            case "FIFO":
+                cache = new FifoCache(cache, segmentSize);
+                break;
+            case "SOFT":
+                cache = new LruCache(new SoftCache(cache), segmentSize);
+                break;
+            case "WEAK":
+                cache = new LruCache(new WeakCache(cache), segmentSize);
+                break;
+            case "TINYLFU":
+                cache = new TinyLfuCache(cache, segmentSize);
+                break;
+            default:
+                try {
+                    cache = (Cache) Resources.classForName(eviction).getConstructor(Cache.class, int.class).newInstance(cache, segmentSize);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error creating cache eviction policy " + eviction + " for " + id + ".  Cause: " + e, e);
+                }
+        }
+        if (ttl > 0 && offHeapMemory <= 0) {
+            cache = new ExpiringCache(cache, ttl);
+        }
+        return cache;
+    }
+
+}
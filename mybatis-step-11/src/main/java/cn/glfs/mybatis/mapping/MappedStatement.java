@@ -1,6 +1,8 @@
 package cn.glfs.mybatis.mapping;
 
 
+import cn.glfs.mybatis.cache.Cache;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
 import cn.glfs.mybatis.scripting.LanguageDriver;
 import cn.glfs.mybatis.session.Configuration;
 
@@ -14,6 +16,21 @@ public class MappedStatement {
     private SqlSource sqlSource;
     Class<?> resultType;
     private LanguageDriver lang;
+    // 读写分离时语句指定的路由，null 表示按命令类型和事务状态自动判断
+    private DataSourceRoute dataSourceRoute;
+    // 幂等的 SELECT 是否开启对冲读：第一个从库慢时再向另一个从库发一次，取先返回的结果
+    private boolean hedged;
+    // 分库时没有分片键的查询在所有分片上执行后归并：按这些列归并排序（各分片的 SQL 自己要按同样的顺序 ORDER BY），最多取 mergeLimit 行
+    private String[] mergeOrderColumns = new String[0];
+    private boolean[] mergeOrderDescending = new boolean[0];
+    private int mergeLimit;
+    // 执行前是否清空缓存，写语句默认清空；查询配置为 true 时每次都查数据库
+    private boolean flushCacheRequired;
+    // 查询是否使用会话的一级缓存；为 false 时不读也不写，其余缓存项不受影响
+    private boolean useLocalCache = true;
+    // 所在命名空间的二级缓存，没有配置 <cache> 时为 null；useCache 为 false 的查询不读也不写二级缓存
+    private Cache cache;
+    private boolean useCache;
 
 
     MappedStatement() {
@@ -33,11 +50,67 @@ public class MappedStatement {
             mappedStatement.sqlSource = sqlSource;
             mappedStatement.resultType = resultType;
             mappedStatement.lang = configuration.getDefaultScriptingLanguageInstance();//获取默认default
+            mappedStatement.flushCacheRequired = sqlCommandType != SqlCommandType.SELECT;
+            mappedStatement.useCache = sqlCommandType == SqlCommandType.SELECT;
+        }
+
+        public Builder cache(Cache cache) {
+            mappedStatement.cache = cache;
+            return this;
+        }
+
+        public Builder useCache(boolean useCache) {
+            mappedStatement.useCache = useCache;
+            return this;
+        }
+
+        public Builder useLocalCache(boolean useLocalCache) {
+            mappedStatement.useLocalCache = useLocalCache;
+            return this;
+        }
+
+        public Builder flushCacheRequired(boolean flushCacheRequired) {
+            mappedStatement.flushCacheRequired = flushCacheRequired;
+            return this;
+        }
+
+        public Builder dataSourceRoute(DataSourceRoute dataSourceRoute) {
+            mappedStatement.dataSourceRoute = dataSourceRoute;
+            return this;
+        }
+
+        public Builder hedged(boolean hedged) {
+            mappedStatement.hedged = hedged;
+            return this;
+        }
+
+        /**
+         * 跨分片归并的排序列，如 "createTime DESC, id"
+         */
+        public Builder mergeOrderBy(String mergeOrderBy) {
+            if (mergeOrderBy == null || mergeOrderBy.trim().isEmpty()) {
+                return this;
+            }
+            String[] items = mergeOrderBy.trim().split("\\s*,\\s*");
+            mappedStatement.mergeOrderColumns = new String[items.length];
+            mappedStatement.mergeOrderDescending = new boolean[items.length];
+            for (int i = 0; i < items.length; i++) {
+                String[] parts = items[i].split("\\s+");
+                mappedStatement.mergeOrderColumns[i] = parts[0];
+                mappedStatement.mergeOrderDescending[i] = parts.length > 1 && "DESC".equalsIgnoreCase(parts[1]);
+            }
+            return this;
+        }
+
+        public Builder mergeLimit(int mergeLimit) {
+            mappedStatement.mergeLimit = mergeLimit;
+            return this;
         }
 
         public MappedStatement build() {
             assert mappedStatement.configuration != null;
             assert mappedStatement.id != null;
+            assert !mappedStatement.hedged || mappedStatement.sqlCommandType == SqlCommandType.SELECT;
             return mappedStatement;
         }
     }
@@ -64,4 +137,40 @@ public class MappedStatement {
     public LanguageDriver getLang() {
         return lang;
     }
+
+    public DataSourceRoute getDataSourceRoute() {
+        return dataSourceRoute;
+    }
+
+    public boolean isHedged() {
+        return hedged;
+    }
+
+    public String[] getMergeOrderColumns() {
+        return mergeOrderColumns;
+    }
+
+    public boolean[] getMergeOrderDescending() {
+        return mergeOrderDescending;
+    }
+
+    public int getMergeLimit() {
+        return mergeLimit;
+    }
+
+    public boolean isFlushCacheRequired() {
+        return flushCacheRequired;
+    }
+
+    public boolean isUseLocalCache() {
+        return useLocalCache;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public boolean isUseCache() {
+        return useCache;
+    }
 }
@@ -2,10 +2,18 @@ package cn.glfs.mybatis.session;
 
 
 import cn.glfs.mybatis.binding.MapperRegistry;
+import cn.glfs.mybatis.cache.Cache;
+import cn.glfs.mybatis.datasource.ConnectionPriority;
 import cn.glfs.mybatis.datasource.druid.DruidDataSourceFactory;
 import cn.glfs.mybatis.datasource.pooled.PooledDataSourceFactory;
+import cn.glfs.mybatis.datasource.sharding.ShardingRule;
 import cn.glfs.mybatis.datasource.unpooled.UnpooledDataSourceFactory;
 import cn.glfs.mybatis.executor.Executor;
+import cn.glfs.mybatis.executor.QueryHedger;
+import cn.glfs.mybatis.executor.BatchExecutor;
+import cn.glfs.mybatis.executor.CachingExecutor;
+import cn.glfs.mybatis.executor.ReuseExecutor;
+import cn.glfs.mybatis.executor.ScatterGather;
 import cn.glfs.mybatis.executor.SimpleExecutor;
 import cn.glfs.mybatis.executor.parameter.ParameterHandler;
 import cn.glfs.mybatis.executor.resultset.DefaultResultSetHandler;
@@ -28,6 +36,7 @@ import cn.glfs.mybatis.transaction.jdbc.JdbcTransactionFactory;
 import cn.glfs.mybatis.type.TypeAliasRegistry;
 import cn.glfs.mybatis.type.TypeHandlerRegistry;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -55,6 +64,27 @@ public class Configuration {
     // 资源加载标记
     protected final Set<String> loadedResources = new HashSet<>();
     protected String databaseId;
+    // 默认的执行器类型（<setting name="defaultExecutorType" value="REUSE"/>）
+    protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
+    // 批处理执行器攒够这么多行就执行一次，不大于 0 时只在提交和查询前执行
+    protected int batchSize = 1000;
+    // 一级缓存范围（<setting name="localCacheScope" value="STATEMENT"/>）
+    protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+    // 二级缓存总开关（<setting name="cacheEnabled" value="false"/>），命名空间 -> 缓存
+    protected boolean cacheEnabled = true;
+    protected final Map<String, Cache> caches = new HashMap<>();
+
+    // 映射器命名空间 -> 获取连接的优先级（<mapper connectionPriority="LOW">）
+    protected final Map<String, ConnectionPriority> namespacePriorities = new HashMap<>();
+
+    // 映射器命名空间 -> 分片规则（<sharding shardKey="id" strategy="hash"/>）
+    protected final Map<String, ShardingRule> shardingRules = new HashMap<>();
+
+    // 对冲读（<select hedged="true">）的耗时统计和预算
+    protected final QueryHedger queryHedger = new QueryHedger(this);
+
+    // 分库时没有分片键的查询的扇出和归并
+    protected final ScatterGather scatterGather = new ScatterGather(this);
 
     public Configuration() {
         typeAliasRegistry.registerAlias("JDBC", JdbcTransactionFactory.class);
@@ -97,6 +127,61 @@ public class Configuration {
         return mappedStatements.get(id);
     }
 
+    public Collection<MappedStatement> getMappedStatements() {
+        return mappedStatements.values();
+    }
+
+    /**
+     * 获取连接优先级相关，按命名空间配置
+     */
+    public void setNamespacePriority(String namespace, ConnectionPriority priority) {
+        namespacePriorities.put(namespace, priority);
+    }
+
+    public ConnectionPriority getNamespacePriority(String namespace) {
+        return namespacePriorities.get(namespace);
+    }
+
+    // 语句所在命名空间的优先级，没有配置时为 null
+    public ConnectionPriority getConnectionPriority(MappedStatement ms) {
+        if (namespacePriorities.isEmpty()) {
+            return null;
+        }
+        String namespace = namespaceOf(ms);
+        return namespace == null ? null : namespacePriorities.get(namespace);
+    }
+
+    /**
+     * 分片规则相关，按命名空间配置
+     */
+    public void setShardingRule(String namespace, ShardingRule rule) {
+        shardingRules.put(namespace, rule);
+    }
+
+    // 语句所在命名空间的分片规则，没有配置时为 null
+    public ShardingRule getShardingRule(MappedStatement ms) {
+        if (shardingRules.isEmpty()) {
+            return null;
+        }
+        String namespace = namespaceOf(ms);
+        return namespace == null ? null : shardingRules.get(namespace);
+    }
+
+    // 语句 id 为 namespace.id
+    private String namespaceOf(MappedStatement ms) {
+        String id = ms.getId();
+        int dot = id.lastIndexOf('.');
+        return dot < 0 ? null : id.substring(0, dot);
+    }
+
+    public QueryHedger getQueryHedger() {
+        return queryHedger;
+    }
+
+    public ScatterGather getScatterGather() {
+        return scatterGather;
+    }
+
     /**
      * 环境、类型别名注册机相关
      */
@@ -126,7 +211,64 @@ public class Configuration {
      * 生产执行器
      */
     public Executor newExecutor(Transaction transaction) {
-        return new SimpleExecutor(this, transaction);
+        return newExecutor(transaction, defaultExecutorType);
+    }
+
+    public Executor newExecutor(Transaction transaction, ExecutorType executorType) {
+        executorType = executorType == null ? defaultExecutorType : executorType;
+        Executor executor;
+        if (executorType == ExecutorType.REUSE) {
+            executor = new ReuseExecutor(this, transaction);
+        } else if (executorType == ExecutorType.BATCH) {
+            executor = new BatchExecutor(this, transaction);
+        } else {
+            executor = new SimpleExecutor(this, transaction);
+        }
+        return cacheEnabled ? new CachingExecutor(executor) : executor;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void addCache(Cache cache) {
+        caches.put(cache.getId(), cache);
+    }
+
+    public Cache getCache(String id) {
+        return caches.get(id);
+    }
+
+    public Collection<Cache> getCaches() {
+        return caches.values();
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    public LocalCacheScope getLocalCacheScope() {
+        return localCacheScope;
+    }
+
+    public void setLocalCacheScope(LocalCacheScope localCacheScope) {
+        this.localCacheScope = localCacheScope;
+    }
+
+    public ExecutorType getDefaultExecutorType() {
+        return defaultExecutorType;
+    }
+
+    public void setDefaultExecutorType(ExecutorType defaultExecutorType) {
+        this.defaultExecutorType = defaultExecutorType;
     }
 
     /**
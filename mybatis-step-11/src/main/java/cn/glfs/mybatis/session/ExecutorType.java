@@ -0,0 +1,11 @@
+package cn.glfs.mybatis.session;
+
+/**
+ * 执行器类型
+ * SIMPLE：每次执行都新建 Statement，用完关闭
+ * REUSE：会话内按 SQL 缓存 Statement，同一条 SQL 只预编译一次，提交、回滚、关闭会话时关闭
+ * BATCH：写语句用 JDBC 批处理攒起来，提交、查询前或者达到 batchSize 时一起执行
+ */
+public enum ExecutorType {
+    SIMPLE, REUSE, BATCH
+}
@@ -0,0 +1,10 @@
+package cn.glfs.mybatis.session;
+
+/**
+ * 一级缓存的范围
+ * SESSION：同一个会话里相同的查询只查一次数据库，写、提交、回滚时清空
+ * STATEMENT：不在语句之间共享，相当于关闭一级缓存，适合会话很长又要读到别人新写入数据的场景
+ */
+public enum LocalCacheScope {
+    SESSION, STATEMENT
+}
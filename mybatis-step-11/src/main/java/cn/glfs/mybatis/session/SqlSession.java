@@ -1,5 +1,8 @@
 package cn.glfs.mybatis.session;
 
+import cn.glfs.mybatis.executor.BatchResult;
+
+import java.util.List;
 
 /**
  * 用来执行SQL，获取映射器，管理事务。
@@ -23,6 +26,42 @@ public interface SqlSession {
      */
     <T> T selectOne(String statement,Object parameter);
 
+    /**
+     * 执行插入，返回影响行数；批处理会话返回 BatchExecutor.BATCH_UPDATE_RETURN_VALUE，行数由 flushStatements 返回
+     */
+    int insert(String statement, Object parameter);
+
+    /**
+     * 执行更新，返回影响行数
+     */
+    int update(String statement, Object parameter);
+
+    /**
+     * 执行删除，返回影响行数
+     */
+    int delete(String statement, Object parameter);
+
+    /**
+     * 执行批处理会话里攒下的写语句
+     * @return 每条语句每一行的影响行数，非批处理会话返回空列表
+     */
+    List<BatchResult> flushStatements();
+
+    /**
+     * 提交事务，批处理会话先执行攒下的写语句
+     */
+    void commit();
+
+    /**
+     * 回滚事务，批处理会话里还没执行的写语句直接丢弃
+     */
+    void rollback();
+
+    /**
+     * 关闭会话，没有提交的写语句会回滚
+     */
+    void close();
+
     /**
      * 得到映射器，这个巧妙的使用了泛型，使得类型安全
      * @param type
@@ -1,5 +1,8 @@
 package cn.glfs.mybatis.session;
 
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
+
 
 public interface SqlSessionFactory {
 
@@ -9,5 +12,26 @@ public interface SqlSessionFactory {
      */
     SqlSession openSession();
 
+    /**
+     * 打开一个 session，会话内的语句都按指定优先级获取连接（数据源为开启了优先级通道的 PooledDataSource 时生效）
+     * @param connectionPriority 获取连接的优先级
+     * @return SqlSession
+     */
+    SqlSession openSession(ConnectionPriority connectionPriority);
+
+    /**
+     * 打开一个 session，会话内的语句都走指定的库（数据源为 RoutingDataSource 时生效），比如要读到自己刚写入数据的会话指定 PRIMARY
+     * @param dataSourceRoute 读写分离路由
+     * @return SqlSession
+     */
+    SqlSession openSession(DataSourceRoute dataSourceRoute);
+
+    /**
+     * 打开一个 session，使用指定类型的执行器，比如循环里反复执行同一条查询的会话用 REUSE
+     * @param executorType 执行器类型
+     * @return SqlSession
+     */
+    SqlSession openSession(ExecutorType executorType);
+
 
 }
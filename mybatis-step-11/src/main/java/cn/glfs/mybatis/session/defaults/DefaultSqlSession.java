@@ -1,6 +1,7 @@
 package cn.glfs.mybatis.session.defaults;
 
 
+import cn.glfs.mybatis.executor.BatchResult;
 import cn.glfs.mybatis.executor.Executor;
 import cn.glfs.mybatis.mapping.MappedStatement;
 import cn.glfs.mybatis.session.Configuration;
@@ -9,6 +10,7 @@ import com.alibaba.fastjson.JSON;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.SQLException;
 import java.util.List;
 
 
@@ -18,6 +20,8 @@ public class DefaultSqlSession implements SqlSession {
 
     private Configuration configuration;
     private Executor executor;
+    // 上次提交/回滚之后是否执行过写语句，决定关闭时回滚还是把查询结果放进二级缓存
+    private boolean dirty;
 
     public DefaultSqlSession(Configuration configuration, Executor executor) {
         this.configuration = configuration;
@@ -37,6 +41,61 @@ public class DefaultSqlSession implements SqlSession {
         return list.get(0);
     }
 
+    @Override
+    public int insert(String statement, Object parameter) {
+        return update(statement, parameter);
+    }
+
+    @Override
+    public int update(String statement, Object parameter) {
+        MappedStatement ms = configuration.getMappedStatement(statement);
+        try {
+            dirty = true;
+            return executor.update(ms, parameter);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error updating database.  Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public int delete(String statement, Object parameter) {
+        return update(statement, parameter);
+    }
+
+    @Override
+    public List<BatchResult> flushStatements() {
+        try {
+            return executor.flushStatements();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error flushing statements.  Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public void commit() {
+        try {
+            executor.commit(true);
+            dirty = false;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error committing transaction.  Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public void rollback() {
+        try {
+            executor.rollback(true);
+            dirty = false;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error rolling back transaction.  Cause: " + e, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.close(dirty);
+    }
+
     @Override
     public <T> T getMapper(Class<T> type) {
         return configuration.getMapper(type, this);
@@ -1,9 +1,12 @@
 package cn.glfs.mybatis.session.defaults;
 
 
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
 import cn.glfs.mybatis.executor.Executor;
 import cn.glfs.mybatis.mapping.Environment;
 import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.ExecutorType;
 import cn.glfs.mybatis.session.SqlSession;
 import cn.glfs.mybatis.session.SqlSessionFactory;
 import cn.glfs.mybatis.session.TransactionIsolationLevel;
@@ -26,6 +29,25 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
 
     @Override
     public SqlSession openSession() {
+        return openSession(null, null, null);
+    }
+
+    @Override
+    public SqlSession openSession(ConnectionPriority connectionPriority) {
+        return openSession(null, connectionPriority, null);
+    }
+
+    @Override
+    public SqlSession openSession(DataSourceRoute dataSourceRoute) {
+        return openSession(null, null, dataSourceRoute);
+    }
+
+    @Override
+    public SqlSession openSession(ExecutorType executorType) {
+        return openSession(executorType, null, null);
+    }
+
+    private SqlSession openSession(ExecutorType executorType, ConnectionPriority connectionPriority, DataSourceRoute dataSourceRoute) {
         Transaction tx = null;
         try {
 
@@ -33,7 +55,9 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
             TransactionFactory transactionFactory = environment.getTransactionFactory();
             tx = transactionFactory.newTransaction(configuration.getEnvironment().getDataSource(), TransactionIsolationLevel.READ_COMMITTED, false);
             // 创建执行器
-            final Executor executor = configuration.newExecutor(tx);
+            final Executor executor = configuration.newExecutor(tx, executorType);
+            executor.setConnectionPriority(connectionPriority);
+            executor.setDataSourceRoute(dataSourceRoute);
             // 创建defaultSession
             return new DefaultSqlSession(configuration,executor);
 
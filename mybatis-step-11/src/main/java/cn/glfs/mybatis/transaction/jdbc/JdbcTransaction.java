@@ -1,22 +1,33 @@
 package cn.glfs.mybatis.transaction.jdbc;
 
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
+import cn.glfs.mybatis.datasource.sharding.ShardContext;
 import cn.glfs.mybatis.session.TransactionIsolationLevel;
 import cn.glfs.mybatis.transaction.Transaction;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * JDBC 事务，直接利用 JDBC 的 commit、rollback。依赖于数据源获得的连接来管理事务范围。
+ * 事务内的连接按当前线程的路由（读写分离的主从、分库的分片）分别获取一次并复用，commit、rollback、close 作用于所有连接；
+ * 同一路由下的语句用的是同一个连接，执行器缓存的 Statement 也一直有效
  */
 public class JdbcTransaction implements Transaction {
 
+    // 最近一次使用的连接
     protected Connection connection;
     protected DataSource dataSource;
     protected TransactionIsolationLevel level = TransactionIsolationLevel.NONE;
     protected boolean autoCommit;
 
+    // 路由 -> 事务内的连接
+    protected final Map<Object, Connection> connections = new LinkedHashMap<>();
+
     public JdbcTransaction(DataSource dataSource, TransactionIsolationLevel level, boolean autoCommit) {
         this.dataSource = dataSource;
         this.level = level;
@@ -26,34 +37,62 @@ public class JdbcTransaction implements Transaction {
 
     public JdbcTransaction(Connection connection) {
         this.connection = connection;
+        this.connections.put(routeKey(), connection);
     }
 
     @Override
     public Connection getConnection() throws SQLException {
-        connection = dataSource.getConnection();
-        connection.setTransactionIsolation(level.getLevel());
-        connection.setAutoCommit(autoCommit);
-        return connection;
+        if (dataSource == null) {
+            return connection;
+        }
+        Object key = routeKey();
+        Connection conn = connections.get(key);
+        if (conn == null || conn.isClosed()) {
+            conn = dataSource.getConnection();
+            conn.setTransactionIsolation(level.getLevel());
+            conn.setAutoCommit(autoCommit);
+            connections.put(key, conn);
+        }
+        connection = conn;
+        return conn;
     }
 
     @Override
     public void commit() throws SQLException {
-        if(connection!=null&&!connection.getAutoCommit()){
-            connection.commit();
+        for (Connection conn : connections.values()) {
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+            }
         }
     }
 
     @Override
     public void rollback() throws SQLException {
-        if(connection != null && !connection.getAutoCommit()){
-            connection.rollback();
+        for (Connection conn : connections.values()) {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+            }
         }
     }
 
     @Override
     public void close() throws SQLException {
-        if(connection!=null && !connection.getAutoCommit()){
-            connection.close();
+        SQLException failure = null;
+        for (Connection conn : connections.values()) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
         }
+        connections.clear();
+        connection = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static Object routeKey() {
+        return Arrays.asList(DataSourceRoute.current(), ShardContext.current());
     }
 }
@@ -0,0 +1,385 @@
+package cn.glfs.mybatis.test;
+
+import ch.qos.logback.classic.Level;
+import cn.glfs.mybatis.builder.SqlSourceBuilder;
+import cn.glfs.mybatis.cache.Cache;
+import cn.glfs.mybatis.cache.decorators.FifoCache;
+import cn.glfs.mybatis.cache.decorators.LoggingCache;
+import cn.glfs.mybatis.cache.decorators.LruCache;
+import cn.glfs.mybatis.cache.decorators.TinyLfuCache;
+import cn.glfs.mybatis.cache.impl.PerpetualCache;
+import cn.glfs.mybatis.cache.offheap.OffHeapCache;
+import cn.glfs.mybatis.datasource.pooled.PooledDataSource;
+import cn.glfs.mybatis.executor.Executor;
+import cn.glfs.mybatis.mapping.CacheBuilder;
+import cn.glfs.mybatis.mapping.Environment;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.mapping.SqlCommandType;
+import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.TransactionIsolationLevel;
+import cn.glfs.mybatis.test.po.User;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransaction;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 二级缓存测试：淘汰策略、过期、分段并发，以及跨会话的事务暂存
+ */
+public class CacheTest {
+
+    private Logger logger = LoggerFactory.getLogger(CacheTest.class);
+
+    @Before
+    public void init() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(PooledDataSource.class)).setLevel(Level.WARN);
+        // 每次读缓存都会打印命中率
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(LoggingCache.class)).setLevel(Level.INFO);
+    }
+
+    @Test
+    public void test_evictionPolicies() {
+        // LRU：读过的 1 留下，淘汰 2
+        Cache lru = new LruCache(new PerpetualCache("lru"), 2);
+        lru.putObject(1, "a");
+        lru.putObject(2, "b");
+        lru.getObject(1);
+        lru.putObject(3, "c");
+        Assert.assertNotNull(lru.getObject(1));
+        Assert.assertNull(lru.getObject(2));
+
+        // FIFO：读不影响顺序，淘汰最早放入的 1
+        Cache fifo = new FifoCache(new PerpetualCache("fifo"), 2);
+        fifo.putObject(1, "a");
+        fifo.putObject(2, "b");
+        fifo.getObject(1);
+        fifo.putObject(3, "c");
+        Assert.assertNull(fifo.getObject(1));
+        Assert.assertEquals(2, fifo.getSize());
+
+        // TinyLFU：一次性扫描的 key 进不了主区，热点留下
+        int size = 100;
+        Cache tinyLfu = new TinyLfuCache(new PerpetualCache("tinylfu"), size);
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < size; key++) {
+                if (tinyLfu.getObject(key) == null) {
+                    tinyLfu.putObject(key, "hot-" + key);
+                }
+            }
+        }
+        for (int key = 1000; key < 1000 + 10 * size; key++) {
+            tinyLfu.getObject(key);
+            tinyLfu.putObject(key, "scan-" + key);
+        }
+        int hotRetained = 0;
+        for (int key = 0; key < size; key++) {
+            if (tinyLfu.getObject(key) != null) {
+                hotRetained++;
+            }
+        }
+        Assert.assertTrue("hot keys retained: " + hotRetained, hotRetained >= size * 9 / 10);
+        Assert.assertTrue(tinyLfu.getSize() <= size);
+    }
+
+    @Test
+    public void test_ttlStripingAndMetrics() throws Exception {
+        // 过期
+        Cache expiring = new CacheBuilder("ttl").ttl(50).readOnly(true).build();
+        expiring.putObject("k", "v");
+        Assert.assertEquals("v", expiring.getObject("k"));
+        Thread.sleep(80);
+        Assert.assertNull(expiring.getObject("k"));
+        Assert.assertEquals(0, expiring.getSize());
+
+        // 读写缓存每次取出的是新的副本
+        Cache serialized = new CacheBuilder("serialized").build();
+        serialized.putObject("k", new ArrayList<>(Arrays.asList("a", "b")));
+        Object first = serialized.getObject("k");
+        Assert.assertEquals(first, serialized.getObject("k"));
+        Assert.assertNotSame(first, serialized.getObject("k"));
+
+        // 多线程并发读写，总条数不超过上限，命中统计准确
+        int size = 4096;
+        LoggingCache cache = (LoggingCache) new CacheBuilder("striped").eviction("TINYLFU").size(size).readOnly(true).build();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    int key = (i * 31 + seed) % (size * 2);
+                    if (cache.getObject(key) == null) {
+                        cache.putObject(key, key);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        Assert.assertTrue(cache.getSize() <= size);
+        Assert.assertEquals(8 * 20000, cache.getHitCount() + cache.getMissCount());
+        Assert.assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test
+    public void test_offHeapCache_codecBudgetAndEviction() {
+        // 编码解码：对象属性、null、日期，取出的是新对象
+        OffHeapCache cache = new OffHeapCache("offheap", 64 * 1024, 4096, 0);
+        List<User> users = users(0, 3);
+        users.get(1).setUserHead(null);
+        cache.putObject("k", users);
+        @SuppressWarnings("unchecked")
+        List<User> copy = (List<User>) cache.getObject("k");
+        Assert.assertNotSame(users, copy);
+        Assert.assertEquals(3, copy.size());
+        Assert.assertEquals(users.get(2).getUserName(), copy.get(2).getUserName());
+        Assert.assertEquals(users.get(2).getCreateTime(), copy.get(2).getCreateTime());
+        Assert.assertNull(copy.get(1).getUserHead());
+        Assert.assertEquals(Arrays.asList(1L, "a", null), cache.getObject(put(cache, "simple", Arrays.asList(1L, "a", null))));
+
+        // 超过预算时淘汰同级别最久没用的，申请的内存不超过预算
+        for (int i = 0; i < 2000; i++) {
+            cache.putObject(i, users(i, 3));
+        }
+        Assert.assertTrue(cache.getAllocatedBytes() <= 64 * 1024);
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        Assert.assertNotNull(cache.getObject(1999));
+        Assert.assertNull(cache.getObject(0));
+
+        // 全被小条目占满后放大条目，从别的级别挪 slab 过来
+        cache.putObject("large", users(0, 20));
+        Assert.assertEquals(20, ((List<?>) cache.getObject("large")).size());
+
+        // 超过一个 slab、没有无参构造器的值不缓存
+        cache.putObject("huge", users(0, 200));
+        Assert.assertNull(cache.getObject("huge"));
+        cache.putObject("unsupported", Arrays.asList(new NoDefaultConstructor(1)));
+        Assert.assertNull(cache.getObject("unsupported"));
+        Assert.assertEquals(2, cache.getRejectedCount());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void test_offHeapCache_setPropertiesAndRejections() {
+        OffHeapCache cache = new OffHeapCache("offheap-set", 64 * 1024, 4096, 0);
+        // Set 属性原样取回，保持迭代顺序
+        Account account = new Account();
+        account.setId(7L);
+        account.setRoles(new LinkedHashSet<>(Arrays.asList("admin", "dba")));
+        cache.putObject("account", Collections.singletonList(account));
+        Account copy = (Account) ((List<?>) cache.getObject("account")).get(0);
+        Assert.assertNotSame(account, copy);
+        Assert.assertEquals(Long.valueOf(7), copy.getId());
+        Assert.assertEquals(Arrays.asList("admin", "dba"), new ArrayList<>(copy.getRoles()));
+        Assert.assertEquals(0, cache.getRejectedCount());
+
+        // 可读但填不回去的属性、不支持的集合、数组和枚举都不缓存，不存残缺的副本
+        cache.putObject("getterOnly", Collections.singletonList(new GetterOnly()));
+        cache.putObject("queue", new ArrayDeque<>(Arrays.asList(1, 2)));
+        cache.putObject("array", new Object[]{new String[]{"a"}});
+        cache.putObject("enum", Collections.singletonList(TimeUnit.SECONDS));
+        Assert.assertNull(cache.getObject("getterOnly"));
+        Assert.assertNull(cache.getObject("queue"));
+        Assert.assertNull(cache.getObject("array"));
+        Assert.assertNull(cache.getObject("enum"));
+        Assert.assertEquals(4, cache.getRejectedCount());
+    }
+
+    public static class Account {
+
+        private Long id;
+        private Set<String> roles;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public Set<String> getRoles() {
+            return roles;
+        }
+
+        public void setRoles(Set<String> roles) {
+            this.roles = roles;
+        }
+
+    }
+
+    public static class GetterOnly {
+
+        public String getName() {
+            return "computed";
+        }
+
+    }
+
+    public static class NoDefaultConstructor {
+
+        private final long id;
+
+        public NoDefaultConstructor(long id) {
+            this.id = id;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+    }
+
+    /**
+     * 堆上和堆外各放同样多的结果，对比常驻的堆内存和 Full GC 的耗时
+     * System.gc() 之后立刻读堆大小受 GC 实现和时机影响，只记录数字，不做断言
+     */
+    @Test
+    public void test_offHeapCache_heapUsageAndGcVersusOnHeap() {
+        int entries = 20000;
+        long[] onHeap = fillAndMeasure(new CacheBuilder("onheap").size(entries).readOnly(true).build(), entries);
+        long[] offHeap = fillAndMeasure(new CacheBuilder("offheap").size(entries).offHeapMemory(64L << 20).build(), entries);
+        logger.info("{} 条结果常驻堆内存：堆上 {} KB，堆外 {} KB；Full GC 耗时：堆上 {} ms，堆外 {} ms",
+                entries, onHeap[0] / 1024, offHeap[0] / 1024, onHeap[1], offHeap[1]);
+    }
+
+    /**
+     * 返回 [放入后增加的堆内存字节数, 几次 Full GC 的总耗时毫秒]
+     */
+    private long[] fillAndMeasure(Cache cache, int entries) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        for (int i = 0; i < entries; i++) {
+            cache.putObject(i, users(i, 10));
+        }
+        Assert.assertEquals(entries, cache.getSize());
+        long gcTime = 0;
+        for (int i = 0; i < 3; i++) {
+            long begin = System.nanoTime();
+            System.gc();
+            gcTime += System.nanoTime() - begin;
+        }
+        long retained = memory.getHeapMemoryUsage().getUsed() - before;
+        // 确保测量期间缓存一直可达
+        Assert.assertNotNull(cache.getObject(entries - 1));
+        cache.clear();
+        return new long[]{retained, TimeUnit.NANOSECONDS.toMillis(gcTime)};
+    }
+
+    private Object put(Cache cache, Object key, Object value) {
+        cache.putObject(key, value);
+        return key;
+    }
+
+    private List<User> users(int seed, int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setId((long) seed * count + i);
+            user.setUserId("u" + seed + "_" + i);
+            user.setUserName("user-" + seed + "-" + i);
+            user.setUserHead("head_" + i);
+            user.setCreateTime(new Date(1700000000000L + i));
+            users.add(user);
+        }
+        return users;
+    }
+
+    @Test
+    public void test_secondLevelCache_acrossSessions() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        Configuration configuration = new Configuration();
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        LoggingCache cache = (LoggingCache) new CacheBuilder("test.user").readOnly(true).build();
+        configuration.addCache(cache);
+        MappedStatement byId = new MappedStatement.Builder(configuration, "test.user.queryById", SqlCommandType.SELECT,
+                new SqlSourceBuilder(configuration).parse("SELECT \"id\", \"userName\" FROM t_user WHERE \"id\" = #{id}", Long.class, null), User.class)
+                .cache(cache).build();
+        MappedStatement rename = new MappedStatement.Builder(configuration, "test.user.rename", SqlCommandType.UPDATE,
+                new SqlSourceBuilder(configuration).parse("UPDATE t_user SET \"userName\" = #{userName} WHERE \"id\" = #{id}", User.class, null), User.class)
+                .cache(cache).build();
+
+        // 会话一查到的结果提交前别的会话看不到
+        Executor first = newExecutor(configuration, dataSource);
+        Assert.assertEquals("user-1", queryName(first, byId, 1L));
+        Executor second = newExecutor(configuration, dataSource);
+        Assert.assertEquals("user-1", queryName(second, byId, 1L));
+        Assert.assertEquals(0, cache.getHitCount());
+        first.commit(true);
+        second.close(false);
+
+        // 提交后新会话直接命中缓存
+        Executor third = newExecutor(configuration, dataSource);
+        Assert.assertEquals("user-1", queryName(third, byId, 1L));
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // 写语句清空命名空间的缓存，提交时生效；回滚则缓存保持不变
+        User user = new User();
+        user.setId(1L);
+        user.setUserName("renamed");
+        first.update(rename, user);
+        Assert.assertEquals(1, cache.getSize());
+        first.rollback(true);
+        Assert.assertEquals(1, cache.getSize());
+        first.update(rename, user);
+        first.commit(true);
+        Assert.assertEquals(0, cache.getSize());
+        third.close(false);
+        Executor fourth = newExecutor(configuration, dataSource);
+        Assert.assertEquals("renamed", queryName(fourth, byId, 1L));
+        fourth.close(false);
+        first.close(false);
+        dataSource.forceCloseAll();
+    }
+
+    private Executor newExecutor(Configuration configuration, PooledDataSource dataSource) {
+        return configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false));
+    }
+
+    private String queryName(Executor executor, MappedStatement ms, Long id) {
+        List<User> users = executor.query(ms, id, Executor.NO_RESULT_HANDLER, ms.getSqlSource().getBoundSql(id));
+        return users.get(0).getUserName();
+    }
+
+    private PooledDataSource newDataSource() throws SQLException {
+        PooledDataSource dataSource = new PooledDataSource();
+        dataSource.setDriver("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:second_level_cache;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS t_user");
+            statement.execute("CREATE TABLE t_user (\"id\" BIGINT PRIMARY KEY, \"userName\" VARCHAR(64))");
+            statement.execute("INSERT INTO t_user VALUES (1, 'user-1')");
+        }
+        return dataSource;
+    }
+
+}
@@ -0,0 +1,313 @@
+package cn.glfs.mybatis.test;
+
+import ch.qos.logback.classic.Level;
+import cn.glfs.mybatis.builder.SqlSourceBuilder;
+import cn.glfs.mybatis.datasource.pooled.PoolState;
+import cn.glfs.mybatis.datasource.pooled.PooledDataSource;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
+import cn.glfs.mybatis.datasource.routing.RoutingDataSource;
+import cn.glfs.mybatis.executor.BatchExecutor;
+import cn.glfs.mybatis.executor.BatchExecutorException;
+import cn.glfs.mybatis.executor.BatchResult;
+import cn.glfs.mybatis.executor.Executor;
+import cn.glfs.mybatis.mapping.Environment;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.mapping.SqlCommandType;
+import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.ExecutorType;
+import cn.glfs.mybatis.session.LocalCacheScope;
+import cn.glfs.mybatis.session.TransactionIsolationLevel;
+import cn.glfs.mybatis.test.po.User;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransaction;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 执行器测试，使用 H2 内存库
+ */
+public class ExecutorTest {
+
+    private static final int LOOPS = 50;
+
+    @Before
+    public void init() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(PooledDataSource.class)).setLevel(Level.WARN);
+    }
+
+    @Test
+    public void test_reuseExecutor_preparesOncePerSession() throws Exception {
+        // 借助连接池的 PreparedStatement 缓存计数观察执行器 prepare 了几次
+        PooledDataSource dataSource = newDataSource("reuse");
+        dataSource.setPoolPreparedStatementCacheSize(10);
+        PoolState poolState = dataSource.getPoolState();
+        Configuration configuration = newConfiguration(dataSource);
+        configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+        MappedStatement byId = select(configuration);
+
+        // SimpleExecutor 每次都重新 prepare，只能靠连接池的缓存命中
+        queryLoop(configuration, ExecutorType.SIMPLE, dataSource, byId);
+        Assert.assertEquals(1, poolState.getStatementCacheMissCount());
+        Assert.assertEquals(LOOPS - 1, poolState.getStatementCacheHitCount());
+
+        // ReuseExecutor 在会话内只 prepare 一次
+        queryLoop(configuration, ExecutorType.REUSE, dataSource, byId);
+        Assert.assertEquals(1, poolState.getStatementCacheMissCount());
+        Assert.assertEquals(LOOPS, poolState.getStatementCacheHitCount());
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_reuseExecutor_keepsStatementsPerConnection() throws Exception {
+        PooledDataSource primary = newDataSource("reuse_primary");
+        PooledDataSource replica = newDataSource("reuse_replica");
+        primary.setPoolPreparedStatementCacheSize(10);
+        replica.setPoolPreparedStatementCacheSize(10);
+        RoutingDataSource dataSource = new RoutingDataSource(primary);
+        dataSource.addReplica("replica", replica, 1);
+        Configuration configuration = new Configuration();
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+        MappedStatement fromReplica = select(configuration);
+        MappedStatement fromPrimary = new MappedStatement.Builder(configuration, "test.user.queryPrimary", SqlCommandType.SELECT,
+                fromReplica.getSqlSource(), User.class).dataSourceRoute(DataSourceRoute.PRIMARY).build();
+        Executor executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), ExecutorType.REUSE);
+
+        // 同一条 SQL 在主库、从库的连接上交替执行，各自只 prepare 一次，切换时不关闭重新预编译
+        for (long i = 0; i < LOOPS; i++) {
+            MappedStatement ms = i % 2 == 0 ? fromReplica : fromPrimary;
+            Assert.assertEquals(1, executor.query(ms, 1L, Executor.NO_RESULT_HANDLER, ms.getSqlSource().getBoundSql(1L)).size());
+        }
+        executor.close(false);
+        Assert.assertEquals(1, primary.getPoolState().getStatementCacheMissCount());
+        Assert.assertEquals(0, primary.getPoolState().getStatementCacheHitCount());
+        Assert.assertEquals(1, replica.getPoolState().getStatementCacheMissCount());
+        Assert.assertEquals(0, replica.getPoolState().getStatementCacheHitCount());
+
+        // 执行时出错（除零）的查询，三种执行器都抛出同样包装的异常，不再返回 null
+        MappedStatement broken = statement(configuration, "test.user.broken", SqlCommandType.SELECT, "SELECT 1 / (\"id\" - #{id}) FROM t_user WHERE \"id\" = #{id}", Long.class);
+        for (ExecutorType executorType : ExecutorType.values()) {
+            Executor failing = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), executorType);
+            try {
+                failing.query(broken, 1L, Executor.NO_RESULT_HANDLER, broken.getSqlSource().getBoundSql(1L));
+                Assert.fail();
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Error querying database."));
+                Assert.assertTrue(e.getCause() instanceof SQLException);
+            } finally {
+                failing.close(false);
+            }
+        }
+        dataSource.close();
+    }
+
+    @Test
+    public void test_batchExecutor_groupsAndFlushes() throws Exception {
+        PooledDataSource dataSource = newDataSource("batch");
+        Configuration configuration = newConfiguration(dataSource);
+        configuration.setBatchSize(1000);
+        MappedStatement insert = statement(configuration, "test.user.insert", SqlCommandType.INSERT, "INSERT INTO t_user VALUES (#{id}, #{userName})", User.class);
+        MappedStatement rename = statement(configuration, "test.user.rename", SqlCommandType.UPDATE, "UPDATE t_user SET \"userName\" = #{userName} WHERE \"id\" = #{id}", User.class);
+        MappedStatement byId = select(configuration);
+
+        Executor executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), ExecutorType.BATCH);
+        for (long id = 10; id < 2510; id++) {
+            Assert.assertEquals(BatchExecutor.BATCH_UPDATE_RETURN_VALUE, executor.update(insert, user(id, "user-" + id)));
+        }
+        // 换了 SQL 开始新的一批
+        executor.update(rename, user(10L, "renamed"));
+        executor.update(rename, user(11L, "renamed"));
+        executor.update(rename, user(-1L, "missing"));
+
+        // 查询前先执行攒下的批
+        List<User> users = executor.query(byId, 10L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(10L));
+        Assert.assertEquals("renamed", users.get(0).getUserName());
+
+        // 达到 batchSize 执行的两批、剩下的 500 行和更新，按执行顺序返回
+        List<BatchResult> results = executor.flushStatements();
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(1000, results.get(0).getUpdateCounts().length);
+        Assert.assertEquals(1000, results.get(1).getUpdateCounts().length);
+        Assert.assertEquals(500, results.get(2).getUpdateCounts().length);
+        Assert.assertSame(rename, results.get(3).getMappedStatement());
+        Assert.assertArrayEquals(new int[]{1, 1, 0}, results.get(3).getUpdateCounts());
+
+        // 回滚时还没执行的批直接丢弃
+        executor.update(insert, user(9999L, "discarded"));
+        executor.rollback(true);
+        Assert.assertEquals(3, count(dataSource));
+        executor.close(false);
+
+        // 提交前执行攒下的批
+        executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), ExecutorType.BATCH);
+        executor.update(insert, user(9999L, "committed"));
+        executor.commit(true);
+        executor.close(false);
+        Assert.assertEquals(4, count(dataSource));
+
+        // 非批处理执行器直接返回影响行数
+        executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, true), ExecutorType.SIMPLE);
+        Assert.assertEquals(1, executor.update(rename, user(9999L, "simple")));
+        Assert.assertTrue(executor.flushStatements().isEmpty());
+        executor.close(false);
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_batchExecutor_failureKeepsExecutedBatches() throws Exception {
+        PooledDataSource dataSource = newDataSource("batch_failure");
+        dataSource.setPoolPreparedStatementCacheSize(10);
+        Configuration configuration = newConfiguration(dataSource);
+        MappedStatement insert = statement(configuration, "test.user.insert", SqlCommandType.INSERT, "INSERT INTO t_user VALUES (#{id}, #{userName})", User.class);
+        MappedStatement insertNamed = statement(configuration, "test.user.insertNamed", SqlCommandType.INSERT, "INSERT INTO t_user (\"id\", \"userName\") VALUES (#{id}, #{userName})", User.class);
+        MappedStatement rename = statement(configuration, "test.user.rename", SqlCommandType.UPDATE, "UPDATE t_user SET \"userName\" = #{userName} WHERE \"id\" = #{id}", User.class);
+
+        // 第二批主键冲突：第一批的结果随异常返回，第三批不执行
+        Executor executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), ExecutorType.BATCH);
+        executor.update(insert, user(10L, "user-10"));
+        executor.update(insert, user(11L, "user-11"));
+        executor.update(insertNamed, user(1L, "duplicate"));
+        executor.update(rename, user(10L, "never"));
+        try {
+            executor.flushStatements();
+            Assert.fail();
+        } catch (BatchExecutorException e) {
+            Assert.assertEquals("test.user.insertNamed", e.getFailingStatementId());
+            Assert.assertEquals(1, e.getSuccessfulBatchResults().size());
+            Assert.assertArrayEquals(new int[]{1, 1}, e.getSuccessfulBatchResults().get(0).getUpdateCounts());
+        }
+        executor.rollback(true);
+        executor.close(false);
+
+        // 回滚丢弃的批不会跟着缓存的语句在下一个会话里执行
+        executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), ExecutorType.BATCH);
+        executor.update(insert, user(20L, "rolled-back"));
+        executor.rollback(true);
+        executor.close(false);
+        executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), ExecutorType.BATCH);
+        executor.update(insert, user(21L, "committed"));
+        List<BatchResult> results = executor.flushStatements();
+        Assert.assertArrayEquals(new int[]{1}, results.get(0).getUpdateCounts());
+        executor.commit(true);
+        executor.close(false);
+        Assert.assertEquals(4, count(dataSource));
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_localCache_sessionScope() throws Exception {
+        PooledDataSource dataSource = newDataSource("local_cache");
+        Configuration configuration = newConfiguration(dataSource);
+        MappedStatement byId = select(configuration);
+        MappedStatement rename = statement(configuration, "test.user.rename", SqlCommandType.UPDATE, "UPDATE t_user SET \"userName\" = #{userName} WHERE \"id\" = #{id}", User.class);
+        Executor executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), ExecutorType.SIMPLE);
+
+        // 相同语句、相同参数直接返回缓存的结果
+        List<User> first = executor.query(byId, 1L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(1L));
+        Assert.assertSame(first, executor.query(byId, 1L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(1L)));
+        Assert.assertNotSame(first, executor.query(byId, 2L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(2L)));
+
+        // 写之后清空，读到新值
+        executor.update(rename, user(1L, "renamed"));
+        List<User> afterUpdate = executor.query(byId, 1L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(1L));
+        Assert.assertEquals("renamed", afterUpdate.get(0).getUserName());
+
+        // 提交、回滚之后清空
+        executor.commit(true);
+        List<User> afterCommit = executor.query(byId, 1L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(1L));
+        Assert.assertNotSame(afterUpdate, afterCommit);
+        executor.rollback(true);
+        Assert.assertNotSame(afterCommit, executor.query(byId, 1L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(1L)));
+
+        // 语句配置 useLocalCache=false 时每次都查数据库，也不清掉别的语句缓存的结果
+        List<User> cached = executor.query(byId, 2L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(2L));
+        MappedStatement uncached = new MappedStatement.Builder(configuration, "test.user.queryUncached", SqlCommandType.SELECT,
+                byId.getSqlSource(), User.class).useLocalCache(false).build();
+        List<User> uncachedFirst = executor.query(uncached, 1L, Executor.NO_RESULT_HANDLER, uncached.getSqlSource().getBoundSql(1L));
+        Assert.assertNotSame(uncachedFirst, executor.query(uncached, 1L, Executor.NO_RESULT_HANDLER, uncached.getSqlSource().getBoundSql(1L)));
+        Assert.assertSame(cached, executor.query(byId, 2L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(2L)));
+
+        // 语句配置 flushCache 时先清空整个一级缓存
+        MappedStatement flushing = new MappedStatement.Builder(configuration, "test.user.queryFlushing", SqlCommandType.SELECT,
+                byId.getSqlSource(), User.class).flushCacheRequired(true).build();
+        executor.query(flushing, 1L, Executor.NO_RESULT_HANDLER, flushing.getSqlSource().getBoundSql(1L));
+        Assert.assertNotSame(cached, executor.query(byId, 2L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(2L)));
+
+        // STATEMENT 范围不在语句之间共享
+        configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+        List<User> statementScoped = executor.query(byId, 1L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(1L));
+        Assert.assertNotSame(statementScoped, executor.query(byId, 1L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(1L)));
+        executor.close(false);
+        dataSource.forceCloseAll();
+    }
+
+    private User user(Long id, String userName) {
+        User user = new User();
+        user.setId(id);
+        user.setUserName(userName);
+        return user;
+    }
+
+    private int count(PooledDataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM t_user")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private void queryLoop(Configuration configuration, ExecutorType executorType, PooledDataSource dataSource, MappedStatement ms) throws SQLException {
+        Executor executor = configuration.newExecutor(new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false), executorType);
+        try {
+            for (long i = 0; i < LOOPS; i++) {
+                long id = i % 3 + 1;
+                List<User> users = executor.query(ms, id, Executor.NO_RESULT_HANDLER, ms.getSqlSource().getBoundSql(id));
+                Assert.assertEquals(1, users.size());
+                Assert.assertEquals("user-" + id, users.get(0).getUserName());
+            }
+            executor.commit(true);
+        } finally {
+            executor.close(false);
+        }
+    }
+
+    private Configuration newConfiguration(PooledDataSource dataSource) {
+        Configuration configuration = new Configuration();
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        return configuration;
+    }
+
+    private MappedStatement select(Configuration configuration) {
+        return statement(configuration, "test.user.queryById", SqlCommandType.SELECT, "SELECT \"id\", \"userName\" FROM t_user WHERE \"id\" = #{id}", Long.class);
+    }
+
+    private MappedStatement statement(Configuration configuration, String id, SqlCommandType sqlCommandType, String sql, Class<?> parameterType) {
+        return new MappedStatement.Builder(configuration, id, sqlCommandType,
+                new SqlSourceBuilder(configuration).parse(sql, parameterType, null), User.class).build();
+    }
+
+    private PooledDataSource newDataSource(String name) throws SQLException {
+        PooledDataSource dataSource = new PooledDataSource();
+        dataSource.setDriver("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:executor_" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS t_user");
+            statement.execute("CREATE TABLE t_user (\"id\" BIGINT PRIMARY KEY, \"userName\" VARCHAR(64))");
+            for (int id = 1; id <= 3; id++) {
+                statement.execute("INSERT INTO t_user VALUES (" + id + ", 'user-" + id + "')");
+            }
+        }
+        return dataSource;
+    }
+
+}
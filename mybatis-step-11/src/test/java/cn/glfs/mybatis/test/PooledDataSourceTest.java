@@ -0,0 +1,1011 @@
+package cn.glfs.mybatis.test;
+
+import ch.qos.logback.classic.Level;
+import cn.glfs.mybatis.datasource.ConnectionPriority;
+import cn.glfs.mybatis.datasource.pooled.HandoffQueue;
+import cn.glfs.mybatis.datasource.pooled.PoolState;
+import cn.glfs.mybatis.datasource.pooled.PooledDataSource;
+import cn.glfs.mybatis.datasource.routing.RoutingDataSource;
+import cn.glfs.mybatis.datasource.sharding.ShardingDataSource;
+import cn.glfs.mybatis.session.TransactionIsolationLevel;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransaction;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 连接池测试，使用 H2 内存库，不依赖外部 MySQL
+ */
+public class PooledDataSourceTest {
+
+    private Logger logger = LoggerFactory.getLogger(PooledDataSourceTest.class);
+
+    // 压测：请求线程数小于连接数，每个线程都能拿回自己上次用过的连接（线程亲和），测的是借出/归还本身的开销
+    private static final int THREADS = 32;
+    private static final int CONNECTIONS = 40;
+    private static final int LOOPS = 2000;
+    private static final int ITERATIONS = 7;
+
+    @Before
+    public void init() {
+        // 连接池每次借出/归还都会打印 info 日志，压测时先关掉
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(PooledDataSource.class)).setLevel(Level.WARN);
+    }
+
+    @Test
+    public void test_concurrentBag_contention() throws Exception {
+        // 两种模式各用一个连接池和一组常驻线程，预热一轮后交替测 ITERATIONS 轮，取中位数
+        // 吞吐受核数和机器负载影响太大，不做断言；断言的是 ConcurrentBag 快的前提：连接够用时借出不排队、不走移交队列
+        Contention classic = new Contention(false);
+        Contention bag = new Contention(true);
+        try {
+            classic.run();
+            bag.run();
+            long handoffs = bag.dataSource.getPoolState().getHandoffCount();
+            long waits = bag.dataSource.getPoolState().getHadToWaitCount();
+            long[] classicOps = new long[ITERATIONS];
+            long[] bagOps = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                classicOps[i] = classic.run();
+                bagOps[i] = bag.run();
+            }
+            Arrays.sort(classicOps);
+            Arrays.sort(bagOps);
+            long classicMedian = classicOps[ITERATIONS / 2];
+            long bagMedian = bagOps[ITERATIONS / 2];
+            logger.info("{} 个线程 / {} 个连接，{} 核，{} 轮中位数（最小~最大）：经典模式 {} ops/s（{}~{}），ConcurrentBag {} ops/s（{}~{}），比值 {}",
+                    THREADS, CONNECTIONS, Runtime.getRuntime().availableProcessors(), ITERATIONS,
+                    classicMedian, classicOps[0], classicOps[ITERATIONS - 1], bagMedian, bagOps[0], bagOps[ITERATIONS - 1],
+                    String.format("%.2f", (double) bagMedian / classicMedian));
+            if (Runtime.getRuntime().availableProcessors() == 1) {
+                // 单核上线程不会同时争锁，两种模式只差各自的簿记开销，比值在 1 附近波动，看不出去掉全局锁的收益
+                logger.info("单核环境测不出锁竞争，上面的比值不代表多核下的吞吐差异");
+            }
+
+            // 预热建好连接之后，连接比线程多时 ConcurrentBag 不应该再排队或走移交队列，借出都在线程本地列表或共享列表里完成
+            Assert.assertEquals(handoffs, bag.dataSource.getPoolState().getHandoffCount());
+            Assert.assertEquals(waits, bag.dataSource.getPoolState().getHadToWaitCount());
+        } finally {
+            classic.close();
+            bag.close();
+        }
+    }
+
+    @Test
+    public void test_close_stopsHousekeeperAndPropagates() throws Exception {
+        PooledDataSource primary = newDataSource();
+        primary.setPoolMinimumIdleConnections(2);
+        primary.setPoolHousekeepingPeriod(50);
+        primary.setPoolName("close-test");
+        primary.registerMBean();
+        primary.startHousekeeper();
+        PooledDataSource replica = newDataSource();
+        RoutingDataSource routing = new RoutingDataSource(primary);
+        routing.addReplica("replica", replica, 1);
+        ShardingDataSource sharding = new ShardingDataSource();
+        sharding.addShard("shard-0", routing);
+        awaitIdleCount(primary, 2);
+        Connection held = primary.getConnection();
+        Connection realHeld = held.unwrap(Connection.class);
+        replica.getConnection().close();
+        ObjectName mbeanName = new ObjectName("cn.glfs.mybatis:type=PooledDataSource,name=\"close-test\"");
+        Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(mbeanName));
+
+        // 从最外层关闭，逐层传到每个连接池
+        sharding.close();
+        Assert.assertTrue(primary.isClosed());
+        Assert.assertTrue(replica.isClosed());
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(mbeanName));
+        Assert.assertEquals(0, primary.getPoolState().getIdleConnectionCount());
+        Assert.assertEquals(0, replica.getPoolState().getIdleConnectionCount());
+        Assert.assertTrue(realHeld.isClosed());
+
+        // 后台管家已停止，不会再补足最小空闲连接；关闭后不能再借出
+        Thread.sleep(200);
+        Assert.assertEquals(0, primary.getPoolState().getIdleConnectionCount());
+        try {
+            primary.getConnection();
+            Assert.fail();
+        } catch (SQLException expected) {
+        }
+        try {
+            primary.getConnectionAsync().get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        }
+        // 借出中的连接关闭后归还也不会出错
+        held.close();
+        Assert.assertEquals(0, primary.getPoolState().getIdleConnectionCount());
+    }
+
+    @Test
+    public void test_close_classicModeClosesPhysicalConnections() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolConcurrentBagEnabled(false);
+        Connection first = dataSource.getConnection();
+        Connection second = dataSource.getConnection();
+        Connection held = dataSource.getConnection();
+        List<Connection> realConnections = Arrays.asList(first.unwrap(Connection.class), second.unwrap(Connection.class), held.unwrap(Connection.class));
+        first.close();
+        second.close();
+        Assert.assertEquals(2, dataSource.getPoolState().getIdleConnectionCount());
+
+        // 经典模式下空闲和借出中的物理连接都要关闭，不能只回滚
+        dataSource.close();
+        for (Connection realConnection : realConnections) {
+            Assert.assertTrue(realConnection.isClosed());
+        }
+        Assert.assertEquals(0, dataSource.getPoolState().getIdleConnectionCount());
+        held.close();
+    }
+
+    @Test
+    public void test_proxyConnection_concurrentCloseReturnsOnce() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        ExecutorService closers = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 500; i++) {
+                Connection connection = dataSource.getConnection();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    futures.add(closers.submit(() -> {
+                        start.await();
+                        connection.close();
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+                // 同一个代理并发关闭，连接只能回到池里一次
+                Assert.assertEquals(1, dataSource.getPoolState().getIdleConnectionCount());
+                Assert.assertEquals(0, dataSource.getPoolState().getActiveConnectionCount());
+            }
+        } finally {
+            closers.shutdownNow();
+            dataSource.close();
+        }
+    }
+
+    @Test
+    public void test_adaptiveSizing_growAndShrink() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolMaximumActiveConnections(2);
+        dataSource.setPoolMaximumIdleConnections(1);
+        dataSource.setPoolAdaptiveSizingEnabled(true);
+        dataSource.setPoolAdaptiveMaximumConnections(6);
+        dataSource.setPoolAdaptiveSizingPeriod(50);
+        dataSource.startHousekeeper();
+        PoolState poolState = dataSource.getPoolState();
+
+        // 6 个线程抢 2 个连接，排队触发扩大，最多到硬上限 6
+        long deadline = System.currentTimeMillis() + 1000;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        Connection connection = dataSource.getConnection();
+                        Thread.sleep(20);
+                        connection.close();
+                    }
+                } catch (Exception e) {
+                    logger.error("adaptive sizing worker failed", e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(poolState.getMaximumActiveConnections() > 2);
+        Assert.assertTrue(poolState.getMaximumActiveConnections() <= 6);
+        Assert.assertTrue(poolState.getSizingDecisions().get(0).contains("grow"));
+
+        // 负载停止后利用率为 0，逐步缩回配置时的大小；上限先改，记录决策和关闭多余空闲连接在后，等整次收缩完成
+        long shrinkDeadline = System.currentTimeMillis() + 5000;
+        while ((poolState.getMaximumActiveConnections() > 2 || poolState.getIdleConnectionCount() > 1
+                || !poolState.getSizingDecisions().get(poolState.getSizingDecisions().size() - 1).contains("shrink"))
+                && System.currentTimeMillis() < shrinkDeadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(2, poolState.getMaximumActiveConnections());
+        Assert.assertEquals(1, poolState.getMaximumIdleConnections());
+        Assert.assertTrue(poolState.getIdleConnectionCount() <= 1);
+        List<String> decisions = poolState.getSizingDecisions();
+        Assert.assertTrue(decisions.get(decisions.size() - 1).contains("shrink"));
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_validation_offCheckoutPath() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolPingEnabled(true);
+        dataSource.setPoolValidationWindow(100);
+        dataSource.setPoolValidationPeriod(50);
+
+        // 热连接在验证窗口内反复借出，不做网络验证；未设置 poolPingQuery，走 Connection.isValid
+        for (int i = 0; i < 100; i++) {
+            dataSource.getConnection().close();
+        }
+        Assert.assertEquals(0, dataSource.getPoolState().getCheckoutValidationCount());
+
+        // 空闲超过验证窗口后，由后台验证线程验证
+        Thread.sleep(400);
+        Assert.assertTrue(dataSource.getPoolState().getBackgroundValidationCount() > 0);
+        Assert.assertEquals(0, dataSource.getPoolState().getBadConnectionCount());
+
+        // 关闭窗口后每次借出都要验证
+        dataSource.setPoolValidationWindow(0);
+        dataSource.getConnection().close();
+        Assert.assertEquals(1, dataSource.getPoolState().getCheckoutValidationCount());
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_metrics_mbean() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolName("metrics_test");
+        dataSource.registerMBean();
+        for (int i = 0; i < 50; i++) {
+            dataSource.getConnection().close();
+        }
+
+        PoolState poolState = dataSource.getPoolState();
+        Assert.assertEquals(50, poolState.getAcquireTimeHistogram().getCount());
+        Assert.assertEquals(50, poolState.getCheckoutTimeHistogram().getCount());
+        Assert.assertEquals(1, poolState.getConnectionCreateTimeHistogram().getCount());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("cn.glfs.mybatis:type=PooledDataSource,name=\"metrics_test\"");
+        Assert.assertEquals(50L, server.getAttribute(name, "RequestCount"));
+        Assert.assertEquals(1, server.getAttribute(name, "IdleConnectionCount"));
+        logger.info("获取连接 p50：{} ms，p99：{} ms，建立连接 p99：{} ms", server.getAttribute(name, "AcquireTimeP50"),
+                server.getAttribute(name, "AcquireTimeP99"), server.getAttribute(name, "ConnectionCreateTimeP99"));
+
+        dataSource.unregisterMBean();
+        Assert.assertFalse(server.isRegistered(name));
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_leakDetection_groupedByCallSite() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolLeakDetectionThreshold(100);
+        dataSource.setPoolLeakDetectionSampleRate(1.0);
+
+        // 同一个调用点借出两个连接不还
+        List<Connection> leaked = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            leaked.add(dataSource.getConnection());
+        }
+        Thread.sleep(400);
+
+        Map<String, Long> report = dataSource.getLeakDetector().getLeakReport();
+        logger.info(dataSource.getLeakDetector().formatLeakReport());
+        Assert.assertEquals(2, dataSource.getLeakDetector().getLeakCount());
+        Assert.assertEquals(1, report.size());
+        Assert.assertTrue(report.keySet().iterator().next().contains("test_leakDetection_groupedByCallSite"));
+
+        for (Connection connection : leaked) {
+            connection.close();
+        }
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_proxyConnection_tracksStatements() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        Connection connection = dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement("SELECT 1");
+        ResultSet resultSet = statement.executeQuery();
+        Assert.assertSame(statement, resultSet.getStatement());
+        Assert.assertSame(connection, statement.getConnection());
+
+        // 忘记关闭的 Statement 在连接归还时被关闭，旧代理作废
+        connection.close();
+        Assert.assertTrue(statement.isClosed());
+        Assert.assertTrue(connection.isClosed());
+        try {
+            connection.getAutoCommit();
+            Assert.fail();
+        } catch (SQLException e) {
+            logger.info("旧代理已作废：{}", e.getMessage());
+        }
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_proxyConnection_dispatchOverhead() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        Connection connection = dataSource.getConnection();
+        Connection realConnection = PooledDataSource.unwrapConnection(connection);
+        // 原来的反射代理：方法名比较 + 有效性检查 + Method.invoke
+        Connection reflective = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if ("close".hashCode() == method.getName().hashCode() && "close".equals(method.getName())) {
+                return null;
+            }
+            if (!Object.class.equals(method.getDeclaringClass()) && proxy == null) {
+                throw new SQLException("Connection is invalid.");
+            }
+            return method.invoke(realConnection, args);
+        });
+
+        int calls = 2_000_000;
+        for (int i = 0; i < 3; i++) {
+            callHoldability(reflective, calls);
+            callHoldability(connection, calls);
+        }
+        long proxyNanos = callHoldability(reflective, calls);
+        long directNanos = callHoldability(connection, calls);
+        logger.info("反射代理：{} ns/op，直接委托：{} ns/op", proxyNanos / (double) calls, directNanos / (double) calls);
+
+        connection.close();
+        dataSource.forceCloseAll();
+    }
+
+    private long callHoldability(Connection connection, int calls) throws SQLException {
+        long begin = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < calls; i++) {
+            sink += connection.getHoldability();
+        }
+        Assert.assertTrue(sink != 0);
+        return System.nanoTime() - begin;
+    }
+
+    @Test
+    public void test_preparedStatementCache_lru() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolPreparedStatementCacheSize(2);
+        PoolState poolState = dataSource.getPoolState();
+
+        Connection connection = dataSource.getConnection();
+        PreparedStatement first = connection.prepareStatement("SELECT 1");
+        PreparedStatement realFirst = first.unwrap(PreparedStatement.class);
+        first.close();
+        PreparedStatement second = connection.prepareStatement("SELECT 1");
+        Assert.assertSame(realFirst, second.unwrap(PreparedStatement.class));
+        second.close();
+        Assert.assertEquals(1, poolState.getStatementCacheHitCount());
+        Assert.assertEquals(1, poolState.getStatementCacheMissCount());
+
+        // 超过上限淘汰最久未用的 SELECT 1，并关闭真实语句
+        connection.prepareStatement("SELECT 2").close();
+        connection.prepareStatement("SELECT 3").close();
+        Assert.assertEquals(1, poolState.getStatementCacheEvictionCount());
+        Assert.assertTrue(realFirst.isClosed());
+
+        // 缓存跟着物理连接走，归还后再借出仍然命中
+        connection.close();
+        connection = dataSource.getConnection();
+        connection.prepareStatement("SELECT 3").close();
+        Assert.assertEquals(2, poolState.getStatementCacheHitCount());
+        connection.close();
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_preparedStatementCache_clearsPendingBatch() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setUrl("jdbc:h2:mem:pool_batch_test;DB_CLOSE_DELAY=-1");
+        dataSource.setPoolPreparedStatementCacheSize(10);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE batch_row (id INT)");
+        }
+
+        // 会话 A 攒了一行批量没执行就关闭语句、回滚
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO batch_row VALUES (?)");
+        insert.setInt(1, 666);
+        insert.addBatch();
+        insert.close();
+        connection.rollback();
+        connection.close();
+
+        // 会话 B 复用同一条缓存语句，只能执行自己的那一行
+        connection = dataSource.getConnection();
+        insert = connection.prepareStatement("INSERT INTO batch_row VALUES (?)");
+        insert.setInt(1, 1);
+        insert.addBatch();
+        Assert.assertEquals(1, insert.executeBatch().length);
+        insert.close();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT id FROM batch_row")) {
+            Assert.assertTrue(resultSet.next());
+            Assert.assertEquals(1, resultSet.getInt(1));
+            Assert.assertFalse(resultSet.next());
+        }
+        Assert.assertEquals(1, dataSource.getPoolState().getStatementCacheHitCount());
+        connection.close();
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_preparedStatementCache_warmup() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolPreparedStatementCacheSize(10);
+        dataSource.setPoolPreparedStatementCacheWarmup(true);
+        dataSource.setPreparedStatementWarmupSql(Arrays.asList("SELECT 1", "SELECT 2", "SELECT * FROM table_not_exists"));
+
+        Connection connection = dataSource.getConnection();
+        connection.prepareStatement("SELECT 2").close();
+        Assert.assertEquals(1, dataSource.getPoolState().getStatementCacheHitCount());
+        Assert.assertEquals(0, dataSource.getPoolState().getStatementCacheMissCount());
+        connection.close();
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_keyedSubPools_mixedCredentials() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setUrl("jdbc:h2:mem:pool_keyed_test;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE USER IF NOT EXISTS REPORTER PASSWORD 'report' ADMIN");
+        }
+        PoolState poolState = dataSource.getPoolState();
+
+        // 交替使用两种凭证，各自的空闲连接被复用，而不是每次归还都关闭重建
+        for (int i = 0; i < 20; i++) {
+            boolean reporter = i % 2 == 0;
+            try (Connection connection = reporter ? dataSource.getConnection("REPORTER", "report") : dataSource.getConnection()) {
+                Assert.assertEquals(reporter ? "REPORTER" : "SA", currentUser(connection));
+            }
+        }
+        Assert.assertEquals(2, poolState.getSubPoolCount());
+        Assert.assertEquals(2, poolState.getConnectionCreateTimeHistogram().getCount());
+        Assert.assertEquals(2, poolState.getIdleConnectionCount());
+
+        // 连接总数到上限时，从别的凭证的子池关掉一个空闲连接腾出名额
+        dataSource.forceCloseAll();
+        dataSource.setPoolMaximumActiveConnections(1);
+        dataSource.getConnection().close();
+        try (Connection connection = dataSource.getConnection("REPORTER", "report")) {
+            Assert.assertEquals("REPORTER", currentUser(connection));
+        }
+        Assert.assertEquals(1, poolState.getSubPoolEvictionCount());
+        Assert.assertEquals(1, poolState.getTotalConnectionCount());
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_classicMode_rejectsOtherCredentials() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolConcurrentBagEnabled(false);
+        // 经典模式没有按凭证划分的子池，别的凭证直接拒绝，配置的凭证照常借出
+        try {
+            dataSource.getConnection("REPORTER", "report");
+            Assert.fail();
+        } catch (SQLException expected) {
+        }
+        try {
+            dataSource.getConnectionAsync("REPORTER", "report", 1, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        }
+        dataSource.getConnection("sa", "").close();
+        Assert.assertEquals(1, dataSource.getPoolState().getIdleConnectionCount());
+        dataSource.close();
+    }
+
+    @Test
+    public void test_virtualThreads_sharePoolWithoutPinning() throws Exception {
+        // Java 21 以下没有虚拟线程，跳过；在 JDK 21 上用 mvn -Pjava21 test 运行
+        Method factory;
+        try {
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            Assume.assumeTrue(false);
+            return;
+        }
+        // jdk.tracePinnedThreads 打开时，虚拟线程在持有监视器期间阻塞会把调用栈打印到 System.out
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            for (boolean concurrentBag : new boolean[]{true, false}) {
+                PooledDataSource dataSource = newDataSource();
+                dataSource.setPoolConcurrentBagEnabled(concurrentBag);
+                dataSource.setPoolMaximumActiveConnections(4);
+                dataSource.setPoolMaximumIdleConnections(4);
+                int requests = 5000;
+                AtomicInteger completed = new AtomicInteger();
+                long begin = System.nanoTime();
+                ExecutorService executor = (ExecutorService) factory.invoke(null);
+                for (int i = 0; i < requests; i++) {
+                    executor.execute(() -> {
+                        try (Connection connection = dataSource.getConnection();
+                             PreparedStatement statement = connection.prepareStatement("SELECT 1");
+                             ResultSet resultSet = statement.executeQuery()) {
+                            resultSet.next();
+                            completed.incrementAndGet();
+                        } catch (SQLException e) {
+                            logger.error("virtual thread request failed", e);
+                        }
+                    });
+                }
+                executor.shutdown();
+                Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                out.println((concurrentBag ? "ConcurrentBag" : "经典") + " 模式：" + requests + " 个虚拟线程共享 4 个连接，耗时 " + elapsed + " ms");
+                Assert.assertEquals(requests, completed.get());
+                dataSource.forceCloseAll();
+            }
+        } finally {
+            System.setOut(out);
+        }
+        Assert.assertFalse(captured.toString().contains("<== monitors"));
+    }
+
+    @Test
+    public void test_connectionState_elidesRoundTrips() throws Exception {
+        DriverManager.registerDriver(COUNTING_DRIVER);
+        try {
+            double untracked = runTransactions(false);
+            double tracked = runTransactions(true);
+            logger.info("每个请求发给驱动的会话状态调用：不跟踪 {} 次，跟踪 {} 次", untracked, tracked);
+            Assert.assertTrue(untracked >= 5);
+            Assert.assertTrue(tracked <= 1.5);
+        } finally {
+            DriverManager.deregisterDriver(COUNTING_DRIVER);
+        }
+    }
+
+    @Test
+    public void test_circuitBreaker_failFastAndProbe() throws Exception {
+        DriverManager.registerDriver(COUNTING_DRIVER);
+        try {
+            PooledDataSource dataSource = newDataSource();
+            dataSource.setUrl("jdbc:counting:h2:mem:pool_breaker_test;DB_CLOSE_DELAY=-1");
+            dataSource.setPoolCircuitBreakerFailureThreshold(3);
+            dataSource.setPoolCircuitBreakerBackoffBase(200);
+            PoolState poolState = dataSource.getPoolState();
+
+            // 数据库宕机：连续 3 次建连失败后熔断打开
+            COUNTING_DRIVER.down = true;
+            for (int i = 0; i < 3; i++) {
+                try {
+                    dataSource.getConnection();
+                    Assert.fail();
+                } catch (SQLException e) {
+                    Assert.assertTrue(e.getMessage().contains("database is down"));
+                }
+            }
+            Assert.assertEquals("OPEN", poolState.getCircuitBreakerState());
+
+            // 打开期间快速失败，不再排队，也不再建连
+            int connects = COUNTING_DRIVER.connects.get();
+            long begin = System.currentTimeMillis();
+            try {
+                dataSource.getConnection();
+                Assert.fail();
+            } catch (SQLException e) {
+                Assert.assertTrue(e.getMessage().contains("Circuit breaker"));
+            }
+            Assert.assertTrue(System.currentTimeMillis() - begin < 100);
+            Assert.assertEquals(connects, COUNTING_DRIVER.connects.get());
+            Assert.assertEquals(1, poolState.getCircuitBreakerRejectedCount());
+
+            // 数据库恢复，退避（100~200 ms）到期后放行一次探测，成功后关闭
+            COUNTING_DRIVER.down = false;
+            Thread.sleep(250);
+            dataSource.getConnection().close();
+            Assert.assertEquals("CLOSED", poolState.getCircuitBreakerState());
+            Assert.assertEquals(connects + 1, COUNTING_DRIVER.connects.get());
+            dataSource.forceCloseAll();
+        } finally {
+            COUNTING_DRIVER.down = false;
+            DriverManager.deregisterDriver(COUNTING_DRIVER);
+        }
+    }
+
+    @Test
+    public void test_asyncAcquire_sharesQueueWithSyncCallers() throws Exception {
+        runAsyncAcquire(true);
+        runAsyncAcquire(false);
+    }
+
+    private void runAsyncAcquire(boolean concurrentBag) throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolConcurrentBagEnabled(concurrentBag);
+        dataSource.setPoolMaximumActiveConnections(1);
+        PoolState poolState = dataSource.getPoolState();
+
+        // 有空闲连接时立即完成
+        Connection held = dataSource.getConnectionAsync().get(5, TimeUnit.SECONDS);
+
+        // 池满时依次排队：异步 A、同步 B、异步 C，都由归还连接的线程按先来后到完成
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Connection> a = dataSource.getConnectionAsync();
+        Assert.assertFalse(a.isDone());
+        CompletableFuture<String> completedBy = a.thenApply(connection -> Thread.currentThread().getName());
+        a.thenAccept(connection -> order.add("A"));
+        CountDownLatch syncAcquired = new CountDownLatch(1);
+        Thread b = new Thread(() -> {
+            try (Connection connection = dataSource.getConnection()) {
+                order.add("B");
+                syncAcquired.countDown();
+            } catch (SQLException e) {
+                logger.error("sync acquire failed", e);
+            }
+        }, "sync-waiter");
+        b.start();
+        while (poolState.getWaitingThreadCount() < 2) {
+            Thread.sleep(5);
+        }
+        CompletableFuture<Connection> c = dataSource.getConnectionAsync();
+        c.thenAccept(connection -> order.add("C"));
+
+        held.close();
+        Assert.assertEquals(Thread.currentThread().getName(), completedBy.get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(c.isDone());
+        a.get().close();
+        Assert.assertTrue(syncAcquired.await(5, TimeUnit.SECONDS));
+        c.get(5, TimeUnit.SECONDS).close();
+        b.join();
+        Assert.assertEquals(Arrays.asList("A", "B", "C"), order);
+
+        // 超时：SQLTimeoutException，计入等待超时
+        held = dataSource.getConnection();
+        long timeouts = poolState.getWaitTimeoutCount();
+        try {
+            dataSource.getConnectionAsync(100, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLTimeoutException);
+        }
+        Assert.assertEquals(timeouts + 1, poolState.getWaitTimeoutCount());
+
+        // 取消：撤销排队，之后归还的连接回到空闲而不是交给已取消的请求
+        CompletableFuture<Connection> cancelled = dataSource.getConnectionAsync();
+        Assert.assertTrue(cancelled.cancel(false));
+        Assert.assertEquals(0, poolState.getWaitingThreadCount());
+        held.close();
+        Assert.assertEquals(1, poolState.getIdleConnectionCount());
+        Assert.assertEquals(0, poolState.getActiveConnectionCount());
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_handoffQueue_acceptRacesOffer() throws Exception {
+        // 登记后扫描到空闲元素的 accept 和归还线程的 offer 抢同一个等待者：只能有一方赢，等待者拿到的必须是赢家的元素
+        final int trials = 200_000;
+        final Object scanned = new Object();
+        final Object returned = new Object();
+        AtomicReference<HandoffQueue<Object>> pending = new AtomicReference<>();
+        AtomicInteger offered = new AtomicInteger(-1);
+        Thread returner = new Thread(() -> {
+            for (int i = 0; i < trials; i++) {
+                HandoffQueue<Object> queue;
+                while ((queue = pending.getAndSet(null)) == null) {
+                    Thread.yield();
+                }
+                offered.set(queue.offer(returned) ? 1 : 0);
+            }
+        }, "handoff-returner");
+        returner.start();
+
+        int lost = 0;
+        int raced = 0;
+        for (int i = 0; i < trials; i++) {
+            HandoffQueue<Object> queue = new HandoffQueue<>();
+            boolean async = (i & 1) == 1;
+            HandoffQueue.Waiter<Object> waiter = async ? queue.enqueueAsync() : queue.enqueue();
+            offered.set(-1);
+            pending.set(queue);
+            boolean accepted = waiter.accept(scanned);
+            int offer;
+            while ((offer = offered.get()) == -1) {
+                Thread.yield();
+            }
+            Object handed = async ? waiter.getFuture().getNow(null) : waiter.await(0, TimeUnit.NANOSECONDS);
+            Assert.assertTrue("accept 和 offer 同时成功", accepted ^ offer == 1);
+            if (handed != (accepted ? scanned : returned)) {
+                lost++;
+            }
+            if (offer == 1) {
+                raced++;
+            }
+        }
+        returner.join();
+        logger.info("移交竞争：{} 次中 offer 赢 {} 次", trials, raced);
+        Assert.assertEquals(0, lost);
+    }
+
+    @Test
+    public void test_priorityLanes_reservedShareAndCap() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setPoolMaximumActiveConnections(4);
+        dataSource.setPoolTimeToWait(200);
+        dataSource.setPoolPriorityLanesEnabled(true);
+        dataSource.setPoolHighPriorityReservedConnections(1);
+        dataSource.setPoolLowPriorityMaximumConnections(2);
+        PoolState poolState = dataSource.getPoolState();
+
+        // 批处理最多占 2 个
+        List<Connection> low = new ArrayList<>();
+        ConnectionPriority previous = ConnectionPriority.set(ConnectionPriority.LOW);
+        try {
+            low.add(dataSource.getConnection());
+            low.add(dataSource.getConnection());
+            try {
+                dataSource.getConnection();
+                Assert.fail();
+            } catch (SQLTimeoutException e) {
+                Assert.assertTrue(e.getMessage().contains("LOW"));
+            }
+        } finally {
+            ConnectionPriority.restore(previous);
+        }
+
+        // 普通请求拿到第 3 个后，最后一个预留给高优先级
+        Connection normal = dataSource.getConnection();
+        try {
+            dataSource.getConnection();
+            Assert.fail();
+        } catch (SQLTimeoutException e) {
+            Assert.assertTrue(e.getMessage().contains("NORMAL"));
+        }
+        previous = ConnectionPriority.set(ConnectionPriority.HIGH);
+        Connection high = dataSource.getConnection();
+        ConnectionPriority.restore(previous);
+        Assert.assertEquals(Integer.valueOf(1), poolState.getPriorityLaneActiveCounts().get("HIGH"));
+
+        // 池满时先排队的普通请求，也要排在后来的高优先级请求之后
+        CompletableFuture<Connection> waitingNormal = dataSource.getConnectionAsync();
+        previous = ConnectionPriority.set(ConnectionPriority.HIGH);
+        CompletableFuture<Connection> waitingHigh = dataSource.getConnectionAsync();
+        ConnectionPriority.restore(previous);
+        Assert.assertEquals(Integer.valueOf(1), poolState.getPriorityLaneWaitingCounts().get("HIGH"));
+        low.remove(0).close();
+        Assert.assertTrue(waitingHigh.isDone());
+        Assert.assertFalse(waitingNormal.isDone());
+        waitingHigh.get().close();
+        waitingNormal.get(5, TimeUnit.SECONDS).close();
+
+        high.close();
+        normal.close();
+        low.get(0).close();
+        Assert.assertEquals(Integer.valueOf(0), poolState.getPriorityLaneActiveCounts().get("LOW"));
+        Assert.assertEquals(Integer.valueOf(0), poolState.getPriorityLaneActiveCounts().get("NORMAL"));
+        Assert.assertEquals(Integer.valueOf(0), poolState.getPriorityLaneActiveCounts().get("HIGH"));
+        dataSource.forceCloseAll();
+    }
+
+    @Test
+    public void test_connectionState_dirtyConnectionRolledBack() throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setUrl("jdbc:h2:mem:pool_state_test;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS state_test (id INT)");
+        }
+        // 没提交就归还的连接要回滚
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO state_test VALUES (1)");
+        }
+        connection.close();
+        connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM state_test")) {
+            resultSet.next();
+            Assert.assertEquals(0, resultSet.getInt(1));
+        }
+        // 缓存的 autoCommit 跟着物理连接走
+        Assert.assertFalse(connection.getAutoCommit());
+        connection.close();
+        dataSource.forceCloseAll();
+    }
+
+    /**
+     * 按 JdbcTransaction 的用法执行一批事务，返回平均每个请求发给驱动的会话状态调用次数
+     */
+    private double runTransactions(boolean trackConnectionState) throws Exception {
+        PooledDataSource dataSource = newDataSource();
+        dataSource.setUrl("jdbc:counting:h2:mem:pool_test;DB_CLOSE_DELAY=-1");
+        dataSource.setPoolTrackConnectionState(trackConnectionState);
+        int requests = 200;
+        // 先跑一轮建好连接
+        for (int i = 0; i <= requests; i++) {
+            if (i == 1) {
+                COUNTING_DRIVER.calls.set(0);
+            }
+            JdbcTransaction transaction = new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false);
+            try (PreparedStatement statement = transaction.getConnection().prepareStatement("SELECT 1"); ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+            }
+            transaction.commit();
+            transaction.close();
+        }
+        dataSource.forceCloseAll();
+        return COUNTING_DRIVER.calls.get() / (double) requests;
+    }
+
+    private static final CountingDriver COUNTING_DRIVER = new CountingDriver();
+
+    /**
+     * 包装 H2 的驱动，统计建连次数和连接上会话状态相关的调用次数（对 MySQL 这些调用都是网络往返），down 为 true 时模拟数据库宕机
+     */
+    private static class CountingDriver implements Driver {
+
+        private static final List<String> COUNTED = Arrays.asList("setAutoCommit", "getAutoCommit", "setTransactionIsolation", "getTransactionIsolation",
+                "setReadOnly", "isReadOnly", "setCatalog", "getCatalog", "commit", "rollback");
+
+        private final Driver h2 = new org.h2.Driver();
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private final AtomicInteger connects = new AtomicInteger();
+
+        private volatile boolean down;
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            connects.incrementAndGet();
+            if (down) {
+                throw new SQLException("Connection refused: database is down");
+            }
+            Connection connection = h2.connect(url.replace("jdbc:counting:", "jdbc:"), info);
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                if (COUNTED.contains(method.getName())) {
+                    calls.incrementAndGet();
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:counting:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    private String currentUser(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT CURRENT_USER()")) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    private void awaitIdleCount(PooledDataSource dataSource, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dataSource.getPoolState().getIdleConnectionCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(expected, dataSource.getPoolState().getIdleConnectionCount());
+    }
+
+    /**
+     * 压测用的连接池和一组常驻线程，线程跨轮次复用，线程亲和才有意义
+     */
+    private class Contention {
+
+        private final PooledDataSource dataSource = newDataSource();
+        private final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+
+        private Contention(boolean concurrentBag) {
+            dataSource.setPoolConcurrentBagEnabled(concurrentBag);
+            dataSource.setPoolMaximumActiveConnections(CONNECTIONS);
+            dataSource.setPoolMaximumIdleConnections(CONNECTIONS);
+        }
+
+        /**
+         * 跑一轮，返回吞吐 ops/s
+         */
+        private long run() throws Exception {
+            CountDownLatch ready = new CountDownLatch(THREADS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                // 每个任务都在门闩上等，THREADS 个任务正好每个线程分到一个
+                futures.add(workers.submit(() -> {
+                    ready.countDown();
+                    start.await();
+                    for (int j = 0; j < LOOPS; j++) {
+                        Connection connection = dataSource.getConnection();
+                        connection.getAutoCommit();
+                        connection.close();
+                    }
+                    return null;
+                }));
+            }
+            ready.await();
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - begin;
+            return (long) THREADS * LOOPS * 1_000_000_000L / elapsed;
+        }
+
+        private void close() {
+            workers.shutdownNow();
+            dataSource.close();
+        }
+    }
+
+    private PooledDataSource newDataSource() {
+        PooledDataSource dataSource = new PooledDataSource();
+        dataSource.setDriver("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:pool_test;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        return dataSource;
+    }
+
+}
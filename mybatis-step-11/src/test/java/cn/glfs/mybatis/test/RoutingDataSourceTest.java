@@ -0,0 +1,248 @@
+package cn.glfs.mybatis.test;
+
+import ch.qos.logback.classic.Level;
+import cn.glfs.mybatis.datasource.pooled.PooledDataSource;
+import cn.glfs.mybatis.datasource.routing.DataSourceRoute;
+import cn.glfs.mybatis.datasource.routing.RoutingDataSource;
+import cn.glfs.mybatis.datasource.routing.RoutingTarget;
+import cn.glfs.mybatis.builder.StaticSqlSource;
+import cn.glfs.mybatis.executor.Executor;
+import cn.glfs.mybatis.executor.QueryHedger;
+import cn.glfs.mybatis.executor.SimpleExecutor;
+import cn.glfs.mybatis.mapping.Environment;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.mapping.SqlCommandType;
+import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.LocalCacheScope;
+import cn.glfs.mybatis.session.TransactionIsolationLevel;
+import cn.glfs.mybatis.transaction.Transaction;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransaction;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 读写分离路由测试，主库和从库都是 H2 内存库，每个库里有一张 node 表记录自己的名字
+ */
+public class RoutingDataSourceTest {
+
+    @Before
+    public void init() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(PooledDataSource.class)).setLevel(Level.WARN);
+    }
+
+    @Test
+    public void test_replicaReads_weightedAndFailover() throws Exception {
+        PooledDataSource replicaA = newDataSource("replica_a");
+        RoutingDataSource dataSource = new RoutingDataSource(newDataSource("primary"));
+        dataSource.addReplica("replica_a", replicaA, 3);
+        dataSource.addReplica("replica_b", newDataSource("replica_b"), 1);
+        dataSource.setReplicaRetryInterval(100);
+
+        // 没有指定路由时走主库
+        Assert.assertEquals("primary", nodeOf(dataSource));
+
+        // 从库按 3:1 分担读
+        Map<String, Integer> counts = new HashMap<>();
+        DataSourceRoute previous = DataSourceRoute.set(DataSourceRoute.REPLICA);
+        try {
+            for (int i = 0; i < 400; i++) {
+                counts.merge(nodeOf(dataSource), 1, Integer::sum);
+            }
+            Assert.assertNull(counts.get("primary"));
+            Assert.assertTrue(counts.toString(), counts.get("replica_a") > 2 * counts.get("replica_b"));
+
+            // replica_a 宕机：标记为不可用，读全部落到 replica_b
+            replicaA.setUrl("jdbc:h2:mem:routing_missing;IFEXISTS=TRUE");
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals("replica_b", nodeOf(dataSource));
+            }
+            RoutingTarget targetA = dataSource.getReplicas().get(0);
+            Assert.assertFalse(targetA.isAvailable());
+            Assert.assertEquals(1, targetA.getFailureCount());
+
+            // 恢复后过了重试间隔重新分担读
+            replicaA.setUrl("jdbc:h2:mem:routing_replica_a;DB_CLOSE_DELAY=-1");
+            Thread.sleep(150);
+            boolean servedByA = false;
+            for (int i = 0; i < 100 && !servedByA; i++) {
+                servedByA = "replica_a".equals(nodeOf(dataSource));
+            }
+            Assert.assertTrue(servedByA);
+
+            // 从库全部不可用时回退到主库
+            RoutingDataSource noReplica = new RoutingDataSource(newDataSource("primary"));
+            PooledDataSource broken = newDataSource("replica_a");
+            broken.setUrl("jdbc:h2:mem:routing_missing;IFEXISTS=TRUE");
+            noReplica.addReplica("broken", broken, 1);
+            Assert.assertEquals("primary", nodeOf(noReplica));
+            noReplica.setFallbackToPrimary(false);
+            try {
+                nodeOf(noReplica);
+                Assert.fail();
+            } catch (SQLException e) {
+                Assert.assertTrue(e.getMessage().contains("No replica"));
+            }
+        } finally {
+            DataSourceRoute.restore(previous);
+        }
+    }
+
+    @Test
+    public void test_executorRouting_statementAndSessionOverrides() throws Exception {
+        RoutingDataSource dataSource = new RoutingDataSource(newDataSource("primary"));
+        dataSource.addReplica("replica_a", newDataSource("replica_a"), 1);
+        Configuration configuration = new Configuration();
+        MappedStatement select = new MappedStatement.Builder(configuration, "test.select", SqlCommandType.SELECT, null, null).build();
+        MappedStatement update = new MappedStatement.Builder(configuration, "test.update", SqlCommandType.UPDATE, null, null).build();
+        MappedStatement selectOnPrimary = new MappedStatement.Builder(configuration, "test.selectOnPrimary", SqlCommandType.SELECT, null, null)
+                .dataSourceRoute(DataSourceRoute.PRIMARY).build();
+
+        RoutingExecutor executor = new RoutingExecutor(configuration, new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false));
+        Assert.assertEquals("replica_a", executor.nodeOf(select));
+        Assert.assertEquals("primary", executor.nodeOf(selectOnPrimary));
+        // 写事务中的读走主库，提交后恢复
+        Assert.assertEquals("primary", executor.nodeOf(update));
+        Assert.assertEquals("primary", executor.nodeOf(select));
+        executor.commit(false);
+        Assert.assertEquals("replica_a", executor.nodeOf(select));
+        // 会话指定的路由优先
+        executor.setDataSourceRoute(DataSourceRoute.PRIMARY);
+        Assert.assertEquals("primary", executor.nodeOf(select));
+        Assert.assertNull(DataSourceRoute.current());
+    }
+
+    @Test
+    public void test_hedgedRead_slowReplicaAndBudget() throws Exception {
+        RoutingDataSource dataSource = new RoutingDataSource(newDataSource("primary"));
+        // 几乎总是先选 replica_a，对冲只能发给 replica_b；先选中 replica_b 时它作为第一次执行胜出，不算对冲胜出，权重差要足够大
+        dataSource.addReplica("replica_a", newDataSource("replica_a"), 1000000);
+        dataSource.addReplica("replica_b", newDataSource("replica_b"), 1);
+        Configuration configuration = new Configuration();
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        // 同一条查询反复执行，每次都要到从库
+        configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+        QueryHedger hedger = configuration.getQueryHedger();
+        hedger.setHedgeBudgetRatio(1);
+        MappedStatement select = new MappedStatement.Builder(configuration, "test.selectNode", SqlCommandType.SELECT,
+                new StaticSqlSource(configuration, "SELECT SLOW(name) AS \"name\" FROM node"), Node.class).hedged(true).build();
+        SimpleExecutor executor = new SimpleExecutor(configuration, new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false));
+
+        // 攒够样本，统计出正常耗时
+        for (int i = 0; i < hedger.getHedgeMinimumSamples(); i++) {
+            Assert.assertNotNull(nodeOf(executor, select));
+        }
+        Assert.assertEquals(0, hedger.getHedgedCount());
+
+        // replica_a 变慢：超过 p95 后对冲到 replica_b，先返回的结果胜出，不用等 replica_a
+        SLOW_NODES.put("replica_a", 1000L);
+        try {
+            for (int i = 0; i < 5; i++) {
+                long start = System.currentTimeMillis();
+                Assert.assertEquals("replica_b", nodeOf(executor, select));
+                Assert.assertTrue(System.currentTimeMillis() - start < 500);
+            }
+            Assert.assertEquals(5, hedger.getHedgedCount());
+            Assert.assertEquals(5, hedger.getHedgeWinCount());
+
+            // 预算用完后不再对冲，只能等慢的从库
+            SLOW_NODES.put("replica_a", 200L);
+            hedger.setHedgeBudgetRatio(0);
+            long hedged = hedger.getHedgedCount();
+            int slowAnswers = 0;
+            for (int i = 0; i < hedger.getHedgeBudgetBurst() + 2; i++) {
+                if ("replica_a".equals(nodeOf(executor, select))) {
+                    slowAnswers++;
+                }
+            }
+            Assert.assertTrue(hedger.getHedgedCount() - hedged <= hedger.getHedgeBudgetBurst());
+            Assert.assertTrue(slowAnswers > 0);
+            Assert.assertTrue(hedger.getBudgetExhaustedCount() > 0);
+        } finally {
+            SLOW_NODES.clear();
+        }
+    }
+
+    // 节点名 -> SLOW 函数的延迟（毫秒）
+    private static final Map<String, Long> SLOW_NODES = new ConcurrentHashMap<>();
+
+    /**
+     * H2 自定义函数，模拟慢从库
+     */
+    public static String slow(String node) throws InterruptedException {
+        Long delay = SLOW_NODES.get(node);
+        if (delay != null) {
+            Thread.sleep(delay);
+        }
+        return node;
+    }
+
+    public static class Node {
+
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+    }
+
+    private static String nodeOf(SimpleExecutor executor, MappedStatement ms) {
+        List<Node> nodes = executor.query(ms, null, Executor.NO_RESULT_HANDLER, ms.getSqlSource().getBoundSql(null));
+        return nodes.get(0).getName();
+    }
+
+    private static class RoutingExecutor extends SimpleExecutor {
+
+        RoutingExecutor(Configuration configuration, Transaction transaction) {
+            super(configuration, transaction);
+        }
+
+        String nodeOf(MappedStatement ms) throws SQLException {
+            return RoutingDataSourceTest.nodeOf(getConnection(ms));
+        }
+
+    }
+
+    private static String nodeOf(RoutingDataSource dataSource) throws SQLException {
+        return nodeOf(dataSource.getConnection());
+    }
+
+    private static String nodeOf(Connection connection) throws SQLException {
+        try (Connection c = connection; Statement statement = c.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT name FROM node")) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    private PooledDataSource newDataSource(String node) throws SQLException {
+        PooledDataSource dataSource = new PooledDataSource();
+        dataSource.setDriver("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:routing_" + node + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS node (name VARCHAR(32))");
+            statement.execute("DELETE FROM node");
+            statement.execute("INSERT INTO node VALUES ('" + node + "')");
+            statement.execute("CREATE ALIAS IF NOT EXISTS SLOW FOR '" + RoutingDataSourceTest.class.getName() + ".slow'");
+        }
+        return dataSource;
+    }
+
+}
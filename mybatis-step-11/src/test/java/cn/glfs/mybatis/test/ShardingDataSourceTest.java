@@ -0,0 +1,230 @@
+package cn.glfs.mybatis.test;
+
+import ch.qos.logback.classic.Level;
+import cn.glfs.mybatis.builder.SqlSourceBuilder;
+import cn.glfs.mybatis.datasource.pooled.PooledDataSource;
+import cn.glfs.mybatis.datasource.sharding.HashShardingStrategy;
+import cn.glfs.mybatis.datasource.sharding.RangeShardingStrategy;
+import cn.glfs.mybatis.datasource.sharding.ShardingDataSource;
+import cn.glfs.mybatis.datasource.sharding.ShardingRule;
+import cn.glfs.mybatis.executor.Executor;
+import cn.glfs.mybatis.executor.ScatterGather;
+import cn.glfs.mybatis.executor.SimpleExecutor;
+import cn.glfs.mybatis.mapping.Environment;
+import cn.glfs.mybatis.mapping.MappedStatement;
+import cn.glfs.mybatis.mapping.SqlCommandType;
+import cn.glfs.mybatis.session.Configuration;
+import cn.glfs.mybatis.session.LocalCacheScope;
+import cn.glfs.mybatis.session.TransactionIsolationLevel;
+import cn.glfs.mybatis.test.po.User;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransaction;
+import cn.glfs.mybatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 分库测试，每个分片是一个 H2 内存库，分片 i 里的物理表为 t_user_i
+ */
+public class ShardingDataSourceTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    @Before
+    public void init() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(PooledDataSource.class)).setLevel(Level.WARN);
+    }
+
+    @Test
+    public void test_hashSharding_routesByKeyAndRewritesTable() throws Exception {
+        ShardingDataSource dataSource = newShardingDataSource("hash");
+        for (long id = 1; id <= 9; id++) {
+            insert(dataSource, (int) (id % SHARD_COUNT), id);
+        }
+        Configuration configuration = newConfiguration(dataSource, new ShardingRule("id", new HashShardingStrategy(), "t_user"));
+        SimpleExecutor executor = new SimpleExecutor(configuration, new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false));
+
+        // 参数对象上的分片键
+        MappedStatement byUser = select(configuration, "test.user.queryById", User.class);
+        for (long id = 1; id <= 9; id++) {
+            User parameter = new User();
+            parameter.setId(id);
+            List<User> users = executor.query(byUser, parameter, Executor.NO_RESULT_HANDLER, byUser.getSqlSource().getBoundSql(parameter));
+            Assert.assertEquals(1, users.size());
+            Assert.assertEquals("user-" + id + "@shard-" + id % SHARD_COUNT, users.get(0).getUserName());
+        }
+        // 参数是简单类型时直接作为分片键
+        MappedStatement byId = select(configuration, "test.user.queryByLong", Long.class);
+        List<User> users = executor.query(byId, 5L, Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(5L));
+        Assert.assertEquals("user-5@shard-2", users.get(0).getUserName());
+        for (ShardingDataSource.Shard shard : dataSource.getShards()) {
+            Assert.assertTrue(shard.getRoutedCount() > 0);
+        }
+
+        // 没有分片键时在所有分片上执行，按分片顺序拼接
+        MappedStatement queryAll = new MappedStatement.Builder(configuration, "test.user.queryAll", SqlCommandType.SELECT,
+                new SqlSourceBuilder(configuration).parse("SELECT \"id\", \"userName\" FROM t_user ORDER BY \"id\"", User.class, null), User.class).build();
+        List<User> all = executor.query(queryAll, new User(), Executor.NO_RESULT_HANDLER, queryAll.getSqlSource().getBoundSql(new User()));
+        Assert.assertEquals(9, all.size());
+        Assert.assertEquals(Long.valueOf(3), all.get(0).getId());
+    }
+
+    @Test
+    public void test_scatterGather_seesUncommittedWrites() throws Exception {
+        ShardingDataSource dataSource = newShardingDataSource("dirty");
+        for (long id = 1; id <= 3; id++) {
+            insert(dataSource, (int) (id % SHARD_COUNT), id);
+        }
+        Configuration configuration = newConfiguration(dataSource, new ShardingRule("id", new HashShardingStrategy(), "t_user"));
+        SimpleExecutor executor = new SimpleExecutor(configuration, new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false));
+        MappedStatement insert = new MappedStatement.Builder(configuration, "test.user.insert", SqlCommandType.INSERT,
+                new SqlSourceBuilder(configuration).parse("INSERT INTO t_user VALUES (#{id}, #{userName})", User.class, null), null).build();
+        MappedStatement queryAll = new MappedStatement.Builder(configuration, "test.user.queryAll", SqlCommandType.SELECT,
+                new SqlSourceBuilder(configuration).parse("SELECT \"id\", \"userName\" FROM t_user ORDER BY \"id\"", User.class, null), User.class).build();
+
+        User user = new User();
+        user.setId(100L);
+        user.setUserName("uncommitted");
+        Assert.assertEquals(1, executor.update(insert, user));
+
+        // 事务还没提交，扫描各分片要用事务里的连接才看得到这一行
+        List<User> all = executor.query(queryAll, new User(), Executor.NO_RESULT_HANDLER, queryAll.getSqlSource().getBoundSql(new User()));
+        Assert.assertEquals(4, all.size());
+        Assert.assertTrue(all.stream().anyMatch(u -> "uncommitted".equals(u.getUserName())));
+
+        executor.rollback(true);
+        all = executor.query(queryAll, new User(), Executor.NO_RESULT_HANDLER, queryAll.getSqlSource().getBoundSql(new User()));
+        Assert.assertEquals(3, all.size());
+        executor.close(false);
+    }
+
+    @Test
+    public void test_scatterGather_orderedMergeLimitAndTimeout() throws Exception {
+        ShardingDataSource dataSource = newShardingDataSource("scatter");
+        for (long id = 1; id <= 30; id++) {
+            insert(dataSource, (int) (id % SHARD_COUNT), id);
+        }
+        Configuration configuration = newConfiguration(dataSource, new ShardingRule("id", new HashShardingStrategy(), "t_user"));
+        SimpleExecutor executor = new SimpleExecutor(configuration, new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false));
+        String sql = "SELECT \"id\", SLOW(\"userName\") AS \"userName\" FROM t_user ORDER BY \"id\" ";
+
+        // 各分片有序，k 路归并后全局有序
+        MappedStatement ascending = new MappedStatement.Builder(configuration, "test.user.queryAll", SqlCommandType.SELECT,
+                new SqlSourceBuilder(configuration).parse(sql, User.class, null), User.class).mergeOrderBy("id").build();
+        List<User> users = executor.query(ascending, null, Executor.NO_RESULT_HANDLER, ascending.getSqlSource().getBoundSql(null));
+        Assert.assertEquals(30, users.size());
+        for (int i = 0; i < users.size(); i++) {
+            Assert.assertEquals(Long.valueOf(i + 1), users.get(i).getId());
+        }
+
+        // 跨分片 LIMIT：全局最大的 4 个
+        MappedStatement top = new MappedStatement.Builder(configuration, "test.user.queryTop", SqlCommandType.SELECT,
+                new SqlSourceBuilder(configuration).parse(sql + "DESC LIMIT 4", User.class, null), User.class)
+                .mergeOrderBy("id DESC").mergeLimit(4).build();
+        users = executor.query(top, null, Executor.NO_RESULT_HANDLER, top.getSqlSource().getBoundSql(null));
+        Assert.assertEquals(4, users.size());
+        Assert.assertEquals(Long.valueOf(30), users.get(0).getId());
+        Assert.assertEquals(Long.valueOf(27), users.get(3).getId());
+
+        // 一个分片变慢，整个查询在超时时间内失败，不会一直等
+        ScatterGather scatterGather = configuration.getScatterGather();
+        scatterGather.setScatterTimeout(200);
+        slowShard = "@shard-1";
+        try {
+            long start = System.currentTimeMillis();
+            executor.query(ascending, null, Executor.NO_RESULT_HANDLER, ascending.getSqlSource().getBoundSql(null));
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLTimeoutException);
+            Assert.assertEquals(1, scatterGather.getTimeoutCount());
+        } finally {
+            slowShard = null;
+        }
+    }
+
+    // userName 以此结尾的行在 SLOW 函数里停顿
+    private static volatile String slowShard;
+
+    /**
+     * H2 自定义函数，模拟慢分片
+     */
+    public static String slow(String userName) throws InterruptedException {
+        String shard = slowShard;
+        if (shard != null && userName.endsWith(shard)) {
+            Thread.sleep(100);
+        }
+        return userName;
+    }
+
+    @Test
+    public void test_rangeSharding() throws Exception {
+        ShardingDataSource dataSource = newShardingDataSource("range");
+        long[] ids = {50, 100, 150, 250};
+        int[] shards = {0, 1, 1, 2};
+        for (int i = 0; i < ids.length; i++) {
+            insert(dataSource, shards[i], ids[i]);
+        }
+        Configuration configuration = newConfiguration(dataSource, new ShardingRule("id", new RangeShardingStrategy(100, 200), "t_user"));
+        SimpleExecutor executor = new SimpleExecutor(configuration, new JdbcTransaction(dataSource, TransactionIsolationLevel.READ_COMMITTED, false));
+        MappedStatement byId = select(configuration, "test.user.queryByLong", Long.class);
+        for (int i = 0; i < ids.length; i++) {
+            List<User> users = executor.query(byId, ids[i], Executor.NO_RESULT_HANDLER, byId.getSqlSource().getBoundSql(ids[i]));
+            Assert.assertEquals("user-" + ids[i] + "@shard-" + shards[i], users.get(0).getUserName());
+        }
+
+        // 上界个数和分片数对不上
+        try {
+            new RangeShardingStrategy(100).shardOf(1L, SHARD_COUNT);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("needs 2 shards"));
+        }
+    }
+
+    private Configuration newConfiguration(ShardingDataSource dataSource, ShardingRule rule) {
+        Configuration configuration = new Configuration();
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.setShardingRule("test.user", rule);
+        // 同一条查询反复执行，每次都要到分片
+        configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+        return configuration;
+    }
+
+    private MappedStatement select(Configuration configuration, String id, Class<?> parameterType) {
+        String sql = "SELECT \"id\", \"userName\" FROM t_user WHERE \"id\" = #{id}";
+        return new MappedStatement.Builder(configuration, id, SqlCommandType.SELECT,
+                new SqlSourceBuilder(configuration).parse(sql, parameterType, null), User.class).build();
+    }
+
+    private void insert(ShardingDataSource dataSource, int shard, long id) throws SQLException {
+        try (Connection connection = dataSource.getShards().get(shard).getDataSource().getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO t_user_" + shard + " VALUES (" + id + ", 'user-" + id + "@shard-" + shard + "')");
+        }
+    }
+
+    private ShardingDataSource newShardingDataSource(String name) throws SQLException {
+        ShardingDataSource dataSource = new ShardingDataSource();
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            PooledDataSource shard = new PooledDataSource();
+            shard.setDriver("org.h2.Driver");
+            shard.setUrl("jdbc:h2:mem:sharding_" + name + "_" + i + ";DB_CLOSE_DELAY=-1");
+            shard.setUsername("sa");
+            shard.setPassword("");
+            try (Connection connection = shard.getConnection(); Statement statement = connection.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS t_user_" + i);
+                statement.execute("CREATE TABLE t_user_" + i + " (\"id\" BIGINT PRIMARY KEY, \"userName\" VARCHAR(64))");
+                statement.execute("CREATE ALIAS IF NOT EXISTS SLOW FOR '" + ShardingDataSourceTest.class.getName() + ".slow'");
+            }
+            dataSource.addShard("shard-" + i, shard);
+        }
+        return dataSource;
+    }
+
+}